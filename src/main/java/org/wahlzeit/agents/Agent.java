@@ -22,12 +22,13 @@ package org.wahlzeit.agents;
 
 import org.wahlzeit.services.LogBuilder;
 
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * An Agent executes background tasks.
+ * An Agent executes background tasks. Agents are started by cron jobs or as tasks of a TaskQueue, see AgentServlet.
  */
-public abstract class Agent {
+public abstract class Agent implements TaskHandler {
 
 	private static Logger log = Logger.getLogger(Agent.class.getName());
 
@@ -68,18 +69,29 @@ public abstract class Agent {
 	public void run() {
 		synchronized (Agent.class) {
 			String agentName = "agent" + id++;
-			log.config(LogBuilder.createSystemMessage().addAction("started new agent").addParameter("name", agentName)
-					.addParameter("ID", id).toString());
+			LogBuilder.createSystemMessage(log, Level.CONFIG).
+					addAction("started new agent").addParameter("name", agentName)
+					.addParameter("ID", id).log();
 		}
 
 		try {
 			doRun();
 		} catch (Exception e) {
-			log.config(LogBuilder.createSystemMessage().addParameter("agent name", name).addException(
-					"Problem when executing task", e).toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).addParameter("agent name", name).addException(
+					"Problem when executing task", e).log();
 		}
 	}
 
+	/**
+	 * Runs the agent as a task of a LocalTaskQueue
+	 *
+	 * @methodtype command
+	 */
+	@Override
+	public void handleTask(String paramValue) {
+		run();
+	}
+
 	/**
 	 * @methodproperty hook
 	 */
@@ -24,6 +24,7 @@ import org.wahlzeit.services.LogBuilder;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -33,6 +34,11 @@ public class AgentManager {
 
 	private static Logger log = Logger.getLogger(AgentManager.class.getName());
 
+	/**
+	 * Agents are started by requests to this URL followed by their name; see web.xml and AgentServlet
+	 */
+	public static final String URL_PREFIX = "/agents/";
+
 	/**
 	 *
 	 */
@@ -43,6 +49,8 @@ public class AgentManager {
 	 */
 	protected static void initInstance() {
 		getInstance().addAgent(new NotifyUsersAboutPraiseAgent());
+		getInstance().addAgent(new WarmUpImageCacheAgent());
+		getInstance().addAgent(new CompactImageSegmentsAgent());
 	}
 
 	/**
@@ -84,7 +92,14 @@ public class AgentManager {
 			name = agent.getName();
 			agents.put(name, agent);
 		}
-		log.config(LogBuilder.createSystemMessage().addMessage("agent added").addParameter("name", name).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("agent added").addParameter("name", name).log();
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public static String getUrl(String agentName) {
+		return URL_PREFIX + agentName;
 	}
 
 	/**
@@ -1,15 +1,9 @@
 package org.wahlzeit.agents;
 
-import com.google.appengine.api.taskqueue.Queue;
-import com.google.appengine.api.taskqueue.QueueFactory;
-import com.google.appengine.api.taskqueue.RetryOptions;
-import com.google.appengine.api.taskqueue.TaskOptions;
 import org.wahlzeit.model.Photo;
 
 import java.util.logging.Logger;
 
-import static com.google.appengine.api.taskqueue.RetryOptions.Builder.withTaskRetryLimit;
-
 /**
  * Class to combine all calls for async task to use Task API from Google.
  * 
@@ -19,6 +13,35 @@ public class AsyncTaskExecutor {
 
 	private static final Logger log = Logger.getLogger(AsyncTaskExecutor.class.getName());
 
+	/**
+	 *
+	 */
+	protected static final int RETRY_LIMIT = 3;
+
+	/**
+	 * Agents are identified by their URL; the parameter only documents the task
+	 */
+	protected static final String AGENT_PARAM_NAME = "agent";
+
+	/**
+	 *
+	 */
+	protected static TaskQueue taskQueue = new GaeTaskQueue();
+
+	/**
+	 * @methodtype get
+	 */
+	public static TaskQueue getTaskQueue() {
+		return taskQueue;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public static void setTaskQueue(TaskQueue newTaskQueue) {
+		taskQueue = newTaskQueue;
+	}
+
 	/**
 	 * @methodtype command
 	 *
@@ -26,8 +49,26 @@ public class AsyncTaskExecutor {
 	 */
 	public static void savePhotoAsync(String photoId) {
 		log.info("Calling async push task to persist PhotoId " + photoId);
-		Queue queue = QueueFactory.getDefaultQueue();
-		RetryOptions retryOptions = withTaskRetryLimit(3);
-		queue.add(TaskOptions.Builder.withUrl("/persistPhoto").param(Photo.ID, photoId).retryOptions(retryOptions));
+		taskQueue.addTask(PersistPhotoAgent.URL, Photo.ID, photoId, RETRY_LIMIT);
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Starts a task in the default queue to scale and then save the newly uploaded photo with the specified ID.
+	 */
+	public static void processPhotoAsync(String photoId) {
+		log.info("Calling async push task to process uploaded PhotoId " + photoId);
+		taskQueue.addTask(ProcessPhotoAgent.URL, Photo.ID, photoId, RETRY_LIMIT);
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Starts a task in the default queue that runs the agent with the specified name once, without retries.
+	 */
+	public static void startAgentAsync(String agentName) {
+		log.info("Calling async push task to start agent " + agentName);
+		taskQueue.addTask(AgentManager.getUrl(agentName), AGENT_PARAM_NAME, agentName, 0);
 	}
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.agents;
+
+import org.wahlzeit.model.Photo;
+import org.wahlzeit.model.PhotoManager;
+import org.wahlzeit.model.PhotoSize;
+import org.wahlzeit.model.persistence.CachingImageStorage;
+import org.wahlzeit.model.persistence.ImageStorage;
+import org.wahlzeit.model.persistence.SegmentImageStorage;
+import org.wahlzeit.services.LogBuilder;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An agent that reclaims the space of deleted photos in a SegmentImageStorage: it removes their images from the
+ * index and then compacts mostly dead segments. Does nothing for other image storages.
+ */
+public class CompactImageSegmentsAgent extends Agent {
+
+	public static final String NAME = "compactImageSegments";
+
+	private static final Logger log = Logger.getLogger(CompactImageSegmentsAgent.class.getName());
+
+	public CompactImageSegmentsAgent() {
+		initialize(NAME);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void doRun() {
+		ImageStorage imageStorage = ImageStorage.getInstance();
+		CachingImageStorage cache = null;
+		if (imageStorage instanceof CachingImageStorage) {
+			cache = (CachingImageStorage) imageStorage;
+			imageStorage = cache.getStorage();
+		}
+		if (!(imageStorage instanceof SegmentImageStorage)) {
+			return;
+		}
+
+		SegmentImageStorage segmentStorage = (SegmentImageStorage) imageStorage;
+		for (Photo photo : PhotoManager.getInstance().getPhotoCache()) {
+			if (photo.getStatus().isDeleted()) {
+				for (PhotoSize photoSize : PhotoSize.values()) {
+					segmentStorage.removeImage(photo.getIdAsString(), photoSize.asInt());
+					if (cache != null) {
+						cache.evictImage(photo.getIdAsString(), photoSize.asInt());
+					}
+				}
+			}
+		}
+
+		try {
+			segmentStorage.compact(SegmentImageStorage.DEFAULT_COMPACTION_THRESHOLD);
+		} catch (IOException e) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addException("Could not compact image segments", e).log();
+		}
+	}
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.agents;
+
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+
+import static com.google.appengine.api.taskqueue.RetryOptions.Builder.withTaskRetryLimit;
+
+/**
+ * TaskQueue that adds push tasks to the default App Engine task queue (see queue.xml).
+ */
+public class GaeTaskQueue implements TaskQueue {
+
+	@Override
+	public void addTask(String url, String paramName, String paramValue, int retryLimit) {
+		Queue queue = QueueFactory.getDefaultQueue();
+		queue.add(TaskOptions.Builder.withUrl(url).param(paramName, paramValue).
+				retryOptions(withTaskRetryLimit(retryLimit)));
+	}
+
+}
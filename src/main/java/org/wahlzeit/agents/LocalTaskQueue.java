@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.agents;
+
+import com.google.apphosting.api.ApiProxy;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Work;
+import org.wahlzeit.services.LogBuilder;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In-process stand-in for the App Engine task queue, for running off-platform and in tests. Tasks are passed to the
+ * TaskHandler registered for their URL and run on a bounded pool of daemon threads. When the queue is full, the
+ * thread adding a task runs it itself, which slows down producers instead of dropping tasks. Tasks run with the App
+ * Engine API environment of the thread that added them, so they can reach the Datastore like a request would.
+ *
+ * A failed task is retried after a delay that doubles with every attempt, like the App Engine task queue does, so a
+ * failing task does not hog a worker thread or hammer the resource it failed on.
+ *
+ * Tasks are not persisted, so pending tasks are lost on shutdown.
+ */
+public class LocalTaskQueue implements TaskQueue {
+
+	private static final Logger log = Logger.getLogger(LocalTaskQueue.class.getName());
+
+	/**
+	 *
+	 */
+	public static final long DEFAULT_INITIAL_RETRY_DELAY = 100; // ms
+	public static final long MAX_RETRY_DELAY = 60 * 1000; // ms
+
+	/**
+	 * URL -> handler
+	 */
+	protected final Map<String, TaskHandler> handlers = new ConcurrentHashMap<String, TaskHandler>();
+
+	/**
+	 *
+	 */
+	protected final ThreadPoolExecutor executor;
+
+	/**
+	 * Hands retries back to the executor once their delay has passed
+	 */
+	protected final ScheduledExecutorService retryScheduler;
+
+	/**
+	 *
+	 */
+	protected final long initialRetryDelay;
+
+	/**
+	 * Tasks added but not done yet, including those waiting for a retry; guarded by this
+	 */
+	protected int noPendingTasks = 0;
+
+	/**
+	 *
+	 */
+	public LocalTaskQueue(int noThreads, int queueSize) {
+		this(noThreads, queueSize, DEFAULT_INITIAL_RETRY_DELAY);
+	}
+
+	/**
+	 *
+	 */
+	public LocalTaskQueue(int noThreads, int queueSize, long initialRetryDelay) {
+		this.initialRetryDelay = initialRetryDelay;
+
+		final AtomicInteger noCreatedThreads = new AtomicInteger();
+		executor = new ThreadPoolExecutor(noThreads, noThreads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread result = new Thread(runnable, "task-queue-" + noCreatedThreads.incrementAndGet());
+				result.setDaemon(true);
+				return result;
+			}
+		}, new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.allowCoreThreadTimeOut(true);
+
+		retryScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread result = new Thread(runnable, "task-queue-retries");
+				result.setDaemon(true);
+				return result;
+			}
+		});
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setHandler(String url, TaskHandler handler) {
+		handlers.put(url, handler);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getQueueLength() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * Returns the delay before the retry following the given (zero-based) failed attempt
+	 *
+	 * @methodtype get
+	 */
+	public long getRetryDelay(int attempt) {
+		long result = initialRetryDelay << Math.min(attempt, 30);
+		return Math.min(result, MAX_RETRY_DELAY);
+	}
+
+	@Override
+	public void addTask(String url, String paramName, String paramValue, int retryLimit) {
+		TaskHandler handler = handlers.get(url);
+		if (handler == null) {
+			throw new IllegalArgumentException("no task handler for " + url);
+		}
+
+		synchronized (this) {
+			noPendingTasks++;
+		}
+		executeAttempt(handler, url, paramValue, retryLimit, 0, ApiProxy.getCurrentEnvironment());
+	}
+
+	/**
+	 * Runs an attempt of the task on the pool; if it fails and retries are left, the next one is scheduled.
+	 *
+	 * @methodtype command
+	 */
+	protected void executeAttempt(final TaskHandler handler, final String url, final String paramValue,
+			final int retryLimit, final int attempt, final ApiProxy.Environment environment) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				ApiProxy.Environment previousEnvironment = ApiProxy.getCurrentEnvironment();
+				if (environment != null) {
+					ApiProxy.setEnvironmentForCurrentThread(environment);
+				}
+				boolean isDone = true;
+				try {
+					isDone = runTask(handler, url, paramValue, attempt) || (attempt >= retryLimit);
+				} finally {
+					if (previousEnvironment != null) {
+						ApiProxy.setEnvironmentForCurrentThread(previousEnvironment);
+					} else {
+						ApiProxy.clearEnvironmentForCurrentThread();
+					}
+				}
+
+				if (isDone) {
+					doneTask();
+				} else {
+					scheduleRetry(handler, url, paramValue, retryLimit, attempt + 1, environment);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void scheduleRetry(final TaskHandler handler, final String url, final String paramValue,
+			final int retryLimit, final int attempt, final ApiProxy.Environment environment) {
+		retryScheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				executeAttempt(handler, url, paramValue, retryLimit, attempt, environment);
+			}
+		}, getRetryDelay(attempt - 1), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Runs the task in its own Objectify context, as the worker threads are not covered by the ObjectifyFilter.
+	 *
+	 * @methodtype boolean-query
+	 */
+	protected boolean runTask(final TaskHandler handler, String url, final String paramValue, int attempt) {
+		try {
+			ObjectifyService.run(new Work<Void>() {
+				@Override
+				public Void run() {
+					try {
+						handler.handleTask(paramValue);
+					} catch (RuntimeException ex) {
+						throw ex;
+					} catch (Exception ex) {
+						throw new TaskFailedException(ex);
+					}
+					return null;
+				}
+			});
+			return true;
+		} catch (Exception ex) {
+			Throwable cause = (ex instanceof TaskFailedException) ? ex.getCause() : ex;
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addParameter("task", url).
+					addParameter("parameter", paramValue).
+					addParameter("attempt", attempt + 1).
+					addException("task failed", cause).log();
+			return false;
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected synchronized void doneTask() {
+		noPendingTasks--;
+		if (noPendingTasks == 0) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Waits until all tasks added so far are done, including their retries; no tasks may be added afterwards.
+	 *
+	 * @methodtype command
+	 */
+	public boolean shutDown(long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		synchronized (this) {
+			long remaining = timeoutMillis;
+			while ((noPendingTasks > 0) && (remaining > 0)) {
+				wait(remaining);
+				remaining = deadline - System.currentTimeMillis();
+			}
+		}
+
+		retryScheduler.shutdownNow();
+		executor.shutdown();
+		long remaining = Math.max(deadline - System.currentTimeMillis(), 0);
+		return executor.awaitTermination(remaining, TimeUnit.MILLISECONDS) && (getNoPendingTasks() == 0);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int getNoPendingTasks() {
+		return noPendingTasks;
+	}
+
+	/**
+	 * Carries a checked exception of a TaskHandler out of the Objectify Work
+	 */
+	protected static class TaskFailedException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 *
+		 */
+		protected TaskFailedException(Exception cause) {
+			super(cause);
+		}
+	}
+
+}
@@ -4,7 +4,7 @@ import com.google.apphosting.api.ApiProxy;
 import org.wahlzeit.model.LanguageConfigs;
 import org.wahlzeit.model.ModelConfig;
 import org.wahlzeit.model.Photo;
-import org.wahlzeit.model.PhotoId;
+import org.wahlzeit.model.PhotoCache;
 import org.wahlzeit.model.PhotoManager;
 import org.wahlzeit.model.User;
 import org.wahlzeit.model.UserManager;
@@ -16,7 +16,7 @@ import org.wahlzeit.services.mailing.EmailServiceManager;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -38,8 +38,7 @@ public class NotifyUsersAboutPraiseAgent extends Agent {
 	 * Notifies all users that want to get informed if their photos have been praised.
 	 */
 	protected void doRun() {
-		Map<PhotoId, Photo> photoCache = PhotoManager.getInstance().getPhotoCache();
-		Collection<Photo> photos = photoCache.values();
+		PhotoCache photos = PhotoManager.getInstance().getPhotoCache();
 
 		ArrayList<Photo> arrayListOfPhotos;
 		HashMap<String, ArrayList<Photo>> ownerIdPhotosMap = new HashMap<String, ArrayList<Photo>>();
@@ -47,12 +46,12 @@ public class NotifyUsersAboutPraiseAgent extends Agent {
 			if (photo != null && photo.isVisible() && photo.hasNewPraise()) {
 				String ownerId = photo.getOwnerId();
 				if (ownerId != null) {
-					log.config(LogBuilder.createSystemMessage().addParameter("ownerId", ownerId).toString());
+					LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("ownerId", ownerId).log();
 					if (ownerIdPhotosMap.containsKey(ownerId)) {
-						log.config(LogBuilder.createSystemMessage().addAction("add to existing owner").toString());
+						LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("add to existing owner").log();
 						arrayListOfPhotos = ownerIdPhotosMap.get(ownerId);
 					} else {
-						log.config(LogBuilder.createSystemMessage().addAction("add to new owner").toString());
+						LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("add to new owner").log();
 						arrayListOfPhotos = new ArrayList<Photo>();
 					}
 					arrayListOfPhotos.add(photo);
@@ -63,8 +62,8 @@ public class NotifyUsersAboutPraiseAgent extends Agent {
 			}
 		}
 
-		log.config(LogBuilder.createSystemMessage().addAction("notify owner")
-				.addParameter("number of user to notify", ownerIdPhotosMap.size()).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("notify owner")
+				.addParameter("number of user to notify", ownerIdPhotosMap.size()).log();
 
 		for (String ownerId : ownerIdPhotosMap.keySet()) {
 			notifyOwner(ownerId, ownerIdPhotosMap.get(ownerId));
@@ -86,8 +85,8 @@ public class NotifyUsersAboutPraiseAgent extends Agent {
 
 		String emailBody = cfg.getNotifyAboutPraiseEmailBody() + "\n\n";
 
-		log.config(LogBuilder.createSystemMessage().addAction("sending email")
-				.addParameter("recipient", to.asString()).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("sending email")
+				.addParameter("recipient", to.asString()).log();
 
 		for (Photo current : allPhotosOfUser) {
 			String id = current.getId().asString();
@@ -97,8 +96,8 @@ public class NotifyUsersAboutPraiseAgent extends Agent {
 			String link = "https://" + appId + ".appspot.com/" + id + ".html\n";
 			emailBody += link;
 
-			log.config(LogBuilder.createSystemMessage().addParameter("appid", appId)
-					.addParameter("link", link).toString());
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("appid", appId)
+					.addParameter("link", link).log();
 
 		}
 		emailBody += "\n";
@@ -9,6 +9,7 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -18,10 +19,15 @@ import java.util.logging.Logger;
  * 
  * @review
  */
-public class PersistPhotoAgent extends HttpServlet {
+public class PersistPhotoAgent extends HttpServlet implements TaskHandler {
 
 	private static final Logger log = Logger.getLogger(PersistPhotoAgent.class.getName());
 
+	/**
+	 * see web.xml
+	 */
+	public static final String URL = "/persistPhoto";
+
 	/**
 	 * @methodtype command
 	 */
@@ -29,17 +35,28 @@ public class PersistPhotoAgent extends HttpServlet {
 			throws ServletException, IOException {
 
 		String id = request.getParameter(Photo.ID);
-		log.config(LogBuilder.createSystemMessage().addParameter("Try to persist PhotoId", id).toString());
+		try {
+			handleTask(id);
+		} catch (IllegalArgumentException ex) {
+			response.setStatus(299);
+			throw ex;
+		}
+		response.setStatus(200);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void handleTask(String id) {
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Try to persist PhotoId", id).log();
 		if (id != null && !"".equals(id)) {
 			Photo photo = PhotoManager.getInstance().getPhoto(id);
 			if (photo != null) {
 				PhotoManager.getInstance().savePhoto(photo);
-				log.config(LogBuilder.createSystemMessage().addMessage("Photo saved.").toString());
+				LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("Photo saved.").log();
 			} else {
-				response.setStatus(299);
 				throw new IllegalArgumentException("Could not find Photo with ID " + id);
 			}
 		}
-		response.setStatus(200);
 	}
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.agents;
+
+import org.wahlzeit.model.Photo;
+import org.wahlzeit.model.PhotoManager;
+import org.wahlzeit.services.LogBuilder;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Servlet to scale, index and persist a photo that has been uploaded with asynchronous upload processing (see
+ * SysConfig.ASYNC_UPLOAD_PROCESSING). Like PersistPhotoAgent, it is called by the task queue.
+ */
+public class ProcessPhotoAgent extends HttpServlet implements TaskHandler {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Logger log = Logger.getLogger(ProcessPhotoAgent.class.getName());
+
+	/**
+	 * see web.xml
+	 */
+	public static final String URL = "/processPhoto";
+
+	/**
+	 * @methodtype command
+	 */
+	protected void doPost(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+
+		try {
+			handleTask(request.getParameter(Photo.ID));
+			response.setStatus(200);
+		} catch (Exception ex) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).addException("Processing photo failed", ex).log();
+			response.setStatus(500); // let the task queue retry
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void handleTask(String id) throws Exception {
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Try to process PhotoId", id).log();
+		if (id != null && !"".equals(id)) {
+			PhotoManager.getInstance().processUploadedPhoto(id);
+		}
+	}
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.agents;
+
+/**
+ * A queue of push tasks, each identified by the URL of its handler and a single parameter. Implementations are
+ * GaeTaskQueue (App Engine task queue) and LocalTaskQueue (in-process worker pool).
+ */
+public interface TaskQueue {
+
+	/**
+	 * Adds a task; it is retried up to retryLimit times if it fails.
+	 *
+	 * @methodtype command
+	 */
+	void addTask(String url, String paramName, String paramValue, int retryLimit);
+
+}
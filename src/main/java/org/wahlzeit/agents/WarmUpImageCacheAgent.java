@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.agents;
+
+import org.wahlzeit.model.Photo;
+import org.wahlzeit.model.PhotoManager;
+import org.wahlzeit.model.PhotoSize;
+import org.wahlzeit.model.persistence.CachingImageStorage;
+import org.wahlzeit.model.persistence.ImageStorage;
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.SysConfig;
+import org.wahlzeit.utils.StringUtil;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An agent that prefetches the images of all visible photos into the image cache after a (lazy) startup. Sizes are
+ * loaded in the order configured in SysConfig.IMAGE_WARM_UP_SIZES, e.g. all thumbnails first, then all medium images.
+ * A size is skipped as soon as its share of the image cache is full.
+ */
+public class WarmUpImageCacheAgent extends Agent {
+
+	public static final String NAME = "warmUpImageCache";
+
+	private static final Logger log = Logger.getLogger(WarmUpImageCacheAgent.class.getName());
+
+	public WarmUpImageCacheAgent() {
+		initialize(NAME);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public static List<PhotoSize> getWarmUpSizes() {
+		List<PhotoSize> result = new ArrayList<PhotoSize>();
+		String sizes = SysConfig.getInstance().getValue(SysConfig.IMAGE_WARM_UP_SIZES);
+		for (String size : sizes.split(",")) {
+			if (!StringUtil.isNullOrEmptyString(size.trim())) {
+				result.add(PhotoSize.getFromString(size.trim()));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void doRun() {
+		ImageStorage imageStorage = ImageStorage.getInstance();
+		long startTime = System.currentTimeMillis();
+		int noImages = 0;
+
+		for (PhotoSize photoSize : getWarmUpSizes()) {
+			for (Photo photo : PhotoManager.getInstance().getPhotoCache()) {
+				if (isCacheFull(imageStorage, photoSize)) {
+					break;
+				}
+				if (photo.isVisible() && photo.hasPhotoSize(photoSize)) {
+					try {
+						if (imageStorage.readImage(photo.getIdAsString(), photoSize.asInt()) != null) {
+							noImages++;
+						}
+					} catch (IOException e) {
+						LogBuilder.createSystemMessage(log, Level.WARNING).
+								addParameter("photo ID", photo.getIdAsString()).
+								addParameter("size", photoSize.asString()).
+								addException("Could not prefetch image", e).log();
+					}
+				}
+			}
+		}
+
+		LogBuilder.createSystemMessage(log, Level.INFO).addMessage("image cache warmed up").
+				addParameter("images", noImages).
+				addParameter("ms", System.currentTimeMillis() - startTime).log();
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	protected boolean isCacheFull(ImageStorage imageStorage, PhotoSize photoSize) {
+		if (imageStorage instanceof CachingImageStorage) {
+			CachingImageStorage cache = (CachingImageStorage) imageStorage;
+			return cache.getUsedBytes(photoSize) >= cache.getMaxBytes(photoSize);
+		}
+		return false;
+	}
+
+}
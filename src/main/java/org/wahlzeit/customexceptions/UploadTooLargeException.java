@@ -0,0 +1,19 @@
+package org.wahlzeit.customexceptions;
+
+import java.io.IOException;
+
+/*
+ * Custom checked exception signaling that an upload exceeds the configured maximum size (SysConfig.MAX_UPLOAD_SIZE)
+ */
+public class UploadTooLargeException extends IOException {
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = 1L;
+
+	public UploadTooLargeException(long maxBytes) {
+		super("upload exceeds the maximum size of " + maxBytes + " bytes");
+	}
+
+}
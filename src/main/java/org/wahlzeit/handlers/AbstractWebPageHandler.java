@@ -20,14 +20,19 @@
 
 package org.wahlzeit.handlers;
 
+import org.wahlzeit.model.AccessRights;
 import org.wahlzeit.model.Client;
 import org.wahlzeit.model.ModelConfig;
+import org.wahlzeit.model.PhotoSize;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.ConfigDir;
 import org.wahlzeit.services.Language;
 import org.wahlzeit.services.SysConfig;
 import org.wahlzeit.utils.HtmlUtil;
+import org.wahlzeit.webparts.Fragment;
 import org.wahlzeit.webparts.WebPart;
+import org.wahlzeit.webparts.WebPartCache;
+import org.wahlzeit.webparts.WebPartCache.FragmentKey;
 
 /**
  * A superclass for handling web pages.
@@ -48,9 +53,9 @@ public abstract class AbstractWebPageHandler extends AbstractWebPartHandler impl
 		WebPart result = createWebPart(us);
 
 		ConfigDir staticDir = SysConfig.getStaticDir();
-		String stylesheetUrl = HtmlUtil.asPath(staticDir.getRelativeConfigFileName("wahlzeit.css"));
+		String stylesheetUrl = staticDir.getRelativeConfigFileUrl("wahlzeit.css");
 		result.addString("stylesheet", stylesheetUrl);
-		String javascriptUrl = HtmlUtil.asPath(staticDir.getRelativeConfigFileName("wahlzeit.js"));
+		String javascriptUrl = staticDir.getRelativeConfigFileUrl("wahlzeit.js");
 		result.addString("javascript", javascriptUrl);
 
 		makeWebPageFrame(us, result);
@@ -65,12 +70,15 @@ public abstract class AbstractWebPageHandler extends AbstractWebPartHandler impl
 	 */
 	protected void makeWebPageFrame(UserSession us, WebPart page) {
 		Client client = us.getClient();
-		page.addString("title", client.getLanguageConfiguration().getPageTitle());
+		ModelConfig config = client.getLanguageConfiguration();
+		Language language = client.getLanguage();
+		page.addWritable("title", getFragment(config.getPageTitle(), "title", language));
 
 		makeWebPageHeading(us, page);
 
-		page.addString("footer", client.getLanguageConfiguration().getPageFooter(client.getPhotoSize()));
-		page.addString("mission", client.getLanguageConfiguration().getPageMission());
+		PhotoSize photoSize = client.getPhotoSize();
+		page.addWritable("footer", getFragment(config.getPageFooter(photoSize), "footer", language, photoSize));
+		page.addWritable("mission", getFragment(config.getPageMission(), "mission", language));
 	}
 
 	/**
@@ -78,9 +86,23 @@ public abstract class AbstractWebPageHandler extends AbstractWebPartHandler impl
 	 */
 	protected void makeWebPageHeading(UserSession us, WebPart page) {
 		Language langValue = us.getClient().getLanguage();
-		String heading = HtmlUtil.asImg(getHeadingImageAsRelativeResourcePathString(langValue));
-		heading = HtmlUtil.asHref(us.getSiteUrl(), heading);
-		page.addString("heading", heading);
+		FragmentKey key = new FragmentKey("heading", langValue, us.getSiteUrl());
+		Fragment heading = WebPartCache.getInstance().getFragment(key);
+		if (heading == null) {
+			String value = HtmlUtil.asImg(getHeadingImageAsRelativeResourcePathString(langValue));
+			value = HtmlUtil.asHref(us.getSiteUrl(), value);
+			heading = WebPartCache.getInstance().getFragment(key, value);
+		}
+		page.addWritable("heading", heading);
+	}
+
+	/**
+	 * Returns the cached fragment for a part of the page frame that depends only on the given dimensions
+	 *
+	 * @methodtype get
+	 */
+	protected Fragment getFragment(String value, String name, Object... dimensions) {
+		return WebPartCache.getInstance().getFragment(new FragmentKey(name, dimensions), value);
 	}
 
 	/**
@@ -97,6 +119,13 @@ public abstract class AbstractWebPageHandler extends AbstractWebPartHandler impl
 		Client client = us.getClient();
 		String menu = "";
 		ModelConfig config = client.getLanguageConfiguration();
+		AccessRights rights = client.getAccessRights();
+		FragmentKey key = new FragmentKey("menu", client.getLanguage(), rights);
+		Fragment fragment = WebPartCache.getInstance().getFragment(key);
+		if (fragment != null) {
+			page.addWritable("menu", fragment);
+			return;
+		}
 
 		if (client.hasAdministratorRights()) {
 			menu = config.getAdministratorMenu();
@@ -108,7 +137,7 @@ public abstract class AbstractWebPageHandler extends AbstractWebPartHandler impl
 			menu = config.getGuestMenu();
 		}
 
-		page.addString("menu", menu.toString());
+		page.addWritable("menu", WebPartCache.getInstance().getFragment(key, menu));
 	}
 
 	/**
@@ -36,9 +36,13 @@ import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 import org.wahlzeit.webparts.WebPartTemplate;
 import org.wahlzeit.webparts.WebPartTemplateService;
+import org.wahlzeit.webparts.Writable;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -83,18 +87,60 @@ public abstract class AbstractWebPartHandler implements WebPartHandler {
 	/**
 	 *
 	 */
-	protected String getPhotoThumb(UserSession us, Photo photo) {
-		String result = null;
+	protected Writable getPhotoThumb(UserSession us, Photo photo) {
+		Writable result = null;
 		if (photo != null) {
-			String imageLink = getPhotoAsRelativeResourcePathString(photo, PhotoSize.THUMB);
-			result = HtmlUtil.asImg(HtmlUtil.asPath(imageLink), photo.getThumbWidth(), photo.getThumbHeight());
+			String imageLink = HtmlUtil.asPath(getPhotoAsRelativeResourcePathString(photo, PhotoSize.THUMB));
+			result = getImgWritable(imageLink, photo.getThumbWidth(), photo.getThumbHeight());
 		} else {
-			Language langValue = us.getClient().getLanguage();
-			result = HtmlUtil.asImg(getEmptyImageAsRelativeResourcePathString(langValue));
+			String imageLink = getEmptyImageAsRelativeResourcePathString(us.getClient().getLanguage());
+			result = getImgWritable(imageLink);
 		}
 		return result;
 	}
 
+	/**
+	 * Returns a Writable that writes the same as HtmlUtil.asHref(link, link) without building the string first
+	 *
+	 * @methodtype factory
+	 */
+	protected Writable getHrefWritable(final String link) {
+		return new Writable() {
+			@Override
+			public void writeOn(Writer out) throws IOException {
+				HtmlUtil.writeHrefOn(out, link, link);
+			}
+		};
+	}
+
+	/**
+	 * Returns a Writable that writes the same as HtmlUtil.asImg(link) without building the string first
+	 *
+	 * @methodtype factory
+	 */
+	protected Writable getImgWritable(final String link) {
+		return new Writable() {
+			@Override
+			public void writeOn(Writer out) throws IOException {
+				HtmlUtil.writeImgOn(out, link);
+			}
+		};
+	}
+
+	/**
+	 * Returns a Writable that writes the same as HtmlUtil.asImg(link, width, height) without building the string first
+	 *
+	 * @methodtype factory
+	 */
+	protected Writable getImgWritable(final String link, final int width, final int height) {
+		return new Writable() {
+			@Override
+			public void writeOn(Writer out) throws IOException {
+				HtmlUtil.writeImgOn(out, link, width, height);
+			}
+		};
+	}
+
 	/**
 	 *
 	 */
@@ -108,7 +154,7 @@ public abstract class AbstractWebPartHandler implements WebPartHandler {
 	 */
 	protected String getEmptyImageAsRelativeResourcePathString(Language lang) {
 		String resName = lang.asIsoCode() + File.separator + "empty.png";
-		return HtmlUtil.asPath(SysConfig.getStaticDir().getRelativeConfigFileName(resName));
+		return SysConfig.getStaticDir().getRelativeConfigFileUrl(resName);
 	}
 
 	/**
@@ -161,14 +207,14 @@ public abstract class AbstractWebPartHandler implements WebPartHandler {
 	 */
 	public final String handleGet(UserSession us, String link, Map args) {
 		if (!hasAccessRights(us, args)) {
-			log.warning(LogBuilder.createSystemMessage().
-					addMessage("insufficient rights for GET").toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addMessage("insufficient rights for GET").log();
 			return getIllegalAccessErrorPage(us);
 		}
 
 		if (!isWellFormedGet(us, link, args)) {
-			log.warning(LogBuilder.createSystemMessage().
-					addMessage("received ill-formed GET").toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addMessage("received ill-formed GET").log();
 			return getIllegalArgumentErrorPage(us);
 		}
 
@@ -176,7 +222,7 @@ public abstract class AbstractWebPartHandler implements WebPartHandler {
 			// may throw Exception
 			return doHandleGet(us, link, args);
 		} catch (Throwable t) {
-			log.warning(LogBuilder.createSystemMessage().addException("Handle get failed", t).toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).addException("Handle get failed", t).log();
 			return getInternalProcessingErrorPage(us);
 		}
 	}
@@ -268,7 +314,7 @@ public abstract class AbstractWebPartHandler implements WebPartHandler {
 	 */
 	protected String getHeadingImageAsRelativeResourcePathString(Language lang) {
 		String resName = lang.asIsoCode() + File.separator + "heading.png";
-		return HtmlUtil.asPath(SysConfig.getStaticDir().getRelativeConfigFileName(resName));
+		return SysConfig.getStaticDir().getRelativeConfigFileUrl(resName);
 	}
 
 	/**
@@ -31,6 +31,7 @@ import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.webparts.WebPart;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -54,7 +55,7 @@ public class AdminUserPhotoFormHandler extends AbstractWebFormHandler {
 	protected void doMakeWebPart(UserSession us, WebPart part) {
 		String photoId = (String) us.getSavedArg("photoId");
 		Photo photo = PhotoManager.getInstance().getPhoto(photoId);
-		part.addString(Photo.THUMB, getPhotoThumb(us, photo));
+		part.addWritable(Photo.THUMB, getPhotoThumb(us, photo));
 
 		part.addString("photoId", photoId);
 		part.addString(Photo.ID, photo.getId().asString());
@@ -76,9 +77,9 @@ public class AdminUserPhotoFormHandler extends AbstractWebFormHandler {
 
 		AsyncTaskExecutor.savePhotoAsync(id);
 
-		log.info(LogBuilder.createUserMessage().
+		LogBuilder.createUserMessage(log, Level.INFO).
 				addAction("AdminUserPhoto").
-				addParameter("Photo", photo.getId().asString()).toString());
+				addParameter("Photo", photo.getId().asString()).log();
 
 		us.setMessage(us.getClient().getLanguageConfiguration().getPhotoUpdateSucceeded());
 
@@ -28,11 +28,11 @@ import org.wahlzeit.model.PhotoId;
 import org.wahlzeit.model.PhotoStatus;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.LogBuilder;
-import org.wahlzeit.utils.HtmlUtil;
 import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
@@ -58,7 +58,7 @@ public class EditPhotoCaseFormHandler extends AbstractWebFormHandler {
 		PhotoCase photoCase = us.getPhotoCase();
 		Photo photo = photoCase.getPhoto();
 
-		part.addString(Photo.THUMB, getPhotoThumb(us, photo));
+		part.addWritable(Photo.THUMB, getPhotoThumb(us, photo));
 
 		String id = String.valueOf(photoCase.getId());
 		part.addString(PhotoCase.ID, id);
@@ -71,7 +71,8 @@ public class EditPhotoCaseFormHandler extends AbstractWebFormHandler {
 		part.maskAndAddString(Photo.TAGS, tags);
 
 		String photoId = photo.getId().asString();
-		part.addString(Photo.LINK, HtmlUtil.asHref(getResourceAsRelativeHtmlPathString(photoId)));
+		String link = getResourceAsRelativeHtmlPathString(photoId);
+		part.addWritable(Photo.LINK, getHrefWritable(link));
 
 		part.addString(PhotoCase.FLAGGER, photoCase.getFlagger());
 		part.addString(PhotoCase.REASON,
@@ -99,16 +100,16 @@ public class EditPhotoCaseFormHandler extends AbstractWebFormHandler {
 
 		photo.setStatus(status);
 
-		log.info(LogBuilder.createUserMessage().
+		LogBuilder.createUserMessage(log, Level.INFO).
 				addAction("EditPhotoCase").
-				addParameter("Photo", photo.getId().asString()).toString());
+				addParameter("Photo", photo.getId().asString()).log();
 
 		photoCase.setDecided();
 		pcm.removePhotoCase(photoCase);
 
-		log.info(LogBuilder.createUserMessage().
+		LogBuilder.createUserMessage(log, Level.INFO).
 				addAction("EditPhotoCase").
-				addParameter("PhotoCase", photoCase.getId()).toString());
+				addParameter("PhotoCase", photoCase.getId()).log();
 
 		return PartUtil.SHOW_PHOTO_CASES_PAGE_NAME;
 	}
@@ -33,6 +33,7 @@ import org.wahlzeit.utils.HtmlUtil;
 import org.wahlzeit.webparts.WebPart;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -69,7 +70,7 @@ public class EditUserPhotoFormHandler extends AbstractWebFormHandler {
 		Photo photo = PhotoManager.getInstance().getPhoto(id);
 
 		part.addString(Photo.ID, id);
-		part.addString(Photo.THUMB, getPhotoThumb(us, photo));
+		part.addWritable(Photo.THUMB, getPhotoThumb(us, photo));
 
 		part.addString(Photo.PRAISE, photo.getPraiseAsString(config));
 		part.maskAndAddString(Photo.TAGS, photo.getTags().asString());
@@ -105,9 +106,9 @@ public class EditUserPhotoFormHandler extends AbstractWebFormHandler {
 
 		AsyncTaskExecutor.savePhotoAsync(id);
 
-		log.info(LogBuilder.createUserMessage().
+		LogBuilder.createUserMessage(log, Level.INFO).
 				addAction("EditUserPhoto").
-				addParameter("Photo", photo.getId().asString()).toString());
+				addParameter("Photo", photo.getId().asString()).log();
 
 		ModelConfig config = us.getClient().getLanguageConfiguration();
 		us.setTwoLineMessage(config.getPhotoUpdateSucceeded(), config.getContinueWithShowUserHome());
@@ -33,6 +33,7 @@ import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -60,7 +61,7 @@ public class EditUserProfileFormHandler extends AbstractWebFormHandler {
 		part.maskAndAddString(User.NICK_NAME, user.getNickName());
 
 		Photo photo = user.getUserPhoto();
-		part.addString(Photo.THUMB, getPhotoThumb(us, photo));
+		part.addWritable(Photo.THUMB, getPhotoThumb(us, photo));
 		part.addSelect(User.GENDER, Gender.class, user.getGender().asString(), user.getGender());
 		part.addSelect(User.LANGUAGE, Language.class, (String) args.get(User.LANGUAGE), user.getLanguage());
 
@@ -96,15 +97,15 @@ public class EditUserProfileFormHandler extends AbstractWebFormHandler {
 
 		if (!StringUtil.isNullOrEmptyString(gender)) {
 			user.setGender(Gender.getFromString(gender));
-			log.info(LogBuilder.createUserMessage().
-					addParameter("Gender", gender).toString());
+			LogBuilder.createUserMessage(log, Level.INFO).
+					addParameter("Gender", gender).log();
 		}
 
 		if (!StringUtil.isNullOrEmptyString(language)) {
 			Language langValue = Language.getFromString(language);
 			user.setLanguage(langValue);
-			log.info(LogBuilder.createUserMessage().
-					addParameter("Language", langValue.asString()).toString());
+			LogBuilder.createUserMessage(log, Level.INFO).
+					addParameter("Language", langValue.asString()).log();
 		}
 
 		ModelConfig config = us.getClient().getLanguageConfiguration();
@@ -66,6 +66,7 @@ public class FilterPhotosPageHandler extends AbstractWebPageHandler {
 		if (StringUtil.isLegalTagsString(tags)) {
 			filter.setTags(new Tags(tags));
 		}
+		us.notifyPhotoFilterChanged();
 
 		return PartUtil.SHOW_PHOTO_PAGE_NAME;
 	}
@@ -37,6 +37,7 @@ import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -71,7 +72,7 @@ public class FlagPhotoFormHandler extends AbstractWebFormHandler {
 		String id = us.getAsString(args, Photo.ID);
 		Photo photo = PhotoManager.getInstance().getPhoto(id);
 		part.addString(Photo.ID, id);
-		part.addString(Photo.THUMB, getPhotoThumb(us, photo));
+		part.addWritable(Photo.THUMB, getPhotoThumb(us, photo));
 		part.maskAndAddStringFromArgsWithDefault(args, PhotoCase.FLAGGER, us.getClient().getEmailAddress().asString());
 		part.addSelect(PhotoCase.REASON, FlagReason.MISMATCH);
 		part.maskAndAddStringFromArgs(args, PhotoCase.EXPLANATION);
@@ -120,9 +121,9 @@ public class FlagPhotoFormHandler extends AbstractWebFormHandler {
 
 		emailService.sendEmailIgnoreException(to, config.getAuditEmailAddress(), emailSubject, emailBody);
 
-		log.info(LogBuilder.createUserMessage()
+		LogBuilder.createUserMessage(log, Level.INFO)
 				.addAction("Flag Photo")
-				.addParameter("Photo", photo.getId().asString()).toString());
+				.addParameter("Photo", photo.getId().asString()).log();
 
 		us.setTwoLineMessage(config.getModeratorWasInformed(), config.getContinueWithShowPhoto());
 
@@ -33,6 +33,7 @@ import org.wahlzeit.services.mailing.EmailServiceManager;
 import org.wahlzeit.webparts.WebPart;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -87,7 +88,7 @@ public class SendEmailFormHandler extends AbstractWebFormHandler {
 		String id = us.getAndSaveAsString(args, Photo.ID);
 		part.addString(Photo.ID, id);
 		Photo photo = PhotoManager.getInstance().getPhoto(id);
-		part.addString(Photo.THUMB, getPhotoThumb(us, photo));
+		part.addWritable(Photo.THUMB, getPhotoThumb(us, photo));
 
 		part.maskAndAddString(USER, photo.getOwnerId());
 
@@ -130,9 +131,9 @@ public class SendEmailFormHandler extends AbstractWebFormHandler {
 		emailService.sendEmailIgnoreException(toUser.getEmailAddress(), config.getAuditEmailAddress(), emailSubject,
 				emailBody);
 
-		log.info(LogBuilder.createUserMessage().
+		LogBuilder.createUserMessage(log, Level.INFO).
 				addAction("Send E-Mail").
-				addParameter("Recipient", toUser.getNickName()).toString());
+				addParameter("Recipient", toUser.getNickName()).log();
 
 		us.setMessage(config.getEmailWasSent() + toUser.getNickName() + "!");
 
@@ -27,12 +27,17 @@ import org.wahlzeit.model.PhotoManager;
 import org.wahlzeit.model.User;
 import org.wahlzeit.model.UserManager;
 import org.wahlzeit.model.UserSession;
+import org.wahlzeit.model.persistence.CachingImageStorage;
+import org.wahlzeit.model.persistence.ImageStorage;
+import org.wahlzeit.services.DatastoreTracer;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.RequestMetrics;
 import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 import org.wahlzeit.webparts.Writable;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -67,6 +72,29 @@ public class ShowAdminPageHandler extends AbstractWebPageHandler implements WebF
 			page.addStringFromArgs(args, "photoId");
 			page.addWritable("object", makeAdminUserPhoto(us));
 		}
+
+		page.maskAndAddString("statistics", makeStatistics());
+	}
+
+	/**
+	 * Collects the runtime statistics shown on the admin page, e.g. image cache counters.
+	 */
+	protected String makeStatistics() {
+		StringBuilder result = new StringBuilder();
+
+		ImageStorage imageStorage = ImageStorage.getInstance();
+		if (imageStorage instanceof CachingImageStorage) {
+			result.append("Image cache:\n");
+			result.append(((CachingImageStorage) imageStorage).asStatisticsString());
+		}
+
+		result.append("Requests:\n");
+		result.append(RequestMetrics.getInstance().asString());
+
+		result.append("Datastore calls:\n");
+		result.append(DatastoreTracer.getInstance().asStatisticsString());
+
+		return result.toString();
 	}
 
 	/**
@@ -106,8 +134,8 @@ public class ShowAdminPageHandler extends AbstractWebPageHandler implements WebF
 	 */
 	public String handlePost(UserSession us, Map args) {
 		if (!hasAccessRights(us, args)) {
-			log.warning(LogBuilder.createSystemMessage().
-					addMessage("insufficient rights for POST").toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addMessage("insufficient rights for POST").log();
 			return getIllegalAccessErrorPage(us);
 		}
 
@@ -158,15 +186,16 @@ public class ShowAdminPageHandler extends AbstractWebPageHandler implements WebF
 	 *
 	 */
 	protected String performSaveAllRequest(UserSession us) {
-		log.info(LogBuilder.createSystemMessage().addAction("save all objects").toString());
+		LogBuilder.createSystemMessage(log, Level.INFO).addAction("save all objects").log();
 
+		String statistics = "";
 		try {
-			ServiceMain.getInstance().saveAll();
+			statistics = ServiceMain.getInstance().saveAll().asString();
 		} catch (Exception ex) {
-			log.warning(LogBuilder.createSystemMessage().addException("saving all objects failed", ex).toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).addException("saving all objects failed", ex).log();
 		}
 
-		us.setMessage("Saved objects...");
+		us.setTwoLineMessage("Saved objects...", statistics.trim().replace("\n", "; "));
 		return PartUtil.SHOW_NOTE_PAGE_NAME;
 	}
 
@@ -174,11 +203,11 @@ public class ShowAdminPageHandler extends AbstractWebPageHandler implements WebF
 	 *
 	 */
 	protected String performShutdownRequest(UserSession us) {
-		log.info(LogBuilder.createSystemMessage().addAction("shutting system down").toString());
+		LogBuilder.createSystemMessage(log, Level.INFO).addAction("shutting system down").log();
 		try {
 			ServiceMain.getInstance().requestStop();
 		} catch (Exception ex) {
-			log.warning(LogBuilder.createSystemMessage().addException("requesting stop failed", ex).toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).addException("requesting stop failed", ex).log();
 		}
 
 		us.setMessage("Shutting down...");
@@ -21,8 +21,18 @@
 package org.wahlzeit.handlers;
 
 import org.wahlzeit.model.AccessRights;
+import org.wahlzeit.model.Client;
 import org.wahlzeit.model.UserSession;
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.Session;
 import org.wahlzeit.webparts.WebPart;
+import org.wahlzeit.webparts.WebPartCache;
+import org.wahlzeit.webparts.WebPartCache.FragmentKey;
+import org.wahlzeit.webparts.WebPartTemplate;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 
 /**
@@ -30,6 +40,8 @@ import org.wahlzeit.webparts.WebPart;
  */
 public class ShowInfoPageHandler extends AbstractWebPageHandler {
 
+	private static final Logger log = Logger.getLogger(ShowInfoPageHandler.class.getName());
+
 	/**
 	 *
 	 */
@@ -43,6 +55,31 @@ public class ShowInfoPageHandler extends AbstractWebPageHandler {
 		infoTmplName = myInfoTmplName;
 	}
 
+	/**
+	 * Info pages are static per language, access rights, photo size, and site URL, so the whole page is rendered once
+	 * into a cached template; only the processing time is filled in per request.
+	 */
+	@Override
+	public WebPart makeWebPart(UserSession us) {
+		Client client = us.getClient();
+		FragmentKey key = new FragmentKey(infoTmplName, client.getLanguage(), client.getAccessRights(),
+				client.getPhotoSize(), us.getSiteUrl());
+		WebPartCache cache = WebPartCache.getInstance();
+		WebPartTemplate template = cache.getTemplate(key);
+		if (template == null) {
+			WebPart page = makeWebPage(us);
+			try {
+				template = cache.putTemplate(key, page, Session.PROCESSING_TIME);
+			} catch (IOException ex) {
+				LogBuilder.createSystemMessage(log, Level.WARNING).
+						addParameter("info page", infoTmplName).
+						addException("could not cache info page", ex).log();
+				return page;
+			}
+		}
+		return new WebPart(template);
+	}
+
 	/**
 	 *
 	 */
@@ -64,7 +64,7 @@ public class ShowPhotoPageHandler extends AbstractWebPageHandler implements WebF
 			String skippedPhotoIdString = us.getAsString(args, "prior");
 			PhotoId skippedPhotoId = PhotoId.getIdFromString(skippedPhotoIdString);
 			us.getClient().addSkippedPhotoId(skippedPhotoId);
-			us.getPhotoFilter().addSkippedPhotoId(skippedPhotoId);
+			us.addSkippedPhotoId(skippedPhotoId);
 		}
 
 		if (photo == null) {
@@ -166,8 +166,8 @@ public class ShowPhotoPageHandler extends AbstractWebPageHandler implements WebF
 
 		PhotoSize maxPhotoSize = photo.getMaxPhotoSize();
 		PhotoSize photoSize = (maxPhotoSize.isSmaller(pagePhotoSize)) ? maxPhotoSize : pagePhotoSize;
-		String imageLink = getPhotoAsRelativeResourcePathString(photo, photoSize);
-		page.addString(Photo.IMAGE, HtmlUtil.asImg(HtmlUtil.asPath(imageLink)));
+		String imageLink = HtmlUtil.asPath(getPhotoAsRelativeResourcePathString(photo, photoSize));
+		page.addWritable(Photo.IMAGE, getImgWritable(imageLink));
 	}
 
 	/**
@@ -189,7 +189,8 @@ public class ShowPhotoPageHandler extends AbstractWebPageHandler implements WebF
 		PhotoId photoId = us.getPhotoId();
 
 		WebPart engageGuest = createWebPart(us, PartUtil.ENGAGE_GUEST_FORM_FILE);
-		engageGuest.addString(Photo.LINK, HtmlUtil.asHref(getResourceAsRelativeHtmlPathString(photoId.asString())));
+		String link = getResourceAsRelativeHtmlPathString(photoId.asString());
+		engageGuest.addWritable(Photo.LINK, getHrefWritable(link));
 		engageGuest.addString(Photo.ID, photoId.asString());
 
 		page.addWritable("engageGuest", engageGuest);
@@ -219,7 +220,7 @@ public class ShowPhotoPageHandler extends AbstractWebPageHandler implements WebF
 		WebPart result = createWebPart(us, PartUtil.PHOTO_INFO_FILE);
 
 		result.addString(Photo.PRAISE, lastPraisedPhoto.getPraiseAsString(us.getClient().getLanguageConfiguration()));
-		result.addString(Photo.THUMB, getPhotoThumb(us, lastPraisedPhoto));
+		result.addWritable(Photo.THUMB, getPhotoThumb(us, lastPraisedPhoto));
 		result.addString(Photo.CAPTION, getPhotoCaption(us, lastPraisedPhoto));
 
 		return result;
@@ -29,11 +29,11 @@ import org.wahlzeit.model.User;
 import org.wahlzeit.model.UserManager;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.LogBuilder;
-import org.wahlzeit.utils.HtmlUtil;
 import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -60,7 +60,7 @@ public class ShowUserPhotoFormHandler extends AbstractWebFormHandler {
 		String id = photo.getId().asString();
 		ModelConfig config = us.getClient().getLanguageConfiguration();
 		part.addString(Photo.ID, id);
-		part.addString(Photo.THUMB, getPhotoThumb(us, photo));
+		part.addWritable(Photo.THUMB, getPhotoThumb(us, photo));
 
 		part.addString(Photo.PRAISE, photo.getPraiseAsString(config));
 
@@ -72,7 +72,8 @@ public class ShowUserPhotoFormHandler extends AbstractWebFormHandler {
 		part.addString(Photo.STATUS, photoStatus);
 
 		part.addString(Photo.UPLOADED_ON, config.asDateString(photo.getCreationTime()));
-		part.addString(Photo.LINK, HtmlUtil.asHref(getResourceAsRelativeHtmlPathString(id)));
+		String link = getResourceAsRelativeHtmlPathString(id);
+		part.addWritable(Photo.LINK, getHrefWritable(link));
 	}
 
 	/**
@@ -105,9 +106,9 @@ public class ShowUserPhotoFormHandler extends AbstractWebFormHandler {
 			user.setUserPhoto(photo);
 			us.setClient(user);
 			userManager.saveClient(user);
-			log.info(LogBuilder.createUserMessage().
+			LogBuilder.createUserMessage(log, Level.INFO).
 					addAction("Select user photo").
-					addParameter("Photo", id).toString());
+					addParameter("Photo", id).log();
 		} else if (us.isFormType(args, "delete")) {
 			photo.setStatus(photo.getStatus().asDeleted(true));
 			PhotoManager.getInstance().savePhoto(photo);
@@ -115,8 +116,8 @@ public class ShowUserPhotoFormHandler extends AbstractWebFormHandler {
 				user.setUserPhoto(null);
 				userManager.saveClient(user);
 			}
-			log.info(LogBuilder.createUserMessage().
-					addAction("Deselect user photo").toString());
+			LogBuilder.createUserMessage(log, Level.INFO).
+					addAction("Deselect user photo").log();
 		}
 
 		return result;
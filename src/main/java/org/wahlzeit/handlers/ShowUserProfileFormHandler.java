@@ -50,7 +50,7 @@ public class ShowUserProfileFormHandler extends AbstractWebFormHandler {
 
 		Photo photo = user.getUserPhoto();
 		ModelConfig config = us.getClient().getLanguageConfiguration();
-		part.addString(Photo.THUMB, getPhotoThumb(us, photo));
+		part.addWritable(Photo.THUMB, getPhotoThumb(us, photo));
 
 		part.maskAndAddString(User.NICK_NAME, user.getNickName());
 		part.addString(User.STATUS, config.asValueString(user.getStatus()));
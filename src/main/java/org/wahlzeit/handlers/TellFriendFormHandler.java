@@ -33,6 +33,7 @@ import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -77,7 +78,7 @@ public class TellFriendFormHandler extends AbstractWebFormHandler {
 
 		part.addString(Photo.ID, id);
 		Photo photo = PhotoManager.getInstance().getPhoto(id);
-		part.addString(Photo.THUMB, getPhotoThumb(us, photo));
+		part.addWritable(Photo.THUMB, getPhotoThumb(us, photo));
 
 		part.maskAndAddStringFromArgsWithDefault(args, EMAIL_BODY, emailText);
 	}
@@ -108,9 +109,9 @@ public class TellFriendFormHandler extends AbstractWebFormHandler {
 		EmailService emailService = EmailServiceManager.getDefaultService();
 		emailService.sendEmailIgnoreException(to, config.getAuditEmailAddress(), emailSubject, emailBody);
 
-		log.info(LogBuilder.createUserMessage().
+		LogBuilder.createUserMessage(log, Level.INFO).
 				addAction("TellFriend").
-				addParameter("recipient", to.asString()).toString());
+				addParameter("recipient", to.asString()).log();
 
 
 		us.setTwoLineMessage(config.getEmailWasSent() + friendsEmailAddress + "! ", config.getKeepGoing());
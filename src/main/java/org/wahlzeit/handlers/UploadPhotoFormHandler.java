@@ -20,7 +20,6 @@
 
 package org.wahlzeit.handlers;
 
-import com.google.appengine.api.images.Image;
 import org.wahlzeit.agents.AsyncTaskExecutor;
 import org.wahlzeit.model.AccessRights;
 import org.wahlzeit.model.ModelConfig;
@@ -30,10 +29,13 @@ import org.wahlzeit.model.Tags;
 import org.wahlzeit.model.User;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.SpooledUpload;
+import org.wahlzeit.services.SysConfig;
 import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -43,6 +45,11 @@ public class UploadPhotoFormHandler extends AbstractWebFormHandler {
 
 	private static Logger log = Logger.getLogger(UploadPhotoFormHandler.class.getName());
 
+	/**
+	 * Request argument set by MainServlet if the uploaded file exceeded SysConfig.MAX_UPLOAD_SIZE
+	 */
+	public static final String UPLOAD_TOO_LARGE = "uploadTooLarge";
+
 	/**
 	 *
 	 */
@@ -72,30 +79,44 @@ public class UploadPhotoFormHandler extends AbstractWebFormHandler {
 			return PartUtil.UPLOAD_PHOTO_PAGE_NAME;
 		}
 
+		if (args.containsKey(UPLOAD_TOO_LARGE)) {
+			us.setMessage(config.getPhotoTooLarge());
+			return PartUtil.UPLOAD_PHOTO_PAGE_NAME;
+		}
+
 		try {
 			PhotoManager pm = PhotoManager.getInstance();
 			String fileName = us.getAsString(args, "fileName");
 			User user = (User) us.getClient();
-			Image uploadedImage = user.getUploadedImage();
-			Photo photo = pm.createPhoto(fileName, uploadedImage);
+			SpooledUpload upload = user.takeUploadedFile();
+			boolean isAsync = SysConfig.getInstance().getBooleanValue(SysConfig.ASYNC_UPLOAD_PROCESSING);
+			Photo photo = isAsync ? pm.createPendingPhoto(fileName, upload) : pm.createPhoto(fileName, upload);
 
 			user.addPhoto(photo);
 
 			photo.setTags(new Tags(tags));
 
-			log.config(LogBuilder.createUserMessage().
+			LogBuilder.createUserMessage(log, Level.CONFIG).
 					addAction("Upload Photo").
 					addParameter("Photo", photo.getId().asString()).
-					addParameter("tags", photo.getTags().asString()).toString());
+					addParameter("tags", photo.getTags().asString()).log();
 
 			us.setTwoLineMessage(config.getPhotoUploadSucceeded(), config.getKeepGoing());
-			log.config(LogBuilder.createSystemMessage().
-					addAction("Calling async task to save Photo").
-					addParameter("ID", photo.getId().asString()).toString());
-
-			AsyncTaskExecutor.savePhotoAsync(photo.getId().asString());
+			if (isAsync) {
+				LogBuilder.createSystemMessage(log, Level.CONFIG).
+						addAction("Calling async task to process Photo").
+						addParameter("ID", photo.getId().asString()).log();
+
+				AsyncTaskExecutor.processPhotoAsync(photo.getId().asString());
+			} else {
+				LogBuilder.createSystemMessage(log, Level.CONFIG).
+						addAction("Calling async task to save Photo").
+						addParameter("ID", photo.getId().asString()).log();
+
+				AsyncTaskExecutor.savePhotoAsync(photo.getId().asString());
+			}
 		} catch (Exception ex) {
-			log.warning(LogBuilder.createSystemMessage().addException("uploading photo failed", ex).toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).addException("uploading photo failed", ex).log();
 			us.setMessage(config.getPhotoUploadFailed());
 		}
 
@@ -24,6 +24,7 @@ import org.wahlzeit.services.LogBuilder;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
@@ -68,6 +69,16 @@ public class WebPartHandlerManager {
 		return (WebPageHandler) result;
 	}
 
+	/**
+	 * Returns true if a WebPageHandler is registered under the name, i.e. getWebPageHandlerFor(name) does not fall
+	 * back to the default handler
+	 *
+	 * @methodtype boolean-query
+	 */
+	public boolean isWebPageHandlerName(String name) {
+		return handler.get(name) instanceof WebPageHandler;
+	}
+
 	/**
 	 *
 	 */
@@ -94,6 +105,16 @@ public class WebPartHandlerManager {
 		return (WebFormHandler) result;
 	}
 
+	/**
+	 * Returns true if a WebFormHandler is registered under the name, i.e. getWebFormHandlerFor(name) does not fall
+	 * back to the default handler
+	 *
+	 * @methodtype boolean-query
+	 */
+	public boolean isWebFormHandlerName(String name) {
+		return handler.get(name) instanceof WebFormHandler;
+	}
+
 	/**
 	 *
 	 */
@@ -106,10 +127,10 @@ public class WebPartHandlerManager {
 	 */
 	public WebPartHandler addWebPartHandler(String name, WebPartHandler myHandler) {
 		handler.put(name, myHandler);
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("add WebPartHandler").
 				addParameter("name", name).
-				addParameter("handler", myHandler).toString());
+				addParameter("handler", myHandler).log();
 		return myHandler;
 	}
 
@@ -20,10 +20,13 @@
 
 package org.wahlzeit.main;
 
+import org.wahlzeit.services.AsyncLogHandler;
 import org.wahlzeit.services.SessionManager;
 import org.wahlzeit.services.SysConfig;
 import org.wahlzeit.services.SysSession;
 
+import java.util.logging.Logger;
+
 /**
  * A superclass for a Main class for system startup and shutdown.
  */
@@ -34,6 +37,11 @@ public abstract class AbstractMain {
 	 */
 	protected SysSession mainSession = null;
 
+	/**
+	 * Set if log records are published asynchronously, see SysConfig.ASYNC_LOG_CAPACITY
+	 */
+	protected AsyncLogHandler asyncLogHandler = null;
+
 	/**
 	 *
 	 */
@@ -46,11 +54,22 @@ public abstract class AbstractMain {
 	 */
 	protected void startUp(String rootDir) throws Exception {
 		SysConfig.setInstance(createSysConfig(rootDir));
+		configureLogging();
 
 		mainSession = new SysSession("system");
 		SessionManager.setThreadLocalSession(mainSession);
 	}
 
+	/**
+	 *
+	 */
+	protected void configureLogging() {
+		int capacity = SysConfig.getInstance().getIntValue(SysConfig.ASYNC_LOG_CAPACITY);
+		if (capacity > 0 && asyncLogHandler == null) {
+			asyncLogHandler = AsyncLogHandler.install(Logger.getLogger(""), capacity);
+		}
+	}
+
 	/**
 	 *
 	 */
@@ -76,6 +95,11 @@ public abstract class AbstractMain {
 	 *
 	 */
 	protected void shutDown() throws Exception {
+		if (asyncLogHandler != null) {
+			asyncLogHandler.uninstall(Logger.getLogger(""));
+			asyncLogHandler = null;
+		}
+
 		SysConfig.dropInstance();
 	}
 
@@ -23,25 +23,47 @@ package org.wahlzeit.main;
 import com.google.appengine.api.images.Image;
 import com.google.appengine.api.images.ImagesServiceFactory;
 
+import org.wahlzeit.agents.AgentManager;
+import org.wahlzeit.agents.AsyncTaskExecutor;
+import org.wahlzeit.agents.GaeTaskQueue;
+import org.wahlzeit.agents.LocalTaskQueue;
+import org.wahlzeit.agents.PersistPhotoAgent;
+import org.wahlzeit.agents.ProcessPhotoAgent;
+import org.wahlzeit.agents.TaskQueue;
+import org.wahlzeit.agents.WarmUpImageCacheAgent;
 import org.wahlzeit.customexceptions.FootballPhotoCreationException;
+import org.wahlzeit.model.Client;
+import org.wahlzeit.model.ClientHistory;
+import org.wahlzeit.model.ClientHistoryManager;
 import org.wahlzeit.model.FootballPhotoFactory;
-import org.wahlzeit.model.FootballPhotoManager;
+import org.wahlzeit.model.GaeImageProcessor;
 import org.wahlzeit.model.GlobalsManager;
+import org.wahlzeit.model.ImageProcessor;
+import org.wahlzeit.model.JdkImageProcessor;
 import org.wahlzeit.model.Photo;
+import org.wahlzeit.model.PhotoCase;
 import org.wahlzeit.model.PhotoCaseManager;
 import org.wahlzeit.model.PhotoFactory;
 import org.wahlzeit.model.PhotoManager;
 import org.wahlzeit.model.User;
 import org.wahlzeit.model.UserManager;
+import org.wahlzeit.model.persistence.CachingImageStorage;
 import org.wahlzeit.model.persistence.DatastoreAdapter;
+import org.wahlzeit.model.persistence.FileSystemImageStorage;
 import org.wahlzeit.model.persistence.ImageStorage;
+import org.wahlzeit.model.persistence.SegmentImageStorage;
+import org.wahlzeit.services.DatastoreTracer;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.SysConfig;
+import org.wahlzeit.services.WriteBehindQueue;
+import org.wahlzeit.services.WriteStatistics;
 
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -58,23 +80,130 @@ public abstract class ModelMain extends AbstractMain {
 		super.startUp(rootDir);
 		log.info("AbstractMain.startUp completed");
 
-		log.config(LogBuilder.createSystemMessage().addAction("load image storage").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("load image storage").log();
 		//GcsAdapter.Builder gcsAdapterBuilder = new GcsAdapter.Builder();
-		ImageStorage.setInstance(new DatastoreAdapter());
+		ImageStorage.setInstance(new CachingImageStorage(createImageStorage()));
+		ImageProcessor.setInstance(createImageProcessor());
+		AsyncTaskExecutor.setTaskQueue(createTaskQueue());
+		configureDatastoreTracer();
 
-		log.config(LogBuilder.createSystemMessage().addAction("load globals").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("load globals").log();
 		GlobalsManager.getInstance().loadGlobals();
 
-		log.config(LogBuilder.createSystemMessage().addAction("load user").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("load user").log();
 		UserManager.getInstance().init();
 
-		log.config(LogBuilder.createSystemMessage().addAction("init FootballPhotoFactory").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("init FootballPhotoFactory").log();
 		FootballPhotoFactory.initialize();
 
-		log.config(LogBuilder.createSystemMessage().addAction("load Photos").toString());
-		FootballPhotoManager.getInstance().init();
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("load Photos").log();
+		PhotoManager.getInstance().init();
+
+		startWriteBehindQueue();
+		startImageCacheWarmUp();
+	}
+
+	/**
+	 * Registers the managers that write changed objects behind, after everything has been loaded, and configures
+	 * the WriteBehindQueue from SysConfig
+	 */
+	protected void startWriteBehindQueue() {
+		SysConfig sysConfig = SysConfig.getInstance();
+		WriteBehindQueue writeBehindQueue = WriteBehindQueue.getInstance();
+		writeBehindQueue.setManager(Photo.class, PhotoManager.getInstance());
+		writeBehindQueue.setManager(Client.class, UserManager.getInstance());
+		writeBehindQueue.setManager(ClientHistory.class, ClientHistoryManager.getInstance());
+		writeBehindQueue.setManager(PhotoCase.class, PhotoCaseManager.getInstance());
+		writeBehindQueue.setMaxQueuedObjects(sysConfig.getIntValue(SysConfig.WRITE_BEHIND_MAX_QUEUED));
+		writeBehindQueue.setFlushInterval(sysConfig.getLongValue(SysConfig.WRITE_BEHIND_INTERVAL));
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("write-behind enabled", writeBehindQueue.isEnabled()).log();
+	}
+
+	/**
+	 * Configures the slow call threshold and the per-request call budget of the DatastoreTracer from SysConfig
+	 */
+	protected void configureDatastoreTracer() {
+		SysConfig sysConfig = SysConfig.getInstance();
+		DatastoreTracer datastoreTracer = DatastoreTracer.getInstance();
+		datastoreTracer.setSlowCallMillis(sysConfig.getLongValue(SysConfig.DATASTORE_SLOW_CALL_MILLIS));
+		datastoreTracer.setCallBudget(sysConfig.getIntValue(SysConfig.DATASTORE_CALL_BUDGET));
+	}
+
+	/**
+	 * Creates the ImageStorage selected by SysConfig.IMAGE_STORAGE
+	 *
+	 * @methodtype factory
+	 */
+	protected ImageStorage createImageStorage() throws IOException {
+		String storageType = SysConfig.getInstance().getValue(SysConfig.IMAGE_STORAGE).trim();
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("image storage", storageType).log();
+		if ("filesystem".equals(storageType)) {
+			return new FileSystemImageStorage();
+		} else if ("segments".equals(storageType)) {
+			return new SegmentImageStorage();
+		} else if ("datastore".equals(storageType)) {
+			return new DatastoreAdapter();
+		} else {
+			throw new IllegalArgumentException("unknown image storage: " + storageType);
+		}
+	}
+
+	/**
+	 * Creates the ImageProcessor selected by SysConfig.IMAGE_PROCESSOR
+	 *
+	 * @methodtype factory
+	 */
+	protected ImageProcessor createImageProcessor() {
+		SysConfig sysConfig = SysConfig.getInstance();
+		String processorType = sysConfig.getValue(SysConfig.IMAGE_PROCESSOR).trim();
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("image processor", processorType).log();
+		if ("jdk".equals(processorType)) {
+			return new JdkImageProcessor(sysConfig.getIntValue(SysConfig.IMAGE_SCALING_THREADS));
+		} else if ("gae".equals(processorType)) {
+			return new GaeImageProcessor();
+		} else {
+			throw new IllegalArgumentException("unknown image processor: " + processorType);
+		}
+	}
+
+	/**
+	 * Creates the TaskQueue selected by SysConfig.TASK_QUEUE; a local queue runs the task servlets' handlers directly
+	 *
+	 * @methodtype factory
+	 */
+	protected TaskQueue createTaskQueue() {
+		SysConfig sysConfig = SysConfig.getInstance();
+		String queueType = sysConfig.getValue(SysConfig.TASK_QUEUE).trim();
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("task queue", queueType).log();
+		if ("local".equals(queueType)) {
+			LocalTaskQueue result = new LocalTaskQueue(sysConfig.getIntValue(SysConfig.TASK_QUEUE_THREADS),
+					sysConfig.getIntValue(SysConfig.TASK_QUEUE_SIZE));
+			result.setHandler(PersistPhotoAgent.URL, new PersistPhotoAgent());
+			result.setHandler(ProcessPhotoAgent.URL, new ProcessPhotoAgent());
+			result.setHandler(AgentManager.getUrl(WarmUpImageCacheAgent.NAME),
+					AgentManager.getInstance().getAgent(WarmUpImageCacheAgent.NAME));
+			return result;
+		} else if ("gae".equals(queueType)) {
+			return new GaeTaskQueue();
+		} else {
+			throw new IllegalArgumentException("unknown task queue: " + queueType);
+		}
 	}
 
+	/**
+	 * Prefetches images into the image cache with a task of the task queue, if images are loaded lazily and warm-up
+	 * sizes are configured. This is best effort; requests read missing images on demand anyway.
+	 */
+	protected void startImageCacheWarmUp() {
+		SysConfig sysConfig = SysConfig.getInstance();
+		boolean isLazyImageLoading = sysConfig.getBooleanValue(SysConfig.LAZY_IMAGE_LOADING);
+		boolean hasWarmUpSizes = !WarmUpImageCacheAgent.getWarmUpSizes().isEmpty();
+		if (isLazyImageLoading && hasWarmUpSizes && ImageStorage.getInstance() instanceof CachingImageStorage) {
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("warm up image cache").log();
+			AsyncTaskExecutor.startAgentAsync(WarmUpImageCacheAgent.NAME);
+		}
+	}
 
 	/**
 	 *
@@ -86,13 +215,16 @@ public abstract class ModelMain extends AbstractMain {
 	}
 
 	/**
-	 *
+	 * Saves all dirty objects in batches and returns what was written per entity kind
 	 */
-	public void saveAll() throws IOException{
-		PhotoCaseManager.getInstance().savePhotoCases();
-		FootballPhotoManager.getInstance().savePhotos();
-		UserManager.getInstance().saveClients();
+	public WriteStatistics saveAll() throws IOException{
+		WriteStatistics result = new WriteStatistics();
+		result.addAll(PhotoCaseManager.getInstance().savePhotoCases());
+		result.addAll(PhotoManager.getInstance().savePhotos());
+		result.addAll(UserManager.getInstance().saveClients());
+		result.addAll(ClientHistoryManager.getInstance().saveClientHistories());
 		GlobalsManager.getInstance().saveGlobals();
+		return result;
 	}
 
 	/**
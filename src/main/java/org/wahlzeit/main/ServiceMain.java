@@ -34,7 +34,9 @@ import org.wahlzeit.services.SysConfig;
 import org.wahlzeit.webparts.WebPartTemplateService;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URL;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -97,22 +99,22 @@ public class ServiceMain extends ModelMain {
 	public void startUp(boolean inProduction, String rootDir) throws Exception {
 		isInProduction = inProduction;
 
-		log.config(LogBuilder.createSystemMessage().addAction("Start up ModelMain").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Start up ModelMain").log();
 		super.startUp(rootDir);
 
-		log.config(LogBuilder.createSystemMessage().addAction("Configure WebPartTemplateService").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Configure WebPartTemplateService").log();
 		configureWebPartTemplateService();
 
-		log.config(LogBuilder.createSystemMessage().addAction("Configure WebPartHandler").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Configure WebPartHandler").log();
 		configureWebPartHandlers();
 
-		log.config(LogBuilder.createSystemMessage().addAction("Configure LanguageModels").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Configure LanguageModels").log();
 		configureLanguageModels();
 
-		log.config(LogBuilder.createSystemMessage().addAction("Add default user with pictures").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("Add default user with pictures").log();
 		addDefaultUserWithPictures();
 
-		log.config(LogBuilder.createSystemMessage().addMessage("StartUp complete.").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("StartUp complete.").log();
 	}
 
 	/**
@@ -120,7 +122,16 @@ public class ServiceMain extends ModelMain {
 	 */
 	public void configureWebPartTemplateService() {
 		ConfigDir templatesDir = SysConfig.getTemplatesDir();
-		WebPartTemplateService.getInstance().setTemplatesDir(templatesDir);
+		WebPartTemplateService templateService = WebPartTemplateService.getInstance();
+		templateService.setTemplatesDir(templatesDir);
+		if (SysConfig.getInstance().getBooleanValue(SysConfig.TEMPLATES_HOT_RELOAD)) {
+			try {
+				templateService.startWatching();
+			} catch (IOException ioex) {
+				LogBuilder.createSystemMessage(log, Level.WARNING).
+						addException("Unable to watch template files", ioex).log();
+			}
+		}
 	}
 
 	/**
@@ -246,6 +257,7 @@ public class ServiceMain extends ModelMain {
 		//AgentManager am = AgentManager.getInstance();
 		//am.stopAllThreads();
 
+		WebPartTemplateService.getInstance().stopWatching();
 		super.shutDown();
 	}
 
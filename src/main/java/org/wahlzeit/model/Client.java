@@ -24,19 +24,29 @@ import com.google.appengine.api.datastore.Key;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Ignore;
+import com.googlecode.objectify.annotation.IgnoreSave;
+import com.googlecode.objectify.annotation.OnLoad;
 import com.googlecode.objectify.annotation.Parent;
+import com.googlecode.objectify.condition.IfNull;
 import org.wahlzeit.services.EmailAddress;
 import org.wahlzeit.services.Language;
 import org.wahlzeit.services.ObjectManager;
 import org.wahlzeit.services.Persistent;
+import org.wahlzeit.services.WriteBehindQueue;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 /**
  * A Client uses the system. It is an abstract superclass. This package defines guest, user, moderator, and
  * administrator clients.
+ *
+ * The full praise and skip history of a client is kept in a separate ClientHistory, which is only loaded when it is
+ * needed; the client itself only keeps the few most recently praised photos.
  */
 @Entity
 public abstract class Client implements Serializable, Persistent {
@@ -72,9 +82,37 @@ public abstract class Client implements Serializable, Persistent {
 
 	protected PhotoSize photoSize = PhotoSize.MEDIUM;
 
-	protected List<PhotoId> praisedPhotoIds = new ArrayList<PhotoId>();
+	/**
+	 * Most recently praised photos, oldest first
+	 */
+	protected List<PhotoId> recentPraisedPhotoIds = new ArrayList<PhotoId>();
 
-	protected List<PhotoId> skippedPhotoIds = new ArrayList<PhotoId>();
+	/**
+	 *
+	 */
+	public static final int MAX_RECENT_PRAISED_PHOTO_IDS = 8;
+
+	/**
+	 * Loaded on demand, see getHistory()
+	 */
+	@Ignore
+	protected transient ClientHistory history;
+
+	/**
+	 * History of client entities written before histories were stored separately. It is saved with the client until
+	 * it has been moved into the ClientHistory and that has been saved, see clearLegacyHistory()
+	 */
+	@IgnoreSave(IfNull.class)
+	protected List<PhotoId> praisedPhotoIds;
+
+	@IgnoreSave(IfNull.class)
+	protected List<PhotoId> skippedPhotoIds;
+
+	/**
+	 * Set once the legacy history has been added to history
+	 */
+	@Ignore
+	protected transient boolean isLegacyHistoryMerged = false;
 
 
 	/**
@@ -97,7 +135,10 @@ public abstract class Client implements Serializable, Persistent {
 		// use some of the existing properties for the new user
 		if (previousClient != null) {
 			this.setLanguage(previousClient.getLanguage());
-			this.setPraisedPhotoIds(previousClient.getPraisedPhotoIds());
+			this.setRecentPraisedPhotoIds(previousClient.getRecentPraisedPhotoIds());
+			if (ClientHistoryManager.getInstance().hasLoadedClientHistory(previousClient.getId())) {
+				this.getHistory().addAll(previousClient.getHistory());
+			}
 			this.setPhotoSize(previousClient.getPhotoSize());
 		}
 
@@ -194,10 +235,11 @@ public abstract class Client implements Serializable, Persistent {
 	}
 
 	/**
-	 *
+	 * Also queues the client for writing, see WriteBehindQueue
 	 */
 	public void incWriteCount() {
 		writeCount++;
+		WriteBehindQueue.getInstance().enqueue(this);
 	}
 
 	/**
@@ -272,71 +314,139 @@ public abstract class Client implements Serializable, Persistent {
 	}
 
 	/**
+	 * Returns the praise and skip history, loading it if needed
+	 *
 	 * @methodtype get
 	 */
-	public List<PhotoId> getPraisedPhotoIds() {
-		return praisedPhotoIds;
+	public ClientHistory getHistory() {
+		if (history == null) {
+			ClientHistory newHistory = ClientHistoryManager.getInstance().getClientHistory(id);
+			if (hasLegacyHistory()) {
+				newHistory.addAll(asCollection(praisedPhotoIds), asCollection(skippedPhotoIds));
+				isLegacyHistoryMerged = true;
+			}
+			history = newHistory;
+		}
+		return history;
 	}
 
 	/**
-	 * @methodtype set
+	 * @methodtype get
 	 */
-	public void setPraisedPhotoIds(List<PhotoId> praisedPhotoIds) {
-		this.praisedPhotoIds = praisedPhotoIds;
+	public Set<PhotoId> getPraisedPhotoIds() {
+		return getHistory().getPraisedPhotoIds();
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean hasPraisedPhotoId(PhotoId photoId) {
+		return getHistory().hasPraisedPhotoId(photoId);
 	}
 
 	/**
 	 * @methodtype set
 	 */
 	public void addPraisedPhotoId(PhotoId ratedPhotoId) {
-		praisedPhotoIds.add(ratedPhotoId);
-		removeSkippedPhotoId(ratedPhotoId);
+		getHistory().addPraisedPhotoId(ratedPhotoId);
+		recentPraisedPhotoIds.remove(ratedPhotoId);
+		recentPraisedPhotoIds.add(ratedPhotoId);
+		if (recentPraisedPhotoIds.size() > MAX_RECENT_PRAISED_PHOTO_IDS) {
+			recentPraisedPhotoIds.remove(0);
+		}
+		incWriteCount();
 	}
 
 	/**
 	 * @methodtype get
 	 */
-	public Photo getLastPraisedPhoto() {
-		int indexOfLastPraisedPhoto = praisedPhotoIds.size() - 1;
-		Photo result = null;
-		while (indexOfLastPraisedPhoto >= 0 && result == null) {
-			PhotoId lastPraisedPhotoId = praisedPhotoIds.get(indexOfLastPraisedPhoto);
-			result = PhotoManager.getInstance().getPhoto(lastPraisedPhotoId);
-			if (result != null && !result.isVisible()) {
-				result = null;
-				indexOfLastPraisedPhoto--;
-			}
-		}
-		return result;
+	public List<PhotoId> getRecentPraisedPhotoIds() {
+		return recentPraisedPhotoIds;
 	}
 
 	/**
+	 * @methodtype set
+	 */
+	public void setRecentPraisedPhotoIds(List<PhotoId> newPhotoIds) {
+		int from = Math.max(0, newPhotoIds.size() - MAX_RECENT_PRAISED_PHOTO_IDS);
+		recentPraisedPhotoIds = new ArrayList<PhotoId>(newPhotoIds.subList(from, newPhotoIds.size()));
+		incWriteCount();
+	}
+
+	/**
+	 * Returns the most recently praised photo that is still visible, if it is among the recent ones
+	 *
 	 * @methodtype get
 	 */
-	public List<PhotoId> getSkippedPhotoIds() {
-		return skippedPhotoIds;
+	public Photo getLastPraisedPhoto() {
+		for (int i = recentPraisedPhotoIds.size() - 1; i >= 0; i--) {
+			Photo result = PhotoManager.getInstance().getPhoto(recentPraisedPhotoIds.get(i));
+			if (result != null && result.isVisible()) {
+				return result;
+			}
+		}
+		return null;
 	}
 
 	/**
 	 * @methodtype get
 	 */
-	public void setSkippedPhotoIds(List<PhotoId> skippedPhotoIds) {
-		this.skippedPhotoIds = skippedPhotoIds;
+	public Set<PhotoId> getSkippedPhotoIds() {
+		return getHistory().getSkippedPhotoIds();
 	}
 
 	/**
 	 * @methodtype set
 	 */
 	public void removeSkippedPhotoId(PhotoId skippedPhotoIdToRemove) {
-		skippedPhotoIds.remove(skippedPhotoIdToRemove);
+		getHistory().removeSkippedPhotoId(skippedPhotoIdToRemove);
 	}
 
 	/**
 	 * @methodtype set
 	 */
 	public void addSkippedPhotoId(PhotoId skippedPhotoId) {
-		if (!skippedPhotoIds.contains(skippedPhotoId)) {
-			skippedPhotoIds.add(skippedPhotoId);
+		getHistory().addSkippedPhotoId(skippedPhotoId);
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean hasLegacyHistory() {
+		return praisedPhotoIds != null || skippedPhotoIds != null;
+	}
+
+	/**
+	 * Drops the legacy history once it has been merged into the history and that has been saved without changes
+	 * since; called by ClientHistoryManager after saving the history. The client is saved without it later on.
+	 *
+	 * @methodtype command
+	 */
+	public void clearLegacyHistory() {
+		if (isLegacyHistoryMerged && hasLegacyHistory() && history != null && !history.isDirty()) {
+			praisedPhotoIds = null;
+			skippedPhotoIds = null;
+			incWriteCount();
+		}
+	}
+
+	/**
+	 * Fills the recently praised photos of client entities written before histories were stored separately
+	 *
+	 * @methodtype initialization
+	 */
+	@OnLoad
+	protected void initRecentPraisedPhotoIds() {
+		if (praisedPhotoIds != null && recentPraisedPhotoIds.isEmpty()) {
+			int from = Math.max(0, praisedPhotoIds.size() - MAX_RECENT_PRAISED_PHOTO_IDS);
+			recentPraisedPhotoIds = new ArrayList<PhotoId>(praisedPhotoIds.subList(from, praisedPhotoIds.size()));
 		}
 	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static Collection<PhotoId> asCollection(List<PhotoId> photoIds) {
+		return (photoIds == null) ? Collections.<PhotoId>emptyList() : photoIds;
+	}
 }
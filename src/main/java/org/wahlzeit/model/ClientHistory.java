@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Ignore;
+import com.googlecode.objectify.annotation.OnLoad;
+import com.googlecode.objectify.annotation.OnSave;
+import org.wahlzeit.services.DataObject;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * The praise and skip history of a client, stored in its own entity so that clients stay small, no matter how many
+ * photos they rated. Both sets are kept as PhotoIdSets in memory and stored in their compact externalized form.
+ * Histories are loaded on demand through the ClientHistoryManager.
+ */
+@Entity
+public class ClientHistory extends DataObject {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The id of the client
+	 */
+	@Id
+	protected String id;
+
+	/**
+	 * Externalized forms of the id sets, only up to date while saving
+	 */
+	protected byte[] praisedPhotoIdBytes;
+	protected byte[] skippedPhotoIdBytes;
+
+	/**
+	 *
+	 */
+	@Ignore
+	protected PhotoIdSet praisedPhotoIds = new PhotoIdSet();
+
+	@Ignore
+	protected PhotoIdSet skippedPhotoIds = new PhotoIdSet();
+
+	/**
+	 *
+	 */
+	protected ClientHistory() {
+		// do nothing, necessary for Objectify to load ClientHistories
+	}
+
+	/**
+	 *
+	 */
+	public ClientHistory(String clientId) {
+		id = clientId;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Set<PhotoId> getPraisedPhotoIds() {
+		return praisedPhotoIds;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public synchronized boolean hasPraisedPhotoId(PhotoId photoId) {
+		return praisedPhotoIds.contains(photoId);
+	}
+
+	/**
+	 * Adds the photo to the praised photos and removes it from the skipped photos
+	 *
+	 * @methodtype command
+	 */
+	public synchronized void addPraisedPhotoId(PhotoId photoId) {
+		boolean isChanged = praisedPhotoIds.add(photoId);
+		isChanged |= skippedPhotoIds.remove(photoId);
+		if (isChanged) {
+			incWriteCount();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Set<PhotoId> getSkippedPhotoIds() {
+		return skippedPhotoIds;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public synchronized boolean hasSkippedPhotoId(PhotoId photoId) {
+		return skippedPhotoIds.contains(photoId);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void addSkippedPhotoId(PhotoId photoId) {
+		if (skippedPhotoIds.add(photoId)) {
+			incWriteCount();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void removeSkippedPhotoId(PhotoId photoId) {
+		if (skippedPhotoIds.remove(photoId)) {
+			incWriteCount();
+		}
+	}
+
+	/**
+	 * Adds the praised and skipped photo ids of the given history, e.g. of the guest a user logged in from
+	 *
+	 * @methodtype command
+	 */
+	public void addAll(ClientHistory other) {
+		addAll(other.getPraisedPhotoIds(), other.getSkippedPhotoIds());
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void addAll(Collection<PhotoId> newPraisedPhotoIds, Collection<PhotoId> newSkippedPhotoIds) {
+		boolean isChanged = praisedPhotoIds.addAll(newPraisedPhotoIds);
+		for (PhotoId photoId : newSkippedPhotoIds) {
+			if (!praisedPhotoIds.contains(photoId)) {
+				isChanged |= skippedPhotoIds.add(photoId);
+			}
+		}
+		if (isChanged) {
+			incWriteCount();
+		}
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	@OnSave
+	protected synchronized void writeIdSets() {
+		praisedPhotoIdBytes = praisedPhotoIds.asByteArray();
+		skippedPhotoIdBytes = skippedPhotoIds.asByteArray();
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	@OnLoad
+	protected void readIdSets() throws IOException {
+		if (praisedPhotoIdBytes != null) {
+			praisedPhotoIds.setFromByteArray(praisedPhotoIdBytes);
+		}
+		if (skippedPhotoIdBytes != null) {
+			skippedPhotoIds.setFromByteArray(skippedPhotoIdBytes);
+		}
+		praisedPhotoIdBytes = null;
+		skippedPhotoIdBytes = null;
+	}
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.wahlzeit.services.ObjectManager;
+import org.wahlzeit.services.Persistent;
+import org.wahlzeit.services.WriteStatistics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The client history manager loads the praise and skip histories of clients on demand, i.e. when a client first
+ * rates or skips a photo after startup, and keeps them in memory from then on.
+ */
+public class ClientHistoryManager extends ObjectManager {
+
+	/**
+	 *
+	 */
+	protected static final ClientHistoryManager instance = new ClientHistoryManager();
+
+	/**
+	 * client id -> loaded or newly created history
+	 */
+	protected Map<String, ClientHistory> histories = new ConcurrentHashMap<String, ClientHistory>();
+
+	/**
+	 * @methodtype get
+	 */
+	public static ClientHistoryManager getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Returns the history of the client, reading it from the datastore or creating an empty one if needed
+	 *
+	 * @methodtype get
+	 */
+	public ClientHistory getClientHistory(String clientId) {
+		assertIsNonNullArgument(clientId, "clientId");
+
+		ClientHistory result = histories.get(clientId);
+		if (result == null) {
+			ClientHistory history = readObject(ClientHistory.class, clientId);
+			if (history == null) {
+				history = new ClientHistory(clientId);
+			}
+			result = histories.putIfAbsent(clientId, history);
+			if (result == null) {
+				result = history;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean hasLoadedClientHistory(String clientId) {
+		return histories.containsKey(clientId);
+	}
+
+	/**
+	 * Deletes the history of a client that is being deleted; histories that were never loaded are not touched.
+	 *
+	 * @methodtype command
+	 */
+	public void deleteClientHistory(String clientId) {
+		ClientHistory history = histories.remove(clientId);
+		if (history != null) {
+			deleteObject(history);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public WriteStatistics saveClientHistories() {
+		return updateObjects(histories.values());
+	}
+
+	/**
+	 * Once a history has been saved, its client no longer needs to keep the history it was migrated from.
+	 */
+	@Override
+	protected void updateDependents(Persistent object) {
+		if (object instanceof ClientHistory) {
+			Client client = UserManager.getInstance().getClientById(((ClientHistory) object).getId());
+			if (client != null) {
+				client.clearLegacyHistory();
+			}
+		}
+	}
+
+	/**
+	 * Only loaded histories of known clients are written behind.
+	 */
+	@Override
+	protected boolean isWriteBehindManaged(Persistent object) {
+		return object instanceof ClientHistory && histories.get(((ClientHistory) object).getId()) == object;
+	}
+
+}
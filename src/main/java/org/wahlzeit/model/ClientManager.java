@@ -2,11 +2,15 @@ package org.wahlzeit.model;
 
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.ObjectManager;
+import org.wahlzeit.services.Persistent;
+import org.wahlzeit.services.WriteStatistics;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -73,7 +77,7 @@ public abstract class ClientManager extends ObjectManager {
 		idClientMap.put(client.getId(), client);
 		writeObject(client);
 		listOfUsedNicknames.add(client.getNickName());
-		log.config(LogBuilder.createSystemMessage().addParameter("Added new user", client.getId()).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Added new user", client.getId()).log();
 	}
 
 	/**
@@ -126,9 +130,9 @@ public abstract class ClientManager extends ObjectManager {
 	public void doAddHttpSessionIdToClientMapping(String httpSessionId, Client client) {
 		httpSessionIdToClientMap.put(httpSessionId, client);
 		client.setHttpSessionId(httpSessionId);
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addParameter("client name", client.getNickName()).
-				addParameter("httpSessionId", httpSessionId).toString());
+				addParameter("httpSessionId", httpSessionId).log();
 	}
 
 
@@ -156,8 +160,25 @@ public abstract class ClientManager extends ObjectManager {
 	/**
 	 * @methodtype command
 	 */
-	public void saveClients() {
-		updateObjects(idClientMap.values());
+	public WriteStatistics saveClients() {
+		return updateObjects(idClientMap.values());
+	}
+
+	/**
+	 * Only registered clients are written behind; e.g. guests that have been removed are not.
+	 */
+	@Override
+	protected boolean isWriteBehindManaged(Persistent object) {
+		return object instanceof Client && idClientMap.get(((Client) object).getId()) == object;
+	}
+
+	/**
+	 * Saves the given clients in batches, e.g. the owners of a batch of photos
+	 *
+	 * @methodtype command
+	 */
+	public WriteStatistics saveClients(Collection<? extends Client> clients) {
+		return updateObjects(clients);
 	}
 
 
@@ -226,6 +247,7 @@ public abstract class ClientManager extends ObjectManager {
 	protected void doDeleteClient(Client client) {
 		idClientMap.remove(client.getId());
 		deleteObject(client);
+		ClientHistoryManager.getInstance().deleteClientHistory(client.getId());
 	}
 
 	/**
@@ -2,6 +2,9 @@ package org.wahlzeit.model;
 
 import java.util.Date;
 
+import com.googlecode.objectify.annotation.Ignore;
+import com.googlecode.objectify.annotation.Subclass;
+
 import org.wahlzeit.model.FootballType.FootballTypeScene;
 import org.wahlzeit.model.FootballType.Tournament;
 
@@ -41,11 +44,13 @@ import org.wahlzeit.model.FootballType.Tournament;
  *
  */
 
+@Subclass(index = true)
 public class FootballPhoto extends Photo {
 	/*
 	 *  The particular fooball scene depicted on the associated photo. Refrained from making this final
-	 *  as FootballPhoto still workable without this attribute set
+	 *  as FootballPhoto still workable without this attribute set. Shared with FootballManager, so not persisted
 	 */
+	@Ignore
 	private Football football;
 	/*
 	 *  Date on which the FootballPhoto was taken. Refrained from making this final
@@ -1,5 +1,6 @@
 package org.wahlzeit.model;
 
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.Date;
 
@@ -41,7 +42,7 @@ public class FootballPhotoFactory extends PhotoFactory {
 	 */
 	public static synchronized FootballPhotoFactory getInstance() {
 		if(instance == null) {
-			log.config(LogBuilder.createSystemMessage().addAction("setting generic FootballPhotoFactory").toString());
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("setting generic FootballPhotoFactory").log();
 			//call hidden setInstance method we provide in this class
 			setInstance(new FootballPhotoFactory());
 		}
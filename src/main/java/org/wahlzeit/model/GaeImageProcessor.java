@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesService;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+
+import java.util.concurrent.Future;
+
+/**
+ * ImageProcessor that uses the App Engine ImagesService. Scaling calls are asynchronous RPCs, so several sizes are
+ * scaled in parallel without additional threads (which App Engine requests could not use for API calls anyway).
+ */
+public class GaeImageProcessor extends ImageProcessor {
+
+	/**
+	 *
+	 */
+	protected final ImagesService imagesService = ImagesServiceFactory.getImagesService();
+
+	@Override
+	public ProcessedImage decode(Image source) {
+		return new GaeImage(source);
+	}
+
+	/**
+	 * applyTransform replaces the data of the image it is given, so the transform gets a new Image that shares the
+	 * (immutable) data array of the source instead of the source itself.
+	 */
+	@Override
+	public Future<ProcessedImage> scale(ProcessedImage source, int targetWidth, int targetHeight) {
+		Image sourceImage = ((GaeImage) source).image;
+		Image target = ImagesServiceFactory.makeImage(sourceImage.getImageData());
+		Future<Image> result = imagesService.applyTransformAsync(
+				ImagesServiceFactory.makeResize(targetWidth, targetHeight), target);
+		return Futures.lazyTransform(result, new Function<Image, ProcessedImage>() {
+			@Override
+			public ProcessedImage apply(Image image) {
+				return new GaeImage(image);
+			}
+		});
+	}
+
+	/**
+	 *
+	 */
+	protected static class GaeImage extends ProcessedImage {
+
+		/**
+		 *
+		 */
+		protected final Image image;
+
+		/**
+		 *
+		 */
+		protected GaeImage(Image image) {
+			this.image = image;
+		}
+
+		@Override
+		public int getWidth() {
+			return image.getWidth();
+		}
+
+		@Override
+		public int getHeight() {
+			return image.getHeight();
+		}
+
+		@Override
+		public Image asImage() {
+			return image;
+		}
+	}
+
+}
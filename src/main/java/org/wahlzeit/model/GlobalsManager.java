@@ -2,6 +2,7 @@ package org.wahlzeit.model;
 
 import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.Work;
+import org.wahlzeit.services.DatastoreTracer;
 import org.wahlzeit.services.ObjectManager;
 import org.wahlzeit.servlets.AbstractServlet;
 
@@ -60,7 +61,10 @@ public class GlobalsManager extends ObjectManager {
 		return ObjectifyService.run(new Work<Boolean>() {
 			@Override
 			public Boolean run() {
-				return ofy().load().type(Globals.class).first().now() != null;
+				long startNanos = System.nanoTime();
+				boolean result = ofy().load().type(Globals.class).first().now() != null;
+				traceCall(DatastoreTracer.QUERY, Globals.class, startNanos);
+				return result;
 			}
 		});
 	}
@@ -84,7 +88,9 @@ public class GlobalsManager extends ObjectManager {
 				globals.setLastPhotoId(0);
 				globals.setLastCaseId(0);
 				globals.setLastSessionId(0);
+				long startNanos = System.nanoTime();
 				ofy().save().entity(globals).now();
+				traceCall(DatastoreTracer.SAVE, Globals.class, startNanos);
 				return null;
 			}
 		});
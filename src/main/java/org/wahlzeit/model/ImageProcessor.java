@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.SpooledUpload;
+
+import java.io.IOException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Abstract super class for the image operations needed to create the scaled images of a photo. An uploaded image is
+ * decoded once into a ProcessedImage, from which scaled versions can be derived, possibly in parallel. Implementations
+ * are GaeImageProcessor (App Engine ImagesService) and JdkImageProcessor (java.awt.image and ImageIO), which also
+ * works off-platform.
+ */
+public abstract class ImageProcessor {
+
+	private static final Logger log = Logger.getLogger(ImageProcessor.class.getName());
+
+	/**
+	 *
+	 */
+	protected static ImageProcessor instance = null;
+
+	/**
+	 * Returns the ImageProcessor, by default a GaeImageProcessor
+	 *
+	 * @methodtype get
+	 */
+	public static synchronized ImageProcessor getInstance() {
+		if (instance == null) {
+			setInstance(new GaeImageProcessor());
+		}
+		return instance;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public static synchronized void setInstance(ImageProcessor newInstance) {
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addAction("set ImageProcessor instance").
+				addParameter("instance", newInstance).log();
+		instance = newInstance;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public abstract ProcessedImage decode(Image source) throws IOException;
+
+	/**
+	 * Decodes an uploaded file; by default it is read into an Image first.
+	 *
+	 * @methodtype conversion
+	 */
+	public ProcessedImage decode(SpooledUpload upload) throws IOException {
+		return decode(upload.asImage());
+	}
+
+	/**
+	 * Starts scaling the image to exactly the given width and height; the source is not changed.
+	 *
+	 * @methodtype factory
+	 */
+	public abstract Future<ProcessedImage> scale(ProcessedImage source, int targetWidth, int targetHeight);
+
+	/**
+	 * An image in the representation of its ImageProcessor
+	 */
+	public abstract static class ProcessedImage {
+
+		/**
+		 * @methodtype get
+		 */
+		public abstract int getWidth();
+
+		/**
+		 * @methodtype get
+		 */
+		public abstract int getHeight();
+
+		/**
+		 * Returns the encoded image
+		 *
+		 * @methodtype conversion
+		 */
+		public abstract Image asImage() throws IOException;
+	}
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.wahlzeit.services.SpooledUpload;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ImageProcessor that only uses the JDK (java.awt.image and ImageIO), e.g. for running outside of App Engine. Scaling
+ * runs on a bounded pool of daemon threads; if all threads are busy and the queue is full, the calling thread scales
+ * the image itself. Images with transparency are encoded as PNG, all others as JPEG.
+ */
+public class JdkImageProcessor extends ImageProcessor {
+
+	/**
+	 *
+	 */
+	protected static final int QUEUE_SIZE = 64;
+
+	/**
+	 *
+	 */
+	protected final ThreadPoolExecutor executor;
+
+	/**
+	 *
+	 */
+	public JdkImageProcessor(int noThreads) {
+		final AtomicInteger noCreatedThreads = new AtomicInteger();
+		executor = new ThreadPoolExecutor(noThreads, noThreads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread result = new Thread(runnable, "image-scaler-" + noCreatedThreads.incrementAndGet());
+				result.setDaemon(true);
+				return result;
+			}
+		}, new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	@Override
+	public ProcessedImage decode(Image source) throws IOException {
+		BufferedImage image = ImageIO.read(new ByteArrayInputStream(source.getImageData()));
+		if (image == null) {
+			throw new IOException("unsupported image format");
+		}
+		return new JdkImage(image, source);
+	}
+
+	/**
+	 * Spooled uploads are decoded straight from their file, without reading them into memory first.
+	 */
+	@Override
+	public ProcessedImage decode(SpooledUpload upload) throws IOException {
+		if (upload.isInMemory()) {
+			return super.decode(upload);
+		}
+
+		BufferedImage image = ImageIO.read(upload.getFile());
+		if (image == null) {
+			throw new IOException("unsupported image format");
+		}
+		return new JdkImage(image, null);
+	}
+
+	/**
+	 * The scaled image is encoded by the worker as well, so that asImage() of the result does not block.
+	 */
+	@Override
+	public Future<ProcessedImage> scale(final ProcessedImage source, final int targetWidth, final int targetHeight) {
+		return executor.submit(new Callable<ProcessedImage>() {
+			@Override
+			public ProcessedImage call() throws IOException {
+				JdkImage result = new JdkImage(resize(((JdkImage) source).image, targetWidth, targetHeight), null);
+				result.asImage();
+				return result;
+			}
+		});
+	}
+
+	/**
+	 * Halves the image until it is less than twice the target size, then scales it to the target size. Bilinear
+	 * interpolation alone would skip source pixels when shrinking by more than half.
+	 *
+	 * @methodtype helper
+	 */
+	protected static BufferedImage resize(BufferedImage source, int targetWidth, int targetHeight) {
+		BufferedImage result = source;
+		int width = source.getWidth();
+		int height = source.getHeight();
+		do {
+			width = (width / 2 >= targetWidth) ? width / 2 : targetWidth;
+			height = (height / 2 >= targetHeight) ? height / 2 : targetHeight;
+			result = draw(result, width, height);
+		} while (width != targetWidth || height != targetHeight);
+		return result;
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected static BufferedImage draw(BufferedImage source, int width, int height) {
+		int type = source.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+		BufferedImage result = new BufferedImage(width, height, type);
+		Graphics2D graphics = result.createGraphics();
+		try {
+			graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			graphics.drawImage(source, 0, 0, width, height, null);
+		} finally {
+			graphics.dispose();
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	protected static class JdkImage extends ProcessedImage {
+
+		/**
+		 *
+		 */
+		protected final BufferedImage image;
+
+		/**
+		 * Encoded image, created on demand
+		 */
+		protected Image encoded;
+
+		/**
+		 *
+		 */
+		protected JdkImage(BufferedImage image, Image encoded) {
+			this.image = image;
+			this.encoded = encoded;
+		}
+
+		@Override
+		public int getWidth() {
+			return image.getWidth();
+		}
+
+		@Override
+		public int getHeight() {
+			return image.getHeight();
+		}
+
+		@Override
+		public synchronized Image asImage() throws IOException {
+			if (encoded == null) {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				String format = image.getColorModel().hasAlpha() ? "png" : "jpg";
+				if (!ImageIO.write(image, format, out)) {
+					throw new IOException("no ImageIO writer for " + format);
+				}
+				encoded = ImagesServiceFactory.makeImage(out.toByteArray());
+			}
+			return encoded;
+		}
+	}
+
+}
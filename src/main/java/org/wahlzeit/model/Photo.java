@@ -27,12 +27,18 @@ import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Ignore;
 import com.googlecode.objectify.annotation.Parent;
+import org.wahlzeit.model.persistence.ImageStorage;
 import org.wahlzeit.services.DataObject;
 import org.wahlzeit.services.EmailAddress;
 import org.wahlzeit.services.Language;
+import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.ObjectManager;
 
+import java.io.IOException;
+import java.io.Serializable;
 import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * A photo represents a user-provided (uploaded) photo.
@@ -40,6 +46,8 @@ import java.util.Map;
 @Entity
 public class Photo extends DataObject {
 
+	private static final Logger log = Logger.getLogger(Photo.class.getName());
+
 	/**
 	 *
 	 */
@@ -78,6 +86,8 @@ public class Photo extends DataObject {
 	/**
 	 * Each photo can be viewed in different sizes (XS, S, M, L, XL)
 	 * Images are pre-computed in these sizes to optimize bandwidth when requested.
+	 * Only images that have not been written to the ImageStorage yet are held here; all others are read lazily
+	 * through the (caching) ImageStorage.
 	 */
 	@Ignore
 	transient protected Map<PhotoSize, Image> images = new ArrayMap<PhotoSize, Image>();
@@ -150,19 +160,60 @@ public class Photo extends DataObject {
 	}
 
 	/**
+	 * Returns the image of the given size; if it has already been stored, it is read through the ImageStorage.
+	 *
 	 * @methodtype get
 	 */
 	public Image getImage(PhotoSize photoSize) {
-		return images.get(photoSize);
+		Image result = getUnsavedImage(photoSize);
+		if (result == null) {
+			try {
+				Serializable rawImage = ImageStorage.getInstance().readImage(getIdAsString(), photoSize.asInt());
+				if (rawImage instanceof Image) {
+					result = (Image) rawImage;
+				}
+			} catch (IOException e) {
+				LogBuilder.createSystemMessage(log, Level.WARNING).
+						addParameter("photo ID", getIdAsString()).
+						addParameter("size", photoSize.asString()).
+						addException("Could not read image", e).log();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the image of the given size if it has not been written to the ImageStorage yet, otherwise null.
+	 *
+	 * @methodtype get
+	 */
+	public synchronized Image getUnsavedImage(PhotoSize photoSize) {
+		return (images == null) ? null : images.get(photoSize);
 	}
 
 	/**
+	 * Sets a newly scaled image; it is kept in memory until it has been written to the ImageStorage.
+	 *
 	 * @methodtype set
 	 */
-	public void setImage(PhotoSize photoSize, Image image) {
+	public synchronized void setImage(PhotoSize photoSize, Image image) {
+		if (images == null) {
+			images = new ArrayMap<PhotoSize, Image>();
+		}
 		this.images.put(photoSize, image);
 	}
 
+	/**
+	 * Releases the in-memory image after it has been written to the ImageStorage.
+	 *
+	 * @methodtype command
+	 */
+	public synchronized void setImageSaved(PhotoSize photoSize) {
+		if (images != null) {
+			images.remove(photoSize);
+		}
+	}
+
 	/**
 	 * @methodtype get
 	 */
@@ -365,6 +416,7 @@ public class Photo extends DataObject {
 	public void setStatus(PhotoStatus newStatus) {
 		status = newStatus;
 		incWriteCount();
+		PhotoManager.getInstance().getPhotoCache().updateVisibility(this);
 	}
 
 	/**
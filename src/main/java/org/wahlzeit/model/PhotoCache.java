@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * In-memory cache for photos, indexed directly by PhotoId.asInt(). Photo ids are handed out densely and
+ * sequentially, so a plain array is both smaller and faster than a hash map.
+ *
+ * Reads never lock. Writes are serialized; when an id does not fit, the array is copied into a larger one which is
+ * then published as a whole. Outside of this package the cache is read-only.
+ *
+ * Next to the photos, the cache keeps a bitmap of the ids of all visible photos, which is updated when photos are
+ * added or removed and when their status changes; PhotoFilter selects random photos from it.
+ */
+public class PhotoCache implements Iterable<Photo> {
+
+	/**
+	 *
+	 */
+	protected volatile AtomicReferenceArray<Photo> photos;
+
+	/**
+	 *
+	 */
+	protected volatile int size = 0;
+
+	/**
+	 * One bit per photo id, set if the photo is cached and visible; grown together with photos
+	 */
+	protected volatile AtomicLongArray visibleWords;
+	protected volatile int noVisiblePhotos = 0;
+
+	/**
+	 *
+	 */
+	public PhotoCache() {
+		this(PhotoId.getCurrentIdAsInt() + PhotoId.BUFFER_SIZE_INCREMENT);
+	}
+
+	/**
+	 *
+	 */
+	public PhotoCache(int initialCapacity) {
+		photos = new AtomicReferenceArray<Photo>(Math.max(initialCapacity, 1));
+		visibleWords = new AtomicLongArray(getNoWords(photos.length()));
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Photo get(int id) {
+		AtomicReferenceArray<Photo> current = photos;
+		return (id >= 0 && id < current.length()) ? current.get(id) : null;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Photo get(PhotoId id) {
+		return get(id.asInt());
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean contains(int id) {
+		return get(id) != null;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean contains(PhotoId id) {
+		return contains(id.asInt());
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isVisible(int id) {
+		AtomicLongArray current = visibleWords;
+		int index = id >> 6;
+		return id >= 0 && index < current.length() && (current.get(index) & (1L << id)) != 0;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoVisiblePhotos() {
+		return noVisiblePhotos;
+	}
+
+	/**
+	 * Returns the visibility bits of ids index * 64 to index * 64 + 63
+	 *
+	 * @methodtype get
+	 */
+	public long getVisibleWord(int index) {
+		AtomicLongArray current = visibleWords;
+		return (index < current.length()) ? current.get(index) : 0;
+	}
+
+	/**
+	 * Returns the number of words of the visibility bitmap; all ids are < getNoVisibleWords() * 64
+	 *
+	 * @methodtype get
+	 */
+	public int getNoVisibleWords() {
+		return visibleWords.length();
+	}
+
+	/**
+	 * Updates the visibility bitmap after the status of the photo changed; ignored if the photo is not cached.
+	 *
+	 * @methodtype command
+	 */
+	public synchronized void updateVisibility(Photo photo) {
+		int id = photo.getId().asInt();
+		if (get(id) == photo) {
+			setVisible(id, photo.isVisible());
+		}
+	}
+
+	/**
+	 * Returns a read-only collection view of all cached photos, e.g. for ObjectManager.updateObjects.
+	 *
+	 * @methodtype conversion
+	 */
+	public Collection<Photo> values() {
+		return new AbstractCollection<Photo>() {
+			@Override
+			public Iterator<Photo> iterator() {
+				return PhotoCache.this.iterator();
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/**
+	 * Iterates over all cached photos in ascending id order. Photos added while iterating may or may not be seen.
+	 */
+	@Override
+	public Iterator<Photo> iterator() {
+		final AtomicReferenceArray<Photo> snapshot = photos;
+		return new Iterator<Photo>() {
+			private int index = -1;
+			private Photo next = advance();
+
+			private Photo advance() {
+				for (index++; index < snapshot.length(); index++) {
+					Photo photo = snapshot.get(index);
+					if (photo != null) {
+						return photo;
+					}
+				}
+				return null;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public Photo next() {
+				if (next == null) {
+					throw new NoSuchElementException();
+				}
+				Photo result = next;
+				next = advance();
+				return result;
+			}
+		};
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	synchronized void put(Photo photo) {
+		int id = photo.getId().asInt();
+		ensureCapacity(id);
+		if (photos.getAndSet(id, photo) == null) {
+			size++;
+		}
+		setVisible(id, photo.isVisible());
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	synchronized void remove(int id) {
+		AtomicReferenceArray<Photo> current = photos;
+		if (id >= 0 && id < current.length() && current.getAndSet(id, null) != null) {
+			size--;
+			setVisible(id, false);
+		}
+	}
+
+	/**
+	 * @methodtype set
+	 * @methodproperties primitive
+	 */
+	protected void setVisible(int id, boolean isVisible) {
+		int index = id >> 6;
+		long word = visibleWords.get(index);
+		long newWord = isVisible ? (word | (1L << id)) : (word & ~(1L << id));
+		if (newWord != word) {
+			visibleWords.set(index, newWord);
+			noVisiblePhotos += isVisible ? 1 : -1;
+		}
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected static int getNoWords(int noIds) {
+		return (noIds + 63) >> 6;
+	}
+
+	/**
+	 * Grows the array so that it can hold the given id as well as all ids handed out so far.
+	 *
+	 * @methodtype command
+	 * @methodproperties primitive
+	 */
+	protected void ensureCapacity(int id) {
+		AtomicReferenceArray<Photo> current = photos;
+		if (id < current.length()) {
+			return;
+		}
+
+		int newLength = Math.max(id, PhotoId.getCurrentIdAsInt()) + PhotoId.BUFFER_SIZE_INCREMENT;
+		newLength = Math.max(newLength, current.length() + (current.length() >> 1));
+		AtomicReferenceArray<Photo> grown = new AtomicReferenceArray<Photo>(newLength);
+		for (int i = 0; i < current.length(); i++) {
+			grown.lazySet(i, current.get(i));
+		}
+
+		AtomicLongArray currentVisibleWords = visibleWords;
+		AtomicLongArray grownVisibleWords = new AtomicLongArray(getNoWords(newLength));
+		for (int i = 0; i < currentVisibleWords.length(); i++) {
+			grownVisibleWords.lazySet(i, currentVisibleWords.get(i));
+		}
+		visibleWords = grownVisibleWords;
+		photos = grown;
+	}
+
+}
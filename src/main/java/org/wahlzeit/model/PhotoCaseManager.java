@@ -21,6 +21,8 @@
 package org.wahlzeit.model;
 
 import org.wahlzeit.services.ObjectManager;
+import org.wahlzeit.services.Persistent;
+import org.wahlzeit.services.WriteStatistics;
 
 import java.util.Arrays;
 import java.util.Collection;
@@ -111,10 +113,19 @@ public class PhotoCaseManager extends ObjectManager {
 	/**
 	 * @methodtype command
 	 */
-	public void savePhotoCases() {
+	public WriteStatistics savePhotoCases() {
 		if (openPhotoCases != null && openPhotoCases.size() > 0) {
-			updateObjects(openPhotoCases.values());
+			return updateObjects(openPhotoCases.values());
 		}
+		return new WriteStatistics();
+	}
+
+	/**
+	 * Only open cases are written behind; decided cases have been removed already.
+	 */
+	@Override
+	protected boolean isWriteBehindManaged(Persistent object) {
+		return object instanceof PhotoCase && openPhotoCases.get(((PhotoCase) object).getId()) == object;
 	}
 
 	/**
@@ -24,6 +24,7 @@ import org.wahlzeit.customexceptions.FootballPhotoCreationException;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.utils.PatternInstance;
 
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 @PatternInstance (
@@ -61,7 +62,7 @@ public class PhotoFactory {
 	 */
 	public static synchronized PhotoFactory getInstance() {
 		if (instance == null) {
-			log.config(LogBuilder.createSystemMessage().addAction("setting generic PhotoFactory").toString());
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("setting generic PhotoFactory").log();
 			setInstance(new PhotoFactory());
 		}
 
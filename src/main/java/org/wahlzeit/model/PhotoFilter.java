@@ -23,19 +23,37 @@ package org.wahlzeit.model;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.utils.StringUtil;
 
-import java.io.Serializable;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * A class to specify a photo filter.
  * A photo filter captures selection ("filtering") criteria for photos.
+ *
+ * It also selects the next photo to show: a random visible photo that matches the criteria and has been neither
+ * praised (processed) nor skipped in this session, or if there is none, a random skipped one. Processed and skipped
+ * photos are kept as bitmaps over PhotoId.asInt(), so the selection can combine them word by word with the bitmap of
+ * visible photos in the PhotoCache, without building a list of candidates.
+ *
+ * A photo filter lives in the HttpSession, so it is externalized in a compact, versioned form: the criteria and the
+ * two id sets, but not the displayable photo ids, which are regenerated on demand. It remembers whether it changed,
+ * so the UserSession only writes it back to the HttpSession when needed.
  */
-public class PhotoFilter implements Serializable {
+public class PhotoFilter implements Externalizable {
+
+	private static final long serialVersionUID = 1L;
 
 	private static Logger log = Logger.getLogger(PhotoFilter.class.getName());
 
@@ -55,13 +73,23 @@ public class PhotoFilter implements Serializable {
 	 *
 	 */
 	protected List<PhotoId> displayablePhotoIds;
-	protected List<PhotoId> processedPhotoIds = new LinkedList<PhotoId>();
-	protected List<PhotoId> skippedPhotoIds = new LinkedList<PhotoId>();
+	protected PhotoIdSet processedPhotoIds = new PhotoIdSet();
+	protected PhotoIdSet skippedPhotoIds = new PhotoIdSet();
 
 	/**
-	 *
+	 * Number of random ids tried before the selectable photos are counted to pick one of them directly
+	 */
+	protected static final int MAX_PROBES = 16;
+
+	/**
+	 * Version of the externalized form
 	 */
-	protected Random randomNumber = new Random(System.currentTimeMillis());
+	protected static final int VERSION = 1;
+
+	/**
+	 * Set if the criteria or the id sets changed since the last resetDirty()
+	 */
+	protected transient boolean isDirty = false;
 
 	/**
 	 *
@@ -84,13 +112,17 @@ public class PhotoFilter implements Serializable {
 		setUserName("");
 		setTags(Tags.EMPTY_TAGS);
 		displayablePhotoIds.clear();
-		processedPhotoIds.clear();
+		if (!processedPhotoIds.isEmpty()) {
+			processedPhotoIds.clear();
+			isDirty = true;
+		}
 	}
 
 	/**
 	 *
 	 */
 	public void setUserName(String newUserName) {
+		isDirty |= !userName.equals(newUserName);
 		userName = newUserName;
 		resetDisplayablePhotoIds();
 	}
@@ -106,6 +138,7 @@ public class PhotoFilter implements Serializable {
 	 *
 	 */
 	public void setTags(Tags newTags) {
+		isDirty |= !tags.isEqual(newTags);
 		tags = newTags;
 		resetDisplayablePhotoIds();
 	}
@@ -137,6 +170,9 @@ public class PhotoFilter implements Serializable {
 	}
 
 	/**
+	 * Materializes the list of displayable photo ids; only needed by getDisplayablePhotoIds(), as getRandomPhotoId()
+	 * works on the bitmaps directly.
+	 *
 	 * @methodtype command
 	 */
 	public void generateDisplayablePhotoIds() {
@@ -144,18 +180,35 @@ public class PhotoFilter implements Serializable {
 	}
 
 	/**
-	 * Get a random photo that has not been rated. If possible avoid skipped photos.
+	 * Get a random photo from the displayable photo ids as generated by generateDisplayablePhotoIds()
 	 */
 	public PhotoId getRandomDisplayablePhotoId() {
 		if (!displayablePhotoIds.isEmpty()) {
-			int size = displayablePhotoIds.size();
-			int index = ((randomNumber.nextInt() % size) + size) / 2;
+			int index = getRandom().nextInt(displayablePhotoIds.size());
 			return displayablePhotoIds.get(index);
 		} else {
 			return PhotoId.NULL_ID;
 		}
 	}
 
+	/**
+	 * Get a random visible photo that matches the filter and has not been rated or skipped; if there is none, a
+	 * random skipped one. Each selectable photo is equally likely.
+	 */
+	public PhotoId getRandomPhotoId() {
+		PhotoCache photoCache = getPhotoCache();
+		int[] candidates = getCandidatePhotoIds();
+
+		int result = (candidates == null) ?
+				selectRandomPhotoId(photoCache) : selectRandomPhotoId(photoCache, candidates);
+		if (result < 0) {
+			result = selectRandomSkippedPhotoId(photoCache, candidates);
+		}
+
+		Photo photo = (result < 0) ? null : photoCache.get(result);
+		return (photo == null) ? PhotoId.NULL_ID : photo.getId();
+	}
+
 	/**
 	 *
 	 */
@@ -180,7 +233,7 @@ public class PhotoFilter implements Serializable {
 	/**
 	 *
 	 */
-	public List<PhotoId> getProcessedPhotoIds() {
+	public Set<PhotoId> getProcessedPhotoIds() {
 		return processedPhotoIds;
 	}
 
@@ -188,91 +241,270 @@ public class PhotoFilter implements Serializable {
 	 *
 	 */
 	public boolean isProcessedPhotoId(PhotoId photoId) {
-		log.info("photoId: " + photoId.asString());
-		for (PhotoId id : processedPhotoIds) {
-			log.info("Processed id: " + id.asString());
-		}
 		return processedPhotoIds.contains(photoId);
 	}
 
 	/**
 	 *
 	 */
-	public void addProcessedPhoto(Photo photo) {
+	public boolean addProcessedPhoto(Photo photo) {
 		PhotoId photoId = photo.getId();
-		processedPhotoIds.add(photoId);
-		skippedPhotoIds.remove(photoId);
+		boolean result = processedPhotoIds.add(photoId);
+		result |= skippedPhotoIds.remove(photoId);
 		if (displayablePhotoIds != null) {
 			displayablePhotoIds.remove(photoId);
 		}
+		isDirty |= result;
+		return result;
 	}
 
 
 	/**
 	 * @methodtype get
 	 */
-	public List<PhotoId> getSkippedPhotoIds() {
+	public Set<PhotoId> getSkippedPhotoIds() {
 		return skippedPhotoIds;
 	}
 
 	/**
 	 * @methodtype set
 	 */
-	public void setSkippedPhotoIds(List<PhotoId> skippedPhotoIds) {
-		this.skippedPhotoIds = skippedPhotoIds;
+	public void setSkippedPhotoIds(Collection<PhotoId> skippedPhotoIds) {
+		this.skippedPhotoIds.clear();
+		this.skippedPhotoIds.addAll(skippedPhotoIds);
+		isDirty = true;
 	}
 
 	/**
 	 * @methodtype set
 	 */
-	public void addSkippedPhotoId(PhotoId skippedPhotoId) {
-		if (!skippedPhotoIds.contains(skippedPhotoId)) {
-			skippedPhotoIds.add(skippedPhotoId);
+	public boolean addSkippedPhotoId(PhotoId skippedPhotoId) {
+		boolean result = skippedPhotoIds.add(skippedPhotoId);
+		isDirty |= result;
+		return result;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isDirty() {
+		return isDirty;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void resetDirty() {
+		isDirty = false;
+	}
+
+	@Override
+	public void writeExternal(ObjectOutput out) throws IOException {
+		out.writeByte(VERSION);
+		out.writeUTF(userName);
+		out.writeUTF(tags.asString());
+		processedPhotoIds.writeExternal(out);
+		skippedPhotoIds.writeExternal(out);
+	}
+
+	@Override
+	public void readExternal(ObjectInput in) throws IOException {
+		int version = in.readUnsignedByte();
+		if (version != VERSION) {
+			throw new InvalidClassException(PhotoFilter.class.getName(), "unknown version: " + version);
 		}
+
+		userName = in.readUTF();
+		String tagsAsString = in.readUTF();
+		tags = tagsAsString.isEmpty() ? Tags.EMPTY_TAGS : new Tags(tagsAsString);
+		processedPhotoIds.readExternal(in);
+		skippedPhotoIds.readExternal(in);
+		resetDisplayablePhotoIds();
+		isDirty = false;
 	}
 
 	/**
+	 * Returns the sorted ids of the photos matching the filter conditions, or null if there are none
 	 *
+	 * @methodtype get
 	 */
-	protected List<PhotoId> getFilteredPhotoIds() {
-		// get all tags that match the filter conditions
-		List<PhotoId> result = new LinkedList<PhotoId>();
-		int noFilterConditions = getFilterConditions().size();
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("Number of filter conditions", String.valueOf(noFilterConditions)).toString());
-
-		Collection<PhotoId> candidates;
-		if (noFilterConditions == 0) {
-			candidates = PhotoManager.getInstance().getPhotoCache().keySet();
-		} else {
-			List<Tag> tags = new LinkedList<Tag>();
-			candidates = new LinkedList<PhotoId>();
-			for (String condition : getFilterConditions()) {
-				PhotoManager.getInstance().addTagsThatMatchCondition(tags, condition);
+	protected int[] getCandidatePhotoIds() {
+		List<String> filterConditions = getFilterConditions();
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Number of filter conditions", filterConditions.size()).log();
+		if (filterConditions.isEmpty()) {
+			return null;
+		}
+
+		// union of the photo ids of all tags that match the filter conditions
+		PhotoManager photoManager = PhotoManager.getInstance();
+		int[] result = photoManager.getPhotoIdsThatMatchCondition(filterConditions.get(0));
+		for (int i = 1; i < filterConditions.size(); i++) {
+			result = PhotoTagIndex.union(result, photoManager.getPhotoIdsThatMatchCondition(filterConditions.get(i)));
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	protected boolean isSelectable(PhotoCache photoCache, int id) {
+		return photoCache.isVisible(id) && !processedPhotoIds.contains(id) && !skippedPhotoIds.contains(id);
+	}
+
+	/**
+	 * Returns the bits of the selectable photo ids index * 64 to index * 64 + 63
+	 *
+	 * @methodtype get
+	 */
+	protected long getSelectableWord(PhotoCache photoCache, int index) {
+		return photoCache.getVisibleWord(index) & ~processedPhotoIds.getWord(index) & ~skippedPhotoIds.getWord(index);
+	}
+
+	/**
+	 * Selects among all photos: first tries random ids, which usually succeeds quickly as most photos are
+	 * selectable; otherwise counts the selectable photos per bitmap word and picks one of them.
+	 *
+	 * @methodtype helper
+	 */
+	protected int selectRandomPhotoId(PhotoCache photoCache) {
+		Random random = getRandom();
+		int noWords = photoCache.getNoVisibleWords();
+		if (noWords == 0 || photoCache.getNoVisiblePhotos() == 0) {
+			return -1;
+		}
+
+		for (int i = 0; i < MAX_PROBES; i++) {
+			int id = random.nextInt(noWords << 6);
+			if (isSelectable(photoCache, id)) {
+				return id;
+			}
+		}
+
+		long[] words = new long[noWords];
+		int count = 0;
+		for (int i = 0; i < noWords; i++) {
+			words[i] = getSelectableWord(photoCache, i);
+			count += Long.bitCount(words[i]);
+		}
+		if (count == 0) {
+			return -1;
+		}
+
+		int rank = random.nextInt(count);
+		for (int i = 0; ; i++) {
+			int bitCount = Long.bitCount(words[i]);
+			if (rank < bitCount) {
+				return (i << 6) + selectBit(words[i], rank);
 			}
-			// get the list of all photo ids that correspond to the tags
-			for (Tag tag : tags) {
-				candidates.add(PhotoId.getIdFromString(tag.getPhotoId()));
+			rank -= bitCount;
+		}
+	}
+
+	/**
+	 * Selects among the given candidates, like selectRandomPhotoId(PhotoCache)
+	 *
+	 * @methodtype helper
+	 */
+	protected int selectRandomPhotoId(PhotoCache photoCache, int[] candidates) {
+		if (candidates.length == 0) {
+			return -1;
+		}
+
+		Random random = getRandom();
+		for (int i = 0; i < MAX_PROBES; i++) {
+			int id = candidates[random.nextInt(candidates.length)];
+			if (isSelectable(photoCache, id)) {
+				return id;
+			}
+		}
+
+		int[] selectable = new int[candidates.length];
+		int count = 0;
+		for (int id : candidates) {
+			if (isSelectable(photoCache, id)) {
+				selectable[count++] = id;
+			}
+		}
+		return (count == 0) ? -1 : selectable[random.nextInt(count)];
+	}
+
+	/**
+	 * Selects among the skipped photos that are visible, not processed and among the candidates (if not null)
+	 *
+	 * @methodtype helper
+	 */
+	protected int selectRandomSkippedPhotoId(PhotoCache photoCache, int[] candidates) {
+		int[] selectable = new int[skippedPhotoIds.size()];
+		int count = 0;
+		for (int id = skippedPhotoIds.nextId(0); id >= 0; id = skippedPhotoIds.nextId(id + 1)) {
+			boolean isCandidate = (candidates == null) || Arrays.binarySearch(candidates, id) >= 0;
+			if (isCandidate && photoCache.isVisible(id) && !processedPhotoIds.contains(id)) {
+				selectable[count++] = id;
 			}
 		}
+		return (count == 0) ? -1 : selectable[getRandom().nextInt(count)];
+	}
+
+	/**
+	 * Returns the position of the set bit with the given rank (0 = lowest) in the word
+	 *
+	 * @methodtype helper
+	 */
+	protected static int selectBit(long word, int rank) {
+		for (int i = 0; i < rank; i++) {
+			word &= word - 1;
+		}
+		return Long.numberOfTrailingZeros(word);
+	}
 
-		int newPhotos = 0;
-		for (PhotoId candidateId : candidates) {
-			Photo photoCandidate = PhotoManager.getInstance().getPhoto(candidateId);
-			if (!processedPhotoIds.contains(candidateId) && !skippedPhotoIds.contains(candidateId) &&
-					photoCandidate.isVisible()) {
-				result.add(candidateId);
-				++newPhotos;
+	/**
+	 * @methodtype get
+	 */
+	protected PhotoCache getPhotoCache() {
+		return PhotoManager.getInstance().getPhotoCache();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected Random getRandom() {
+		return ThreadLocalRandom.current();
+	}
+
+	/**
+	 * Returns the ids of all selectable photos, or if there are none, of all selectable skipped photos
+	 */
+	protected List<PhotoId> getFilteredPhotoIds() {
+		PhotoCache photoCache = getPhotoCache();
+		int[] candidates = getCandidatePhotoIds();
+
+		List<PhotoId> result = new ArrayList<PhotoId>();
+		if (candidates == null) {
+			for (int i = 0; i < photoCache.getNoVisibleWords(); i++) {
+				for (long word = getSelectableWord(photoCache, i); word != 0; word &= word - 1) {
+					result.add(PhotoId.getIdFromInt((i << 6) + Long.numberOfTrailingZeros(word)));
+				}
+			}
+		} else {
+			for (int id : candidates) {
+				if (isSelectable(photoCache, id)) {
+					result.add(PhotoId.getIdFromInt(id));
+				}
 			}
 		}
-		int skippedPhotos = skippedPhotoIds.size();
-		if (newPhotos == 0 && skippedPhotos > 0) {
-			result.addAll(skippedPhotoIds);
-			newPhotos = skippedPhotos;
+
+		if (result.isEmpty()) {
+			for (int id = skippedPhotoIds.nextId(0); id >= 0; id = skippedPhotoIds.nextId(id + 1)) {
+				boolean isCandidate = (candidates == null) || Arrays.binarySearch(candidates, id) >= 0;
+				if (isCandidate && photoCache.isVisible(id) && !processedPhotoIds.contains(id)) {
+					result.add(PhotoId.getIdFromInt(id));
+				}
+			}
 		}
 
-		log.config(LogBuilder.createSystemMessage().addParameter("Number of photos to show", newPhotos)
-				.toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Number of photos to show", result.size())
+				.log();
 
 		return result;
 	}
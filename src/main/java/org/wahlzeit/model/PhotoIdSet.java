@@ -0,0 +1,382 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.StreamCorruptedException;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A set of photo ids as a bitmap over PhotoId.asInt(). Photo ids are dense, so this takes one bit per photo and
+ * answers contains() without hashing; the words are also used directly to select photos, see PhotoFilter.
+ * Not thread-safe.
+ *
+ * The externalized form is versioned and takes whichever is smaller: the ascending ids as varint-encoded gaps, or
+ * the bitmap words up to the last set bit. So a set never takes more than about one bit per photo, and a few ids
+ * take a few bytes, as is typical for sets kept in HttpSessions.
+ */
+public class PhotoIdSet extends AbstractSet<PhotoId> implements Externalizable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Version of the externalized form
+	 */
+	protected static final int VERSION = 1;
+
+	/**
+	 * Encodings of the ids in the externalized form
+	 */
+	protected static final int FORMAT_DELTAS = 0;
+	protected static final int FORMAT_BITMAP = 1;
+
+	/**
+	 *
+	 */
+	protected static final long[] NO_WORDS = new long[0];
+
+	/**
+	 *
+	 */
+	protected long[] words = NO_WORDS;
+	protected int size = 0;
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean contains(int id) {
+		int index = id >> 6;
+		return id >= 0 && index < words.length && (words[index] & (1L << id)) != 0;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return (o instanceof PhotoId) && contains(((PhotoId) o).asInt());
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public boolean add(int id) {
+		if (id < 0) {
+			throw new IllegalArgumentException("negative photo id: " + id);
+		}
+
+		int index = id >> 6;
+		if (index >= words.length) {
+			words = Arrays.copyOf(words, Math.max(index + 1, words.length * 2));
+		}
+		if ((words[index] & (1L << id)) != 0) {
+			return false;
+		}
+		words[index] |= 1L << id;
+		size++;
+		return true;
+	}
+
+	@Override
+	public boolean add(PhotoId photoId) {
+		return add(photoId.asInt());
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public boolean remove(int id) {
+		if (!contains(id)) {
+			return false;
+		}
+		words[id >> 6] &= ~(1L << id);
+		size--;
+		return true;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		return (o instanceof PhotoId) && remove(((PhotoId) o).asInt());
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void clear() {
+		words = NO_WORDS;
+		size = 0;
+	}
+
+	/**
+	 * Compares bitmaps directly if the other set is a PhotoIdSet as well
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof PhotoIdSet)) {
+			return super.equals(o);
+		}
+
+		PhotoIdSet other = (PhotoIdSet) o;
+		if (size != other.size) {
+			return false;
+		}
+		for (int i = Math.max(words.length, other.words.length) - 1; i >= 0; i--) {
+			if (getWord(i) != other.getWord(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the bits of ids index * 64 to index * 64 + 63
+	 *
+	 * @methodtype get
+	 */
+	public long getWord(int index) {
+		return (index < words.length) ? words[index] : 0;
+	}
+
+	/**
+	 * Iterates in ascending id order
+	 */
+	@Override
+	public Iterator<PhotoId> iterator() {
+		return new Iterator<PhotoId>() {
+			private int next = nextId(0);
+			private int last = -1;
+
+			@Override
+			public boolean hasNext() {
+				return next >= 0;
+			}
+
+			@Override
+			public PhotoId next() {
+				if (next < 0) {
+					throw new NoSuchElementException();
+				}
+				last = next;
+				next = nextId(next + 1);
+				return PhotoId.getIdFromInt(last);
+			}
+
+			@Override
+			public void remove() {
+				if (last < 0) {
+					throw new IllegalStateException();
+				}
+				PhotoIdSet.this.remove(last);
+				last = -1;
+			}
+		};
+	}
+
+	/**
+	 * Returns the smallest id >= from in this set, or -1
+	 *
+	 * @methodtype helper
+	 */
+	protected int nextId(int from) {
+		int index = from >> 6;
+		if (index >= words.length) {
+			return -1;
+		}
+		long word = words[index] & (-1L << from);
+		while (word == 0) {
+			if (++index >= words.length) {
+				return -1;
+			}
+			word = words[index];
+		}
+		return (index << 6) + Long.numberOfTrailingZeros(word);
+	}
+
+	/**
+	 * Returns the number of words up to and including the last one with a set bit
+	 *
+	 * @methodtype get
+	 */
+	protected int getNoUsedWords() {
+		int result = words.length;
+		while (result > 0 && words[result - 1] == 0) {
+			result--;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of bytes the ids take as varint-encoded gaps
+	 *
+	 * @methodtype helper
+	 */
+	protected int getDeltasLength() {
+		int result = getVarIntLength(size);
+		int previous = -1;
+		for (int id = nextId(0); id >= 0; id = nextId(id + 1)) {
+			result += getVarIntLength(id - previous - 1);
+			previous = id;
+		}
+		return result;
+	}
+
+	@Override
+	public void writeExternal(ObjectOutput out) throws IOException {
+		write(out);
+	}
+
+	@Override
+	public void readExternal(ObjectInput in) throws IOException {
+		read(in);
+	}
+
+	/**
+	 * Returns the externalized form as a byte array, e.g. to store it in an entity
+	 *
+	 * @methodtype conversion
+	 */
+	public byte[] asByteArray() {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		try {
+			write(new DataOutputStream(result));
+		} catch (IOException ex) {
+			throw new IllegalStateException(ex);
+		}
+		return result.toByteArray();
+	}
+
+	/**
+	 * Replaces the ids with those of the externalized form returned by asByteArray()
+	 *
+	 * @methodtype set
+	 */
+	public void setFromByteArray(byte[] bytes) throws IOException {
+		read(new DataInputStream(new ByteArrayInputStream(bytes)));
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void write(DataOutput out) throws IOException {
+		out.writeByte(VERSION);
+		int noUsedWords = getNoUsedWords();
+		if (getDeltasLength() <= getVarIntLength(noUsedWords) + noUsedWords * 8) {
+			out.writeByte(FORMAT_DELTAS);
+			writeVarInt(out, size);
+			int previous = -1;
+			for (int id = nextId(0); id >= 0; id = nextId(id + 1)) {
+				writeVarInt(out, id - previous - 1);
+				previous = id;
+			}
+		} else {
+			out.writeByte(FORMAT_BITMAP);
+			writeVarInt(out, noUsedWords);
+			for (int i = 0; i < noUsedWords; i++) {
+				out.writeLong(words[i]);
+			}
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void read(DataInput in) throws IOException {
+		int version = in.readUnsignedByte();
+		if (version != VERSION) {
+			throw new InvalidClassException(PhotoIdSet.class.getName(), "unknown version: " + version);
+		}
+
+		clear();
+		int format = in.readUnsignedByte();
+		if (format == FORMAT_DELTAS) {
+			int noIds = readVarInt(in);
+			int id = -1;
+			for (int i = 0; i < noIds; i++) {
+				id += readVarInt(in) + 1;
+				add(id);
+			}
+		} else if (format == FORMAT_BITMAP) {
+			long[] newWords = new long[readVarInt(in)];
+			int newSize = 0;
+			for (int i = 0; i < newWords.length; i++) {
+				newWords[i] = in.readLong();
+				newSize += Long.bitCount(newWords[i]);
+			}
+			words = newWords;
+			size = newSize;
+		} else {
+			throw new StreamCorruptedException("unknown photo id set format: " + format);
+		}
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected static int getVarIntLength(int value) {
+		int result = 1;
+		for (value >>>= 7; value != 0; value >>>= 7) {
+			result++;
+		}
+		return result;
+	}
+
+	/**
+	 * Writes a non-negative int in 7-bit groups, lowest first; the high bit of each byte marks that more follow
+	 *
+	 * @methodtype helper
+	 */
+	protected static void writeVarInt(DataOutput out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected static int readVarInt(DataInput in) throws IOException {
+		int result = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			result |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return result;
+			}
+		}
+		throw new StreamCorruptedException("malformed varint");
+	}
+
+}
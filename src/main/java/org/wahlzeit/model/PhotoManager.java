@@ -27,18 +27,22 @@ import org.wahlzeit.model.persistence.ImageStorage;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.ObjectManager;
 import org.wahlzeit.services.Persistent;
+import org.wahlzeit.services.SpooledUpload;
+import org.wahlzeit.services.SysConfig;
+import org.wahlzeit.services.WriteStatistics;
 import org.wahlzeit.utils.PatternInstance;
 
 import java.io.IOException;
-import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 @PatternInstance (
@@ -61,13 +65,23 @@ public class PhotoManager extends ObjectManager {
 	/**
 	 * In-memory cache for photos
 	 */
-	protected Map<PhotoId, Photo> photoCache = new HashMap<PhotoId, Photo>();
+	protected PhotoCache photoCache = new PhotoCache();
 
 	/**
 	 *
 	 */
 	protected PhotoTagCollector photoTagCollector = null;
 
+	/**
+	 * In-memory inverted index of the tags written by updateTags, used for filtering
+	 */
+	protected PhotoTagIndex photoTagIndex = new PhotoTagIndex();
+
+	/**
+	 * Original images of uploaded photos that have not been processed yet, see createPendingPhoto
+	 */
+	protected Map<String, SpooledUpload> pendingUploads = new ConcurrentHashMap<String, SpooledUpload>();
+
 	/**
 	 *
 	 */
@@ -117,6 +131,7 @@ public class PhotoManager extends ObjectManager {
 			result = PhotoFactory.getInstance().loadPhoto(id);
 			if (result != null) {
 				doAddPhoto(result);
+				indexTags(result);
 			}
 		}
 
@@ -136,7 +151,7 @@ public class PhotoManager extends ObjectManager {
 	 * @methodproperties primitive
 	 */
 	protected void doAddPhoto(Photo myPhoto) {
-		photoCache.put(myPhoto.getId(), myPhoto);
+		photoCache.put(myPhoto);
 	}
 
 	/**
@@ -156,7 +171,8 @@ public class PhotoManager extends ObjectManager {
 	/**
 	 * @methodtype command
 	 *
-	 * Load all persisted photos. Executed when Wahlzeit is restarted.
+	 * Load all persisted photos. Executed when Wahlzeit is restarted. Unless images are loaded lazily (see
+	 * SysConfig.LAZY_IMAGE_LOADING), all scaled images are read as well.
 	 */
 	public void loadPhotos() {
 		Collection<Photo> existingPhotos = ObjectifyService.run(new Work<Collection<Photo>>() {
@@ -168,19 +184,23 @@ public class PhotoManager extends ObjectManager {
 			}
 		});
 
+		boolean isLazyImageLoading = SysConfig.getInstance().getBooleanValue(SysConfig.LAZY_IMAGE_LOADING);
 		for (Photo photo : existingPhotos) {
 			if (!doHasPhoto(photo.getId())) {
-				log.config(LogBuilder.createSystemMessage().
-						addParameter("Load Photo with ID", photo.getIdAsString()).toString());
-				loadScaledImages(photo);
+				LogBuilder.createSystemMessage(log, Level.CONFIG).
+						addParameter("Load Photo with ID", photo.getIdAsString()).log();
+				if (!isLazyImageLoading) {
+					loadScaledImages(photo);
+				}
 				doAddPhoto(photo);
+				indexTags(photo);
 			} else {
-				log.config(LogBuilder.createSystemMessage().
-						addParameter("Already loaded Photo", photo.getIdAsString()).toString());
+				LogBuilder.createSystemMessage(log, Level.CONFIG).
+						addParameter("Already loaded Photo", photo.getIdAsString()).log();
 			}
 		}
 
-		log.info(LogBuilder.createSystemMessage().addMessage("All photos loaded.").toString());
+		LogBuilder.createSystemMessage(log, Level.INFO).addMessage("All photos loaded.").log();
 	}
 
 	/**
@@ -188,38 +208,34 @@ public class PhotoManager extends ObjectManager {
 	 * @methodproperty primitive
 	 */
 	protected boolean doHasPhoto(PhotoId id) {
-		return photoCache.containsKey(id);
+		return photoCache.contains(id);
 	}
 
 	/**
 	 * @methodtype command
 	 *
-	 * Loads all scaled Images of this Photo from Google Cloud Storage
+	 * Reads all scaled Images of this Photo once, so that they are held by the image cache (as far as its budget
+	 * allows).
 	 */
 	protected void loadScaledImages(Photo photo) {
 		String photoIdAsString = photo.getId().asString();
 		ImageStorage imageStorage = ImageStorage.getInstance();
 
 		for (PhotoSize photoSize : PhotoSize.values()) {
-			log.config(LogBuilder.createSystemMessage().
+			LogBuilder.createSystemMessage(log, Level.CONFIG).
 					addAction("loading image").
 					addParameter("image size", photoSize.asString()).
-					addParameter("photo ID", photoIdAsString).toString());
-			if (imageStorage.doesImageExist(photoIdAsString, photoSize.asInt())) {
-				try {
-					Serializable rawImage = imageStorage.readImage(photoIdAsString, photoSize.asInt());
-					if (rawImage != null && rawImage instanceof Image) {
-						photo.setImage(photoSize, (Image) rawImage);
-					}
-				} catch (IOException e) {
-					log.warning(LogBuilder.createSystemMessage().
-							addParameter("size", photoSize.asString()).
-							addParameter("photo ID", photoIdAsString).
-							addException("Could not load image although it exists", e).toString());
+					addParameter("photo ID", photoIdAsString).log();
+			try {
+				if (imageStorage.readImage(photoIdAsString, photoSize.asInt()) == null) {
+					LogBuilder.createSystemMessage(log, Level.CONFIG).
+							addParameter("Size does not exist", photoSize.asString()).log();
 				}
-			} else {
-				log.config(LogBuilder.createSystemMessage().
-						addParameter("Size does not exist", photoSize.asString()).toString());
+			} catch (IOException e) {
+				LogBuilder.createSystemMessage(log, Level.WARNING).
+						addParameter("size", photoSize.asString()).
+						addParameter("photo ID", photoIdAsString).
+						addException("Could not load image", e).log();
 			}
 		}
 	}
@@ -244,76 +260,141 @@ public class PhotoManager extends ObjectManager {
 	}
 
 	/**
-	 * @methodtype helper
+	 * Photos are written behind once they have been added, but not while their upload is pending; they are saved
+	 * explicitly when it has been processed.
+	 */
+	@Override
+	protected boolean isWriteBehindManaged(Persistent object) {
+		if (!(object instanceof Photo)) {
+			return false;
+		}
+		Photo photo = (Photo) object;
+		return photoCache.get(photo.getId()) == photo && !pendingUploads.containsKey(photo.getId().asString());
+	}
+
+	/**
+	 * Saves the owners of a batch of photos once and together, instead of once per photo.
+	 */
+	@Override
+	protected void updateDependents(Collection<? extends Persistent> objects) {
+		UserManager userManager = UserManager.getInstance();
+		Set<Client> owners = new LinkedHashSet<Client>();
+		for (Persistent obj : objects) {
+			if (obj instanceof Photo) {
+				Photo photo = (Photo) obj;
+				saveScaledImages(photo);
+				updateTags(photo);
+				Client owner = userManager.getClientById(photo.getOwnerId());
+				if (owner != null) {
+					owners.add(owner);
+				}
+			}
+		}
+		userManager.saveClients(owners);
+	}
+
+	/**
+	 * Returns the sorted ids (as int) of all photos that carry the given tag, e.g. "tg:flower". Answered from the
+	 * in-memory tag index, so no Datastore query is needed.
+	 *
+	 * @methodtype get
 	 */
-	public List<Tag> addTagsThatMatchCondition(List<Tag> tags, String condition) {
-		readObjects(tags, Tag.class, Tag.TEXT, condition);
-		return tags;
+	public int[] getPhotoIdsThatMatchCondition(String condition) {
+		return photoTagIndex.getPhotoIds(condition);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void indexTags(Photo photo) {
+		Set<String> tags = new HashSet<String>();
+		photoTagCollector.collect(tags, photo);
+		photoTagIndex.setTags(photo.getId(), tags);
 	}
 
 	/**
 	 * @methodtype command
 	 *
-	 * Persists all available sizes of the Photo. If one size exceeds the limit of the persistence layer, e.g. > 1MB for
-	 * the Datastore, it is simply not persisted.
+	 * Persists all sizes of the Photo that have not been written yet. Sizes without an unsaved image, e.g. because
+	 * the photo is too small for them, are skipped. If one size exceeds the limit of the persistence layer, e.g. > 1MB
+	 * for the Datastore, it is simply not persisted.
 	 */
 	protected void saveScaledImages(Photo photo) {
 		String photoIdAsString = photo.getId().asString();
 		ImageStorage imageStorage = ImageStorage.getInstance();
-		PhotoSize photoSize;
-		int it = 0;
-		boolean moreSizesExist = true;
-		do{
-			photoSize = PhotoSize.values()[it];
-			it++;
-			Image image = photo.getImage(photoSize);
-			if (image != null) {
-				try {
-					if (!imageStorage.doesImageExist(photoIdAsString, photoSize.asInt())) {
-						imageStorage.writeImage(image, photoIdAsString, photoSize.asInt());
-					}
-				} catch (Exception e) {
-					log.warning(LogBuilder.createSystemMessage().
-							addException("Problem when storing image", e).toString());
-					moreSizesExist = false;
+		for (PhotoSize photoSize : PhotoSize.values()) {
+			Image image = photo.getUnsavedImage(photoSize);
+			if (image == null) {
+				LogBuilder.createSystemMessage(log, Level.CONFIG).
+						addParameter("No unsaved image for size", photoSize.asString()).log();
+				continue;
+			}
+
+			try {
+				if (!imageStorage.doesImageExist(photoIdAsString, photoSize.asInt())) {
+					imageStorage.writeImage(image, photoIdAsString, photoSize.asInt());
 				}
-			} else {
-				log.config(LogBuilder.createSystemMessage().
-						addParameter("No image for size", photoSize.asString()).toString());
-				moreSizesExist = false;
+				photo.setImageSaved(photoSize);
+			} catch (Exception e) {
+				LogBuilder.createSystemMessage(log, Level.WARNING).
+						addException("Problem when storing image", e).log();
 			}
-		} while (it < PhotoSize.values().length && moreSizesExist);
+		}
 	}
 
 	/**
-	 * Removes all tags of the Photo (obj) in the datastore that have been removed by the user and adds all new tags of
-	 * the photo to the datastore.
+	 * Removes the tags of the Photo (obj) in the datastore that have been removed by the user and adds its new tags to
+	 * the datastore. The tag index holds the persisted tags of each photo, so unchanged tags (e.g. when only the
+	 * praise changed) cost nothing, and only removed tags need a query to find their entities.
 	 */
 	protected void updateTags(Photo photo) {
-		// delete all existing tags, for the case that some have been removed
-		deleteObjects(Tag.class, Tag.PHOTO_ID, photo.getId().asString());
-
-		// add all current tags to the datastore
 		Set<String> tags = new HashSet<String>();
 		photoTagCollector.collect(tags, photo);
-		for (Iterator<String> i = tags.iterator(); i.hasNext(); ) {
-			Tag tag = new Tag(i.next(), photo.getId().asString());
-			log.config(LogBuilder.createSystemMessage().addParameter("Writing Tag", tag.asString()).toString());
-			writeObject(tag);
+		Set<String> persistedTags = photoTagIndex.getTags(photo.getId());
+		if (tags.equals(persistedTags)) {
+			return;
 		}
+
+		String photoIdAsString = photo.getId().asString();
+		List<Tag> addedTags = new ArrayList<Tag>();
+		for (String tag : tags) {
+			if (!persistedTags.contains(tag)) {
+				addedTags.add(new Tag(tag, photoIdAsString));
+			}
+		}
+
+		List<Tag> removedTags = new ArrayList<Tag>();
+		if (!tags.containsAll(persistedTags)) {
+			List<Tag> existingTags = new ArrayList<Tag>();
+			readObjects(existingTags, Tag.class, Tag.PHOTO_ID, photoIdAsString);
+			for (Tag tag : existingTags) {
+				if (!tags.contains(tag.getText())) {
+					removedTags.add(tag);
+				}
+			}
+		}
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Photo", photoIdAsString).
+				addParameter("added tags", addedTags.size()).
+				addParameter("removed tags", removedTags.size()).log();
+		saveAndDeleteObjects(addedTags, removedTags);
+		photoTagIndex.setTags(photo.getId(), tags);
 	}
 
 	/**
 	 *
 	 */
-	public void savePhotos() throws IOException{
-		updateObjects(photoCache.values());
+	public WriteStatistics savePhotos() throws IOException{
+		return updateObjects(photoCache.values());
 	}
 
 	/**
+	 * Returns a read-only view of all cached photos
+	 *
 	 * @methodtype get
 	 */
-	public Map<PhotoId, Photo> getPhotoCache() {
+	public PhotoCache getPhotoCache() {
 		return photoCache;
 	}
 
@@ -325,7 +406,9 @@ public class PhotoManager extends ObjectManager {
 		readObjects(result, Photo.class, Photo.OWNER_ID, ownerName);
 
 		for (Iterator<Photo> i = result.iterator(); i.hasNext(); ) {
-			doAddPhoto(i.next());
+			Photo photo = i.next();
+			doAddPhoto(photo);
+			indexTags(photo);
 		}
 
 		return result;
@@ -335,18 +418,96 @@ public class PhotoManager extends ObjectManager {
 	 *
 	 */
 	public Photo getVisiblePhoto(PhotoFilter filter) {
-		filter.generateDisplayablePhotoIds();
-		return getPhotoFromId(filter.getRandomDisplayablePhotoId());
+		return getPhotoFromId(filter.getRandomPhotoId());
 	}
 
 	/**
 	 *
 	 */
 	public Photo createPhoto(String filename, Image uploadedImage) throws Exception {
-		PhotoId id = PhotoId.getNextId();
-		Photo result = PhotoUtil.createPhoto(filename, id, uploadedImage);
-		addPhoto(result);
-		return result;
+		return createPhoto(filename, new SpooledUpload(uploadedImage.getImageData()));
+	}
+
+	/**
+	 * Creates a photo with all scaled images from the upload, which is deleted afterwards.
+	 *
+	 * @methodtype factory
+	 */
+	public Photo createPhoto(String filename, SpooledUpload upload) throws Exception {
+		assertIsNonNullArgument(upload, "upload");
+
+		try {
+			PhotoId id = PhotoId.getNextId();
+			Photo result = PhotoUtil.createPhoto(filename, id, upload);
+			addPhoto(result);
+			return result;
+		} finally {
+			upload.delete();
+		}
+	}
+
+	/**
+	 * Creates an invisible photo without scaled images, keeping the upload until processUploadedPhoto is called
+	 * (usually by a task queue).
+	 *
+	 * @methodtype factory
+	 */
+	public Photo createPendingPhoto(String filename, Image uploadedImage) throws Exception {
+		return createPendingPhoto(filename, new SpooledUpload(uploadedImage.getImageData()));
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public Photo createPendingPhoto(String filename, SpooledUpload upload) throws Exception {
+		assertIsNonNullArgument(upload, "upload");
+
+		try {
+			PhotoId id = PhotoId.getNextId();
+			Photo result = PhotoUtil.createPendingPhoto(filename, id, upload);
+			pendingUploads.put(id.asString(), upload);
+			addPhoto(result);
+			return result;
+		} catch (Exception ex) {
+			upload.delete();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Scales the upload of a pending photo, makes the photo visible as soon as its preview sizes are available and
+	 * saves it, which also indexes its tags. If scaling or saving fails, the upload is kept for a retry; it is only
+	 * deleted once the photo has been saved.
+	 *
+	 * @methodtype command
+	 */
+	public void processUploadedPhoto(String photoId) throws Exception {
+		final Photo photo = getPhoto(photoId);
+		SpooledUpload upload = pendingUploads.remove(photoId);
+		if (photo == null) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addParameter("no photo for pending upload", photoId).log();
+			if (upload != null) {
+				upload.delete();
+			}
+			return;
+		} else if (upload == null) {
+			throw new IllegalStateException("no pending upload for photo " + photoId);
+		}
+
+		try {
+			PhotoUtil.createImageFiles(upload, photo, new Runnable() {
+				@Override
+				public void run() {
+					photo.setStatus(photo.getStatus().asInvisible(false));
+				}
+			});
+			savePhoto(photo);
+		} catch (Exception ex) {
+			pendingUploads.put(photoId, upload);
+			throw ex;
+		}
+		upload.delete();
 	}
 
 	/**
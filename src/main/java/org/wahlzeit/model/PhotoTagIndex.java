@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An in-memory inverted index from tag text (as produced by a PhotoTagCollector, e.g. "tg:flower") to the ids of all
+ * photos carrying that tag. Photo ids are kept as sorted int arrays that are replaced on every change, so lookups
+ * never lock and never see a partially updated set.
+ */
+public class PhotoTagIndex {
+
+	/**
+	 *
+	 */
+	protected static final int[] NO_PHOTO_IDS = new int[0];
+
+	/**
+	 * tag text -> sorted photo ids
+	 */
+	protected final Map<String, int[]> photoIdsByTag = new ConcurrentHashMap<String, int[]>();
+
+	/**
+	 * photo id -> indexed tags; needed to remove stale tags when a photo changes
+	 */
+	protected final Map<Integer, Set<String>> tagsByPhotoId = new ConcurrentHashMap<Integer, Set<String>>();
+
+	/**
+	 * @methodtype get
+	 */
+	public int[] getPhotoIds(String tag) {
+		int[] result = photoIdsByTag.get(tag);
+		return (result == null) ? NO_PHOTO_IDS : result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Set<String> getTags(PhotoId photoId) {
+		Set<String> result = tagsByPhotoId.get(photoId.asInt());
+		return (result == null) ? Collections.<String>emptySet() : Collections.unmodifiableSet(result);
+	}
+
+	/**
+	 * Replaces the indexed tags of the photo with the given ones.
+	 *
+	 * @methodtype set
+	 */
+	public synchronized void setTags(PhotoId photoId, Set<String> newTags) {
+		int id = photoId.asInt();
+		Set<String> oldTags = tagsByPhotoId.get(id);
+		if (oldTags == null) {
+			oldTags = Collections.emptySet();
+		}
+
+		for (String tag : oldTags) {
+			if (!newTags.contains(tag)) {
+				doRemove(tag, id);
+			}
+		}
+
+		for (String tag : newTags) {
+			if (!oldTags.contains(tag)) {
+				doAdd(tag, id);
+			}
+		}
+
+		if (newTags.isEmpty()) {
+			tagsByPhotoId.remove(id);
+		} else {
+			tagsByPhotoId.put(id, new HashSet<String>(newTags));
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void removePhoto(PhotoId photoId) {
+		setTags(photoId, Collections.<String>emptySet());
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void clear() {
+		photoIdsByTag.clear();
+		tagsByPhotoId.clear();
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperties primitive
+	 */
+	protected void doAdd(String tag, int id) {
+		int[] ids = getPhotoIds(tag);
+		int pos = Arrays.binarySearch(ids, id);
+		if (pos < 0) {
+			pos = -(pos + 1);
+			int[] newIds = new int[ids.length + 1];
+			System.arraycopy(ids, 0, newIds, 0, pos);
+			newIds[pos] = id;
+			System.arraycopy(ids, pos, newIds, pos + 1, ids.length - pos);
+			photoIdsByTag.put(tag, newIds);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperties primitive
+	 */
+	protected void doRemove(String tag, int id) {
+		int[] ids = getPhotoIds(tag);
+		int pos = Arrays.binarySearch(ids, id);
+		if (pos >= 0) {
+			if (ids.length == 1) {
+				photoIdsByTag.remove(tag);
+			} else {
+				int[] newIds = new int[ids.length - 1];
+				System.arraycopy(ids, 0, newIds, 0, pos);
+				System.arraycopy(ids, pos + 1, newIds, pos, newIds.length - pos);
+				photoIdsByTag.put(tag, newIds);
+			}
+		}
+	}
+
+	/**
+	 * Merges two sorted photo id arrays into one sorted array without duplicates.
+	 *
+	 * @methodtype helper
+	 */
+	public static int[] union(int[] a, int[] b) {
+		int[] result = new int[a.length + b.length];
+		int i = 0, j = 0, k = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				result[k++] = a[i++];
+			} else if (a[i] > b[j]) {
+				result[k++] = b[j++];
+			} else {
+				result[k++] = a[i++];
+				j++;
+			}
+		}
+		while (i < a.length) {
+			result[k++] = a[i++];
+		}
+		while (j < b.length) {
+			result[k++] = b[j++];
+		}
+		return (k == result.length) ? result : Arrays.copyOf(result, k);
+	}
+
+	/**
+	 * Returns the sorted photo ids contained in both sorted arrays.
+	 *
+	 * @methodtype helper
+	 */
+	public static int[] intersect(int[] a, int[] b) {
+		int[] result = new int[Math.min(a.length, b.length)];
+		int i = 0, j = 0, k = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				result[k++] = a[i++];
+				j++;
+			}
+		}
+		return (k == result.length) ? result : Arrays.copyOf(result, k);
+	}
+
+}
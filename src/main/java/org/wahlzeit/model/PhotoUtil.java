@@ -21,11 +21,21 @@
 package org.wahlzeit.model;
 
 import com.google.appengine.api.images.Image;
-import com.google.appengine.api.images.ImagesService;
-import com.google.appengine.api.images.ImagesServiceFactory;
-import com.google.appengine.api.images.Transform;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.SpooledUpload;
 
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -36,77 +46,252 @@ public class PhotoUtil {
 
 	private static final Logger log = Logger.getLogger(PhotoUtil.class.getName());
 
+	/**
+	 * Sizes that are shown in overviews and on the photo page; an uploaded photo can be shown once they exist
+	 */
+	public static final PhotoSize[] PREVIEW_SIZES = {PhotoSize.THUMB, PhotoSize.MEDIUM};
+
 	/**
 	 * @methodtype creation
 	 */
 	public static Photo createPhoto(String filename, PhotoId id, Image uploadedImage) throws Exception {
+		Photo result = createPhotoWithoutImages(filename, id, uploadedImage);
+		createImageFiles(uploadedImage, result);
+		return result;
+	}
+
+	/**
+	 * Decodes the upload once, from memory or from its temporary file, and derives all scaled images from it.
+	 *
+	 * @methodtype creation
+	 */
+	public static Photo createPhoto(String filename, PhotoId id, SpooledUpload upload) throws Exception {
+		assertIsValidUpload(upload);
+		ImageProcessor.ProcessedImage original = ImageProcessor.getInstance().decode(upload);
+		Photo result = createPhotoWithoutImages(filename, id, original.getWidth(), original.getHeight());
+		createImageFiles(original, result, null);
+		return result;
+	}
+
+	/**
+	 * Creates an invisible photo without scaled images; they are added later with createImageFiles.
+	 *
+	 * @methodtype creation
+	 */
+	public static Photo createPendingPhoto(String filename, PhotoId id, Image uploadedImage) throws Exception {
+		Photo result = createPhotoWithoutImages(filename, id, uploadedImage);
+		result.setStatus(result.getStatus().asInvisible(true));
+		return result;
+	}
+
+	/**
+	 * As above; only the image header is read to determine the size, the upload is decoded when it is processed.
+	 *
+	 * @methodtype creation
+	 */
+	public static Photo createPendingPhoto(String filename, PhotoId id, SpooledUpload upload) throws Exception {
+		assertIsValidUpload(upload);
+		int[] size = readImageSize(upload);
+		Photo result = createPhotoWithoutImages(filename, id, size[0], size[1]);
+		result.setStatus(result.getStatus().asInvisible(true));
+		return result;
+	}
+
+	/**
+	 * @methodtype creation
+	 */
+	protected static Photo createPhotoWithoutImages(String filename, PhotoId id, Image uploadedImage)
+			throws Exception {
+		assertIsValidImage(uploadedImage);
+		return createPhotoWithoutImages(filename, id, uploadedImage.getWidth(), uploadedImage.getHeight());
+	}
+
+	/**
+	 * @methodtype creation
+	 */
+	protected static Photo createPhotoWithoutImages(String filename, PhotoId id, int sourceWidth, int sourceHeight)
+			throws Exception {
+		assertHasValidSize(sourceWidth, sourceHeight);
+
 //		Photo result = PhotoFactory.getInstance().createPhoto(id);
 		// HW04: instantiation via custom FootballPhotoFactory
 		Photo result = FootballPhotoFactory.getInstance().createPhoto(id);
 		result.setEnding(filename.substring(filename.lastIndexOf(".") + 1));
-
-		createImageFiles(uploadedImage, result);
-
-		int sourceWidth = uploadedImage.getWidth();
-		int sourceHeight = uploadedImage.getHeight();
 		result.setWidthAndHeight(sourceWidth, sourceHeight);
 
 		return result;
 	}
 
 	/**
-	 *
+	 * A scaled image is only derived from another scaled image that is at least this many times larger in both
+	 * dimensions, otherwise from the original; repeatedly shrinking by small factors would blur the result.
+	 */
+	protected static final int MIN_CASCADE_FACTOR = 2;
+
+	/**
+	 * Creates all scaled images that are not larger than the source. The source is decoded once; then, from largest to
+	 * smallest, each size is derived from the smallest already started size that is at least MIN_CASCADE_FACTOR
+	 * times larger (or from the original). Sizes whose sources are available are scaled in parallel by the
+	 * ImageProcessor.
 	 */
 	public static void createImageFiles(Image source, Photo photo) throws Exception {
+		createImageFiles(source, photo, null);
+	}
+
+	/**
+	 * As above, but sets the PREVIEW_SIZES first and then calls previewListener (if not null), before waiting for the
+	 * other sizes.
+	 */
+	public static void createImageFiles(Image source, Photo photo, Runnable previewListener) throws Exception {
 		assertIsValidImage(source);
+		assertHasValidSize(source.getWidth(), source.getHeight());
+		createImageFiles(ImageProcessor.getInstance().decode(source), photo, previewListener);
+	}
+
+	/**
+	 * As above, for an upload that may still be spooled to a temporary file.
+	 */
+	public static void createImageFiles(SpooledUpload upload, Photo photo, Runnable previewListener)
+			throws Exception {
+		assertIsValidUpload(upload);
+		createImageFiles(ImageProcessor.getInstance().decode(upload), photo, previewListener);
+	}
 
-		int sourceWidth = source.getWidth();
-		int sourceHeight = source.getHeight();
+	/**
+	 * As above, for an already decoded original.
+	 */
+	protected static void createImageFiles(ImageProcessor.ProcessedImage original, Photo photo,
+			Runnable previewListener) throws Exception {
+		int sourceWidth = original.getWidth();
+		int sourceHeight = original.getHeight();
 		assertHasValidSize(sourceWidth, sourceHeight);
 
-		for (PhotoSize size : PhotoSize.values()) {
-			if (!size.isWiderAndHigher(sourceWidth, sourceHeight)) {
-				scaleImage(ImagesServiceFactory.makeImage(source.getImageData()), size, photo);
+		ImageProcessor imageProcessor = ImageProcessor.getInstance();
+
+		PhotoSize[] sizes = PhotoSize.values();
+		int[] targetWidths = new int[sizes.length];
+		int[] targetHeights = new int[sizes.length];
+		List<Future<ImageProcessor.ProcessedImage>> results = new ArrayList<Future<ImageProcessor.ProcessedImage>>();
+		for (int i = 0; i < sizes.length; i++) {
+			results.add(null);
+		}
+
+		for (int i = sizes.length - 1; i >= 0; i--) {
+			PhotoSize size = sizes[i];
+			if (size.isWiderAndHigher(sourceWidth, sourceHeight)) {
+				continue;
+			}
+
+			targetWidths[i] = size.calcAdjustedWidth(sourceWidth, sourceHeight);
+			targetHeights[i] = size.calcAdjustedHeight(sourceWidth, sourceHeight);
+			int cascadeSource = getCascadeSource(i, targetWidths, targetHeights, results);
+			ImageProcessor.ProcessedImage scaleSource =
+					(cascadeSource < 0) ? original : getResult(results.get(cascadeSource));
+			results.set(i, imageProcessor.scale(scaleSource, targetWidths[i], targetHeights[i]));
+		}
+
+		for (PhotoSize size : PREVIEW_SIZES) {
+			setScaledImage(photo, size, results.get(size.asInt()));
+		}
+		if (previewListener != null) {
+			previewListener.run();
+		}
+		for (PhotoSize size : sizes) {
+			if (!Arrays.asList(PREVIEW_SIZES).contains(size)) {
+				setScaledImage(photo, size, results.get(size.asInt()));
 			}
 		}
 	}
 
 	/**
-	 * @methodtype assertion
+	 * @methodtype set
 	 */
-	protected static void assertIsValidImage(Image image) {
-		if (image == null) {
-			throw new IllegalArgumentException("Image = null!");
+	protected static void setScaledImage(Photo photo, PhotoSize size, Future<ImageProcessor.ProcessedImage> result)
+			throws Exception {
+		if (result != null) {
+			photo.setImage(size, getResult(result).asImage());
+			LogBuilder.createSystemMessage(log, Level.CONFIG).
+					addParameter("Scaled image to size", size.asString()).log();
 		}
 	}
 
 	/**
+	 * Returns the index of the smallest started size the given size can be derived from, or -1 for the original
 	 *
+	 * @methodtype helper
 	 */
-	protected static void assertHasValidSize(int cw, int ch) {
-		if (PhotoSize.THUMB.isWiderAndHigher(cw, ch)) {
-			throw new IllegalArgumentException("Photo too small!");
+	protected static int getCascadeSource(int index, int[] widths, int[] heights, List<?> results) {
+		for (int i = index + 1; i < widths.length; i++) {
+			if (results.get(i) != null && widths[i] >= MIN_CASCADE_FACTOR * widths[index]
+					&& heights[i] >= MIN_CASCADE_FACTOR * heights[index]) {
+				return i;
+			}
 		}
+		return -1;
 	}
 
 	/**
-	 * @methodtype command Scale the source picture to the given size, store it in the datastore and reference it in the
-	 * photo.
+	 * @methodtype helper
 	 */
-	protected static void scaleImage(Image source, PhotoSize size, Photo photo) throws Exception {
-		int sourceWidth = source.getWidth();
-		int sourceHeight = source.getHeight();
+	protected static ImageProcessor.ProcessedImage getResult(Future<ImageProcessor.ProcessedImage> future)
+			throws Exception {
+		try {
+			return future.get();
+		} catch (ExecutionException eex) {
+			Throwable cause = eex.getCause();
+			throw (cause instanceof Exception) ? (Exception) cause : eex;
+		}
+	}
 
-		int targetWidth = size.calcAdjustedWidth(sourceWidth, sourceHeight);
-		int targetHeight = size.calcAdjustedHeight(sourceWidth, sourceHeight);
+	/**
+	 * Returns width and height of the uploaded image. Where ImageIO knows the format only the header is read,
+	 * otherwise the upload is handed to the ImagesService.
+	 *
+	 * @methodtype helper
+	 */
+	protected static int[] readImageSize(SpooledUpload upload) throws IOException {
+		try (InputStream in = upload.openStream(); ImageInputStream imageIn = ImageIO.createImageInputStream(in)) {
+			Iterator<ImageReader> readers = (imageIn == null) ? null : ImageIO.getImageReaders(imageIn);
+			if (readers != null && readers.hasNext()) {
+				ImageReader reader = readers.next();
+				try {
+					reader.setInput(imageIn, true, true);
+					return new int[] {reader.getWidth(0), reader.getHeight(0)};
+				} finally {
+					reader.dispose();
+				}
+			}
+		}
 
-		ImagesService imagesService = ImagesServiceFactory.getImagesService();
-		Transform resize = ImagesServiceFactory.makeResize(targetWidth, targetHeight);
-		Image newImage = imagesService.applyTransform(resize, source);
+		Image image = upload.asImage();
+		return new int[] {image.getWidth(), image.getHeight()};
+	}
 
-		photo.setImage(size, newImage);
+	/**
+	 * @methodtype assertion
+	 */
+	protected static void assertIsValidUpload(SpooledUpload upload) {
+		if (upload == null) {
+			throw new IllegalArgumentException("Upload = null!");
+		}
+	}
 
-		log.config(LogBuilder.createSystemMessage().addParameter("Scaled image to size", size.asString()).toString());
+	/**
+	 * @methodtype assertion
+	 */
+	protected static void assertIsValidImage(Image image) {
+		if (image == null) {
+			throw new IllegalArgumentException("Image = null!");
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected static void assertHasValidSize(int cw, int ch) {
+		if (PhotoSize.THUMB.isWiderAndHigher(cw, ch)) {
+			throw new IllegalArgumentException("Photo too small!");
+		}
 	}
 
 }
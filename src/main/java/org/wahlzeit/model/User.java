@@ -20,18 +20,19 @@
 
 package org.wahlzeit.model;
 
-import com.google.appengine.api.images.Image;
 import com.googlecode.objectify.annotation.Ignore;
 import com.googlecode.objectify.annotation.Subclass;
 import org.wahlzeit.services.EmailAddress;
 import org.wahlzeit.services.Language;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.SpooledUpload;
 
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -74,7 +75,7 @@ public class User extends Client {
 	protected Photo userPhoto = null;
 	protected Set<Photo> photos = new HashSet<Photo>();
 	@Ignore // only used as temporary variable
-	protected Image uploadedImage = null;
+	protected SpooledUpload uploadedFile = null;
 
 	/**
 	 *
@@ -110,11 +111,11 @@ public class User extends Client {
 							  Client previousClient) {
 		super.initialize(id, nickName, emailAddress, accessRights, previousClient);
 
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("initialize user").
 				addParameter("id", id).
 				addParameter("name", nickName).
-				addParameter("E-Mail", emailAddress.asString()).toString());
+				addParameter("E-Mail", emailAddress.asString()).log();
 		incWriteCount();
 	}
 
@@ -296,16 +297,32 @@ public class User extends Client {
 	}
 
 	/**
+	 * Replaces the uploaded file, deleting the previous one if it has not been taken yet
+	 *
 	 * @methodtype set
 	 */
-	public void setUploadedImage(Image image) {
-		uploadedImage = image;
+	public void setUploadedFile(SpooledUpload upload) {
+		if (uploadedFile != null && uploadedFile != upload) {
+			uploadedFile.delete();
+		}
+		uploadedFile = upload;
 	}
 
 	/**
 	 * @methodtype get
 	 */
-	public Image getUploadedImage() {
-		return uploadedImage;
+	public SpooledUpload getUploadedFile() {
+		return uploadedFile;
+	}
+
+	/**
+	 * Returns the uploaded file and forgets it; the caller is responsible for deleting it
+	 *
+	 * @methodtype command
+	 */
+	public SpooledUpload takeUploadedFile() {
+		SpooledUpload result = uploadedFile;
+		uploadedFile = null;
+		return result;
 	}
 }
@@ -31,6 +31,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
@@ -92,15 +93,15 @@ public class UserManager extends ClientManager {
 					if (!hasClientById(user.getId())) {
 						doAddClient(user);
 					} else {
-						log.config(LogBuilder.createSystemMessage().addParameter("user has been loaded", user.getId())
-								.toString());
+						LogBuilder.createSystemMessage(log, Level.CONFIG).
+								addParameter("user has been loaded", user.getId()).log();
 					}
 				}
 				return null;
 			}
 		});
 
-		log.info(LogBuilder.createSystemMessage().addMessage("loaded all clients").toString());
+		LogBuilder.createSystemMessage(log, Level.INFO).addMessage("loaded all clients").log();
 	}
 
 	/**
@@ -27,15 +27,17 @@ import org.wahlzeit.utils.HtmlUtil;
 import javax.servlet.http.HttpSession;
 import java.io.Serializable;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
 import java.util.logging.Logger;
 
 /**
  * Wrapper class for {@link HttpSession} to provide a readable interface for Wahlzeit.
  *
  * {@link HttpSession}s are managed automatically by Google App Engine.
+ *
+ * App Engine serializes and stores the session whenever an attribute is set, so attributes are only set when their
+ * value actually changed. The photo history of the session (praised and skipped photos) is kept in the compact
+ * PhotoFilter only; the photos praised in this session are the processed photos of the filter.
  */
 public class UserSession extends Session implements Serializable {
 
@@ -44,7 +46,6 @@ public class UserSession extends Session implements Serializable {
 	 */
 	public static final String PHOTO_CASE = "photoCase";
 	public static final String PHOTO_FILTER = "photoFilter";
-	public static final String PRAISED_PHOTOS = "praisedPhotoIds";
 	public static final String MESSAGE = "message";
 	public static final String HEADING = "heading";
 	public static final String CLIENT_ID = "clientId";
@@ -77,7 +78,6 @@ public class UserSession extends Session implements Serializable {
 			}
 
 			clearDisplayedPhotos();
-			clearPraisedPhotos();
 			clearSavedArgs();
 			httpSession.setAttribute(INITIALIZED, INITIALIZED);
 
@@ -91,19 +91,12 @@ public class UserSession extends Session implements Serializable {
 		PhotoFilter photoFilter = (PhotoFilter) httpSession.getAttribute(PHOTO_FILTER);
 		if (photoFilter != null) {
 			photoFilter.clear();
-			httpSession.setAttribute(PHOTO_FILTER, photoFilter);
+			notifyPhotoFilterChanged();
 		} else {
 			log.warning("No PhotoFilter found in HttpSession to clear.");
 		}
 	}
 
-	/**
-	 *
-	 */
-	public void clearPraisedPhotos() {
-		httpSession.setAttribute(PRAISED_PHOTOS, new HashSet<Photo>());
-	}
-
 	/**
 	 * @methodtype init
 	 */
@@ -116,7 +109,6 @@ public class UserSession extends Session implements Serializable {
 	 */
 	public void clear() {
 		clearDisplayedPhotos();
-		clearPraisedPhotos();
 	}
 
 	/**
@@ -174,15 +166,28 @@ public class UserSession extends Session implements Serializable {
 		return (PhotoFilter) httpSession.getAttribute(PHOTO_FILTER);
 	}
 
+	/**
+	 * Writes the PhotoFilter back to the HttpSession if it changed, e.g. after its criteria have been set
+	 *
+	 * @methodtype command
+	 */
+	public void notifyPhotoFilterChanged() {
+		PhotoFilter photoFilter = getPhotoFilter();
+		if (photoFilter != null && photoFilter.isDirty()) {
+			photoFilter.resetDirty();
+			httpSession.setAttribute(PHOTO_FILTER, photoFilter);
+		}
+	}
+
 	/**
 	 * @methodtype boolean query
 	 */
 	public boolean hasPraisedPhoto(Photo photo) {
-		Set praisedPhotos = (Set) httpSession.getAttribute(PRAISED_PHOTOS);
-		if (praisedPhotos != null) {
-			return praisedPhotos.contains(photo);
+		PhotoFilter photoFilter = getPhotoFilter();
+		if (photoFilter != null) {
+			return photoFilter.isProcessedPhotoId(photo.getId());
 		} else {
-			log.warning("Found no set of praised Photos to search for Photo.");
+			log.warning("No PhotoFilter found in HttpSession to search for Photo.");
 			return false;
 		}
 	}
@@ -191,15 +196,28 @@ public class UserSession extends Session implements Serializable {
 	 *
 	 */
 	public void addProcessedPhoto(Photo photo) {
-		PhotoFilter photoFilter = (PhotoFilter) httpSession.getAttribute(PHOTO_FILTER);
+		PhotoFilter photoFilter = getPhotoFilter();
 		if (photoFilter != null) {
 			photoFilter.addProcessedPhoto(photo);
-			httpSession.setAttribute(PHOTO_FILTER, photoFilter);
+			notifyPhotoFilterChanged();
 		} else {
 			log.warning("No PhotoFilter found in HttpSession to add Photo.");
 		}
 	}
 
+	/**
+	 *
+	 */
+	public void addSkippedPhotoId(PhotoId photoId) {
+		PhotoFilter photoFilter = getPhotoFilter();
+		if (photoFilter != null) {
+			photoFilter.addSkippedPhotoId(photoId);
+			notifyPhotoFilterChanged();
+		} else {
+			log.warning("No PhotoFilter found in HttpSession to add skipped Photo.");
+		}
+	}
+
 	/**
 	 * @methodtype get
 	 */
@@ -253,7 +271,9 @@ public class UserSession extends Session implements Serializable {
 	 * @methodtype set
 	 */
 	public void setPhotoId(PhotoId newPhotoId) {
-		httpSession.setAttribute(Photo.ID, newPhotoId);
+		if (newPhotoId == null || !newPhotoId.equals(getPhotoId())) {
+			httpSession.setAttribute(Photo.ID, newPhotoId);
+		}
 	}
 
 	/**
@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model.persistence;
+
+import com.google.appengine.api.images.Image;
+import org.wahlzeit.model.PhotoSize;
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.SysConfig;
+import org.wahlzeit.utils.PatternInstance;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.security.InvalidParameterException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+@PatternInstance(
+		patternName = "Decorator",
+		participants = {"Decorator (CachingImageStorage)", "Component (ImageStorage)"}
+)
+
+/**
+ * ImageStorage decorator that keeps recently used images in memory. There is one LRU cache per PhotoSize, each
+ * bounded by the total number of image bytes it may hold, so e.g. thumbnails can not be pushed out by large images.
+ * Writes go through to the decorated storage and into the cache.
+ */
+public class CachingImageStorage extends ImageStorage {
+
+	private static final Logger log = Logger.getLogger(CachingImageStorage.class.getName());
+
+	/**
+	 *
+	 */
+	protected final ImageStorage storage;
+
+	/**
+	 * One cache per PhotoSize, indexed by PhotoSize.asInt()
+	 */
+	protected final ImageCache[] caches = new ImageCache[PhotoSize.values().length];
+
+	/**
+	 * Creates a cache with the byte budgets configured in SysConfig. The existence cache is the one of the decorated
+	 * storage, so removing an image there is seen here as well.
+	 */
+	public CachingImageStorage(ImageStorage storage) {
+		super(storage.getExistenceCache());
+		this.storage = storage;
+		for (PhotoSize photoSize : PhotoSize.values()) {
+			long maxBytes = SysConfig.getInstance().getLongValue(SysConfig.IMAGE_CACHE_SIZE + photoSize.asString());
+			caches[photoSize.asInt()] = new ImageCache(maxBytes);
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public ImageStorage getStorage() {
+		return storage;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setMaxBytes(PhotoSize photoSize, long maxBytes) {
+		caches[photoSize.asInt()].setMaxBytes(maxBytes);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getMaxBytes(PhotoSize photoSize) {
+		return caches[photoSize.asInt()].getMaxBytes();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getUsedBytes(PhotoSize photoSize) {
+		return caches[photoSize.asInt()].getUsedBytes();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getHits(PhotoSize photoSize) {
+		return caches[photoSize.asInt()].hits.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getMisses(PhotoSize photoSize) {
+		return caches[photoSize.asInt()].misses.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getEvictions(PhotoSize photoSize) {
+		return caches[photoSize.asInt()].evictions.get();
+	}
+
+	/**
+	 * Returns the counters of all caches in a human-readable form, one line per PhotoSize.
+	 *
+	 * @methodtype conversion
+	 */
+	public String asStatisticsString() {
+		StringBuilder result = new StringBuilder();
+		for (PhotoSize photoSize : PhotoSize.values()) {
+			result.append(photoSize.asString()).
+					append(": hits=").append(getHits(photoSize)).
+					append(", misses=").append(getMisses(photoSize)).
+					append(", evictions=").append(getEvictions(photoSize)).
+					append(", bytes=").append(getUsedBytes(photoSize)).
+					append('/').append(getMaxBytes(photoSize)).append('\n');
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Drops the cached image and whether it exists, e.g. after the photo has been deleted
+	 *
+	 * @methodtype command
+	 */
+	public void evictImage(String photoIdAsString, int size) {
+		caches[size].remove(photoIdAsString);
+		existenceCache.remove(photoIdAsString, size);
+	}
+
+	@Override
+	protected void doWriteImage(Serializable image, String photoIdAsString, int size)
+			throws IOException, InvalidParameterException {
+		storage.doWriteImage(image, photoIdAsString, size);
+		if (image instanceof Image) {
+			caches[size].put(photoIdAsString, (Image) image);
+		}
+	}
+
+	@Override
+	protected Serializable doReadImage(String photoIdAsString, int size) throws IOException {
+		ImageCache cache = caches[size];
+		Image result = cache.get(photoIdAsString);
+		if (result != null) {
+			cache.hits.incrementAndGet();
+			return result;
+		}
+
+		cache.misses.incrementAndGet();
+		Serializable rawImage = storage.doReadImage(photoIdAsString, size);
+		if (rawImage instanceof Image) {
+			cache.put(photoIdAsString, (Image) rawImage);
+		}
+		return rawImage;
+	}
+
+	/**
+	 * File-backed images are served from the file (and the OS page cache) rather than the heap cache.
+	 */
+	@Override
+	protected ImageFileRegion doGetImageFileRegion(String photoIdAsString, int size) throws IOException {
+		return storage.doGetImageFileRegion(photoIdAsString, size);
+	}
+
+	@Override
+	protected boolean doDoesImageExist(String photoIdAsString, int size) {
+		return caches[size].contains(photoIdAsString) || storage.doDoesImageExist(photoIdAsString, size);
+	}
+
+	/**
+	 * An LRU map from photo id to image, bounded by the sum of the image sizes in bytes.
+	 */
+	protected static class ImageCache {
+
+		/**
+		 *
+		 */
+		protected final LinkedHashMap<String, Image> images = new LinkedHashMap<String, Image>(16, 0.75f, true);
+
+		/**
+		 *
+		 */
+		protected long maxBytes;
+		protected long usedBytes = 0;
+
+		/**
+		 *
+		 */
+		protected final AtomicLong hits = new AtomicLong();
+		protected final AtomicLong misses = new AtomicLong();
+		protected final AtomicLong evictions = new AtomicLong();
+
+		/**
+		 *
+		 */
+		protected ImageCache(long maxBytes) {
+			this.maxBytes = maxBytes;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		protected synchronized Image get(String photoIdAsString) {
+			return images.get(photoIdAsString);
+		}
+
+		/**
+		 * @methodtype boolean-query
+		 */
+		protected synchronized boolean contains(String photoIdAsString) {
+			return images.containsKey(photoIdAsString);
+		}
+
+		/**
+		 * Adds the image unless it alone exceeds the budget, then evicts least recently used images until the cache
+		 * fits its budget again.
+		 *
+		 * @methodtype command
+		 */
+		protected synchronized void put(String photoIdAsString, Image image) {
+			long imageBytes = image.getImageData().length;
+			if (imageBytes > maxBytes) {
+				remove(photoIdAsString);
+				return;
+			}
+
+			Image previous = images.put(photoIdAsString, image);
+			if (previous != null) {
+				usedBytes -= previous.getImageData().length;
+			}
+			usedBytes += imageBytes;
+			evictToBudget();
+		}
+
+		/**
+		 * @methodtype command
+		 */
+		protected synchronized void remove(String photoIdAsString) {
+			Image previous = images.remove(photoIdAsString);
+			if (previous != null) {
+				usedBytes -= previous.getImageData().length;
+			}
+		}
+
+		/**
+		 * @methodtype command
+		 */
+		protected void evictToBudget() {
+			for (Iterator<Map.Entry<String, Image>> i = images.entrySet().iterator(); usedBytes > maxBytes; ) {
+				Map.Entry<String, Image> eldest = i.next();
+				usedBytes -= eldest.getValue().getImageData().length;
+				i.remove();
+				evictions.incrementAndGet();
+				LogBuilder.createSystemMessage(log, Level.CONFIG).
+						addParameter("evicted image", eldest.getKey()).log();
+			}
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		protected synchronized long getUsedBytes() {
+			return usedBytes;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		protected synchronized long getMaxBytes() {
+			return maxBytes;
+		}
+
+		/**
+		 * @methodtype set
+		 */
+		protected synchronized void setMaxBytes(long newMaxBytes) {
+			maxBytes = newMaxBytes;
+			evictToBudget();
+		}
+	}
+}
@@ -22,10 +22,12 @@ package org.wahlzeit.model.persistence;
 
 import com.google.appengine.api.images.Image;
 import com.google.appengine.api.images.ImagesServiceFactory;
+import com.googlecode.objectify.Key;
 import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.Work;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
+import org.wahlzeit.services.DatastoreTracer;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.OfyService;
 import org.wahlzeit.utils.PatternInstance;
@@ -33,6 +35,7 @@ import org.wahlzeit.utils.PatternInstance;
 import java.io.IOException;
 import java.io.Serializable;
 import java.security.InvalidParameterException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 @PatternInstance(
@@ -51,6 +54,10 @@ public class DatastoreAdapter extends ImageStorage {
 
 	private static final Logger log = Logger.getLogger(DatastoreAdapter.class.getName());
 
+	/**
+	 *
+	 */
+	protected static final String IMAGE_KIND = Key.getKind(ImageWrapper.class);
 
 	@Override
 	protected void doWriteImage(Serializable image, String photoIdAsString, int size)
@@ -62,16 +69,18 @@ public class DatastoreAdapter extends ImageStorage {
 			ObjectifyService.run(new Work<Boolean>() {
 				@Override
 				public Boolean run() {
+					long startNanos = System.nanoTime();
 					OfyService.ofy().save().entity(imageWrapper).now();
+					DatastoreTracer.getInstance().recordCall(DatastoreTracer.SAVE, IMAGE_KIND, startNanos);
 					return null;
 				}
 			});
 
-			log.config(LogBuilder.createSystemMessage().addMessage("image successfully written").toString());
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("image successfully written").log();
 		} else {
-			log.warning(LogBuilder.createSystemMessage().
+			LogBuilder.createSystemMessage(log, Level.WARNING).
 					addMessage("did not get an Image type to store").
-					addParameter("image type", image.toString()).toString());
+					addParameter("image type", image.toString()).log();
 		}
 	}
 
@@ -82,38 +91,45 @@ public class DatastoreAdapter extends ImageStorage {
 		ImageWrapper imageWrapper = ObjectifyService.run(new Work<ImageWrapper>() {
 			@Override
 			public ImageWrapper run() {
-				return OfyService.ofy().load().type(ImageWrapper.class).id(photoIdAsString + size).now();
+				long startNanos = System.nanoTime();
+				ImageWrapper result = OfyService.ofy().load().type(ImageWrapper.class).id(photoIdAsString + size).now();
+				DatastoreTracer.getInstance().recordCall(DatastoreTracer.LOAD, IMAGE_KIND, startNanos);
+				return result;
 			}
 		});
 
 		if (imageWrapper == null) {
-			log.info(LogBuilder.createSystemMessage().addMessage("does not exist!").toString());
+			LogBuilder.createSystemMessage(log, Level.INFO).addMessage("does not exist!").log();
 		} else {
 			result = imageWrapper.getImage();
 			if (result != null) {
-				log.config(LogBuilder.createSystemMessage().addMessage("image successfully read").toString());
+				LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("image successfully read").log();
 			} else {
-				log.warning(LogBuilder.createSystemMessage().addMessage("ImageWrapper contains no Image").toString());
+				LogBuilder.createSystemMessage(log, Level.WARNING).addMessage("ImageWrapper contains no Image").log();
 			}
 		}
 		return result;
 	}
 
+	/**
+	 * Uses a keys-only query, so the image data itself is not transferred.
+	 */
 	@Override
 	protected boolean doDoesImageExist(String photoIdAsString, int size) {
-		Image image = null;
-		boolean result = false;
-		try {
-			image = doReadImage(photoIdAsString, size);
-		} catch (IOException e) {
-			log.warning(
-					LogBuilder.createSystemMessage().addException("IOException when checking for Image existance", e)
-							.toString());
-		}
-		if (image != null) {
-			result = true;
-		}
-		log.config(LogBuilder.createSystemMessage().addParameter("does image exist", result).toString());
+		final Key<ImageWrapper> key = Key.create(ImageWrapper.class, photoIdAsString + size);
+		Key<ImageWrapper> existingKey = ObjectifyService.run(new Work<Key<ImageWrapper>>() {
+			@Override
+			public Key<ImageWrapper> run() {
+				long startNanos = System.nanoTime();
+				Key<ImageWrapper> result = OfyService.ofy().load().type(ImageWrapper.class).filterKey(key).keys().
+						first().now();
+				DatastoreTracer.getInstance().recordCall(DatastoreTracer.QUERY, IMAGE_KIND, startNanos);
+				return result;
+			}
+		});
+
+		boolean result = existingKey != null;
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("does image exist", result).log();
 		return result;
 	}
 
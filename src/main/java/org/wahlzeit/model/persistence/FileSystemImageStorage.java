@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model.persistence;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.SysConfig;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidParameterException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * ImageStorage that keeps every scaled image in its own file below a base directory (by default
+ * SysConfig.getPhotosDir()). Files are spread over subdirectories named after the last two characters of the photo
+ * id, as ids are handed out sequentially and their leading characters hardly vary: e.g. image "x1ac7" of size 2 is
+ * stored as "c7/x1ac7-2.img".
+ *
+ * Images are written to a temporary file that is then renamed, so readers never see partially written images.
+ * There is no limit to the image size.
+ */
+public class FileSystemImageStorage extends ImageStorage {
+
+	private static final Logger log = Logger.getLogger(FileSystemImageStorage.class.getName());
+
+	/**
+	 *
+	 */
+	protected static final String FILE_EXTENSION = ".img";
+	protected static final String TEMP_FILE_EXTENSION = ".tmp";
+
+	/**
+	 *
+	 */
+	protected final File baseDir;
+
+	/**
+	 * Stores images in SysConfig.getPhotosDir()
+	 */
+	public FileSystemImageStorage() {
+		this(new File(SysConfig.getPhotosDir().asString()));
+	}
+
+	/**
+	 *
+	 */
+	public FileSystemImageStorage(File baseDir) {
+		this.baseDir = baseDir;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public File getBaseDir() {
+		return baseDir;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public File getImageFile(String photoIdAsString, int size) {
+		String fileName = asFileName(photoIdAsString);
+		String bucket = fileName.length() <= 2 ? fileName : fileName.substring(fileName.length() - 2);
+		return new File(new File(baseDir, bucket.replace('.', '_')), fileName + "-" + size + FILE_EXTENSION);
+	}
+
+	@Override
+	protected void doWriteImage(Serializable image, String photoIdAsString, int size)
+			throws IOException, InvalidParameterException {
+		if (!(image instanceof Image)) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addMessage("did not get an Image type to store").
+					addParameter("image type", image.toString()).log();
+			return;
+		}
+
+		File file = getImageFile(photoIdAsString, size);
+		Path dir = file.getParentFile().toPath();
+		Files.createDirectories(dir);
+		Path tempFile = Files.createTempFile(dir, file.getName(), TEMP_FILE_EXTENSION);
+		try {
+			try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+				ByteBuffer data = ByteBuffer.wrap(((Image) image).getImageData());
+				while (data.hasRemaining()) {
+					channel.write(data);
+				}
+			}
+			try {
+				Files.move(tempFile, file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException amnsex) {
+				Files.move(tempFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("image successfully written").log();
+	}
+
+	@Override
+	protected Image doReadImage(String photoIdAsString, int size) throws IOException {
+		File file = getImageFile(photoIdAsString, size);
+		byte[] imageData;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long length = channel.size();
+			if (length > Integer.MAX_VALUE) {
+				throw new IOException("image file too large: " + file);
+			}
+
+			// Images end up in a heap byte[] anyway, so read straight into it instead of mapping the file
+			imageData = new byte[(int) length];
+			ByteBuffer buffer = ByteBuffer.wrap(imageData);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, buffer.position()) < 0) {
+					throw new EOFException("image file shrank while reading: " + file);
+				}
+			}
+		} catch (NoSuchFileException nsfex) {
+			LogBuilder.createSystemMessage(log, Level.INFO).addMessage("does not exist!").log();
+			return null;
+		}
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("image successfully read").log();
+		return ImagesServiceFactory.makeImage(imageData);
+	}
+
+	/**
+	 * The whole file is the image
+	 */
+	@Override
+	protected ImageFileRegion doGetImageFileRegion(String photoIdAsString, int size) throws IOException {
+		File file = getImageFile(photoIdAsString, size);
+		long length = file.length();
+		return (length > 0) ? new ImageFileRegion(file, 0, length) : null;
+	}
+
+	@Override
+	protected boolean doDoesImageExist(String photoIdAsString, int size) {
+		return getImageFile(photoIdAsString, size).isFile();
+	}
+
+	/**
+	 * Encodes all characters that are not safe in file names, e.g. separators
+	 *
+	 * @methodtype conversion
+	 */
+	protected static String asFileName(String photoIdAsString) {
+		try {
+			return URLEncoder.encode(photoIdAsString, "UTF-8").replace("*", "%2A");
+		} catch (UnsupportedEncodingException ueex) {
+			throw new IllegalStateException(ueex);
+		}
+	}
+
+}
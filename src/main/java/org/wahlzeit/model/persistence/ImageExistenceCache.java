@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model.persistence;
+
+import org.wahlzeit.model.PhotoSize;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers which images (photo id and size) are known to exist in an ImageStorage, and which are known not to.
+ * Scaled images are never changed once written, so positive answers are kept until the image is removed. Negative
+ * answers expire after a while, as another instance may have written the image in the meantime. There is one LRU map
+ * per PhotoSize, each bounded by a number of entries.
+ */
+public class ImageExistenceCache {
+
+	/**
+	 *
+	 */
+	protected static final Long EXISTS = Long.MAX_VALUE;
+
+	/**
+	 * One map per PhotoSize; photo id -> time until which the answer is valid (EXISTS for positive answers)
+	 */
+	protected final List<Map<String, Long>> entries;
+
+	/**
+	 *
+	 */
+	protected volatile long negativeTtl;
+
+	/**
+	 *
+	 */
+	public ImageExistenceCache(long negativeTtl, int maxEntries) {
+		this.negativeTtl = negativeTtl;
+		entries = new ArrayList<Map<String, Long>>(PhotoSize.values().length);
+		for (int i = 0; i < PhotoSize.values().length; i++) {
+			entries.add(Collections.synchronizedMap(new LruMap(maxEntries)));
+		}
+	}
+
+	/**
+	 * Returns Boolean.TRUE or Boolean.FALSE if the answer is known, otherwise null.
+	 *
+	 * @methodtype get
+	 */
+	public Boolean doesImageExist(String photoIdAsString, int size) {
+		Map<String, Long> sizeEntries = entries.get(size);
+		Long validUntil = sizeEntries.get(photoIdAsString);
+		if (validUntil == null) {
+			return null;
+		} else if (validUntil.equals(EXISTS)) {
+			return Boolean.TRUE;
+		} else if (validUntil > System.currentTimeMillis()) {
+			return Boolean.FALSE;
+		} else {
+			sizeEntries.remove(photoIdAsString, validUntil);
+			return null;
+		}
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setImageExists(String photoIdAsString, int size, boolean exists) {
+		Map<String, Long> sizeEntries = entries.get(size);
+		if (exists) {
+			sizeEntries.put(photoIdAsString, EXISTS);
+		} else if (negativeTtl > 0) {
+			sizeEntries.put(photoIdAsString, System.currentTimeMillis() + negativeTtl);
+		} else {
+			sizeEntries.remove(photoIdAsString);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void remove(String photoIdAsString, int size) {
+		entries.get(size).remove(photoIdAsString);
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setNegativeTtl(long newNegativeTtl) {
+		negativeTtl = newNegativeTtl;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoEntries(int size) {
+		return entries.get(size).size();
+	}
+
+	/**
+	 * A map in access order that drops its least recently used entry when it grows beyond maxEntries.
+	 */
+	protected static class LruMap extends LinkedHashMap<String, Long> {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 *
+		 */
+		protected final int maxEntries;
+
+		/**
+		 *
+		 */
+		protected LruMap(int maxEntries) {
+			super(16, 0.75f, true);
+			this.maxEntries = maxEntries;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+			return size() > maxEntries;
+		}
+	}
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model.persistence;
+
+import java.io.File;
+
+/**
+ * Location of a stored image within a file: the whole file for one-file-per-image storages, or a slice of a larger
+ * file. Lets callers stream images with FileChannel.transferTo instead of copying them onto the heap.
+ */
+public class ImageFileRegion {
+
+	/**
+	 *
+	 */
+	protected final File file;
+	protected final long position;
+	protected final long length;
+
+	/**
+	 *
+	 */
+	public ImageFileRegion(File file, long position, long length) {
+		this.file = file;
+		this.position = position;
+		this.length = length;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getLength() {
+		return length;
+	}
+
+}
@@ -2,11 +2,13 @@ package org.wahlzeit.model.persistence;
 
 import org.wahlzeit.model.PhotoSize;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.SysConfig;
 import org.wahlzeit.utils.PatternInstance;
 
 import java.io.IOException;
 import java.io.Serializable;
 import java.security.InvalidParameterException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 @PatternInstance(
@@ -26,6 +28,27 @@ public abstract class ImageStorage {
 	private static final Logger log = Logger.getLogger(ImageStorage.class.getName());
 	private static ImageStorage instance = null;
 
+	/**
+	 * Answers doesImageExist without asking the storage, if possible. Decorators share the cache of the storage they
+	 * decorate, so there is only one cache per stack of storages.
+	 */
+	protected final ImageExistenceCache existenceCache;
+
+	/**
+	 * Creates a storage with an existence cache configured in SysConfig
+	 */
+	protected ImageStorage() {
+		this(new ImageExistenceCache(SysConfig.getInstance().getLongValue(SysConfig.IMAGE_EXISTENCE_CACHE_TTL),
+				SysConfig.getInstance().getIntValue(SysConfig.IMAGE_EXISTENCE_CACHE_ENTRIES)));
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	protected ImageStorage(ImageExistenceCache existenceCache) {
+		this.existenceCache = existenceCache;
+	}
+
 	/**
 	 * @methodtype get
 	 */
@@ -42,13 +65,21 @@ public abstract class ImageStorage {
 	 * @methodtype set
 	 */
 	public static void setInstance(ImageStorage newInstance) {
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("set ImageStorage instance").
-				addParameter("instance", newInstance).toString());
+				addParameter("instance", newInstance).log();
 		instance = newInstance;
 	}
 
 
+	/**
+	 * @methodtype get
+	 */
+	public ImageExistenceCache getExistenceCache() {
+		return existenceCache;
+	}
+
+
 	// write-methods ---------------------------------------------------------------------------------------------------
 
 	/**
@@ -65,13 +96,14 @@ public abstract class ImageStorage {
 		assertValidPhotoId(photoIdAsString);
 		PhotoSize.assertIsValidPhotoSizeAsInt(size);
 
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("write image to storage").
 				addParameter("image", image).
 				addParameter("photo id", photoIdAsString).
-				addParameter("size", size).toString());
+				addParameter("size", size).log();
 
 		doWriteImage(image, photoIdAsString, size);
+		existenceCache.setImageExists(photoIdAsString, size, true);
 	}
 
 	/**
@@ -98,12 +130,14 @@ public abstract class ImageStorage {
 		assertValidPhotoId(photoIdAsString);
 		PhotoSize.assertIsValidPhotoSizeAsInt(size);
 
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("read image from storage").
 				addParameter("photo id", photoIdAsString).
-				addParameter("size", size).toString());
+				addParameter("size", size).log();
 
-		return doReadImage(photoIdAsString, size);
+		Serializable result = doReadImage(photoIdAsString, size);
+		existenceCache.setImageExists(photoIdAsString, size, result != null);
+		return result;
 	}
 
 	/**
@@ -116,10 +150,36 @@ public abstract class ImageStorage {
 			throws IOException;
 
 
+	/**
+	 * Returns where the image is located on disk, so that it can be streamed without reading it onto the heap. Returns
+	 * null if the storage does not keep images in local files, the image does not exist, or photo id or size are
+	 * invalid, as they may come straight from a request.
+	 *
+	 * @methodtype get
+	 * @methodproperty wrapper
+	 */
+	public ImageFileRegion getImageFileRegion(String photoIdAsString, int size) throws IOException {
+		if (photoIdAsString == null || "".equals(photoIdAsString) || size < 0 || size >= PhotoSize.values().length) {
+			return null;
+		}
+		return doGetImageFileRegion(photoIdAsString, size);
+	}
+
+	/**
+	 * Actually returns where the image is located on disk, or null
+	 *
+	 * @methodtype get
+	 * @methodproperty hook
+	 */
+	protected ImageFileRegion doGetImageFileRegion(String photoIdAsString, int size) throws IOException {
+		return null;
+	}
+
+
 	// exist method ----------------------------------------------------------------------------------------------------
 
 	/**
-	 * Checks if the specified image already exists in the storage
+	 * Checks if the specified image already exists in the storage. Known answers are taken from the existence cache.
 	 *
 	 * @methodtype boolean query
 	 * @methodproperty wrapper
@@ -130,17 +190,25 @@ public abstract class ImageStorage {
 		assertValidPhotoId(photoIdAsString);
 		PhotoSize.assertIsValidPhotoSizeAsInt(size);
 
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addAction("check if image exists in storage").
 				addParameter("photo id", photoIdAsString).
-				addParameter("size", size).toString());
+				addParameter("size", size).log();
+
+		Boolean knownResult = existenceCache.doesImageExist(photoIdAsString, size);
+		if (knownResult != null) {
+			return knownResult;
+		}
 
-		return doDoesImageExist(photoIdAsString, size);
+		boolean result = doDoesImageExist(photoIdAsString, size);
+		existenceCache.setImageExists(photoIdAsString, size, result);
+		return result;
 	}
 
 
 	/**
-	 * Actually checks if the specified image already exists in the storage
+	 * Actually checks if the specified image already exists in the storage. Implementations should not read the
+	 * image data for this, e.g. use a keys-only query.
 	 *
 	 * @methodtype boolean query
 	 * @methodproperty hook
@@ -0,0 +1,594 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model.persistence;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.wahlzeit.model.PhotoId;
+import org.wahlzeit.model.PhotoSize;
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.SysConfig;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * ImageStorage that appends all scaled images to a few large segment files instead of keeping one entity or file
+ * per image. Each record in a segment consists of a header (magic number, photo id, size, data length) followed by
+ * the image data, so a segment can be read with one sequential scan. When the active segment is full, a new one is
+ * started; older segments are never written to again.
+ *
+ * The index from photo id and size to segment, offset and length is kept off-heap and rebuilt from the segments on
+ * startup, later records overriding earlier ones. Reads are slices of memory-mapped segments. Removed images stay in
+ * their segment until compact() copies the remaining images of a mostly dead segment to the active one and deletes
+ * it; until then a restart brings removed images back, so callers must remove them again (see
+ * CompactImageSegmentsAgent).
+ *
+ * Only canonical photo ids (as produced by PhotoId) can be stored.
+ */
+public class SegmentImageStorage extends ImageStorage {
+
+	private static final Logger log = Logger.getLogger(SegmentImageStorage.class.getName());
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_MAX_SEGMENT_BYTES = 256 * 1024 * 1024;
+
+	/**
+	 * Segments with less than this share of live bytes are compacted
+	 */
+	public static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+
+	/**
+	 *
+	 */
+	protected static final String SEGMENT_EXTENSION = ".seg";
+
+	/**
+	 * "WZIM"
+	 */
+	protected static final int RECORD_MAGIC = 0x575A494D;
+
+	/**
+	 * magic (int), photo id (int), size (byte), data length (int)
+	 */
+	protected static final int HEADER_BYTES = 13;
+
+	/**
+	 *
+	 */
+	protected final File dir;
+	protected final int maxSegmentBytes;
+
+	/**
+	 *
+	 */
+	protected final SegmentIndex index = new SegmentIndex();
+
+	/**
+	 * segment number -> segment; the last one is the active segment
+	 */
+	protected final TreeMap<Integer, Segment> segments = new TreeMap<Integer, Segment>();
+
+	/**
+	 * Only one compaction at a time; compaction does not block readers and writers for long
+	 */
+	protected final Object compactionLock = new Object();
+
+	/**
+	 * Opens the segments in the "segments" directory below SysConfig.getPhotosDir()
+	 */
+	public SegmentImageStorage() throws IOException {
+		this(new File(SysConfig.getPhotosDir().asString(), "segments"), DEFAULT_MAX_SEGMENT_BYTES);
+	}
+
+	/**
+	 *
+	 */
+	public SegmentImageStorage(File dir, int maxSegmentBytes) throws IOException {
+		this.dir = dir;
+		this.maxSegmentBytes = maxSegmentBytes;
+
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("could not create segment directory " + dir);
+		}
+		loadSegments();
+	}
+
+	/**
+	 * Scans all segments in ascending order and rebuilds the index. A truncated record at the end of a segment (from
+	 * a crash while writing) is cut off.
+	 *
+	 * @methodtype initialization
+	 */
+	protected synchronized void loadSegments() throws IOException {
+		File[] files = dir.listFiles();
+		List<Integer> numbers = new ArrayList<Integer>();
+		for (File file : (files != null) ? files : new File[0]) {
+			String name = file.getName();
+			if (name.endsWith(SEGMENT_EXTENSION)) {
+				try {
+					numbers.add(Integer.parseInt(name.substring(0, name.length() - SEGMENT_EXTENSION.length())));
+				} catch (NumberFormatException nfex) {
+					LogBuilder.createSystemMessage(log, Level.WARNING).addParameter("ignored file", file).log();
+				}
+			}
+		}
+		Integer[] sortedNumbers = numbers.toArray(new Integer[numbers.size()]);
+		Arrays.sort(sortedNumbers);
+
+		long startTime = System.currentTimeMillis();
+		int noRecords = 0;
+		for (int number : sortedNumbers) {
+			Segment segment = openSegment(number);
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			long fileSize = segment.channel.size();
+			long position = 0;
+			while (position + HEADER_BYTES <= fileSize) {
+				header.clear();
+				readFully(segment.channel, header, position);
+				header.flip();
+				int magic = header.getInt();
+				int photoId = header.getInt();
+				int size = header.get();
+				int length = header.getInt();
+				if (magic != RECORD_MAGIC || photoId < 0 || photoId > SegmentIndex.MAX_PHOTO_ID
+						|| size < 0 || size >= SegmentIndex.NO_SIZES || length < 0
+						|| position + HEADER_BYTES + length > fileSize) {
+					break;
+				}
+				doPut(photoId, size, segment, (int) position + HEADER_BYTES, length);
+				position += HEADER_BYTES + length;
+				noRecords++;
+			}
+
+			if (position < fileSize) {
+				LogBuilder.createSystemMessage(log, Level.WARNING).
+						addMessage("truncating damaged segment").
+						addParameter("segment", segment.file).
+						addParameter("position", position).log();
+				segment.channel.truncate(position);
+			}
+			segment.length = (int) position;
+		}
+
+		if (segments.isEmpty()) {
+			openSegment(0);
+		}
+
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("segments loaded").
+				addParameter("segments", segments.size()).
+				addParameter("records", noRecords).
+				addParameter("ms", System.currentTimeMillis() - startTime).log();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int getSegmentCount() {
+		return segments.size();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized long getTotalBytes() {
+		long result = 0;
+		for (Segment segment : segments.values()) {
+			result += segment.length;
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized long getLiveBytes() {
+		long result = 0;
+		for (Segment segment : segments.values()) {
+			result += segment.liveBytes;
+		}
+		return result;
+	}
+
+	@Override
+	protected synchronized void doWriteImage(Serializable image, String photoIdAsString, int size)
+			throws IOException, InvalidParameterException {
+		if (!(image instanceof Image)) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addMessage("did not get an Image type to store").
+					addParameter("image type", image.toString()).log();
+			return;
+		}
+
+		int photoId = asPhotoIdInt(photoIdAsString);
+		if (photoId < 0) {
+			throw new InvalidParameterException("not a photo id: " + photoIdAsString);
+		}
+
+		byte[] data = ((Image) image).getImageData();
+		append(photoId, size, ByteBuffer.wrap(data), data.length);
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("image successfully written").log();
+	}
+
+	@Override
+	protected Image doReadImage(String photoIdAsString, int size) throws IOException {
+		ByteBuffer buffer = getImageBuffer(photoIdAsString, size);
+		if (buffer == null) {
+			LogBuilder.createSystemMessage(log, Level.INFO).addMessage("does not exist!").log();
+			return null;
+		}
+
+		byte[] imageData = new byte[buffer.remaining()];
+		buffer.get(imageData);
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addMessage("image successfully read").log();
+		return ImagesServiceFactory.makeImage(imageData);
+	}
+
+	/**
+	 * Returns a read-only slice of the memory-mapped segment holding the image, or null if there is no such image.
+	 *
+	 * @methodtype get
+	 */
+	public synchronized ByteBuffer getImageBuffer(String photoIdAsString, int size) throws IOException {
+		int photoId = asPhotoIdInt(photoIdAsString);
+		int segmentNo = (photoId < 0) ? SegmentIndex.NONE : index.getSegmentNo(photoId, size);
+		if (segmentNo == SegmentIndex.NONE) {
+			return null;
+		}
+		return segments.get(segmentNo).slice(index.getOffset(photoId, size), index.getLength(photoId, size));
+	}
+
+	@Override
+	protected synchronized ImageFileRegion doGetImageFileRegion(String photoIdAsString, int size) throws IOException {
+		int photoId = asPhotoIdInt(photoIdAsString);
+		int segmentNo = (photoId < 0) ? SegmentIndex.NONE : index.getSegmentNo(photoId, size);
+		if (segmentNo == SegmentIndex.NONE) {
+			return null;
+		}
+		File file = segments.get(segmentNo).file;
+		return new ImageFileRegion(file, index.getOffset(photoId, size), index.getLength(photoId, size));
+	}
+
+	@Override
+	protected synchronized boolean doDoesImageExist(String photoIdAsString, int size) {
+		int photoId = asPhotoIdInt(photoIdAsString);
+		return photoId >= 0 && index.getSegmentNo(photoId, size) != SegmentIndex.NONE;
+	}
+
+	/**
+	 * Removes the image from the index and the existence cache; its space is reclaimed by compact()
+	 *
+	 * @methodtype command
+	 */
+	public synchronized void removeImage(String photoIdAsString, int size) {
+		int photoId = asPhotoIdInt(photoIdAsString);
+		int segmentNo = (photoId < 0) ? SegmentIndex.NONE : index.getSegmentNo(photoId, size);
+		if (segmentNo != SegmentIndex.NONE) {
+			segments.get(segmentNo).liveBytes -= HEADER_BYTES + index.getLength(photoId, size);
+			index.remove(photoId, size);
+		}
+		existenceCache.remove(photoIdAsString, size);
+	}
+
+	/**
+	 * Copies the live images of all full segments with less than the given share of live bytes into the active
+	 * segment and deletes them. Records are copied one at a time, so reads and writes can go on meanwhile. The copies
+	 * are forced to disk before a segment is deleted. Readers that were handed a region of a deleted segment (see
+	 * getImageFileRegion) and have not opened its file yet must ask for the region again.
+	 *
+	 * @methodtype command
+	 */
+	public void compact(double threshold) throws IOException {
+		synchronized (compactionLock) {
+			for (Segment segment : getCompactionCandidates(threshold)) {
+				long startTime = System.currentTimeMillis();
+				int noCopied = 0;
+				int position = 0;
+				while (position < segment.length) {
+					ByteBuffer header = segment.slice(position, HEADER_BYTES);
+					header.getInt(); // magic
+					int photoId = header.getInt();
+					int size = header.get();
+					int length = header.getInt();
+					int offset = position + HEADER_BYTES;
+					synchronized (this) {
+						if (isIndexed(photoId, size, segment, offset)) {
+							append(photoId, size, segment.slice(offset, length), length);
+							noCopied++;
+						}
+					}
+					position = offset + length;
+				}
+
+				synchronized (this) {
+					for (Segment copySegment : segments.tailMap(segment.number, false).values()) {
+						copySegment.channel.force(true);
+					}
+					segments.remove(segment.number);
+					segment.channel.close();
+				}
+				if (!segment.file.delete()) {
+					LogBuilder.createSystemMessage(log, Level.WARNING).
+							addParameter("could not delete", segment.file).log();
+				}
+
+				LogBuilder.createSystemMessage(log, Level.INFO).addMessage("segment compacted").
+						addParameter("segment", segment.file).
+						addParameter("copied images", noCopied).
+						addParameter("ms", System.currentTimeMillis() - startTime).log();
+			}
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected synchronized List<Segment> getCompactionCandidates(double threshold) {
+		List<Segment> result = new ArrayList<Segment>();
+		Segment activeSegment = segments.lastEntry().getValue();
+		for (Segment segment : segments.values()) {
+			if (segment != activeSegment && segment.liveBytes < threshold * segment.length) {
+				result.add(segment);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	protected boolean isIndexed(int photoId, int size, Segment segment, int offset) {
+		return index.getSegmentNo(photoId, size) == segment.number && index.getOffset(photoId, size) == offset;
+	}
+
+	/**
+	 * Appends a record to the active segment, starting a new segment if it is full, and indexes it.
+	 *
+	 * @methodtype command
+	 */
+	protected void append(int photoId, int size, ByteBuffer data, int length) throws IOException {
+		Segment segment = segments.lastEntry().getValue();
+		if (segment.length > 0 && (long) segment.length + HEADER_BYTES + length > maxSegmentBytes) {
+			segment = openSegment(segment.number + 1);
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		header.putInt(RECORD_MAGIC).putInt(photoId).put((byte) size).putInt(length).flip();
+		long position = segment.length;
+		segment.channel.position(position);
+		ByteBuffer[] record = {header, data};
+		while (header.hasRemaining() || data.hasRemaining()) {
+			segment.channel.write(record);
+		}
+
+		segment.length += HEADER_BYTES + length;
+		doPut(photoId, size, segment, (int) position + HEADER_BYTES, length);
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperties primitive
+	 */
+	protected void doPut(int photoId, int size, Segment segment, int offset, int length) {
+		int previousSegmentNo = index.getSegmentNo(photoId, size);
+		if (previousSegmentNo != SegmentIndex.NONE) {
+			Segment previous = segments.get(previousSegmentNo);
+			if (previous != null) {
+				previous.liveBytes -= HEADER_BYTES + index.getLength(photoId, size);
+			}
+		}
+		index.put(photoId, size, segment.number, offset, length);
+		segment.liveBytes += HEADER_BYTES + length;
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected Segment openSegment(int number) throws IOException {
+		File file = new File(dir, String.format("%08d", number) + SEGMENT_EXTENSION);
+		FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		Segment result = new Segment(number, file, channel);
+		segments.put(number, result);
+		return result;
+	}
+
+	/**
+	 * Returns the photo id as int, or -1 if the string is not a canonical photo id or beyond the capacity of the index
+	 *
+	 * @methodtype conversion
+	 */
+	protected static int asPhotoIdInt(String photoIdAsString) {
+		int result = PhotoId.getFromString(photoIdAsString);
+		boolean isIndexable = result >= 0 && result <= SegmentIndex.MAX_PHOTO_ID;
+		return (isIndexable && PhotoId.getFromInt(result).equals(photoIdAsString)) ? result : -1;
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException();
+			}
+		}
+	}
+
+	/**
+	 * A segment file and its memory mapping, which is extended as the segment grows
+	 */
+	protected static class Segment {
+
+		/**
+		 *
+		 */
+		protected final int number;
+		protected final File file;
+		protected final FileChannel channel;
+
+		/**
+		 *
+		 */
+		protected int length = 0;
+		protected long liveBytes = 0;
+
+		/**
+		 *
+		 */
+		protected MappedByteBuffer mapping;
+
+		/**
+		 *
+		 */
+		protected Segment(int number, File file, FileChannel channel) {
+			this.number = number;
+			this.file = file;
+			this.channel = channel;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		protected synchronized ByteBuffer slice(int offset, int length) throws IOException {
+			if (mapping == null || mapping.capacity() < offset + length) {
+				mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, this.length);
+			}
+			ByteBuffer result = mapping.asReadOnlyBuffer();
+			result.position(offset);
+			result.limit(offset + length);
+			return result.slice();
+		}
+	}
+
+	/**
+	 * Off-heap index from photo id and size to segment, offset and length. Photo ids are dense, so entries are
+	 * addressed directly by (photo id * number of sizes + size). Not thread-safe.
+	 */
+	protected static class SegmentIndex {
+
+		/**
+		 *
+		 */
+		protected static final int NONE = -1;
+		protected static final int NO_SIZES = PhotoSize.values().length;
+
+		/**
+		 * segment number + 1 (0 for no entry), offset, length
+		 */
+		protected static final int ENTRY_BYTES = 12;
+
+		/**
+		 * Entries of larger photo ids would lie beyond the largest possible buffer
+		 */
+		protected static final int MAX_PHOTO_ID = Integer.MAX_VALUE / (NO_SIZES * ENTRY_BYTES) - 1;
+
+		/**
+		 *
+		 */
+		protected ByteBuffer entries = ByteBuffer.allocateDirect(1024 * NO_SIZES * ENTRY_BYTES);
+
+		/**
+		 * @methodtype get
+		 */
+		protected int getSegmentNo(int photoId, int size) {
+			if (size < 0 || size >= NO_SIZES) {
+				return NONE;
+			}
+			int position = getPosition(photoId, size);
+			return (position + ENTRY_BYTES <= entries.capacity()) ? entries.getInt(position) - 1 : NONE;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		protected int getOffset(int photoId, int size) {
+			return entries.getInt(getPosition(photoId, size) + 4);
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		protected int getLength(int photoId, int size) {
+			return entries.getInt(getPosition(photoId, size) + 8);
+		}
+
+		/**
+		 * @methodtype set
+		 */
+		protected void put(int photoId, int size, int segmentNo, int offset, int length) {
+			int position = getPosition(photoId, size);
+			ensureCapacity(position + ENTRY_BYTES);
+			entries.putInt(position, segmentNo + 1);
+			entries.putInt(position + 4, offset);
+			entries.putInt(position + 8, length);
+		}
+
+		/**
+		 * @methodtype command
+		 */
+		protected void remove(int photoId, int size) {
+			int position = getPosition(photoId, size);
+			if (position + ENTRY_BYTES <= entries.capacity()) {
+				entries.putInt(position, 0);
+			}
+		}
+
+		/**
+		 * @methodtype helper
+		 */
+		protected int getPosition(int photoId, int size) {
+			return (photoId * NO_SIZES + size) * ENTRY_BYTES;
+		}
+
+		/**
+		 * @methodtype command
+		 * @methodproperties primitive
+		 */
+		protected void ensureCapacity(int capacity) {
+			if (capacity > entries.capacity()) {
+				int newCapacity = Math.max(capacity, entries.capacity() + (entries.capacity() >> 1));
+				ByteBuffer grown = ByteBuffer.allocateDirect(newCapacity);
+				ByteBuffer old = entries.duplicate();
+				old.clear();
+				grown.put(old);
+				grown.clear();
+				entries = grown;
+			}
+		}
+	}
+
+}
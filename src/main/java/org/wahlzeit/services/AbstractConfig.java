@@ -56,6 +56,27 @@ public abstract class AbstractConfig implements Configuration, Serializable {
 		return doGetValue(key);
 	}
 
+	/**
+	 *
+	 */
+	public int getIntValue(String key) throws IllegalArgumentException {
+		return Integer.parseInt(getValue(key).trim());
+	}
+
+	/**
+	 *
+	 */
+	public long getLongValue(String key) throws IllegalArgumentException {
+		return Long.parseLong(getValue(key).trim());
+	}
+
+	/**
+	 *
+	 */
+	public boolean getBooleanValue(String key) throws IllegalArgumentException {
+		return Boolean.parseBoolean(getValue(key).trim());
+	}
+
 	/**
 	 *
 	 */
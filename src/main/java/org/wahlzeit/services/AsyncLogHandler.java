@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * A Handler that puts log records into a bounded ring buffer and publishes them to its target handlers on a
+ * background thread, so formatting and writing log messages do not happen on request threads. If the buffer is full,
+ * new records are dropped and counted rather than blocking the caller.
+ *
+ * The caller of a record is determined before it is queued, as it can not be determined on the background thread.
+ * Use install() to wrap the handlers of a logger, usually the root logger, and uninstall() to restore them.
+ */
+public class AsyncLogHandler extends Handler {
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_CAPACITY = 1024;
+	public static final String THREAD_NAME = "AsyncLogHandler";
+
+	/**
+	 * Number of records taken from the buffer at once
+	 */
+	protected static final int BATCH_SIZE = 64;
+
+	/**
+	 *
+	 */
+	protected final Handler[] targets;
+
+	/**
+	 * Records are at head ... tail - 1 (mod capacity); both only grow, guarded by this
+	 */
+	protected final LogRecord[] records;
+	protected final int mask;
+	protected long head = 0;
+	protected long tail = 0;
+	protected boolean isPublishing = false;
+	protected boolean isClosed = false;
+
+	/**
+	 *
+	 */
+	protected final AtomicLong noDroppedRecords = new AtomicLong();
+
+	/**
+	 *
+	 */
+	protected final Thread publisher;
+
+	/**
+	 * Creates a handler with a buffer for at least capacity records
+	 */
+	public AsyncLogHandler(int capacity, Handler... targets) {
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		this.records = new LogRecord[size];
+		this.mask = size - 1;
+		this.targets = targets.clone();
+
+		publisher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				publishRecords();
+			}
+		}, THREAD_NAME);
+		publisher.setDaemon(true);
+		publisher.start();
+	}
+
+	/**
+	 * Replaces the handlers of the logger with an AsyncLogHandler publishing to them
+	 *
+	 * @methodtype factory
+	 */
+	public static AsyncLogHandler install(Logger logger, int capacity) {
+		Handler[] handlers = logger.getHandlers();
+		AsyncLogHandler result = new AsyncLogHandler(capacity, handlers);
+		for (Handler handler : handlers) {
+			logger.removeHandler(handler);
+		}
+		logger.addHandler(result);
+		return result;
+	}
+
+	/**
+	 * Publishes all queued records and gives the logger its handlers back
+	 *
+	 * @methodtype command
+	 */
+	public void uninstall(Logger logger) {
+		logger.removeHandler(this);
+		stop();
+		for (Handler target : targets) {
+			logger.addHandler(target);
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Handler[] getTargets() {
+		return targets.clone();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getCapacity() {
+		return records.length;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int getNoQueuedRecords() {
+		return (int) (tail - head);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoDroppedRecords() {
+		return noDroppedRecords.get();
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public void publish(LogRecord record) {
+		if (record == null || !isLoggable(record)) {
+			return;
+		}
+
+		record.getSourceMethodName(); // infers the caller, while still on its thread
+
+		synchronized (this) {
+			if (isClosed || tail - head == records.length) {
+				noDroppedRecords.incrementAndGet();
+				return;
+			}
+			records[(int) (tail++ & mask)] = record;
+			if (tail - head == 1) {
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Waits until all records queued so far have been published, then flushes the targets
+	 */
+	@Override
+	public void flush() {
+		synchronized (this) {
+			long until = tail;
+			while (head < until || isPublishing) {
+				if (!publisher.isAlive()) {
+					break;
+				}
+				try {
+					wait(100);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+
+		for (Handler target : targets) {
+			target.flush();
+		}
+	}
+
+	/**
+	 * Publishes all queued records and closes the targets
+	 */
+	@Override
+	public void close() {
+		stop();
+		for (Handler target : targets) {
+			target.close();
+		}
+	}
+
+	/**
+	 * Publishes all queued records, then stops the background thread; records published later are dropped
+	 *
+	 * @methodtype command
+	 */
+	protected void stop() {
+		synchronized (this) {
+			isClosed = true;
+			notifyAll();
+		}
+
+		try {
+			publisher.join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+
+		for (Handler target : targets) {
+			target.flush();
+		}
+	}
+
+	/**
+	 * Runs on the background thread until the handler is stopped and the buffer is empty
+	 */
+	protected void publishRecords() {
+		List<LogRecord> batch = new ArrayList<LogRecord>(BATCH_SIZE);
+		while (takeRecords(batch)) {
+			for (LogRecord record : batch) {
+				for (Handler target : targets) {
+					try {
+						target.publish(record);
+					} catch (RuntimeException ex) {
+						reportError(null, ex, ErrorManager.WRITE_FAILURE);
+					}
+				}
+			}
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Waits for records and moves up to BATCH_SIZE of them into the batch; returns false once stopped and empty
+	 */
+	protected synchronized boolean takeRecords(List<LogRecord> batch) {
+		isPublishing = false;
+		notifyAll();
+
+		while (head == tail) {
+			if (isClosed) {
+				return false;
+			}
+			try {
+				wait();
+			} catch (InterruptedException ex) {
+				// keep publishing until stopped
+			}
+		}
+
+		long end = Math.min(tail, head + BATCH_SIZE);
+		for (; head < end; head++) {
+			int index = (int) (head & mask);
+			batch.add(records[index]);
+			records[index] = null;
+		}
+		isPublishing = true;
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "AsyncLogHandler" + Arrays.toString(targets);
+	}
+
+}
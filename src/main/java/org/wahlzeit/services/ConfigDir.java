@@ -21,9 +21,17 @@
 package org.wahlzeit.services;
 
 import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A ConfigDir is a Directory that can provides a two-way switch between a default directory and custom directory.
+ *
+ * Which files exist is looked up in a manifest of both directories, which is read once and then kept in memory;
+ * call refreshManifest() after files have been added or removed. Resolved file names are cached in the manifest.
  */
 public class ConfigDir extends Directory {
 
@@ -39,6 +47,11 @@ public class ConfigDir extends Directory {
 	protected String defaultDirName;
 	protected String customDirName;
 
+	/**
+	 * Read on first use, replaced as a whole by refreshManifest()
+	 */
+	protected volatile Manifest manifest = null;
+
 	/**
 	 *
 	 */
@@ -48,6 +61,20 @@ public class ConfigDir extends Directory {
 		customDirName = asString() + File.separator + CUSTOM_DIR_NAME;
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	public String getDefaultDirName() {
+		return defaultDirName;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getCustomDirName() {
+		return customDirName;
+	}
+
 	/**
 	 *
 	 */
@@ -59,6 +86,32 @@ public class ConfigDir extends Directory {
 	 *
 	 */
 	public String getRelativeConfigFileName(String shortFileName) {
+		Manifest current = getManifest();
+		String result = current.relativeFileNames.get(shortFileName);
+		if (result == null) {
+			result = resolveRelativeConfigFileName(shortFileName);
+			current.relativeFileNames.put(shortFileName, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the relative file name as a URL path, i.e. with '/' as separator
+	 */
+	public String getRelativeConfigFileUrl(String shortFileName) {
+		Manifest current = getManifest();
+		String result = current.relativeFileUrls.get(shortFileName);
+		if (result == null) {
+			result = getRelativeConfigFileName(shortFileName).replace(File.separatorChar, '/');
+			current.relativeFileUrls.put(shortFileName, result);
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	protected String resolveRelativeConfigFileName(String shortFileName) {
 		if (hasDefaultFile(shortFileName)) {
 			return getRelativeDefaultConfigFileName(shortFileName);
 		} else {
@@ -98,21 +151,97 @@ public class ConfigDir extends Directory {
 	 *
 	 */
 	public boolean hasDefaultFile(String shortFileName) {
-		return doesFileExist(defaultDirName + File.separator + shortFileName);
+		return getManifest().defaultFiles.contains(shortFileName);
 	}
 
 	/**
 	 *
 	 */
 	public boolean hasCustomFile(String shortFileName) {
-		return doesFileExist(customDirName + File.separator + shortFileName);
+		return getManifest().customFiles.contains(shortFileName);
 	}
 
 	/**
+	 * @methodtype get
+	 */
+	protected Manifest getManifest() {
+		Manifest result = manifest;
+		if (result == null) {
+			synchronized (this) {
+				result = manifest;
+				if (result == null) {
+					result = readManifest();
+					manifest = result;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Reads the files in the default and custom directories again
+	 *
+	 * @methodtype command
+	 */
+	public synchronized void refreshManifest() {
+		manifest = readManifest();
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected Manifest readManifest() {
+		Set<String> defaultFiles = new HashSet<String>();
+		collectFileNames(new File(defaultDirName), "", defaultFiles);
+		Set<String> customFiles = new HashSet<String>();
+		collectFileNames(new File(customDirName), "", customFiles);
+		return new Manifest(defaultFiles, customFiles);
+	}
+
+	/**
+	 * Adds the short names of all files in the directory and its subdirectories
 	 *
+	 * @methodtype helper
 	 */
-	protected boolean doesFileExist(String fullFileName) {
-		return new File(fullFileName).exists();
+	protected void collectFileNames(File dir, String prefix, Set<String> result) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+
+		for (File file : files) {
+			String shortFileName = prefix + file.getName();
+			result.add(shortFileName);
+			if (file.isDirectory()) {
+				collectFileNames(file, shortFileName + File.separator, result);
+			}
+		}
+	}
+
+	/**
+	 * The short names of the files in the default and custom directories, and the file names resolved so far
+	 */
+	protected static class Manifest {
+
+		/**
+		 *
+		 */
+		protected final Set<String> defaultFiles;
+		protected final Set<String> customFiles;
+
+		/**
+		 *
+		 */
+		protected final Map<String, String> relativeFileNames = new ConcurrentHashMap<String, String>();
+		protected final Map<String, String> relativeFileUrls = new ConcurrentHashMap<String, String>();
+
+		/**
+		 *
+		 */
+		protected Manifest(Set<String> defaultFiles, Set<String> customFiles) {
+			this.defaultFiles = Collections.unmodifiableSet(defaultFiles);
+			this.customFiles = Collections.unmodifiableSet(customFiles);
+		}
 	}
 
 }
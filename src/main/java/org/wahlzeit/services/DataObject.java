@@ -53,10 +53,11 @@ public abstract class DataObject implements Persistent, Serializable {
 	}
 
 	/**
-	 *
+	 * Also queues the object for writing, see WriteBehindQueue
 	 */
 	public final void incWriteCount() {
 		writeCount++;
+		WriteBehindQueue.getInstance().enqueue(this);
 	}
 
 	/**
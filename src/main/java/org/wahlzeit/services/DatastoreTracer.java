@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Traces Datastore calls (RPCs), e.g. those of ObjectManager. Every call is counted with its operation, entity kind,
+ * and latency in the trace of the current request, which is kept on the thread-local Session while the request is
+ * handled, see startRequest(Session). Calls slower than the configured threshold are logged. When a request is
+ * finished, its calls are added to the aggregates of its handler, and a warning is logged if it made more calls than
+ * the configured budget. Calls outside of requests, e.g. on startup, are only checked for being slow.
+ */
+public class DatastoreTracer {
+
+	private static final Logger log = Logger.getLogger(DatastoreTracer.class.getName());
+
+	/**
+	 * Operations
+	 */
+	public static final String LOAD = "load";
+	public static final String QUERY = "query";
+	public static final String SAVE = "save";
+	public static final String DELETE = "delete";
+
+	/**
+	 *
+	 */
+	protected static final DatastoreTracer instance = new DatastoreTracer();
+
+	/**
+	 * @methodtype get
+	 */
+	public static DatastoreTracer getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Calls at least as slow are logged; see SysConfig.DATASTORE_SLOW_CALL_MILLIS
+	 */
+	protected volatile long slowCallNanos = 100 * 1000 * 1000L;
+
+	/**
+	 * Requests with more calls are logged; see SysConfig.DATASTORE_CALL_BUDGET
+	 */
+	protected volatile int callBudget = 25;
+
+	/**
+	 * At most this many handlers are aggregated separately; later handler names share OTHER_HANDLER_NAME
+	 */
+	protected static final int MAX_NO_HANDLERS = 256;
+	protected static final String OTHER_HANDLER_NAME = "other";
+
+	/**
+	 * handler name -> aggregated calls of its requests
+	 */
+	protected final ConcurrentMap<String, HandlerStatistics> statisticsByHandler =
+			new ConcurrentHashMap<String, HandlerStatistics>();
+
+	/**
+	 *
+	 */
+	protected DatastoreTracer() {
+		// do nothing
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setSlowCallMillis(long slowCallMillis) {
+		slowCallNanos = slowCallMillis * 1000 * 1000;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setCallBudget(int newCallBudget) {
+		callBudget = newCallBudget;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getCallBudget() {
+		return callBudget;
+	}
+
+	/**
+	 * Starts a new trace for the request handled in the given session
+	 *
+	 * @methodtype command
+	 */
+	public void startRequest(Session session) {
+		session.setDatastoreTrace(new RequestTrace());
+	}
+
+	/**
+	 * Records a call that has been started at startNanos (see System.nanoTime()) and just returned
+	 *
+	 * @methodtype command
+	 */
+	public void recordCall(String operation, String kind, long startNanos) {
+		long nanos = System.nanoTime() - startNanos;
+		Session session = SessionManager.getThreadLocalSession();
+		RequestTrace trace = (session != null) ? session.getDatastoreTrace() : null;
+		if (trace != null) {
+			trace.add(operation, kind, nanos);
+		}
+
+		if (nanos >= slowCallNanos) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addMessage("slow Datastore call").
+					addParameter("operation", operation).
+					addParameter("kind", kind).
+					addParameter("millis", nanos / (1000 * 1000)).log();
+		}
+	}
+
+	/**
+	 * Ends the trace of the request handled in the given session and adds it to the aggregates of the handler
+	 *
+	 * @methodtype command
+	 */
+	public void finishRequest(Session session, String handlerName) {
+		RequestTrace trace = session.getDatastoreTrace();
+		if (trace == null) {
+			return;
+		}
+		session.setDatastoreTrace(null);
+
+		boolean isOverBudget = trace.getNoCalls() > callBudget;
+		getHandlerStatistics(handlerName).add(trace, isOverBudget);
+		if (isOverBudget) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addMessage("Datastore call budget exceeded").
+					addParameter("handler", handlerName).
+					addParameter("calls", trace.getNoCalls()).
+					addParameter("budget", callBudget).
+					addParameter("trace", trace).log();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public HandlerStatistics getHandlerStatistics(String handlerName) {
+		HandlerStatistics result = statisticsByHandler.get(handlerName);
+		if (result == null && statisticsByHandler.size() >= MAX_NO_HANDLERS) {
+			handlerName = OTHER_HANDLER_NAME;
+			result = statisticsByHandler.get(handlerName);
+		}
+		if (result == null) {
+			HandlerStatistics newStatistics = new HandlerStatistics();
+			result = statisticsByHandler.putIfAbsent(handlerName, newStatistics);
+			result = (result == null) ? newStatistics : result;
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		statisticsByHandler.clear();
+	}
+
+	/**
+	 * Returns the aggregates in a human-readable form, one line per handler, sorted
+	 *
+	 * @methodtype conversion
+	 */
+	public String asStatisticsString() {
+		StringBuilder result = new StringBuilder();
+		Map<String, HandlerStatistics> sorted = new TreeMap<String, HandlerStatistics>(statisticsByHandler);
+		for (Map.Entry<String, HandlerStatistics> entry : sorted.entrySet()) {
+			result.append(entry.getKey()).append(": ").append(entry.getValue().asString()).append('\n');
+		}
+		return result.toString();
+	}
+
+	/**
+	 * The Datastore calls of a single request; only used by the thread handling the request
+	 */
+	public static class RequestTrace {
+
+		/**
+		 * operation + " " + kind -> number of calls and nanos
+		 */
+		protected final Map<String, long[]> callsByOperation = new TreeMap<String, long[]>();
+		protected int noCalls = 0;
+		protected long nanos = 0;
+
+		/**
+		 * @methodtype command
+		 */
+		public void add(String operation, String kind, long callNanos) {
+			String key = operation + " " + kind;
+			long[] counters = callsByOperation.get(key);
+			if (counters == null) {
+				counters = new long[2];
+				callsByOperation.put(key, counters);
+			}
+			counters[0]++;
+			counters[1] += callNanos;
+			noCalls++;
+			nanos += callNanos;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public int getNoCalls() {
+			return noCalls;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public long getNanos() {
+			return nanos;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public int getNoCalls(String operation, String kind) {
+			long[] counters = callsByOperation.get(operation + " " + kind);
+			return (counters == null) ? 0 : (int) counters[0];
+		}
+
+		/**
+		 * Returns e.g. "[load Photo: 3 in 12.5ms, save Client: 1 in 4.0ms]"
+		 */
+		@Override
+		public String toString() {
+			StringBuilder result = new StringBuilder("[");
+			for (Map.Entry<String, long[]> entry : callsByOperation.entrySet()) {
+				if (result.length() > 1) {
+					result.append(", ");
+				}
+				result.append(entry.getKey()).append(": ").append(entry.getValue()[0]).append(" in ").
+						append(asMillisString(entry.getValue()[1]));
+			}
+			return result.append(']').toString();
+		}
+	}
+
+	/**
+	 * Aggregated Datastore calls of the requests of a handler; lock-free
+	 */
+	public static class HandlerStatistics {
+
+		/**
+		 *
+		 */
+		protected final LongAdder noRequests = new LongAdder();
+		protected final LongAdder noCalls = new LongAdder();
+		protected final LongAdder nanos = new LongAdder();
+		protected final LongAccumulator maxCalls = new LongAccumulator(Math::max, 0);
+		protected final LongAdder noRequestsOverBudget = new LongAdder();
+
+		/**
+		 * @methodtype command
+		 */
+		protected void add(RequestTrace trace, boolean isOverBudget) {
+			noRequests.increment();
+			noCalls.add(trace.getNoCalls());
+			nanos.add(trace.getNanos());
+			maxCalls.accumulate(trace.getNoCalls());
+			if (isOverBudget) {
+				noRequestsOverBudget.increment();
+			}
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public long getNoRequests() {
+			return noRequests.sum();
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public long getNoCalls() {
+			return noCalls.sum();
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public long getMaxCalls() {
+			return maxCalls.get();
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public long getNoRequestsOverBudget() {
+			return noRequestsOverBudget.sum();
+		}
+
+		/**
+		 * @methodtype conversion
+		 */
+		public String asString() {
+			long requests = Math.max(getNoRequests(), 1);
+			return String.format(Locale.US, "requests=%d, calls/request=%.1f, max calls=%d, datastore/request=%s, " +
+					"over budget=%d", getNoRequests(), getNoCalls() / (double) requests, getMaxCalls(),
+					asMillisString(nanos.sum() / requests), getNoRequestsOverBudget());
+		}
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String asMillisString(long nanos) {
+		return String.format(Locale.US, "%.1fms", nanos / (1000.0 * 1000.0));
+	}
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of latencies in microseconds. Buckets grow exponentially, with four buckets per power of two,
+ * so a percentile is off by at most 25% of its value; latencies beyond MAX_MICROS are counted in the last bucket.
+ * Recording is a few arithmetic operations and two atomic increments.
+ */
+public class LatencyHistogram {
+
+	/**
+	 *
+	 */
+	protected static final int SUB_BUCKETS = 4;
+	protected static final int MAX_EXPONENT = 27;
+	public static final long MAX_MICROS = 1L << (MAX_EXPONENT + 1);
+	public static final int NO_BUCKETS = (MAX_EXPONENT - 1) * SUB_BUCKETS + SUB_BUCKETS;
+
+	/**
+	 *
+	 */
+	protected final AtomicLongArray counts = new AtomicLongArray(NO_BUCKETS);
+	protected final LongAdder count = new LongAdder();
+	protected final LongAdder sumMicros = new LongAdder();
+
+	/**
+	 * @methodtype command
+	 */
+	public void recordNanos(long nanos) {
+		recordMicros(nanos / 1000);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void recordMicros(long micros) {
+		micros = Math.max(micros, 0);
+		counts.incrementAndGet(getBucket(micros));
+		count.increment();
+		sumMicros.add(micros);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getSumMicros() {
+		return sumMicros.sum();
+	}
+
+	/**
+	 * Returns the number of latencies below 2^exponent microseconds
+	 *
+	 * @methodtype get
+	 */
+	public long getCountBelow(int exponent) {
+		long result = 0;
+		int end = Math.min(getFirstBucket(exponent), NO_BUCKETS);
+		for (int i = 0; i < end; i++) {
+			result += counts.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the upper bound in microseconds of the bucket that contains the given percentile (0 to 100), or 0 if
+	 * nothing has been recorded. Buckets are read one after the other, so concurrent recording may skew the result
+	 * slightly.
+	 *
+	 * @methodtype get
+	 */
+	public long getPercentileMicros(double percentile) {
+		long[] snapshot = new long[NO_BUCKETS];
+		long total = 0;
+		for (int i = 0; i < NO_BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < NO_BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return getUpperBound(i);
+			}
+		}
+		return getUpperBound(NO_BUCKETS - 1);
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected static int getBucket(long micros) {
+		if (micros < SUB_BUCKETS) {
+			return (int) micros;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		int subBucket = (int) (micros >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+		return Math.min((exponent - 1) * SUB_BUCKETS + subBucket, NO_BUCKETS - 1);
+	}
+
+	/**
+	 * Returns the index of the first bucket at or above 2^exponent microseconds
+	 *
+	 * @methodtype helper
+	 */
+	protected static int getFirstBucket(int exponent) {
+		return (exponent < 2) ? (1 << exponent) : (exponent - 1) * SUB_BUCKETS;
+	}
+
+	/**
+	 * Returns the exclusive upper bound in microseconds of the bucket
+	 *
+	 * @methodtype helper
+	 */
+	protected static long getUpperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket + 1;
+		}
+		int exponent = bucket / SUB_BUCKETS + 1;
+		int subBucket = bucket % SUB_BUCKETS;
+		return (long) (SUB_BUCKETS + subBucket + 1) << (exponent - 2);
+	}
+
+}
@@ -6,6 +6,10 @@ import org.wahlzeit.model.UserSession;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
 
 /**
  * Builder class for log messages, that ensures that log messages are all formatted equally.
@@ -14,7 +18,12 @@ import java.io.StringWriter;
  * <code>Formatter</code> could not be used
  *
  * (see https://stackoverflow.com/questions/30345665/how-to-customize-logging-for-google-app-engine-java).
- * 
+ *
+ * A LogBuilder only records the parts of the message; they are put together when the message is formatted, which
+ * may happen on another thread, see AsyncLogHandler. Builders created for a Logger and a Level that the Logger does
+ * not log are disabled and ignore everything added to them, so e.g. <code>LogBuilder.createSystemMessage(log,
+ * Level.CONFIG).addParameter("photo id", id).log()</code> costs no more than a level check if CONFIG is off.
+ *
  * @review
  */
 public class LogBuilder {
@@ -31,11 +40,44 @@ public class LogBuilder {
 	protected static final String EXCEPTION_REASON = "exception reason";
 	protected static final String STACKTRACE = "stacktrace";
 
-	protected StringBuilder logMessage;
+	/**
+	 * Name of the parts that have no name, e.g. messages
+	 */
+	protected static final Object NO_NAME = new Object();
 
+	/**
+	 * Returned for messages that would not be logged anyway
+	 */
+	protected static final LogBuilder DISABLED = new LogBuilder(null, null, null, null, null, null);
+
+	/**
+	 * Logger and Level to log on, if created for one
+	 */
+	protected final Logger logger;
+	protected final Level logLevel;
 
-	protected LogBuilder() {
-		logMessage = new StringBuilder();
+	/**
+	 *
+	 */
+	protected final String level;
+	protected final String sessionName;
+	protected final String clientName;
+
+	/**
+	 * Names and values of the parts added so far, alternately
+	 */
+	protected Object[] parts;
+	protected int noParts = 0;
+
+
+	protected LogBuilder(Logger logger, Level logLevel, String level, String sessionName, String clientName,
+			Object[] parts) {
+		this.logger = logger;
+		this.logLevel = logLevel;
+		this.level = level;
+		this.sessionName = sessionName;
+		this.clientName = clientName;
+		this.parts = parts;
 	}
 
 
@@ -48,7 +90,17 @@ public class LogBuilder {
 	 * clients name.
 	 */
 	public static LogBuilder createUserMessage() {
-		return doCreateMessage(USER_LEVEL);
+		return doCreateMessage(null, null, USER_LEVEL);
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Like createUserMessage(), for a message to be logged with log(); returns a disabled LogBuilder if the logger
+	 * does not log the given level.
+	 */
+	public static LogBuilder createUserMessage(Logger logger, Level logLevel) {
+		return logger.isLoggable(logLevel) ? doCreateMessage(logger, logLevel, USER_LEVEL) : DISABLED;
 	}
 
 	/**
@@ -57,8 +109,7 @@ public class LogBuilder {
 	 * Primitive Method that creates a LogBuilder Object and adds the Level, the current <code>HttpSession</code>, and
 	 * the clients name.
 	 */
-	protected static LogBuilder doCreateMessage(String level) {
-		LogBuilder result = new LogBuilder();
+	protected static LogBuilder doCreateMessage(Logger logger, Level logLevel, String level) {
 		Session session = SessionManager.getThreadLocalSession();
 		String sessionName;
 		String clientName;
@@ -75,26 +126,28 @@ public class LogBuilder {
 			clientName = UserSession.ANONYMOUS_CLIENT;
 		}
 
-		result.add(LEVEL + NAME_VALUE_SEPARATOR + level);
-		result.add(SESSION + NAME_VALUE_SEPARATOR + sessionName);
-		result.add(CLIENT + NAME_VALUE_SEPARATOR + clientName);
+		return new LogBuilder(logger, logLevel, level, sessionName, clientName, new Object[8]);
+	}
 
-		return result;
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isEnabled() {
+		return this != DISABLED;
 	}
 
 	/**
 	 * @methodtype set
 	 */
-	protected void add(String logMessagePart) {
+	protected void add(Object name, Object value) {
 
-		assert logMessage != null;
+		assert parts != null;
 
-		if (logMessage.length() == 0) {
-			logMessage.append(logMessagePart);
-		} else {
-			logMessage.append(INFO_SEPARATOR);
-			logMessage.append(logMessagePart);
+		if (noParts + 2 > parts.length) {
+			parts = Arrays.copyOf(parts, parts.length * 2);
 		}
+		parts[noParts++] = name;
+		parts[noParts++] = value;
 	}
 
 
@@ -107,7 +160,17 @@ public class LogBuilder {
 	 * clients name.
 	 */
 	public static LogBuilder createSystemMessage() {
-		return doCreateMessage(SYSTEM_LEVEL);
+		return doCreateMessage(null, null, SYSTEM_LEVEL);
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Like createSystemMessage(), for a message to be logged with log(); returns a disabled LogBuilder if the logger
+	 * does not log the given level.
+	 */
+	public static LogBuilder createSystemMessage(Logger logger, Level logLevel) {
+		return logger.isLoggable(logLevel) ? doCreateMessage(logger, logLevel, SYSTEM_LEVEL) : DISABLED;
 	}
 
 	/**
@@ -116,7 +179,9 @@ public class LogBuilder {
 	 * Adds the following to the LogMessage: ", <name>=<value>".
 	 */
 	public LogBuilder addParameter(String name, int value) {
-		add(name + NAME_VALUE_SEPARATOR + String.valueOf(value));
+		if (isEnabled()) {
+			add(name, value);
+		}
 		return this;
 	}
 
@@ -126,7 +191,9 @@ public class LogBuilder {
 	 * Adds the following to the LogMessage: ", <name>=<value>".
 	 */
 	public LogBuilder addParameter(String name, boolean value) {
-		add(name + NAME_VALUE_SEPARATOR + String.valueOf(value));
+		if (isEnabled()) {
+			add(name, value);
+		}
 		return this;
 	}
 
@@ -136,17 +203,22 @@ public class LogBuilder {
 	 * Adds the following to the LogMessage: ", <name>=<value>".
 	 */
 	public LogBuilder addParameter(String name, String value) {
-		add(name + NAME_VALUE_SEPARATOR + value);
+		if (isEnabled()) {
+			add(name, value);
+		}
 		return this;
 	}
 
 	/**
 	 * @methodtype mutate
 	 *
-	 * Adds the following to the LogMessage: ", <name>=<value>.toString()".
+	 * Adds the following to the LogMessage: ", <name>=<value>.toString()". The value is converted to a string right
+	 * away, as it may change before the message is formatted.
 	 */
 	public LogBuilder addParameter(String name, Object value) {
-		add(name + NAME_VALUE_SEPARATOR + value.toString());
+		if (isEnabled()) {
+			add(name, String.valueOf(value));
+		}
 		return this;
 	}
 
@@ -156,20 +228,23 @@ public class LogBuilder {
 	 * Adds the message to the LogMessage: ", <message>".
 	 */
 	public LogBuilder addMessage(String message) {
-		add(message);
+		if (isEnabled()) {
+			add(NO_NAME, message);
+		}
 		return this;
 	}
 
 	/**
 	 * @methodtype mutate
 	 *
-	 * Adds the stacktrace and the <code>exceptionMessage</code> to the log message.
+	 * Adds the stacktrace and the <code>exceptionMessage</code> to the log message. The stacktrace is only rendered
+	 * when the message is formatted.
 	 */
 	public LogBuilder addException(String exceptionMessage, Throwable throwable) {
-		add(EXCEPTION_REASON + NAME_VALUE_SEPARATOR + exceptionMessage);
-		StringWriter sw = new StringWriter();
-		throwable.printStackTrace(new PrintWriter(sw));
-		add(STACKTRACE + NAME_VALUE_SEPARATOR + sw.toString());
+		if (isEnabled()) {
+			add(EXCEPTION_REASON, exceptionMessage);
+			add(STACKTRACE, throwable);
+		}
 		return this;
 	}
 
@@ -182,10 +257,48 @@ public class LogBuilder {
 	 * Adds the info that the action is performed the log message: "action=<action>".
 	 */
 	public LogBuilder addAction(String action) {
-		add(ACTION + NAME_VALUE_SEPARATOR + action);
+		if (isEnabled()) {
+			add(ACTION, action);
+		}
 		return this;
 	}
 
+	/**
+	 * @methodtype command
+	 *
+	 * Logs the message on the Logger it has been created for; the message is only put together when it is
+	 * formatted. Nothing may be added to the LogBuilder afterwards.
+	 */
+	public void log() {
+		if (isEnabled() && logger != null) {
+			LogRecord record = new LogBuilderRecord(logLevel, this);
+			record.setLoggerName(logger.getName());
+			StackTraceElement caller = getCaller();
+			if (caller != null) {
+				record.setSourceClassName(caller.getClassName());
+				record.setSourceMethodName(caller.getMethodName());
+			} else {
+				record.setSourceClassName(logger.getName());
+				record.setSourceMethodName(null);
+			}
+			logger.log(record);
+		}
+	}
+
+	/**
+	 * Returns the frame that called into the LogBuilder; the LogRecord would infer LogBuilder.log() itself.
+	 *
+	 * @methodtype get
+	 */
+	protected static StackTraceElement getCaller() {
+		for (StackTraceElement element : new Throwable().getStackTrace()) {
+			if (!element.getClassName().equals(LogBuilder.class.getName())) {
+				return element;
+			}
+		}
+		return null;
+	}
+
 
 	// hidden setter and getter methods --------------------------------------------------------------------------------
 
@@ -197,9 +310,58 @@ public class LogBuilder {
 	@Override
 	public String toString() {
 
-		assert logMessage != null;
-		assert logMessage.length() > 0;
+		assert parts != null;
+
+		StringBuilder result = new StringBuilder(64 + noParts * 16);
+		result.append(LEVEL).append(NAME_VALUE_SEPARATOR).append(level);
+		result.append(INFO_SEPARATOR).append(SESSION).append(NAME_VALUE_SEPARATOR).append(sessionName);
+		result.append(INFO_SEPARATOR).append(CLIENT).append(NAME_VALUE_SEPARATOR).append(clientName);
+		for (int i = 0; i < noParts; i += 2) {
+			Object name = parts[i];
+			Object value = parts[i + 1];
+			result.append(INFO_SEPARATOR);
+			if (name != NO_NAME) {
+				result.append(name).append(NAME_VALUE_SEPARATOR);
+			}
+			if (name == STACKTRACE && value instanceof Throwable) {
+				StringWriter sw = new StringWriter();
+				((Throwable) value).printStackTrace(new PrintWriter(sw));
+				result.append(sw.toString());
+			} else {
+				result.append(value);
+			}
+		}
+
+		return result.toString();
+	}
 
-		return logMessage.toString();
+	/**
+	 * A LogRecord whose message is formatted from its LogBuilder when it is first asked for.
+	 */
+	protected static class LogBuilderRecord extends LogRecord {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 *
+		 */
+		protected transient LogBuilder builder;
+
+		/**
+		 *
+		 */
+		protected LogBuilderRecord(Level logLevel, LogBuilder builder) {
+			super(logLevel, null);
+			this.builder = builder;
+		}
+
+		@Override
+		public synchronized String getMessage() {
+			if (builder != null) {
+				setMessage(builder.toString());
+				builder = null;
+			}
+			return super.getMessage();
+		}
 	}
 }
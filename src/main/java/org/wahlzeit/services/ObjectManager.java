@@ -22,9 +22,16 @@ package org.wahlzeit.services;
 
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
+import com.googlecode.objectify.Result;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -48,9 +55,12 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(type, "type");
 		assertIsNonNullArgument(id, "id");
 
-		log.config(LogBuilder.createSystemMessage().
-				addMessage("Load Type " + type.toString() + " with ID " + id + " from datastore.").toString());
-		return OfyService.ofy().load().type(type).id(id).now();
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addMessage("Load Type " + type.toString() + " with ID " + id + " from datastore.").log();
+		long startNanos = System.nanoTime();
+		E result = OfyService.ofy().load().type(type).id(id).now();
+		traceCall(DatastoreTracer.LOAD, type, startNanos);
+		return result;
 	}
 
 	/**
@@ -69,9 +79,12 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(type, "type");
 		assertIsNonNullArgument(id, "id");
 
-		log.config(LogBuilder.createSystemMessage().
-				addMessage("Load Type " + type.toString() + " with ID " + id + " from datastore.").toString());
-		return OfyService.ofy().load().type(type).id(id).now();
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addMessage("Load Type " + type.toString() + " with ID " + id + " from datastore.").log();
+		long startNanos = System.nanoTime();
+		E result = OfyService.ofy().load().type(type).id(id).now();
+		traceCall(DatastoreTracer.LOAD, type, startNanos);
+		return result;
 	}
 
 	/**
@@ -83,12 +96,15 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(parameterName, "parameterName");
 		assertIsNonNullArgument(value, "value");
 
-		log.config(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
 				addMessage("Load Type " + type.toString() + " with parameter " +
-						parameterName + " == " + value + " from datastore.").toString());
+						parameterName + " == " + value + " from datastore.").log();
 
-		return OfyService.ofy().load().type(type).ancestor(applicationRootKey).filter(parameterName, value).first()
+		long startNanos = System.nanoTime();
+		E result = OfyService.ofy().load().type(type).ancestor(applicationRootKey).filter(parameterName, value).first()
 				.now();
+		traceCall(DatastoreTracer.QUERY, type, startNanos);
+		return result;
 	}
 
 	/**
@@ -98,11 +114,13 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(result, "result");
 		assertIsNonNullArgument(type, "type");
 
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("Datastore: load all entities of type", type.getName()).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: load all entities of type", type.getName()).log();
+		long startNanos = System.nanoTime();
 		List<E> objects = OfyService.ofy().load().type(type).ancestor(applicationRootKey).list();
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("Datastore: number of loaded objects", objects.size()).toString());
+		traceCall(DatastoreTracer.QUERY, type, startNanos);
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: number of loaded objects", objects.size()).log();
 		result.addAll(objects);
 	}
 
@@ -116,22 +134,188 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(propertyName, "propertyName");
 		assertIsNonNullArgument(value, "value");
 
-		log.info(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.INFO).
 				addMessage("Datastore: Load all Entities of type " + type.toString() + " where parameter "
-						+ propertyName + " = " + value.toString() + " from datastore.").toString());
+						+ propertyName + " = " + value.toString() + " from datastore.").log();
+		long startNanos = System.nanoTime();
 		List<E> objects = OfyService.ofy().load().type(type).
 				ancestor(applicationRootKey).filter(propertyName, value).list();
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("Datastore: number of loaded objects", objects.size()).toString());
+		traceCall(DatastoreTracer.QUERY, type, startNanos);
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("Datastore: number of loaded objects", objects.size()).log();
 		result.addAll(objects);
 	}
 
 	/**
-	 * Updates all entities of the given collection in the datastore.
+	 * Updates all dirty entities of the given collection in the datastore, in batches as configured in SysConfig.
 	 */
-	protected void updateObjects(Collection<? extends Persistent> collection) {
+	protected WriteStatistics updateObjects(Collection<? extends Persistent> collection) {
+		SysConfig sysConfig = SysConfig.getInstance();
+		return writeObjects(collection, sysConfig.getIntValue(SysConfig.DATASTORE_BATCH_SIZE),
+				sysConfig.getIntValue(SysConfig.DATASTORE_BATCHES_IN_FLIGHT));
+	}
+
+	/**
+	 * Writes the dirty entities of the given collection, grouped by kind, with one asynchronous save per batch of at
+	 * most batchSize entities. At most maxBatchesInFlight saves are pending at a time; whenever one completes, the
+	 * dependents of its entities are updated (see updateDependents(Collection)) and their write counts are reset.
+	 * If a batch fails, the saves still pending are completed before the exception is rethrown; the entities of
+	 * batches that have not been started are left dirty.
+	 */
+	protected WriteStatistics writeObjects(Collection<? extends Persistent> collection, int batchSize,
+			int maxBatchesInFlight) {
+		assertIsNonNullArgument(collection, "collection");
+
+		WriteStatistics result = new WriteStatistics();
+		Map<String, List<Persistent>> dirtyObjectsByKind = new LinkedHashMap<String, List<Persistent>>();
 		for (Persistent object : collection) {
-			updateObject(object);
+			String kind = getKind(object);
+			if (object.isDirty()) {
+				List<Persistent> dirtyObjects = dirtyObjectsByKind.get(kind);
+				if (dirtyObjects == null) {
+					dirtyObjects = new ArrayList<Persistent>();
+					dirtyObjectsByKind.put(kind, dirtyObjects);
+				}
+				dirtyObjects.add(object);
+			} else {
+				result.addSkipped(kind, 1);
+			}
+		}
+
+		for (Map.Entry<String, List<Persistent>> entry : dirtyObjectsByKind.entrySet()) {
+			String kind = entry.getKey();
+			List<Persistent> objects = entry.getValue();
+			long startTime = System.currentTimeMillis();
+
+			Deque<PendingBatch> pendingBatches = new ArrayDeque<PendingBatch>();
+			try {
+				for (int from = 0; from < objects.size(); from += batchSize) {
+					if (pendingBatches.size() >= maxBatchesInFlight) {
+						completeBatch(pendingBatches.removeFirst());
+					}
+					List<Persistent> batch = objects.subList(from, Math.min(from + batchSize, objects.size()));
+					pendingBatches.addLast(startBatch(batch));
+					result.addBatch(kind);
+				}
+				while (!pendingBatches.isEmpty()) {
+					completeBatch(pendingBatches.removeFirst());
+				}
+			} catch (RuntimeException ex) {
+				completePendingBatches(pendingBatches);
+				throw ex;
+			}
+
+			result.addWritten(kind, objects.size());
+			result.addMillis(kind, System.currentTimeMillis() - startTime);
+		}
+
+		LogBuilder.createSystemMessage(log, Level.INFO).
+				addParameter("Datastore: wrote objects", result.asString()).log();
+		return result;
+	}
+
+	/**
+	 * Starts saving the batch. Write counts are reset before, as the entities are translated when the save starts;
+	 * this way changes made while the save is pending make the objects dirty again instead of being lost.
+	 *
+	 * @methodtype command
+	 */
+	protected PendingBatch startBatch(List<Persistent> batch) {
+		for (Persistent object : batch) {
+			object.resetWriteCount();
+		}
+		try {
+			return new PendingBatch(batch, OfyService.ofy().save().entities(batch), System.nanoTime());
+		} catch (RuntimeException ex) {
+			markDirty(batch);
+			throw ex;
+		}
+	}
+
+	/**
+	 * Waits for the save of the batch, then updates the dependents of its objects.
+	 *
+	 * @methodtype command
+	 */
+	protected void completeBatch(PendingBatch batch) {
+		try {
+			batch.result.now();
+		} catch (RuntimeException ex) {
+			markDirty(batch.objects);
+			throw ex;
+		}
+		batch.trace();
+		updateDependents(batch.objects);
+	}
+
+	/**
+	 * Waits for all pending saves after another one failed; saves that fail as well have marked their objects dirty
+	 *
+	 * @methodtype command
+	 */
+	protected void completePendingBatches(Deque<PendingBatch> pendingBatches) {
+		while (!pendingBatches.isEmpty()) {
+			try {
+				completeBatch(pendingBatches.removeFirst());
+			} catch (RuntimeException ex) {
+				LogBuilder.createSystemMessage(log, Level.WARNING).
+						addException("pending save failed as well", ex).log();
+			}
+		}
+	}
+
+	/**
+	 * Marks objects whose save failed as dirty again, so that they are written later
+	 *
+	 * @methodtype command
+	 */
+	protected void markDirty(Collection<? extends Persistent> objects) {
+		for (Persistent object : objects) {
+			object.incWriteCount();
+		}
+	}
+
+	/**
+	 * Returns whether the object may be written by the WriteBehindQueue, i.e. whether it is (still) managed here
+	 *
+	 * @methodtype boolean-query
+	 */
+	protected boolean isWriteBehindManaged(Persistent object) {
+		return true;
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected String getKind(Persistent object) {
+		return com.googlecode.objectify.Key.getKind(object.getClass());
+	}
+
+	/**
+	 * Saves and deletes the given entities as one batch each; both are started before waiting for either.
+	 */
+	protected void saveAndDeleteObjects(Collection<? extends Persistent> savedObjects, Collection<?> deletedObjects) {
+		PendingBatch saved = null;
+		if (!savedObjects.isEmpty()) {
+			List<Persistent> batch = new ArrayList<Persistent>(savedObjects);
+			saved = startBatch(batch);
+		}
+		long deleteStartNanos = System.nanoTime();
+		Result<?> deleted = deletedObjects.isEmpty() ? null : OfyService.ofy().delete().entities(deletedObjects);
+
+		if (saved != null) {
+			try {
+				saved.result.now();
+			} catch (RuntimeException ex) {
+				markDirty(savedObjects);
+				throw ex;
+			}
+			saved.trace();
+		}
+		if (deleted != null) {
+			deleted.now();
+			String kind = com.googlecode.objectify.Key.getKind(deletedObjects.iterator().next().getClass());
+			DatastoreTracer.getInstance().recordCall(DatastoreTracer.DELETE, kind, deleteStartNanos);
 		}
 	}
 
@@ -149,14 +333,21 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(object, "object");
 
 		if (object.isDirty()) {
-			log.info(LogBuilder.createSystemMessage().
-					addParameter("Datastore: Write object of type", object).toString());
-			OfyService.ofy().save().entity(object).now();
-			updateDependents(object);
+			LogBuilder.createSystemMessage(log, Level.INFO).
+					addParameter("Datastore: Write object of type", object).log();
 			object.resetWriteCount();
+			try {
+				long startNanos = System.nanoTime();
+				OfyService.ofy().save().entity(object).now();
+				traceCall(DatastoreTracer.SAVE, object.getClass(), startNanos);
+			} catch (RuntimeException ex) {
+				object.incWriteCount();
+				throw ex;
+			}
+			updateDependents(object);
 		} else {
-			log.info(LogBuilder.createSystemMessage().
-					addParameter("Datastore: No need to update object", object).toString());
+			LogBuilder.createSystemMessage(log, Level.INFO).
+					addParameter("Datastore: No need to update object", object).log();
 		}
 	}
 
@@ -167,14 +358,25 @@ public abstract class ObjectManager {
 		// overwrite if your object has additional dependencies
 	}
 
+	/**
+	 * Updates all dependencies of a batch of written objects; overwrite to update shared dependents only once.
+	 */
+	protected void updateDependents(Collection<? extends Persistent> objects) {
+		for (Persistent object : objects) {
+			updateDependents(object);
+		}
+	}
+
 	/**
 	 * Deletes the given entity from the datastore.
 	 */
 	protected <E> void deleteObject(E object) {
 		assertIsNonNullArgument(object, "object");
 
-		log.config(LogBuilder.createSystemMessage().addParameter("Datastore: delete entity", object).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Datastore: delete entity", object).log();
+		long startNanos = System.nanoTime();
 		OfyService.ofy().delete().entity(object).now();
+		traceCall(DatastoreTracer.DELETE, object.getClass(), startNanos);
 	}
 
 	/**
@@ -186,12 +388,25 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(propertyName, "propertyName");
 		assertIsNonNullArgument(value, "value");
 
-		log.info(LogBuilder.createSystemMessage().
+		LogBuilder.createSystemMessage(log, Level.INFO).
 				addMessage("Datastore: delete entities of type " + type
-						+ " where property " + propertyName + " == " + value).toString());
+						+ " where property " + propertyName + " == " + value).log();
+		long startNanos = System.nanoTime();
 		List<com.googlecode.objectify.Key<E>> keys = OfyService.ofy().load().type(type).
 				ancestor(applicationRootKey).filter(propertyName, value).keys().list();
-		OfyService.ofy().delete().keys(keys);
+		traceCall(DatastoreTracer.QUERY, type, startNanos);
+		startNanos = System.nanoTime();
+		OfyService.ofy().delete().keys(keys).now();
+		traceCall(DatastoreTracer.DELETE, type, startNanos);
+	}
+
+	/**
+	 * Records a Datastore call on entities of the type in the DatastoreTracer
+	 *
+	 * @methodtype helper
+	 */
+	protected void traceCall(String operation, Class<?> type, long startNanos) {
+		DatastoreTracer.getInstance().recordCall(operation, com.googlecode.objectify.Key.getKind(type), startNanos);
 	}
 
 	/**
@@ -201,4 +416,36 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(arg, "anonymous");
 	}
 
+	/**
+	 * A batch of objects whose asynchronous save has been started
+	 */
+	protected static class PendingBatch {
+
+		/**
+		 *
+		 */
+		protected final List<Persistent> objects;
+		protected final Result<?> result;
+		protected final long startNanos;
+
+		/**
+		 *
+		 */
+		protected PendingBatch(List<Persistent> objects, Result<?> result, long startNanos) {
+			this.objects = objects;
+			this.result = result;
+			this.startNanos = startNanos;
+		}
+
+		/**
+		 * Records the completed save in the DatastoreTracer, from start to completion
+		 *
+		 * @methodtype command
+		 */
+		protected void trace() {
+			String kind = com.googlecode.objectify.Key.getKind(objects.get(0).getClass());
+			DatastoreTracer.getInstance().recordCall(DatastoreTracer.SAVE, kind, startNanos);
+		}
+	}
+
 }
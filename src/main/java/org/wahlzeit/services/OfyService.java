@@ -5,6 +5,8 @@ import com.googlecode.objectify.ObjectifyFactory;
 import com.googlecode.objectify.ObjectifyService;
 import org.wahlzeit.model.Administrator;
 import org.wahlzeit.model.Client;
+import org.wahlzeit.model.ClientHistory;
+import org.wahlzeit.model.FootballPhoto;
 import org.wahlzeit.model.Globals;
 import org.wahlzeit.model.Guest;
 import org.wahlzeit.model.Moderator;
@@ -26,12 +28,14 @@ public class OfyService {
 	 */
 	static {
 		factory().register(Photo.class);
+		factory().register(FootballPhoto.class);
 		factory().register(Globals.class);
 		factory().register(Tag.class);
 		factory().register(User.class);
 		factory().register(Administrator.class);
 		factory().register(Moderator.class);
 		factory().register(Client.class);
+		factory().register(ClientHistory.class);
 		factory().register(Guest.class);
 		factory().register(PhotoCase.class);
 		factory().register(ImageWrapper.class);
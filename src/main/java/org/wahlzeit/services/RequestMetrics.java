@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregated request metrics: latency histograms per handler and phase (handling the request, rendering the page,
+ * and writing the response), and counters for status codes, redirects, and bytes written. All recording is
+ * lock-free. The metrics are served in a human-readable form and in the Prometheus text format, see MetricsServlet.
+ */
+public class RequestMetrics {
+
+	/**
+	 * Phases of a request
+	 */
+	public static final String HANDLE = "handle";
+	public static final String RENDER = "render";
+	public static final String WRITE = "write";
+
+	/**
+	 * Prometheus buckets are at these powers of two of microseconds, i.e. from 128us to 134s
+	 */
+	protected static final int MIN_BUCKET_EXPONENT = 7;
+	protected static final int MAX_BUCKET_EXPONENT = LatencyHistogram.MAX_EXPONENT;
+
+	/**
+	 *
+	 */
+	protected static final RequestMetrics instance = new RequestMetrics();
+
+	/**
+	 * @methodtype get
+	 */
+	public static RequestMetrics getInstance() {
+		return instance;
+	}
+
+	/**
+	 * At most this many histograms are kept; later handler names share the histograms of OTHER_HANDLER_NAME
+	 */
+	protected static final int MAX_NO_HISTOGRAMS = 512;
+	protected static final String OTHER_HANDLER_NAME = "other";
+
+	/**
+	 * handler name + " " + phase -> histogram
+	 */
+	protected final ConcurrentMap<String, LatencyHistogram> histograms =
+			new ConcurrentHashMap<String, LatencyHistogram>();
+
+	/**
+	 *
+	 */
+	protected final ConcurrentMap<Integer, LongAdder> statusCounts = new ConcurrentHashMap<Integer, LongAdder>();
+	protected final LongAdder noRedirects = new LongAdder();
+	protected final LongAdder noBytesWritten = new LongAdder();
+
+	/**
+	 *
+	 */
+	protected RequestMetrics() {
+		// do nothing
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void recordLatency(String handlerName, String phase, long nanos) {
+		getHistogram(handlerName, phase).recordNanos(nanos);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void recordResponse(int status, boolean isRedirect, long noBytes) {
+		LongAdder counter = statusCounts.get(status);
+		if (counter == null) {
+			LongAdder newCounter = new LongAdder();
+			counter = statusCounts.putIfAbsent(status, newCounter);
+			counter = (counter == null) ? newCounter : counter;
+		}
+		counter.increment();
+		if (isRedirect) {
+			noRedirects.increment();
+		}
+		noBytesWritten.add(noBytes);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public LatencyHistogram getHistogram(String handlerName, String phase) {
+		String key = handlerName + " " + phase;
+		LatencyHistogram result = histograms.get(key);
+		if (result == null && histograms.size() >= MAX_NO_HISTOGRAMS) {
+			key = OTHER_HANDLER_NAME + " " + phase;
+			result = histograms.get(key);
+		}
+		if (result == null) {
+			LatencyHistogram newHistogram = new LatencyHistogram();
+			result = histograms.putIfAbsent(key, newHistogram);
+			result = (result == null) ? newHistogram : result;
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoHistograms() {
+		return histograms.size();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getStatusCount(int status) {
+		LongAdder counter = statusCounts.get(status);
+		return (counter == null) ? 0 : counter.sum();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoRedirects() {
+		return noRedirects.sum();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoBytesWritten() {
+		return noBytesWritten.sum();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		histograms.clear();
+		statusCounts.clear();
+		noRedirects.reset();
+		noBytesWritten.reset();
+	}
+
+	/**
+	 * Returns the metrics in a human-readable form, one line per handler and phase, sorted
+	 *
+	 * @methodtype conversion
+	 */
+	public String asString() {
+		StringBuilder result = new StringBuilder();
+		for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<String, LatencyHistogram>(histograms).entrySet()) {
+			LatencyHistogram histogram = entry.getValue();
+			long count = histogram.getCount();
+			result.append(entry.getKey()).
+					append(": count=").append(count).
+					append(", mean=").append(asMillisString((count == 0) ? 0 : histogram.getSumMicros() / count)).
+					append(", p50=").append(asMillisString(histogram.getPercentileMicros(50))).
+					append(", p90=").append(asMillisString(histogram.getPercentileMicros(90))).
+					append(", p99=").append(asMillisString(histogram.getPercentileMicros(99))).
+					append(", max<").append(asMillisString(histogram.getPercentileMicros(100))).append('\n');
+		}
+
+		for (Map.Entry<Integer, LongAdder> entry : new TreeMap<Integer, LongAdder>(statusCounts).entrySet()) {
+			result.append("status ").append(entry.getKey()).append(": ").append(entry.getValue().sum()).append('\n');
+		}
+		result.append("redirects: ").append(getNoRedirects()).append('\n');
+		result.append("bytes written: ").append(getNoBytesWritten()).append('\n');
+		return result.toString();
+	}
+
+	/**
+	 * Returns the metrics in the Prometheus text exposition format (version 0.0.4)
+	 *
+	 * @methodtype conversion
+	 */
+	public String asPrometheusString() {
+		StringBuilder result = new StringBuilder();
+		result.append("# HELP wahlzeit_request_phase_seconds Latency of request phases per handler\n");
+		result.append("# TYPE wahlzeit_request_phase_seconds histogram\n");
+		for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<String, LatencyHistogram>(histograms).entrySet()) {
+			String key = entry.getKey();
+			int separator = key.lastIndexOf(' ');
+			String labels = "handler=\"" + asLabelValue(key.substring(0, separator)) + "\",phase=\"" +
+					key.substring(separator + 1) + "\"";
+			LatencyHistogram histogram = entry.getValue();
+			long count = histogram.getCount();
+			for (int exponent = MIN_BUCKET_EXPONENT; exponent <= MAX_BUCKET_EXPONENT; exponent++) {
+				result.append("wahlzeit_request_phase_seconds_bucket{").append(labels).
+						append(",le=\"").append(asSecondsString(1L << exponent)).append("\"} ").
+						append(Math.min(histogram.getCountBelow(exponent), count)).append('\n');
+			}
+			result.append("wahlzeit_request_phase_seconds_bucket{").append(labels).append(",le=\"+Inf\"} ").
+					append(count).append('\n');
+			result.append("wahlzeit_request_phase_seconds_sum{").append(labels).append("} ").
+					append(asSecondsString(histogram.getSumMicros())).append('\n');
+			result.append("wahlzeit_request_phase_seconds_count{").append(labels).append("} ").
+					append(count).append('\n');
+		}
+
+		result.append("# HELP wahlzeit_responses_total Responses per HTTP status code\n");
+		result.append("# TYPE wahlzeit_responses_total counter\n");
+		for (Map.Entry<Integer, LongAdder> entry : new TreeMap<Integer, LongAdder>(statusCounts).entrySet()) {
+			result.append("wahlzeit_responses_total{status=\"").append(entry.getKey()).append("\"} ").
+					append(entry.getValue().sum()).append('\n');
+		}
+		result.append("# HELP wahlzeit_redirects_total Redirects sent\n");
+		result.append("# TYPE wahlzeit_redirects_total counter\n");
+		result.append("wahlzeit_redirects_total ").append(getNoRedirects()).append('\n');
+		result.append("# HELP wahlzeit_response_bytes_total Bytes written in response bodies\n");
+		result.append("# TYPE wahlzeit_response_bytes_total counter\n");
+		result.append("wahlzeit_response_bytes_total ").append(getNoBytesWritten()).append('\n');
+		return result.toString();
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String asMillisString(long micros) {
+		return String.format(Locale.US, "%.3fms", micros / 1000.0);
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String asSecondsString(long micros) {
+		return String.format(Locale.US, "%.6f", micros / 1000000.0);
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String asLabelValue(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+}
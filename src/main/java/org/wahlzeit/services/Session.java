@@ -42,6 +42,11 @@ public class Session {
 	 */
 	protected long processingTime = 0;
 
+	/**
+	 * Datastore calls of the request being handled, if traced; see DatastoreTracer
+	 */
+	protected transient DatastoreTracer.RequestTrace datastoreTrace = null;
+
 	/**
 	 *
 	 */
@@ -113,4 +118,18 @@ public class Session {
 		return processingTime;
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	public DatastoreTracer.RequestTrace getDatastoreTrace() {
+		return datastoreTrace;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setDatastoreTrace(DatastoreTracer.RequestTrace newDatastoreTrace) {
+		datastoreTrace = newDatastoreTrace;
+	}
+
 }
@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.wahlzeit.customexceptions.UploadTooLargeException;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An uploaded file, kept in memory if it is small and spooled to a temporary file otherwise. Uploads are read in
+ * pooled chunks, so reading neither grows nor copies buffers; small uploads are copied once into an array of exactly
+ * their size. The maximum size is checked while reading, so oversized uploads are rejected as soon as they exceed it.
+ *
+ * Whoever holds an upload last has to delete() it.
+ */
+public class SpooledUpload implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Logger log = Logger.getLogger(SpooledUpload.class.getName());
+
+	/**
+	 *
+	 */
+	public static final int CHUNK_SIZE = 64 * 1024;
+
+	/**
+	 * Chunks not in use; chunks are created on demand if the pool is empty and dropped if it is full
+	 */
+	protected static final BlockingQueue<byte[]> chunkPool = new ArrayBlockingQueue<byte[]>(32);
+
+	/**
+	 * Either data or file is set
+	 */
+	protected final byte[] data;
+	protected final File file;
+	protected final long length;
+
+	/**
+	 *
+	 */
+	public SpooledUpload(byte[] data) {
+		this.data = data;
+		this.file = null;
+		this.length = data.length;
+	}
+
+	/**
+	 *
+	 */
+	protected SpooledUpload(File file, long length) {
+		this.data = null;
+		this.file = file;
+		this.length = length;
+	}
+
+	/**
+	 * Reads the stream up to its end; everything beyond memoryThreshold bytes goes to a temporary file in tempDir.
+	 * The stream is not closed.
+	 *
+	 * @methodtype factory
+	 */
+	public static SpooledUpload read(InputStream in, long maxBytes, int memoryThreshold, File tempDir)
+			throws IOException {
+		List<byte[]> chunks = new ArrayList<byte[]>();
+		byte[] chunk = acquireChunk();
+		int chunkLength = 0;
+		long length = 0;
+		File file = null;
+		FileChannel channel = null;
+		try {
+			for (int n = in.read(chunk); n >= 0; n = in.read(chunk, chunkLength, chunk.length - chunkLength)) {
+				chunkLength += n;
+				length += n;
+				if (length > maxBytes) {
+					throw new UploadTooLargeException(maxBytes);
+				}
+
+				if (channel == null && length > memoryThreshold) {
+					file = createTempFile(tempDir);
+					channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+					for (byte[] fullChunk : chunks) {
+						write(channel, fullChunk, fullChunk.length);
+						releaseChunk(fullChunk);
+					}
+					chunks.clear();
+				}
+
+				if (chunkLength == chunk.length) {
+					if (channel != null) {
+						write(channel, chunk, chunkLength);
+					} else {
+						chunks.add(chunk);
+						chunk = acquireChunk();
+					}
+					chunkLength = 0;
+				}
+			}
+
+			if (channel != null) {
+				write(channel, chunk, chunkLength);
+				channel.close();
+				return new SpooledUpload(file, length);
+			}
+
+			byte[] result = new byte[(int) length];
+			int position = 0;
+			for (byte[] fullChunk : chunks) {
+				System.arraycopy(fullChunk, 0, result, position, fullChunk.length);
+				position += fullChunk.length;
+			}
+			System.arraycopy(chunk, 0, result, position, chunkLength);
+			return new SpooledUpload(result);
+		} catch (IOException | RuntimeException ex) {
+			if (channel != null) {
+				channel.close();
+			}
+			if (file != null && !file.delete()) {
+				LogBuilder.createSystemMessage(log, Level.WARNING).addParameter("could not delete", file).log();
+			}
+			throw ex;
+		} finally {
+			for (byte[] fullChunk : chunks) {
+				releaseChunk(fullChunk);
+			}
+			releaseChunk(chunk);
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isInMemory() {
+		return data != null;
+	}
+
+	/**
+	 * Returns the temporary file, or null if the upload is kept in memory
+	 *
+	 * @methodtype get
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public InputStream openStream() throws IOException {
+		return isInMemory() ? new ByteArrayInputStream(data) : new FileInputStream(file);
+	}
+
+	/**
+	 * Returns the upload as Image; in-memory data is not copied, spooled data is read once into an exact-size array.
+	 *
+	 * @methodtype conversion
+	 */
+	public Image asImage() throws IOException {
+		if (isInMemory()) {
+			return ImagesServiceFactory.makeImage(data);
+		}
+
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("upload too large for an Image");
+		}
+		ByteBuffer buffer = ByteBuffer.allocate((int) length);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
+					throw new EOFException("spooled upload is shorter than expected: " + file);
+				}
+			}
+		}
+		return ImagesServiceFactory.makeImage(buffer.array());
+	}
+
+	/**
+	 * Deletes the temporary file, if any
+	 *
+	 * @methodtype command
+	 */
+	public void delete() {
+		if (file != null && file.exists() && !file.delete()) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).addParameter("could not delete", file).log();
+		}
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected static File createTempFile(File tempDir) throws IOException {
+		if (!tempDir.isDirectory() && !tempDir.mkdirs()) {
+			throw new IOException("could not create temp dir " + tempDir);
+		}
+		return File.createTempFile("upload", ".tmp", tempDir);
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected static void write(FileChannel channel, byte[] bytes, int count) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, count);
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected static byte[] acquireChunk() {
+		byte[] result = chunkPool.poll();
+		return (result != null) ? result : new byte[CHUNK_SIZE];
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected static void releaseChunk(byte[] chunk) {
+		chunkPool.offer(chunk);
+	}
+
+}
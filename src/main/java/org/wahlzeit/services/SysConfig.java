@@ -21,6 +21,8 @@
 package org.wahlzeit.services;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -29,6 +31,114 @@ import java.util.logging.Logger;
 public class SysConfig extends AbstractConfig {
 
 	public static String DATA_PATH = "org-wahlzeit-dirkriehle";
+
+	/**
+	 * Optional file in the config directory that overrides the default values below
+	 */
+	public static final String SYS_CONFIG_FILE_NAME = "SysConfig.properties";
+
+	/**
+	 * Byte budget of the image cache per photo size, key is suffixed with PhotoSize.asString(), e.g. "thumb"
+	 */
+	public static final String IMAGE_CACHE_SIZE = "ImageCacheSize.";
+
+	/**
+	 * Milliseconds for which the ImageStorage remembers that an image does not exist
+	 */
+	public static final String IMAGE_EXISTENCE_CACHE_TTL = "ImageExistenceCacheTtl";
+
+	/**
+	 * Maximum number of images per photo size for which the ImageStorage remembers whether they exist
+	 */
+	public static final String IMAGE_EXISTENCE_CACHE_ENTRIES = "ImageExistenceCacheEntries";
+
+	/**
+	 * If true, only photo metadata is loaded at startup and images are read on first request
+	 */
+	public static final String LAZY_IMAGE_LOADING = "LazyImageLoading";
+
+	/**
+	 * Comma-separated photo sizes to prefetch in the background after startup, in priority order; empty for none
+	 */
+	public static final String IMAGE_WARM_UP_SIZES = "ImageWarmUpSizes";
+
+	/**
+	 * Where scaled images are stored: "datastore" (Google Datastore), "filesystem" (one file per image below the
+	 * photos dir) or "segments" (packed segment files below the photos dir)
+	 */
+	public static final String IMAGE_STORAGE = "ImageStorage";
+
+	/**
+	 * How uploaded images are scaled: "gae" (App Engine ImagesService) or "jdk" (java.awt.image, off-platform)
+	 */
+	public static final String IMAGE_PROCESSOR = "ImageProcessor";
+
+	/**
+	 * Number of threads the "jdk" image processor scales images with
+	 */
+	public static final String IMAGE_SCALING_THREADS = "ImageScalingThreads";
+
+	/**
+	 * If true, uploads return before the photo is scaled; scaling and saving run as a task and the photo becomes
+	 * visible once its preview sizes exist
+	 */
+	public static final String ASYNC_UPLOAD_PROCESSING = "AsyncUploadProcessing";
+
+	/**
+	 * Where background tasks run: "gae" (App Engine task queue) or "local" (in-process worker pool)
+	 */
+	public static final String TASK_QUEUE = "TaskQueue";
+
+	/**
+	 * Number of worker threads and maximum number of waiting tasks of the "local" task queue
+	 */
+	public static final String TASK_QUEUE_THREADS = "TaskQueueThreads";
+	public static final String TASK_QUEUE_SIZE = "TaskQueueSize";
+
+	/**
+	 * Maximum size of an uploaded file in bytes; larger uploads are rejected while they are read
+	 */
+	public static final String MAX_UPLOAD_SIZE = "MaxUploadSize";
+
+	/**
+	 * Uploads larger than this many bytes are spooled to the temp dir instead of being kept in memory
+	 */
+	public static final String UPLOAD_MEMORY_THRESHOLD = "UploadMemoryThreshold";
+
+	/**
+	 * Maximum number of entities per Datastore save, and of saves pending at a time, when writing many objects
+	 */
+	public static final String DATASTORE_BATCH_SIZE = "DatastoreBatchSize";
+	public static final String DATASTORE_BATCHES_IN_FLIGHT = "DatastoreBatchesInFlight";
+
+	/**
+	 * Milliseconds between flushes of the write-behind queue (0 disables it), and number of queued objects that
+	 * triggers a flush earlier. Off by default, as changes queued on an instance are lost if it is shut down before
+	 * the next flush.
+	 */
+	public static final String WRITE_BEHIND_INTERVAL = "WriteBehindInterval";
+	public static final String WRITE_BEHIND_MAX_QUEUED = "WriteBehindMaxQueued";
+
+	/**
+	 * Whether template files are watched and reloaded when they change, e.g. while developing
+	 */
+	public static final String TEMPLATES_HOT_RELOAD = "TemplatesHotReload";
+
+	/**
+	 * Capacity of the AsyncLogHandler that publishes log records off the request threads; 0 logs synchronously. Off
+	 * by default, as App Engine attributes log lines to requests by the publishing thread.
+	 */
+	public static final String ASYNC_LOG_CAPACITY = "AsyncLogCapacity";
+
+	/**
+	 * Datastore calls taking at least this many milliseconds are logged as slow, see DatastoreTracer
+	 */
+	public static final String DATASTORE_SLOW_CALL_MILLIS = "DatastoreSlowCallMillis";
+
+	/**
+	 * Number of Datastore calls a single request may make before its trace is logged, see DatastoreTracer
+	 */
+	public static final String DATASTORE_CALL_BUDGET = "DatastoreCallBudget";
 	
 	/**
 	 *
@@ -78,13 +188,59 @@ public class SysConfig extends AbstractConfig {
 		photosDir = new Directory(rootDir, DATA_PATH + File.separator + "photos");
 		backupDir = new Directory(rootDir, DATA_PATH + File.separator + "backup");
 		tempDir = new Directory(rootDir, DATA_PATH + File.separator + "temp");
+
+		// Default values, see SYS_CONFIG_FILE_NAME
+		doSetValue(IMAGE_CACHE_SIZE + "thumb", String.valueOf(16 * 1024 * 1024));
+		doSetValue(IMAGE_CACHE_SIZE + "extra-small", String.valueOf(8 * 1024 * 1024));
+		doSetValue(IMAGE_CACHE_SIZE + "small", String.valueOf(8 * 1024 * 1024));
+		doSetValue(IMAGE_CACHE_SIZE + "medium", String.valueOf(32 * 1024 * 1024));
+		doSetValue(IMAGE_CACHE_SIZE + "large", String.valueOf(8 * 1024 * 1024));
+		doSetValue(IMAGE_CACHE_SIZE + "extra-large", String.valueOf(4 * 1024 * 1024));
+		doSetValue(IMAGE_EXISTENCE_CACHE_TTL, String.valueOf(60 * 1000));
+		doSetValue(IMAGE_EXISTENCE_CACHE_ENTRIES, String.valueOf(64 * 1024));
+		doSetValue(LAZY_IMAGE_LOADING, "true");
+		doSetValue(IMAGE_WARM_UP_SIZES, "thumb, medium");
+		doSetValue(IMAGE_STORAGE, "datastore");
+		doSetValue(IMAGE_PROCESSOR, "gae");
+		doSetValue(IMAGE_SCALING_THREADS, String.valueOf(Math.min(Runtime.getRuntime().availableProcessors(), 4)));
+		doSetValue(ASYNC_UPLOAD_PROCESSING, "false");
+		doSetValue(TASK_QUEUE, "gae");
+		doSetValue(TASK_QUEUE_THREADS, "2");
+		doSetValue(TASK_QUEUE_SIZE, "100");
+		doSetValue(MAX_UPLOAD_SIZE, String.valueOf(10 * 1024 * 1024));
+		doSetValue(UPLOAD_MEMORY_THRESHOLD, String.valueOf(256 * 1024));
+		doSetValue(DATASTORE_BATCH_SIZE, "200");
+		doSetValue(DATASTORE_BATCHES_IN_FLIGHT, "4");
+		doSetValue(WRITE_BEHIND_INTERVAL, "0");
+		doSetValue(WRITE_BEHIND_MAX_QUEUED, "500");
+		doSetValue(TEMPLATES_HOT_RELOAD, "false");
+		doSetValue(ASYNC_LOG_CAPACITY, "0");
+		doSetValue(DATASTORE_SLOW_CALL_MILLIS, "100");
+		doSetValue(DATASTORE_CALL_BUDGET, "25");
+
+		loadSysConfigFile();
+	}
+
+	/**
+	 * Loads config/SysConfig.properties, if it exists
+	 */
+	protected void loadSysConfigFile() {
+		File file = new File(rootDir + File.separator + "config" + File.separator + SYS_CONFIG_FILE_NAME);
+		if (file.exists()) {
+			try {
+				loadProperties(file);
+			} catch (IOException ioex) {
+				LogBuilder.createSystemMessage(log, Level.WARNING).
+						addException("loading " + SYS_CONFIG_FILE_NAME + " failed", ioex).log();
+			}
+		}
 	}
 
 	/**
 	 * Drop singleton instance to cope with repeated startup/shutdown scenarios
 	 */
 	public static synchronized void dropInstance() {
-		log.config(LogBuilder.createSystemMessage().addAction("drop SysConfig instance").toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("drop SysConfig instance").log();
 		instance = null;
 	}
 
@@ -100,7 +256,7 @@ public class SysConfig extends AbstractConfig {
 	 */
 	public static SysConfig getInstance() {
 		if (instance == null) {
-			log.config(LogBuilder.createSystemMessage().addAction("create generic SysConfig").toString());
+			LogBuilder.createSystemMessage(log, Level.CONFIG).addAction("create generic SysConfig").log();
 			setInstance(new SysConfig(""));
 		}
 		return instance;
@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects Persistent objects when they become dirty (see DataObject.incWriteCount) and writes them later in batches
+ * through the ObjectManager registered for their class. An object is queued only once however often it changes until
+ * it is written, so e.g. a photo praised many times between two flushes costs a single write. Objects of classes
+ * without a registered ObjectManager are not queued.
+ *
+ * The queue is flushed by flushIfDue(), which servlets call at the end of each request, once the flush interval has
+ * passed or the maximum number of queued objects has been reached. Flushing happens on a request thread, as App
+ * Engine does not allow Datastore calls from background threads. The queue is disabled (flush interval 0) until
+ * ModelMain configures it.
+ */
+public class WriteBehindQueue {
+
+	private static final Logger log = Logger.getLogger(WriteBehindQueue.class.getName());
+
+	/**
+	 *
+	 */
+	protected static final WriteBehindQueue instance = new WriteBehindQueue();
+
+	/**
+	 * @methodtype get
+	 */
+	public static WriteBehindQueue getInstance() {
+		return instance;
+	}
+
+	/**
+	 * class -> ObjectManager as registered, in registration order, which is also the order of writing
+	 */
+	protected final Map<Class<?>, ObjectManager> managers = new LinkedHashMap<Class<?>, ObjectManager>();
+
+	/**
+	 * Resolved class -> ObjectManager, including subclasses; NO_MANAGER if a class has none
+	 */
+	protected final Map<Class<?>, Object> managersByClass = new ConcurrentHashMap<Class<?>, Object>();
+
+	/**
+	 *
+	 */
+	protected static final Object NO_MANAGER = new Object();
+
+	/**
+	 * Queued objects -> their ObjectManager; Persistent objects have identity semantics
+	 */
+	protected final Map<Persistent, ObjectManager> queuedObjects = new ConcurrentHashMap<Persistent, ObjectManager>();
+	protected final AtomicInteger noQueuedObjects = new AtomicInteger();
+
+	/**
+	 *
+	 */
+	protected final ReentrantLock flushLock = new ReentrantLock();
+	protected volatile long nextFlushTime = 0;
+
+	/**
+	 * Disabled until configured, see SysConfig.WRITE_BEHIND_INTERVAL and SysConfig.WRITE_BEHIND_MAX_QUEUED
+	 */
+	protected volatile long flushInterval = 0;
+	protected volatile int maxQueuedObjects = Integer.MAX_VALUE;
+
+	/**
+	 *
+	 */
+	protected WriteBehindQueue() {
+		// do nothing
+	}
+
+	/**
+	 * Registers the ObjectManager that writes objects of the given class and its subclasses
+	 *
+	 * @methodtype set
+	 */
+	public synchronized void setManager(Class<?> type, ObjectManager manager) {
+		managers.put(type, manager);
+		managersByClass.clear();
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setFlushInterval(long newFlushInterval) {
+		flushInterval = newFlushInterval;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setMaxQueuedObjects(int newMaxQueuedObjects) {
+		maxQueuedObjects = newMaxQueuedObjects;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isEnabled() {
+		return flushInterval > 0;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getQueueLength() {
+		return noQueuedObjects.get();
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isQueued(Persistent object) {
+		return queuedObjects.containsKey(object);
+	}
+
+	/**
+	 * Queues the object unless it is already queued
+	 *
+	 * @methodtype command
+	 */
+	public void enqueue(Persistent object) {
+		if (!isEnabled() || queuedObjects.containsKey(object)) {
+			return;
+		}
+
+		ObjectManager manager = getManager(object.getClass());
+		if (manager != null && queuedObjects.putIfAbsent(object, manager) == null) {
+			noQueuedObjects.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Flushes the queue if the flush interval has passed or too many objects are queued; does nothing if another
+	 * thread is flushing already.
+	 *
+	 * @methodtype command
+	 */
+	public void flushIfDue() {
+		int queueLength = noQueuedObjects.get();
+		boolean isDue = System.currentTimeMillis() >= nextFlushTime || queueLength >= maxQueuedObjects;
+		if (queueLength > 0 && isDue && flushLock.tryLock()) {
+			try {
+				doFlush();
+			} finally {
+				flushLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Writes all queued objects, waiting for a concurrent flush to finish first
+	 *
+	 * @methodtype command
+	 */
+	public WriteStatistics flush() {
+		flushLock.lock();
+		try {
+			return doFlush();
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	/**
+	 * Takes all objects off the queue and writes them, grouped by ObjectManager. Objects that change while they are
+	 * written are queued again for the next flush, as are all objects that are still dirty after a failed write.
+	 * Objects whose ObjectManager does not manage them (any more) are dropped; they are queued again when they change
+	 * after having been added.
+	 *
+	 * @methodtype command
+	 */
+	protected WriteStatistics doFlush() {
+		nextFlushTime = System.currentTimeMillis() + flushInterval;
+
+		Map<ObjectManager, List<Persistent>> objectsByManager = new LinkedHashMap<ObjectManager, List<Persistent>>();
+		synchronized (this) {
+			for (ObjectManager manager : managers.values()) {
+				objectsByManager.put(manager, new ArrayList<Persistent>());
+			}
+		}
+
+		for (Iterator<Map.Entry<Persistent, ObjectManager>> i = queuedObjects.entrySet().iterator(); i.hasNext(); ) {
+			Map.Entry<Persistent, ObjectManager> entry = i.next();
+			i.remove();
+			noQueuedObjects.decrementAndGet();
+			List<Persistent> objects = objectsByManager.get(entry.getValue());
+			if (objects != null && entry.getValue().isWriteBehindManaged(entry.getKey())) {
+				objects.add(entry.getKey());
+			}
+		}
+
+		WriteStatistics result = new WriteStatistics();
+		for (Map.Entry<ObjectManager, List<Persistent>> entry : objectsByManager.entrySet()) {
+			if (!entry.getValue().isEmpty()) {
+				try {
+					result.addAll(entry.getKey().updateObjects(entry.getValue()));
+				} catch (RuntimeException ex) {
+					LogBuilder.createSystemMessage(log, Level.WARNING).
+							addException("write-behind flush failed", ex).log();
+					enqueueDirtyObjects(entry.getValue());
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Queues the objects that have not been written, e.g. because their batch was never started
+	 *
+	 * @methodtype command
+	 */
+	protected void enqueueDirtyObjects(List<Persistent> objects) {
+		for (Persistent object : objects) {
+			if (object.isDirty()) {
+				enqueue(object);
+			}
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected ObjectManager getManager(Class<?> type) {
+		Object result = managersByClass.get(type);
+		if (result == null) {
+			result = NO_MANAGER;
+			synchronized (this) {
+				for (Class<?> c = type; c != null && result == NO_MANAGER; c = c.getSuperclass()) {
+					ObjectManager manager = managers.get(c);
+					if (manager != null) {
+						result = manager;
+					}
+				}
+			}
+			managersByClass.put(type, result);
+		}
+		return (result == NO_MANAGER) ? null : (ObjectManager) result;
+	}
+
+}
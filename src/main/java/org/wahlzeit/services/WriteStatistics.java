@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counts of a batched write, per entity kind: how many objects were written and skipped (as they were not dirty),
+ * in how many batches, and how long writing them (including their dependents) took. Not thread-safe.
+ */
+public class WriteStatistics {
+
+	/**
+	 * Indexes into the per-kind counters
+	 */
+	protected static final int WRITTEN = 0;
+	protected static final int SKIPPED = 1;
+	protected static final int BATCHES = 2;
+	protected static final int MILLIS = 3;
+
+	/**
+	 * kind -> counters; sorted, so that asString() is stable
+	 */
+	protected final Map<String, long[]> countersByKind = new TreeMap<String, long[]>();
+
+	/**
+	 * @methodtype command
+	 */
+	public void addWritten(String kind, int noObjects) {
+		getCounters(kind)[WRITTEN] += noObjects;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void addSkipped(String kind, int noObjects) {
+		getCounters(kind)[SKIPPED] += noObjects;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void addBatch(String kind) {
+		getCounters(kind)[BATCHES]++;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void addMillis(String kind, long millis) {
+		getCounters(kind)[MILLIS] += millis;
+	}
+
+	/**
+	 * Adds all counters of the other statistics to this one
+	 *
+	 * @methodtype command
+	 */
+	public void addAll(WriteStatistics other) {
+		for (Map.Entry<String, long[]> entry : other.countersByKind.entrySet()) {
+			long[] counters = getCounters(entry.getKey());
+			for (int i = 0; i < counters.length; i++) {
+				counters[i] += entry.getValue()[i];
+			}
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getWritten(String kind) {
+		return get(kind, WRITTEN);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getSkipped(String kind) {
+		return get(kind, SKIPPED);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getBatches(String kind) {
+		return get(kind, BATCHES);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getMillis(String kind) {
+		return get(kind, MILLIS);
+	}
+
+	/**
+	 * Returns the counters in a human-readable form, one line per kind
+	 *
+	 * @methodtype conversion
+	 */
+	public String asString() {
+		StringBuilder result = new StringBuilder();
+		for (Map.Entry<String, long[]> entry : countersByKind.entrySet()) {
+			long[] counters = entry.getValue();
+			result.append(entry.getKey()).
+					append(": written=").append(counters[WRITTEN]).
+					append(", skipped=").append(counters[SKIPPED]).
+					append(", batches=").append(counters[BATCHES]).
+					append(", ms=").append(counters[MILLIS]).append('\n');
+		}
+		return result.toString();
+	}
+
+	@Override
+	public String toString() {
+		return asString();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected long get(String kind, int index) {
+		long[] counters = countersByKind.get(kind);
+		return (counters == null) ? 0 : counters[index];
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected long[] getCounters(String kind) {
+		long[] result = countersByKind.get(kind);
+		if (result == null) {
+			result = new long[MILLIS + 1];
+			countersByKind.put(kind, result);
+		}
+		return result;
+	}
+
+}
@@ -26,6 +26,7 @@ import org.wahlzeit.utils.PatternInstance;
 import org.wahlzeit.utils.StringUtil;
 
 import javax.mail.Message;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
@@ -83,8 +84,8 @@ public abstract class AbstractEmailService implements EmailService {
 			sendEmail(from, to, bcc, subject, body);
 			return true;
 		} catch (Exception ex) {
-			log.warning(LogBuilder.createSystemMessage().
-					addException("Problem sending email", ex).toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addException("Problem sending email", ex).log();
 			return false;
 		}
 	}
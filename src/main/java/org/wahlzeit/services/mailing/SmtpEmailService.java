@@ -35,6 +35,7 @@ import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimeMultipart;
 import java.util.Properties;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 @PatternInstance ( 
@@ -95,7 +96,7 @@ public class SmtpEmailService extends AbstractEmailService {
 			msg.setSubject(subject);
 			msg.setContent(createMultipart(body));
 		} catch (MessagingException e) {
-			log.warning(LogBuilder.createSystemMessage().addException("failed to create email", e).toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).addException("failed to create email", e).log();
 			throw new MailingException(e.getMessage());
 		}
 		return msg;
@@ -122,9 +123,9 @@ public class SmtpEmailService extends AbstractEmailService {
 	protected void doSendEmail(Message msg) throws MailingException {
 		try {
 			Transport.send(msg);
-			log.config(LogBuilder.createSystemMessage().
+			LogBuilder.createSystemMessage(log, Level.CONFIG).
 					addMessage("email send").
-					addParameter("subject", msg.getSubject()).toString());
+					addParameter("subject", msg.getSubject()).log();
 		} catch (MessagingException ex) {
 			throw new MailingException("Sending email failed", ex);
 		}
@@ -23,9 +23,12 @@ package org.wahlzeit.servlets;
 import org.wahlzeit.main.ServiceMain;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.RequestMetrics;
 import org.wahlzeit.services.Session;
 import org.wahlzeit.services.SessionManager;
+import org.wahlzeit.services.WriteBehindQueue;
 import org.wahlzeit.utils.StringUtil;
+import org.wahlzeit.webparts.Utf8Writer;
 import org.wahlzeit.webparts.WebPart;
 
 import javax.servlet.ServletException;
@@ -38,6 +41,7 @@ import java.io.PrintWriter;
 import java.net.InetAddress;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -77,38 +81,71 @@ public abstract class AbstractServlet extends HttpServlet {
 	 *
 	 */
 	public void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
-		request.setCharacterEncoding("UTF-8");
-		response.setCharacterEncoding("UTF-8");
+		CountingResponse countingResponse = new CountingResponse(response);
+		try {
+			request.setCharacterEncoding("UTF-8");
+			countingResponse.setCharacterEncoding("UTF-8");
 
-		UserSession us = ensureUserSession(request);
-		SessionManager.setThreadLocalSession(us);
+			UserSession us = ensureUserSession(request);
+			SessionManager.setThreadLocalSession(us);
 
-		if (ServiceMain.getInstance().isShuttingDown() || (us == null)) {
-			displayNullPage(request, response);
-		} else {
-			myGet(request, response);
-		}
+			if (ServiceMain.getInstance().isShuttingDown() || (us == null)) {
+				displayNullPage(request, countingResponse);
+			} else {
+				myGet(request, countingResponse);
+			}
 
-		SessionManager.dropThreadLocalSession();
+			SessionManager.dropThreadLocalSession();
+			flushWriteBehindQueue();
+		} finally {
+			recordResponse(countingResponse);
+		}
 	}
 
 	/**
 	 *
 	 */
 	public void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
-		request.setCharacterEncoding("UTF-8");
-		response.setCharacterEncoding("UTF-8");
+		CountingResponse countingResponse = new CountingResponse(response);
+		try {
+			request.setCharacterEncoding("UTF-8");
+			countingResponse.setCharacterEncoding("UTF-8");
 
-		UserSession us = ensureUserSession(request);
-		SessionManager.setThreadLocalSession(us);
+			UserSession us = ensureUserSession(request);
+			SessionManager.setThreadLocalSession(us);
 
-		if (ServiceMain.getInstance().isShuttingDown() || (us == null)) {
-			displayNullPage(request, response);
-		} else {
-			myPost(request, response);
+			if (ServiceMain.getInstance().isShuttingDown() || (us == null)) {
+				displayNullPage(request, countingResponse);
+			} else {
+				myPost(request, countingResponse);
+			}
+
+			SessionManager.dropThreadLocalSession();
+			flushWriteBehindQueue();
+		} finally {
+			recordResponse(countingResponse);
 		}
+	}
+
+	/**
+	 * Counts the status code, redirect and bytes written of the response in RequestMetrics
+	 */
+	protected void recordResponse(CountingResponse response) {
+		response.flushWriter();
+		RequestMetrics.getInstance().recordResponse(response.getStatus(), response.isRedirect(),
+				response.getNoBytesWritten());
+	}
 
-		SessionManager.dropThreadLocalSession();
+	/**
+	 * Writes changed objects if a flush is due; failures must not fail the request, the objects stay dirty
+	 */
+	protected void flushWriteBehindQueue() {
+		try {
+			WriteBehindQueue.getInstance().flushIfDue();
+		} catch (RuntimeException ex) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addException("flushing write-behind queue failed", ex).log();
+		}
 	}
 
 	/**
@@ -170,7 +207,7 @@ public abstract class AbstractServlet extends HttpServlet {
 	protected void redirectRequest(HttpServletResponse response, String link) throws IOException {
 		response.setContentType("text/html");
 		String newTarget = new String("/" + link + ".html");
-		log.config(LogBuilder.createSystemMessage().addParameter("Redirect to", newTarget).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("Redirect to", newTarget).log();
 		response.sendRedirect(newTarget);
 	}
 
@@ -180,12 +217,12 @@ public abstract class AbstractServlet extends HttpServlet {
 	protected void configureResponse(Session ctx, HttpServletResponse response, WebPart result) throws IOException {
 		long processingTime = ctx.getProcessingTime();
 		result.addString("processingTime", StringUtil.asStringInSeconds((processingTime == 0) ? 1 : processingTime));
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("proctime", String.valueOf(processingTime)).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addParameter("proctime", String.valueOf(processingTime)).log();
 
-		response.setContentType("text/html");
+		response.setContentType("text/html; charset=UTF-8");
 
-		PrintWriter out = response.getWriter();
+		Utf8Writer out = new Utf8Writer(response.getOutputStream());
 		result.writeOn(out);
 		out.close();
 
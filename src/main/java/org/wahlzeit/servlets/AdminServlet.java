@@ -28,6 +28,7 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
@@ -48,7 +49,7 @@ public class AdminServlet extends AbstractServlet {
 	 */
 	public void myGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
 		String link = request.getRequestURI();
-		log.info(LogBuilder.createUserMessage().addParameter("requested URI", link).toString());
+		LogBuilder.createUserMessage(log, Level.INFO).addParameter("requested URI", link).log();
 		if (isLocalHost(request)) {
 			ServiceMain.getInstance().requestStop();
 			displayNullPage(request, response);
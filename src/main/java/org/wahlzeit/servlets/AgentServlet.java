@@ -28,10 +28,12 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * A servlet class for asynchronous ("agent") tasks.
+ * A servlet class for asynchronous ("agent") tasks. Cron jobs start agents with GET requests, task queues with POST
+ * requests.
  */
 public class AgentServlet extends HttpServlet {
 
@@ -48,16 +50,25 @@ public class AgentServlet extends HttpServlet {
 		int nameStart = requestUri.lastIndexOf("/") + 1;
 		int nameEnd = requestUri.length();
 		String agentName = requestUri.substring(nameStart, nameEnd);
-		log.config(LogBuilder.createSystemMessage().addParameter("agent name", agentName).toString());
+		LogBuilder.createSystemMessage(log, Level.CONFIG).addParameter("agent name", agentName).log();
 
 		try {
 			AgentManager.getInstance().startAgent(agentName);
 			response.setStatus(200);
 		} catch (Exception e) {
-			log.warning(LogBuilder.createSystemMessage().addException("Problem when starting the agent", e).toString());
+			LogBuilder.createSystemMessage(log, Level.WARNING).addException("Problem when starting the agent", e).log();
 			response.setStatus(299);
 		}
 	}
 
+	/**
+	 * @methodtype command
+	 */
+	@Override
+	protected void doPost(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		doGet(request, response);
+	}
+
 
 }
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.servlets;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+
+/**
+ * A response that remembers its status code and counts the bytes written to its body, for RequestMetrics.
+ */
+public class CountingResponse extends HttpServletResponseWrapper {
+
+	/**
+	 *
+	 */
+	protected int status = SC_OK;
+	protected boolean isRedirect = false;
+	protected long noBytesWritten = 0;
+
+	/**
+	 *
+	 */
+	protected ServletOutputStream outputStream = null;
+	protected PrintWriter writer = null;
+
+	/**
+	 *
+	 */
+	public CountingResponse(HttpServletResponse response) {
+		super(response);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isRedirect() {
+		return isRedirect;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoBytesWritten() {
+		return noBytesWritten;
+	}
+
+	@Override
+	public void setStatus(int sc) {
+		status = sc;
+		super.setStatus(sc);
+	}
+
+	@Override
+	@SuppressWarnings("deprecation")
+	public void setStatus(int sc, String sm) {
+		status = sc;
+		super.setStatus(sc, sm);
+	}
+
+	@Override
+	public void sendError(int sc) throws IOException {
+		status = sc;
+		super.sendError(sc);
+	}
+
+	@Override
+	public void sendError(int sc, String msg) throws IOException {
+		status = sc;
+		super.sendError(sc, msg);
+	}
+
+	@Override
+	public void sendRedirect(String location) throws IOException {
+		status = SC_MOVED_TEMPORARILY;
+		isRedirect = true;
+		super.sendRedirect(location);
+	}
+
+	@Override
+	public ServletOutputStream getOutputStream() throws IOException {
+		if (outputStream == null) {
+			final ServletOutputStream out = super.getOutputStream();
+			outputStream = new ServletOutputStream() {
+				@Override
+				public void write(int b) throws IOException {
+					out.write(b);
+					noBytesWritten++;
+				}
+
+				@Override
+				public void write(byte[] bytes, int off, int len) throws IOException {
+					out.write(bytes, off, len);
+					noBytesWritten += len;
+				}
+
+				@Override
+				public void flush() throws IOException {
+					out.flush();
+				}
+
+				@Override
+				public void close() throws IOException {
+					out.close();
+				}
+			};
+		}
+		return outputStream;
+	}
+
+	/**
+	 * The writer encodes onto the counting output stream, so its bytes are counted as well
+	 */
+	@Override
+	public PrintWriter getWriter() throws IOException {
+		if (writer == null) {
+			String encoding = getCharacterEncoding();
+			Charset charset = Charset.forName((encoding != null) ? encoding : "ISO-8859-1");
+			writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), charset));
+		}
+		return writer;
+	}
+
+	/**
+	 * Flushes what has been written to the writer, if it has been used; servlets call this when done
+	 *
+	 * @methodtype command
+	 */
+	public void flushWriter() {
+		if (writer != null) {
+			writer.flush();
+		}
+	}
+
+	@Override
+	public void flushBuffer() throws IOException {
+		flushWriter();
+		super.flushBuffer();
+	}
+
+}
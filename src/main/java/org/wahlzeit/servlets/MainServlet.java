@@ -21,31 +21,36 @@
 package org.wahlzeit.servlets;
 
 import com.google.api.client.util.Charsets;
-import com.google.appengine.api.images.Image;
-import com.google.appengine.api.images.ImagesServiceFactory;
 import com.google.common.io.CharStreams;
 import org.apache.commons.fileupload.FileItemIterator;
 import org.apache.commons.fileupload.FileItemStream;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.wahlzeit.customexceptions.UploadTooLargeException;
 import org.wahlzeit.handlers.PartUtil;
+import org.wahlzeit.handlers.UploadPhotoFormHandler;
 import org.wahlzeit.handlers.WebFormHandler;
 import org.wahlzeit.handlers.WebPageHandler;
 import org.wahlzeit.handlers.WebPartHandlerManager;
 import org.wahlzeit.model.User;
 import org.wahlzeit.model.UserSession;
+import org.wahlzeit.services.DatastoreTracer;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.RequestMetrics;
 import org.wahlzeit.services.SessionManager;
+import org.wahlzeit.services.SpooledUpload;
+import org.wahlzeit.services.SysConfig;
 import org.wahlzeit.webparts.WebPart;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
@@ -60,35 +65,51 @@ public class MainServlet extends AbstractServlet {
 	 */
 	private static final long serialVersionUID = 42L; // any one does; class never serialized
 
+	/**
+	 * Metrics of requests that fall back to the default handler are recorded under this name, so that only the
+	 * names of registered handlers, not arbitrary links, become keys of RequestMetrics and DatastoreTracer
+	 */
+	protected static final String UNKNOWN_HANDLER_NAME = "unknown";
+
 	/**
 	 *
 	 */
 	public void myPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
 		long startTime = System.currentTimeMillis();
+		long startNanos = System.nanoTime();
 
 		UserSession us = (UserSession) SessionManager.getThreadLocalSession();
-		String link = request.getRequestURI();
-		int linkStart = link.lastIndexOf("/") + 1;
-		int linkEnd = link.indexOf(".form");
-		if (linkEnd != -1) {
-			link = link.substring(linkStart, linkEnd);
-		} else {
-			link = PartUtil.NULL_FORM_NAME;
-		}
-		log.info(LogBuilder.createUserMessage().addParameter("posted to", link).toString());
+		DatastoreTracer.getInstance().startRequest(us);
+		String handlerName = UNKNOWN_HANDLER_NAME;
+		try {
+			String link = request.getRequestURI();
+			int linkStart = link.lastIndexOf("/") + 1;
+			int linkEnd = link.indexOf(".form");
+			if (linkEnd != -1) {
+				link = link.substring(linkStart, linkEnd);
+			} else {
+				link = PartUtil.NULL_FORM_NAME;
+			}
+			LogBuilder.createUserMessage(log, Level.INFO).addParameter("posted to", link).log();
 
-		Map args = getRequestArgs(request, us);
-		log.info(LogBuilder.createSystemMessage().
-				addParameter("POST arguments", getRequestArgsAsString(us, args)).toString());
+			Map args = getRequestArgs(request, us);
+			LogBuilder.createSystemMessage(log, Level.INFO).
+					addParameter("POST arguments", getRequestArgsAsString(us, args)).log();
 
-		WebFormHandler formHandler = WebPartHandlerManager.getWebFormHandler(link);
-		link = PartUtil.DEFAULT_PAGE_NAME;
-		if (formHandler != null) {
-			link = formHandler.handlePost(us, args);
-		}
+			WebFormHandler formHandler = WebPartHandlerManager.getWebFormHandler(link);
+			handlerName = getHandlerName(link, WebPartHandlerManager.getInstance().isWebFormHandlerName(link));
+			link = PartUtil.DEFAULT_PAGE_NAME;
+			if (formHandler != null) {
+				link = formHandler.handlePost(us, args);
+			}
+			long handledNanos = System.nanoTime();
+			RequestMetrics.getInstance().recordLatency(handlerName, RequestMetrics.HANDLE, handledNanos - startNanos);
 
-		redirectRequest(response, link);
-		us.addProcessingTime(System.currentTimeMillis() - startTime);
+			redirectRequest(response, link);
+			us.addProcessingTime(System.currentTimeMillis() - startTime);
+		} finally {
+			DatastoreTracer.getInstance().finishRequest(us, handlerName);
+		}
 		SessionManager.dropThreadLocalSession();
 	}
 
@@ -97,41 +118,64 @@ public class MainServlet extends AbstractServlet {
 	 */
 	public void myGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
 		long startTime = System.currentTimeMillis();
+		long startNanos = System.nanoTime();
 
 		UserSession us = (UserSession) SessionManager.getThreadLocalSession();
-		String link = request.getRequestURI();
-		int linkStart = link.lastIndexOf("/") + 1;
-		int linkEnd = link.indexOf(".html");
-		if (linkEnd == -1) {
-			linkEnd = link.length();
-		}
+		DatastoreTracer.getInstance().startRequest(us);
+		String handlerName = UNKNOWN_HANDLER_NAME;
+		try {
+			String link = request.getRequestURI();
+			int linkStart = link.lastIndexOf("/") + 1;
+			int linkEnd = link.indexOf(".html");
+			if (linkEnd == -1) {
+				linkEnd = link.length();
+			}
 
-		link = link.substring(linkStart, linkEnd);
-		log.info(LogBuilder.createUserMessage().addParameter("requested URI", request.getRequestURI()).toString());
+			link = link.substring(linkStart, linkEnd);
+			LogBuilder.createUserMessage(log, Level.INFO).
+					addParameter("requested URI", request.getRequestURI()).log();
 
 
-		WebPageHandler handler = WebPartHandlerManager.getWebPageHandler(link);
-		String newLink = PartUtil.DEFAULT_PAGE_NAME;
-		if (handler != null) {
-			Map args = getRequestArgs(request, us);
-			log.info(LogBuilder.createSystemMessage().
-					addParameter("GET arguments", getRequestArgsAsString(us, args)).toString());
-			newLink = handler.handleGet(us, link, args);
-		}
+			WebPageHandler handler = WebPartHandlerManager.getWebPageHandler(link);
+			handlerName = getHandlerName(link, WebPartHandlerManager.getInstance().isWebPageHandlerName(link));
+			String newLink = PartUtil.DEFAULT_PAGE_NAME;
+			if (handler != null) {
+				Map args = getRequestArgs(request, us);
+				LogBuilder.createSystemMessage(log, Level.INFO).
+						addParameter("GET arguments", getRequestArgsAsString(us, args)).log();
+				newLink = handler.handleGet(us, link, args);
+			}
 
-		if (newLink.equals(link)) { // no redirect necessary
-			WebPart result = handler.makeWebPart(us);
-			us.addProcessingTime(System.currentTimeMillis() - startTime);
-			configureResponse(us, response, result);
-			us.clearSavedArgs(); // saved args go from post to next get
-			us.resetProcessingTime();
-		} else {
-			redirectRequest(response, newLink);
-			us.addProcessingTime(System.currentTimeMillis() - startTime);
+			RequestMetrics metrics = RequestMetrics.getInstance();
+			long handledNanos = System.nanoTime();
+			metrics.recordLatency(handlerName, RequestMetrics.HANDLE, handledNanos - startNanos);
+
+			if (newLink.equals(link)) { // no redirect necessary
+				WebPart result = handler.makeWebPart(us);
+				long renderedNanos = System.nanoTime();
+				metrics.recordLatency(handlerName, RequestMetrics.RENDER, renderedNanos - handledNanos);
+				us.addProcessingTime(System.currentTimeMillis() - startTime);
+				configureResponse(us, response, result);
+				metrics.recordLatency(handlerName, RequestMetrics.WRITE, System.nanoTime() - renderedNanos);
+				us.clearSavedArgs(); // saved args go from post to next get
+				us.resetProcessingTime();
+			} else {
+				redirectRequest(response, newLink);
+				us.addProcessingTime(System.currentTimeMillis() - startTime);
+			}
+		} finally {
+			DatastoreTracer.getInstance().finishRequest(us, handlerName);
 		}
 		SessionManager.dropThreadLocalSession();
 	}
 
+	/**
+	 * @methodtype conversion
+	 */
+	protected String getHandlerName(String link, boolean isRegisteredName) {
+		return isRegisteredName ? link : UNKNOWN_HANDLER_NAME;
+	}
+
 	/**
 	 *
 	 */
@@ -144,14 +188,31 @@ public class MainServlet extends AbstractServlet {
 		}
 	}
 
+	/**
+	 * Slack for the multipart framing and form fields when checking the Content-Length against MAX_UPLOAD_SIZE
+	 */
+	protected static final long MULTIPART_OVERHEAD = 64 * 1024;
+
 	/**
 	 * Searches for files in the request and puts them in the resulting map with the key "fileName". When a file is
-	 * found, you can access its path by searching for elements with the key "fileName".
+	 * found, you can access its path by searching for elements with the key "fileName". The file itself is streamed
+	 * into a SpooledUpload on the user; if it exceeds SysConfig.MAX_UPLOAD_SIZE, reading stops and the map contains
+	 * UploadPhotoFormHandler.UPLOAD_TOO_LARGE instead.
 	 */
 	protected Map getMultiPartRequestArgs(HttpServletRequest request, UserSession us) throws IOException,
 			ServletException {
 		Map<String, String> result = new HashMap<String, String>();
 		result.putAll(request.getParameterMap());
+
+		SysConfig sysConfig = SysConfig.getInstance();
+		long maxUploadSize = sysConfig.getLongValue(SysConfig.MAX_UPLOAD_SIZE);
+		if (request.getContentLength() > maxUploadSize + MULTIPART_OVERHEAD) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addParameter("rejected upload of size", request.getContentLength()).log();
+			result.put(UploadPhotoFormHandler.UPLOAD_TOO_LARGE, "true");
+			return result;
+		}
+
 		try {
 			ServletFileUpload upload = new ServletFileUpload();
 			FileItemIterator iterator = upload.getItemIterator(request);
@@ -161,20 +222,31 @@ public class MainServlet extends AbstractServlet {
 				String filename = fileItemStream.getName();
 
 				if (!fileItemStream.isFormField()) {
-					InputStream inputStream = fileItemStream.openStream();
-					Image image = getImage(inputStream);
+					SpooledUpload uploadedFile;
+					try (InputStream inputStream = fileItemStream.openStream()) {
+						uploadedFile = SpooledUpload.read(inputStream, maxUploadSize,
+								sysConfig.getIntValue(SysConfig.UPLOAD_MEMORY_THRESHOLD),
+								new File(SysConfig.getTempDir().asString()));
+					} catch (UploadTooLargeException ex) {
+						LogBuilder.createSystemMessage(log, Level.WARNING).
+								addException("rejected upload " + filename, ex).log();
+						result.put(UploadPhotoFormHandler.UPLOAD_TOO_LARGE, "true");
+						break;
+					}
 					User user = (User) us.getClient();
-					user.setUploadedImage(image);
+					user.setUploadedFile(uploadedFile);
 					result.put("fileName", filename);
-					log.config(LogBuilder.createSystemMessage().addParameter("Uploaded image", filename).toString());
+					LogBuilder.createSystemMessage(log, Level.CONFIG).
+							addParameter("Uploaded image", filename).
+							addParameter("size", uploadedFile.getLength()).log();
 				} else {
 					String key = fileItemStream.getFieldName();
 					InputStream is = fileItemStream.openStream();
 					String value = CharStreams.toString(new InputStreamReader(is, Charsets.UTF_8));
 					result.put(key, value);
-					log.config(LogBuilder.createSystemMessage().
+					LogBuilder.createSystemMessage(log, Level.CONFIG).
 							addParameter("Key of uploaded parameter", key).
-							addParameter("value", value).toString());
+							addParameter("value", value).log();
 				}
 			}
 		} catch (Exception ex) {
@@ -183,24 +255,4 @@ public class MainServlet extends AbstractServlet {
 
 		return result;
 	}
-
-	/**
-	 * Create an Image object from the Input stream.
-	 */
-	private Image getImage(InputStream input) throws IOException {
-		Image image;
-		try {
-			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-			byte[] buffer = new byte[1024 * 1024];
-			int bytesRead = input.read(buffer);
-			while (bytesRead != -1) {
-				outputStream.write(buffer, 0, bytesRead);
-				bytesRead = input.read(buffer);
-			}
-			image = ImagesServiceFactory.makeImage(outputStream.toByteArray());
-		} finally {
-			input.close();
-		}
-		return image;
-	}
 }
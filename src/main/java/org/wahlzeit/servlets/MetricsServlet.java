@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.servlets;
+
+import org.wahlzeit.services.RequestMetrics;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * A servlet that serves the RequestMetrics, as plain text or, for /metrics/prometheus or ?format=prometheus, in the
+ * Prometheus text format. Like the agents, it is restricted to administrators in web.xml.
+ */
+public class MetricsServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 *
+	 */
+	public static final String PROMETHEUS_FORMAT = "prometheus";
+	public static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=UTF-8";
+
+	/**
+	 * @methodtype command
+	 */
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+
+		RequestMetrics metrics = RequestMetrics.getInstance();
+		String body;
+		if (isPrometheusFormat(request)) {
+			response.setContentType(PROMETHEUS_CONTENT_TYPE);
+			body = metrics.asPrometheusString();
+		} else {
+			response.setContentType("text/plain; charset=UTF-8");
+			body = metrics.asString();
+		}
+
+		response.setHeader("Cache-Control", "no-store");
+		response.setStatus(HttpServletResponse.SC_OK);
+		PrintWriter out = response.getWriter();
+		out.print(body);
+		out.close();
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	protected boolean isPrometheusFormat(HttpServletRequest request) {
+		String pathInfo = request.getPathInfo();
+		return PROMETHEUS_FORMAT.equals(request.getParameter("format")) ||
+				(pathInfo != null && pathInfo.endsWith("/" + PROMETHEUS_FORMAT));
+	}
+
+}
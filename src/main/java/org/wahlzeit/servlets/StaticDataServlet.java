@@ -5,13 +5,26 @@ import org.apache.http.HttpStatus;
 import org.wahlzeit.model.Photo;
 import org.wahlzeit.model.PhotoManager;
 import org.wahlzeit.model.PhotoSize;
+import org.wahlzeit.model.persistence.ImageFileRegion;
 import org.wahlzeit.model.persistence.ImageStorage;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.RequestMetrics;
+import org.wahlzeit.utils.HttpUtil;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -26,45 +39,256 @@ public class StaticDataServlet extends AbstractServlet {
 
 	Logger log = Logger.getLogger(StaticDataServlet.class.getName());
 
+	/**
+	 * Scaled images never change once written, so they may be cached by clients for a long time
+	 */
+	protected static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+	/**
+	 *
+	 */
+	protected static final int CONTENT_TYPE_SNIFF_LENGTH = 12;
+
+	/**
+	 * Name under which image requests are recorded in RequestMetrics
+	 */
+	protected static final String IMAGE_HANDLER_NAME = "staticImage";
+
 	@Override
 	public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		CountingResponse countingResponse = new CountingResponse(response);
+		response = countingResponse;
 		try {
 			String type = request.getParameter("type");
 			String photoId = request.getParameter("photoId");
 			String sizeString = request.getParameter("size");
 			int size = Integer.valueOf(sizeString);
-			log.info(LogBuilder.createSystemMessage().
+			LogBuilder.createSystemMessage(log, Level.INFO).
 					addAction("Provide static resource").
 					addParameter("type", type).
 					addParameter("photoId", photoId).
-					addParameter("size", size).toString());
+					addParameter("size", size).log();
 
 			if ("image".equals(type)) {
-				Image image = getImage(photoId, size);
-				if (image != null) {
-					response.getOutputStream().write(image.getImageData());
-					response.getOutputStream().flush();
-					response.setStatus(HttpStatus.SC_OK);
-				} else {
-					log.warning(LogBuilder.createSystemMessage().addMessage("image not found").toString());
-					response.setStatus(HttpStatus.SC_NOT_FOUND);
-				}
+				serveImage(request, response, photoId, size);
 			} else {
-				log.warning(LogBuilder.createSystemMessage().
-						addMessage("unimplemented static resource type has been requested").toString());
+				LogBuilder.createSystemMessage(log, Level.WARNING).
+						addMessage("unimplemented static resource type has been requested").log();
 				response.setStatus(HttpStatus.SC_NOT_IMPLEMENTED);
 			}
 
 		} catch (Exception e) {
-			log.severe(LogBuilder.createSystemMessage().addException("Problem when loading image", e).toString());
+			LogBuilder.createSystemMessage(log, Level.SEVERE).addException("Problem when loading image", e).log();
+		} finally {
+			recordResponse(countingResponse);
+		}
+	}
+
+	/**
+	 * Serves the image with validators and caching headers, answers conditional requests with 304 and single byte
+	 * ranges with 206. The validators are derived from the photo, as its scaled images never change once written, so
+	 * conditional requests are answered before any image is looked up. Images kept in local files are streamed with
+	 * FileChannel.transferTo instead of being copied onto the heap.
+	 *
+	 * @methodtype command
+	 */
+	protected void serveImage(HttpServletRequest request, HttpServletResponse response, String photoId, int size)
+			throws IOException {
+		long startNanos = System.nanoTime();
+		Photo photo = PhotoManager.getInstance().getPhoto(photoId);
+		long lastModified = (photo != null) ? photo.getCreationTime() / 1000 * 1000 : -1;
+		String entityTag = "\"" + photoId + "-" + size + "-" + Math.max(lastModified, 0) + "\"";
+		if (photo != null && isNotModified(request, entityTag, lastModified)) {
+			setValidatorHeaders(response, entityTag, lastModified);
+			response.setStatus(HttpStatus.SC_NOT_MODIFIED);
+			recordHandled(startNanos);
+			return;
+		}
+
+		byte[] imageData = null;
+		ImageFileRegion region = null;
+		Image unsavedImage = (photo != null) ? photo.getUnsavedImage(PhotoSize.getFromInt(size)) : null;
+		if (unsavedImage != null) {
+			imageData = unsavedImage.getImageData();
+		} else {
+			region = ImageStorage.getInstance().getImageFileRegion(photoId, size);
+			if (region == null) {
+				Image image = getImage(photoId, size);
+				imageData = (image != null) ? image.getImageData() : null;
+			}
+		}
+
+		if (imageData == null && region == null) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).addMessage("image not found").log();
+			response.setStatus(HttpStatus.SC_NOT_FOUND);
+			recordHandled(startNanos);
+			return;
+		}
+
+		setValidatorHeaders(response, entityTag, lastModified);
+		response.setHeader("Accept-Ranges", "bytes");
+
+		long length = (region != null) ? region.getLength() : imageData.length;
+		long[] range = null;
+		if (isRangeApplicable(request, entityTag, lastModified)) {
+			range = HttpUtil.parseByteRange(request.getHeader("Range"), length);
+		}
+
+		if (range == HttpUtil.UNSATISFIABLE_RANGE) {
+			response.setHeader("Content-Range", "bytes */" + length);
+			response.setStatus(HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			recordHandled(startNanos);
+			return;
+		}
+
+		long first = 0;
+		long last = length - 1;
+		if (range != null) {
+			first = range[0];
+			last = range[1];
+			response.setHeader("Content-Range", "bytes " + first + "-" + last + "/" + length);
+			response.setStatus(HttpStatus.SC_PARTIAL_CONTENT);
+		} else {
+			response.setStatus(HttpStatus.SC_OK);
+		}
+
+		long contentLength = last - first + 1;
+		response.setHeader("Content-Length", String.valueOf(contentLength));
+
+		long handledNanos = recordHandled(startNanos);
+
+		OutputStream out = response.getOutputStream();
+		if (region != null) {
+			region = getCurrentImageFileRegion(region, photoId, size);
+			try (FileChannel channel = FileChannel.open(region.getFile().toPath(), StandardOpenOption.READ)) {
+				response.setContentType(HttpUtil.getImageContentType(readHead(channel, region)));
+				transferFully(channel, region.getPosition() + first, contentLength, Channels.newChannel(out));
+			}
+		} else {
+			response.setContentType(HttpUtil.getImageContentType(imageData));
+			out.write(imageData, (int) first, (int) contentLength);
+		}
+		out.flush();
+		RequestMetrics.getInstance().recordLatency(IMAGE_HANDLER_NAME, RequestMetrics.WRITE,
+				System.nanoTime() - handledNanos);
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	protected void setValidatorHeaders(HttpServletResponse response, String entityTag, long lastModified) {
+		response.setHeader("ETag", entityTag);
+		response.setHeader("Cache-Control", IMMUTABLE_CACHE_CONTROL);
+		if (lastModified > 0) {
+			response.setDateHeader("Last-Modified", lastModified);
+		}
+	}
+
+	/**
+	 * Returns the region of the image as it is now. Its file may have been deleted since the region was looked up,
+	 * e.g. by segment compaction, which moves the image to another file first; then the region is looked up again.
+	 *
+	 * @methodtype get
+	 */
+	protected ImageFileRegion getCurrentImageFileRegion(ImageFileRegion region, String photoId, int size)
+			throws IOException {
+		if (region.getFile().exists()) {
+			return region;
+		}
+		ImageFileRegion result = ImageStorage.getInstance().getImageFileRegion(photoId, size);
+		if (result == null || result.getLength() != region.getLength()) {
+			throw new NoSuchFileException(region.getFile().toString());
+		}
+		return result;
+	}
+
+	/**
+	 * Records the time taken to handle the request so far and returns the current time
+	 */
+	protected long recordHandled(long startNanos) {
+		long result = System.nanoTime();
+		RequestMetrics.getInstance().recordLatency(IMAGE_HANDLER_NAME, RequestMetrics.HANDLE, result - startNanos);
+		return result;
+	}
+
+	/**
+	 * If-None-Match takes precedence over If-Modified-Since (RFC 7232)
+	 *
+	 * @methodtype boolean-query
+	 */
+	protected boolean isNotModified(HttpServletRequest request, String entityTag, long lastModified) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			return HttpUtil.matchesEntityTag(ifNoneMatch, entityTag);
+		}
+
+		long ifModifiedSince = getDateHeader(request, "If-Modified-Since");
+		return lastModified > 0 && ifModifiedSince >= lastModified;
+	}
+
+	/**
+	 * A Range header only applies if there is no If-Range header or it still matches the current representation
+	 *
+	 * @methodtype boolean-query
+	 */
+	protected boolean isRangeApplicable(HttpServletRequest request, String entityTag, long lastModified) {
+		String ifRange = request.getHeader("If-Range");
+		if (ifRange == null) {
+			return true;
+		} else if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+			return ifRange.equals(entityTag);
+		} else {
+			return lastModified > 0 && getDateHeader(request, "If-Range") == lastModified;
+		}
+	}
+
+	/**
+	 * Returns -1 if the header is absent or not a valid date
+	 *
+	 * @methodtype get
+	 */
+	protected long getDateHeader(HttpServletRequest request, String name) {
+		try {
+			return request.getDateHeader(name);
+		} catch (IllegalArgumentException ex) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected byte[] readHead(FileChannel channel, ImageFileRegion region) throws IOException {
+		ByteBuffer head = ByteBuffer.allocate((int) Math.min(CONTENT_TYPE_SNIFF_LENGTH, region.getLength()));
+		while (head.hasRemaining() && channel.read(head, region.getPosition() + head.position()) > 0) {
+			// keep reading
+		}
+		return Arrays.copyOf(head.array(), head.position());
+	}
+
+	/**
+	 * transferTo may transfer fewer bytes than requested, so loop until done
+	 *
+	 * @methodtype helper
+	 */
+	protected void transferFully(FileChannel channel, long position, long count, WritableByteChannel target)
+			throws IOException {
+		while (count > 0) {
+			long transferred = channel.transferTo(position, count, target);
+			if (transferred <= 0) {
+				throw new EOFException("image file ends before image region");
+			}
+			position += transferred;
+			count -= transferred;
 		}
 	}
 
 	/**
 	 * @methodtype command
 	 *
-	 * Loads image either from the <@link>PhotoManager</@link> or from the <@link>ImageStorage</@link>. If image does
-	 * not exist, null is returned.
+	 * Loads image either from the <@link>Photo</@link> (which reads through the cached <@link>ImageStorage</@link>) or,
+	 * for photos unknown to the <@link>PhotoManager</@link>, directly from the <@link>ImageStorage</@link>. If image
+	 * does not exist, null is returned.
 	 */
 	private Image getImage(String photoId, int size) {
 		Image image = null;
@@ -72,14 +296,12 @@ public class StaticDataServlet extends AbstractServlet {
 		if (photo != null) {
 			PhotoSize photoSize = PhotoSize.getFromInt(size);
 			image = photo.getImage(photoSize);
-		}
-		// if not in cache load from Google Cloud Storage
-		if (image == null) {
+		} else {
 			Serializable rawImage = null;
 			try {
 				rawImage = ImageStorage.getInstance().readImage(photoId, size);
 			} catch (IOException e) {
-				log.warning(LogBuilder.createSystemMessage().addException("Problem when reading image.", e).toString());
+				LogBuilder.createSystemMessage(log, Level.WARNING).addException("Problem when reading image.", e).log();
 			}
 			if (rawImage != null && rawImage instanceof Image) {
 				image = (Image) rawImage;
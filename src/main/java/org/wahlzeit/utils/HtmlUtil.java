@@ -21,6 +21,8 @@
 package org.wahlzeit.utils;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
 
 /**
  * A set of utility functions for HTML formatting.
@@ -105,26 +107,100 @@ public class HtmlUtil {
 	}
 
 	/**
-	 *
+	 * Writes the same as asHref(link, body) without building the string first
+	 */
+	public static void writeHrefOn(Writer out, String link, String body) throws IOException {
+		out.write("<a href=\"");
+		out.write(link);
+		out.write("\" rel=\"nofollow\">");
+		out.write(body);
+		out.write("</a>");
+	}
+
+	/**
+	 * Writes the same as asImg(link) without building the string first
+	 */
+	public static void writeImgOn(Writer out, String link) throws IOException {
+		out.write("<img src=\"");
+		out.write(link);
+		out.write("\" />");
+	}
+
+	/**
+	 * Writes the same as asImg(link, width, height) without building the string first
+	 */
+	public static void writeImgOn(Writer out, String link, int width, int height) throws IOException {
+		out.write("<img src=\"");
+		out.write(link);
+		out.write("\" width=\"");
+		out.write(Integer.toString(width));
+		out.write("\" height=\"");
+		out.write(Integer.toString(height));
+		out.write("\" />");
+	}
+
+	/**
+	 * Returns s itself if there is nothing to mask
 	 */
 	public static String maskForWeb(String s) {
-		StringBuffer result = new StringBuffer(s.length() + 16);
-		for (int i = 0; i < s.length(); i++) {
+		int index = indexOfMaskedChar(s, 0);
+		if (index == -1) {
+			return s;
+		}
+
+		StringBuilder result = new StringBuilder(s.length() + 16);
+		int start = 0;
+		for (; index != -1; index = indexOfMaskedChar(s, start)) {
+			result.append(s, start, index).append(asMaskedChar(s.charAt(index)));
+			start = index + 1;
+		}
+
+		return result.append(s, start, s.length()).toString();
+	}
+
+	/**
+	 * Writes s masked for the web; unmasked runs are written as they are, without copying.
+	 */
+	public static void writeMaskedOn(Writer out, String s) throws IOException {
+		int start = 0;
+		for (int index = indexOfMaskedChar(s, 0); index != -1; index = indexOfMaskedChar(s, start)) {
+			out.write(s, start, index - start);
+			out.write(asMaskedChar(s.charAt(index)));
+			start = index + 1;
+		}
+
+		out.write(s, start, s.length() - start);
+	}
+
+	/**
+	 * Returns the index of the next char that maskForWeb replaces, or -1
+	 */
+	public static int indexOfMaskedChar(String s, int fromIndex) {
+		for (int i = fromIndex; i < s.length(); i++) {
 			char c = s.charAt(i);
-			if (c == '&') {
-				result.append("&amp;");
-			} else if (c == '"') {
-				result.append("&quot;");
-			} else if (c == '<') {
-				result.append("&lt;");
-			} else if (c == '>') {
-				result.append("&gt;");
-			} else {
-				result.append(c);
+			if (c <= '>' && (c == '&' || c == '"' || c == '<' || c == '>')) {
+				return i;
 			}
 		}
+		return -1;
+	}
 
-		return result.toString();
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String asMaskedChar(char c) {
+		switch (c) {
+			case '&':
+				return "&amp;";
+			case '"':
+				return "&quot;";
+			case '<':
+				return "&lt;";
+			case '>':
+				return "&gt;";
+			default:
+				return String.valueOf(c);
+		}
 	}
 
 }
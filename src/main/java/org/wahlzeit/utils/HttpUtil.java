@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.utils;
+
+/**
+ * A set of utility functions for HTTP conditional and range requests.
+ */
+public class HttpUtil {
+
+	/**
+	 * Returned by parseByteRange if the range can not be satisfied (416)
+	 */
+	public static final long[] UNSATISFIABLE_RANGE = new long[0];
+
+	/**
+	 *
+	 */
+	public static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+
+	/**
+	 *
+	 */
+	private static final String BYTES_UNIT = "bytes=";
+
+	/**
+	 * Parses a single-range Range header (RFC 7233) against an entity of the given length. Returns the inclusive
+	 * {first, last} byte positions, UNSATISFIABLE_RANGE, or null if the header is absent, malformed or asks for
+	 * several ranges; in the latter cases the whole entity is to be served.
+	 */
+	public static long[] parseByteRange(String rangeHeader, long length) {
+		if (rangeHeader == null || !rangeHeader.startsWith(BYTES_UNIT)) {
+			return null;
+		}
+
+		String spec = rangeHeader.substring(BYTES_UNIT.length()).trim();
+		int dash = spec.indexOf('-');
+		if (dash < 0 || spec.indexOf(',') >= 0) {
+			return null;
+		}
+
+		try {
+			String firstString = spec.substring(0, dash).trim();
+			String lastString = spec.substring(dash + 1).trim();
+			long first;
+			long last;
+			if (firstString.isEmpty()) {
+				// suffix range: the final n bytes
+				long suffixLength = Long.parseLong(lastString);
+				if (suffixLength <= 0 || length == 0) {
+					return UNSATISFIABLE_RANGE;
+				}
+				first = Math.max(length - suffixLength, 0);
+				last = length - 1;
+			} else {
+				first = Long.parseLong(firstString);
+				last = lastString.isEmpty() ? length - 1 : Math.min(Long.parseLong(lastString), length - 1);
+				if (first >= length) {
+					return UNSATISFIABLE_RANGE;
+				} else if (last < first) {
+					return null;
+				}
+			}
+			return new long[] {first, last};
+		} catch (NumberFormatException nfex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Checks whether an If-None-Match or If-Match header value matches the given strong entity tag. Weak tags in the
+	 * header are compared by their opaque part, as required for If-None-Match.
+	 */
+	public static boolean matchesEntityTag(String header, String entityTag) {
+		if (header == null) {
+			return false;
+		}
+
+		for (String candidate : header.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.startsWith("W/")) {
+				candidate = candidate.substring(2);
+			}
+			if (candidate.equals("*") || candidate.equals(entityTag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Determines the content type of image data from its first bytes (magic numbers).
+	 */
+	public static String getImageContentType(byte[] head) {
+		if (startsWith(head, 0xFF, 0xD8, 0xFF)) {
+			return "image/jpeg";
+		} else if (startsWith(head, 0x89, 'P', 'N', 'G')) {
+			return "image/png";
+		} else if (startsWith(head, 'G', 'I', 'F', '8')) {
+			return "image/gif";
+		} else if (startsWith(head, 'B', 'M')) {
+			return "image/bmp";
+		} else if (startsWith(head, 'R', 'I', 'F', 'F') && head.length >= 12
+				&& head[8] == 'W' && head[9] == 'E' && head[10] == 'B' && head[11] == 'P') {
+			return "image/webp";
+		}
+		return DEFAULT_CONTENT_TYPE;
+	}
+
+	/**
+	 *
+	 */
+	protected static boolean startsWith(byte[] data, int... prefix) {
+		if (data == null || data.length < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if ((data[i] & 0xFF) != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
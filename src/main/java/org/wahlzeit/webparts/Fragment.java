@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.webparts;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A Fragment is a Writable piece of HTML that has been encoded to UTF-8 once, so it can be written as bytes on a
+ * Utf8Writer. Fragments are immutable and shared between requests, see WebPartCache.
+ */
+public class Fragment implements Writable {
+
+	/**
+	 *
+	 */
+	protected final String value;
+	protected final byte[] bytes;
+
+	/**
+	 *
+	 */
+	public Fragment(String value) {
+		this.value = value;
+		this.bytes = value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 *
+	 */
+	public void writeOn(Writer out) throws IOException {
+		if (out instanceof Utf8Writer) {
+			((Utf8Writer) out).writeBytes(bytes);
+		} else {
+			out.write(value);
+		}
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String asString() {
+		return value;
+	}
+
+	@Override
+	public String toString() {
+		return value;
+	}
+
+}
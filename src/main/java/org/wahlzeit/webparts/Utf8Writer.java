@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.webparts;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * A Writer that encodes characters to UTF-8 into its own buffer and writes the buffer to an OutputStream, e.g. the
+ * ServletOutputStream of a response. It also accepts bytes that are UTF-8 encoded already, so WebParts can write
+ * the literal chunks of their templates without encoding them again. Not thread-safe.
+ */
+public class Utf8Writer extends Writer {
+
+	/**
+	 *
+	 */
+	protected static final int BUFFER_SIZE = 8192;
+
+	/**
+	 *
+	 */
+	protected final OutputStream out;
+
+	/**
+	 *
+	 */
+	protected final byte[] buffer = new byte[BUFFER_SIZE];
+	protected int count = 0;
+
+	/**
+	 * High surrogate of a pair that was split across two writes, or 0
+	 */
+	protected char highSurrogate = 0;
+
+	/**
+	 *
+	 */
+	public Utf8Writer(OutputStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * Writes bytes that are UTF-8 encoded already
+	 *
+	 * @methodtype command
+	 */
+	public void writeBytes(byte[] bytes) throws IOException {
+		writeBytes(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void writeBytes(byte[] bytes, int off, int len) throws IOException {
+		if (len > buffer.length - count) {
+			flushBuffer();
+			if (len >= buffer.length) {
+				out.write(bytes, off, len);
+				return;
+			}
+		}
+		System.arraycopy(bytes, off, buffer, count, len);
+		count += len;
+	}
+
+	@Override
+	public void write(int c) throws IOException {
+		writeChar((char) c);
+	}
+
+	@Override
+	public void write(char[] chars, int off, int len) throws IOException {
+		for (int i = off; i < off + len; i++) {
+			writeChar(chars[i]);
+		}
+	}
+
+	@Override
+	public void write(String str, int off, int len) throws IOException {
+		for (int i = off; i < off + len; i++) {
+			writeChar(str.charAt(i));
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperties primitive
+	 */
+	protected void writeChar(char c) throws IOException {
+		if (count > buffer.length - 4) {
+			flushBuffer();
+		}
+
+		if (highSurrogate != 0) {
+			char high = highSurrogate;
+			highSurrogate = 0;
+			if (Character.isLowSurrogate(c)) {
+				int codePoint = Character.toCodePoint(high, c);
+				buffer[count++] = (byte) (0xF0 | (codePoint >> 18));
+				buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+				buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+				buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+				return;
+			}
+			buffer[count++] = '?';
+		}
+
+		if (c < 0x80) {
+			buffer[count++] = (byte) c;
+		} else if (c < 0x800) {
+			buffer[count++] = (byte) (0xC0 | (c >> 6));
+			buffer[count++] = (byte) (0x80 | (c & 0x3F));
+		} else if (Character.isHighSurrogate(c)) {
+			highSurrogate = c;
+		} else if (Character.isLowSurrogate(c)) {
+			buffer[count++] = '?';
+		} else {
+			buffer[count++] = (byte) (0xE0 | (c >> 12));
+			buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+			buffer[count++] = (byte) (0x80 | (c & 0x3F));
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void flushBuffer() throws IOException {
+		if (count > 0) {
+			out.write(buffer, 0, count);
+			count = 0;
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (highSurrogate != 0) {
+			highSurrogate = 0;
+			writeChar('?');
+		}
+		flush();
+		out.close();
+	}
+
+}
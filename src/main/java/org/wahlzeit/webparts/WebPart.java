@@ -32,6 +32,10 @@ import java.util.Map;
  * A WebPart is a Writable formatted as HTML, working off a template.
  * A WebPart has its data set from a client using key/value pairs.
  * A WebPart has a recursive structure; it may contain further WebParts.
+ *
+ * Values are kept in an array indexed by the slot indices of the compiled template. When writing on a Utf8Writer,
+ * the literal chunks of the template are written as pre-encoded bytes. Masked values are kept as MaskedValues and
+ * are only masked when written.
  */
 public class WebPart implements Writable {
 
@@ -41,19 +45,36 @@ public class WebPart implements Writable {
 	protected WebPartTemplate template = null;
 
 	/**
-	 *
+	 * Values by slot index of the template
+	 */
+	protected Object[] values;
+
+	/**
+	 * Values of keys the template has no slot for; only created if needed
 	 */
-	protected Map<String, Object> parts = new HashMap<String, Object>();
+	protected Map<String, Object> otherParts = null;
 
 	/**
 	 *
 	 */
 	public WebPart(WebPartTemplate myTemplate) {
 		template = myTemplate;
+		values = new Object[myTemplate.getNoSlotIndices()];
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public WebPartTemplate getTemplate() {
+		return template;
 	}
 
 	public Object getValue(String key) {
-		return parts.get(key);
+		int slotIndex = template.getSlotIndex(key);
+		if (slotIndex >= 0) {
+			return values[slotIndex];
+		}
+		return (otherParts == null) ? null : otherParts.get(key);
 	}
 
 	/**
@@ -70,7 +91,7 @@ public class WebPart implements Writable {
 	 */
 	public void maskAndAddString(String key, String value) {
 		if (value != null) {
-			putValue(key, HtmlUtil.maskForWeb(value));
+			putValue(key, new MaskedValue(value));
 		}
 	}
 
@@ -90,7 +111,7 @@ public class WebPart implements Writable {
 	public void maskAndAddStringFromArgs(Map args, String key) {
 		Object value = args.get(key);
 		if (value != null) {
-			addString(key, HtmlUtil.maskForWeb(value.toString()));
+			putValue(key, new MaskedValue(value.toString()));
 		}
 	}
 
@@ -112,9 +133,9 @@ public class WebPart implements Writable {
 	public void maskAndAddStringFromArgsWithDefault(Map args, String key, String defval) {
 		Object value = args.get(key);
 		if (value != null) {
-			addString(key, HtmlUtil.maskForWeb(value.toString()));
+			putValue(key, new MaskedValue(value.toString()));
 		} else {
-			addString(key, HtmlUtil.maskForWeb(defval));
+			maskAndAddString(key, defval);
 		}
 	}
 
@@ -170,7 +191,15 @@ public class WebPart implements Writable {
 	 */
 	protected void putValue(String key, Object value) {
 		if (value != null) {
-			parts.put(key, value);
+			int slotIndex = template.getSlotIndex(key);
+			if (slotIndex >= 0) {
+				values[slotIndex] = value;
+			} else {
+				if (otherParts == null) {
+					otherParts = new HashMap<String, Object>();
+				}
+				otherParts.put(key, value);
+			}
 		}
 	}
 
@@ -178,33 +207,50 @@ public class WebPart implements Writable {
 	 *
 	 */
 	public void writeOn(Writer out) throws IOException {
+		if (out instanceof Utf8Writer) {
+			writeOn((Utf8Writer) out);
+			return;
+		}
+
 		String tmpl = template.asString();
-		String[] keys = template.getKeys();
 		int[] slots = template.getSlots();
+		int[] slotIndices = template.getSlotIndices();
 
 		int start = 0;
-		for (int i = 0; i < keys.length; i++) {
+		for (int i = 0; i < slots.length; i++) {
 			int index = slots[i];
 			out.write(tmpl, start, index - start);
-
-			String key = keys[i];
-			if (key != null) {
-				Object object = parts.get(key);
-				if (object != null) {
-					if (object instanceof Writable) {
-						Writable part = (Writable) object;
-						part.writeOn(out);
-					} else {
-						String value = object.toString();
-						out.write(value);
-					}
-				}
-			}
-
+			writeValueOn(values[slotIndices[i]], out);
 			start = index;
 		}
 
 		out.write(tmpl, start, tmpl.length() - start);
 	}
 
+	/**
+	 * Writes the pre-encoded chunks of the template as bytes and only encodes the values
+	 */
+	public void writeOn(Utf8Writer out) throws IOException {
+		byte[][] chunks = template.getChunks();
+		int[] slotIndices = template.getSlotIndices();
+
+		for (int i = 0; i < slotIndices.length; i++) {
+			out.writeBytes(chunks[i]);
+			writeValueOn(values[slotIndices[i]], out);
+		}
+
+		out.writeBytes(chunks[slotIndices.length]);
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected void writeValueOn(Object value, Writer out) throws IOException {
+		if (value instanceof Writable) {
+			((Writable) value).writeOn(out);
+		} else if (value != null) {
+			out.write(value.toString());
+		}
+	}
+
 }
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.webparts;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The WebPartCache keeps rendered parts of pages that depend only on a few dimensions, e.g. the language, the access
+ * rights and the photo size of the client, so they are rendered and encoded once rather than on every request.
+ * Whole pages are cached as templates, with slots left open for the values that change per request. The cache is
+ * cleared when templates are reloaded, and when it grows beyond MAX_ENTRIES.
+ */
+public class WebPartCache {
+
+	/**
+	 *
+	 */
+	protected static final WebPartCache instance = new WebPartCache();
+
+	/**
+	 * Bounds the cache in case a dimension has more values than expected, e.g. site URLs
+	 */
+	public static final int MAX_ENTRIES = 4096;
+
+	/**
+	 *
+	 */
+	protected final Map<FragmentKey, Fragment> fragments = new ConcurrentHashMap<FragmentKey, Fragment>();
+	protected final Map<FragmentKey, WebPartTemplate> templates = new ConcurrentHashMap<FragmentKey, WebPartTemplate>();
+
+	/**
+	 *
+	 */
+	protected WebPartCache() {
+		// do nothing
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public static WebPartCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Returns the cached fragment, or null
+	 *
+	 * @methodtype get
+	 */
+	public Fragment getFragment(FragmentKey key) {
+		return fragments.get(key);
+	}
+
+	/**
+	 * Returns the cached fragment, caching the given value first if needed
+	 *
+	 * @methodtype get
+	 */
+	public Fragment getFragment(FragmentKey key, String value) {
+		Fragment result = fragments.get(key);
+		if (result == null) {
+			ensureCapacity();
+			result = new Fragment(value);
+			fragments.put(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the cached template of a rendered page, or null
+	 *
+	 * @methodtype get
+	 */
+	public WebPartTemplate getTemplate(FragmentKey key) {
+		return templates.get(key);
+	}
+
+	/**
+	 * Renders the part into a template that keeps the given keys as open slots, caches and returns it
+	 *
+	 * @methodtype command
+	 */
+	public WebPartTemplate putTemplate(FragmentKey key, WebPart part, String... openKeys) throws IOException {
+		for (String openKey : openKeys) {
+			part.putValue(openKey, asSlot(openKey));
+		}
+
+		StringWriter source = new StringWriter();
+		part.writeOn(source);
+		WebPartTemplate result = new WebPartTemplate(part.getTemplate().getName());
+		result.initialize(source.toString());
+
+		ensureCapacity();
+		templates.put(key, result);
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		fragments.clear();
+		templates.clear();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int size() {
+		return fragments.size() + templates.size();
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected void ensureCapacity() {
+		if (size() >= MAX_ENTRIES) {
+			clear();
+		}
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public static String asSlot(String key) {
+		return "{$" + key + "}";
+	}
+
+	/**
+	 * Identifies a cached part by name and the values it depends on
+	 */
+	public static class FragmentKey {
+
+		/**
+		 *
+		 */
+		protected final String name;
+		protected final Object[] dimensions;
+		protected final int hashCode;
+
+		/**
+		 *
+		 */
+		public FragmentKey(String name, Object... dimensions) {
+			this.name = name;
+			this.dimensions = dimensions;
+			this.hashCode = 31 * name.hashCode() + Arrays.hashCode(dimensions);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof FragmentKey)) {
+				return false;
+			}
+			FragmentKey other = (FragmentKey) o;
+			return hashCode == other.hashCode && name.equals(other.name) && Arrays.equals(dimensions, other.dimensions);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public String toString() {
+			return name + Arrays.toString(dimensions);
+		}
+	}
+
+}
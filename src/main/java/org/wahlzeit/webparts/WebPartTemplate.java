@@ -20,12 +20,19 @@
 
 package org.wahlzeit.webparts;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A WebPartTmpl is a template for a WebPart.
  * It gets initialized once and is read-only after that.
+ *
+ * Initializing compiles the template: the literal text between slots is encoded to UTF-8 once, and every distinct
+ * key gets a slot index, so WebParts can keep their values in an array and write the chunks as bytes.
  */
 public class WebPartTemplate {
 
@@ -45,6 +52,21 @@ public class WebPartTemplate {
 	protected String[] keys = null;
 	protected int[] slots = null;
 
+	/**
+	 * UTF-8 encoded literal text before each slot, and after the last one
+	 */
+	protected byte[][] chunks = null;
+
+	/**
+	 * Slot index of the key at each slot; keys occurring several times share their index
+	 */
+	protected int[] slotIndices = null;
+
+	/**
+	 * key -> slot index
+	 */
+	protected Map<String, Integer> slotIndexByKey = Collections.emptyMap();
+
 	/**
 	 *
 	 */
@@ -72,9 +94,9 @@ public class WebPartTemplate {
 					slotList.add(nextSlot);
 
 					buffer.replace(nextSlot, endSlot + 1, "");
-					index = nextSlot;
 				}
-				index = endSlot;
+				// continue where the removed slot was; endSlot is past it and may skip a following slot
+				index = (endSlot != -1) ? nextSlot : -1;
 			} else {
 				index = -1;
 			}
@@ -89,6 +111,31 @@ public class WebPartTemplate {
 		}
 
 		template = buffer.toString();
+		compile();
+	}
+
+	/**
+	 * @methodtype initialization
+	 */
+	protected void compile() {
+		Map<String, Integer> newSlotIndexByKey = new HashMap<String, Integer>();
+		slotIndices = new int[keys.length];
+		chunks = new byte[keys.length + 1][];
+
+		int start = 0;
+		for (int i = 0; i < keys.length; i++) {
+			chunks[i] = template.substring(start, slots[i]).getBytes(StandardCharsets.UTF_8);
+			Integer slotIndex = newSlotIndexByKey.get(keys[i]);
+			if (slotIndex == null) {
+				slotIndex = newSlotIndexByKey.size();
+				newSlotIndexByKey.put(keys[i], slotIndex);
+			}
+			slotIndices[i] = slotIndex;
+			start = slots[i];
+		}
+		chunks[keys.length] = template.substring(start).getBytes(StandardCharsets.UTF_8);
+
+		slotIndexByKey = newSlotIndexByKey;
 	}
 
 	/**
@@ -119,4 +166,35 @@ public class WebPartTemplate {
 		return slots; // @FIXME needs cloning?
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	public byte[][] getChunks() {
+		return chunks;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int[] getSlotIndices() {
+		return slotIndices;
+	}
+
+	/**
+	 * Returns the slot index of the key, or -1 if the template has no slot for it
+	 *
+	 * @methodtype get
+	 */
+	public int getSlotIndex(String key) {
+		Integer result = slotIndexByKey.get(key);
+		return (result == null) ? -1 : result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoSlotIndices() {
+		return slotIndexByKey.size();
+	}
+
 }
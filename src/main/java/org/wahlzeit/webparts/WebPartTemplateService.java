@@ -27,13 +27,26 @@ import org.wahlzeit.services.LogBuilder;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * The WebPartTemplateService creates WebPartTemplates upon request by reading them from disk.
+ * The WebPartTemplateService provides the WebPartTemplates read from disk.
  * It requires configuration with a template directory and uses the following naming convention: tmplDir/language/part-type/part-name.html
+ *
+ * All templates of all languages are read and compiled when the template directory is set, into an immutable
+ * snapshot that getTemplate() reads without locking or touching the file system. As with ConfigDir, a default
+ * template takes precedence over a custom one of the same name. Optionally, the template directory is watched and a
+ * new snapshot is swapped in when files change.
  */
 public class WebPartTemplateService {
 
@@ -42,15 +55,27 @@ public class WebPartTemplateService {
 	 */
 	protected static final WebPartTemplateService instance = new WebPartTemplateService();
 	private static final Logger log = Logger.getLogger(WebPartTemplateService.class.getName());
+
 	/**
-	 *
+	 * Milliseconds without further changes before templates are reloaded, so a burst of changes reloads once
 	 */
-	protected Map<String, WebPartTemplate> templates = new HashMap<String, WebPartTemplate>();
+	protected static final long RELOAD_DELAY = 200;
+
+	/**
+	 * Immutable snapshot, short name -> template
+	 */
+	protected volatile Map<String, WebPartTemplate> templates = Collections.emptyMap();
 	/**
 	 *
 	 */
 	protected ConfigDir templatesDir = null;
 
+	/**
+	 *
+	 */
+	protected WatchService watchService = null;
+	protected Thread watchThread = null;
+
 	/**
 	 *
 	 */
@@ -73,43 +98,170 @@ public class WebPartTemplateService {
 		WebPartTemplate result = templates.get(shortName);
 
 		if (result == null) {
-			try {
-				loadTemplate(shortName);
-				result = templates.get(shortName);
-			} catch (IOException ioex) {
-				log.warning(LogBuilder.createSystemMessage().
-						addParameter("template name", shortName).
-						addException("Problem loading template", ioex).toString());
-			}
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addParameter("unknown template name", shortName).log();
 		}
 
 		return result;
 	}
 
 	/**
+	 * Reads and compiles all templates and replaces the current snapshot with them
 	 *
+	 * @methodtype command
 	 */
-	protected void loadTemplate(String shortName) throws IOException {
-		WebPartTemplate template = new WebPartTemplate(shortName);
-		String fileName = getTemplatesDir().getAbsoluteConfigFileName(shortName + ".html");
-		log.config(LogBuilder.createSystemMessage().
-				addAction("open html template file").
-				addParameter("file name", fileName).toString());
-		File file = new File(fileName);
+	public synchronized void loadTemplates() {
+		templatesDir.refreshManifest();
+		Map<String, File> files = new HashMap<String, File>();
+		collectTemplateFiles(new File(templatesDir.getCustomDirName()), "", files);
+		collectTemplateFiles(new File(templatesDir.getDefaultDirName()), "", files);
+
+		Map<String, WebPartTemplate> newTemplates = new HashMap<String, WebPartTemplate>();
+		for (Map.Entry<String, File> entry : files.entrySet()) {
+			WebPartTemplate template = loadTemplate(entry.getKey(), entry.getValue());
+			if (template != null) {
+				newTemplates.put(entry.getKey(), template);
+			}
+		}
+
+		templates = Collections.unmodifiableMap(newTemplates);
+		WebPartCache.getInstance().clear();
+		LogBuilder.createSystemMessage(log, Level.CONFIG).
+				addAction("load templates").
+				addParameter("number of templates", templates.size()).log();
+	}
 
+	/**
+	 * Adds the .html files in the directory and its subdirectories, by short name
+	 *
+	 * @methodtype helper
+	 */
+	protected void collectTemplateFiles(File dir, String prefix, Map<String, File> result) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+
+		for (File file : files) {
+			String fileName = file.getName();
+			if (file.isDirectory()) {
+				collectTemplateFiles(file, prefix + fileName + File.separator, result);
+			} else if (fileName.endsWith(".html")) {
+				result.put(prefix + fileName.substring(0, fileName.length() - ".html".length()), file);
+			}
+		}
+	}
+
+	/**
+	 * Returns the compiled template, or null if the file can not be read
+	 */
+	protected WebPartTemplate loadTemplate(String shortName, File file) {
+		WebPartTemplate template = new WebPartTemplate(shortName);
 		try {
 			String source = Files.toString(file, Charsets.UTF_8);
-			//String source = Resources.toString(Resources.getResource(fileName), Charsets.UTF_8);
+			template.initialize(source);
+			return template;
+		} catch (IOException e) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addParameter("file name", file.getPath()).
+					addException("I/O Error while reading Template file", e).log();
+			return null;
+		}
+	}
+
+	/**
+	 * Watches the template directories on a background thread and reloads all templates when files change
+	 *
+	 * @methodtype command
+	 */
+	public synchronized void startWatching() throws IOException {
+		if (watchService != null) {
+			return;
+		}
 
-			if (source != null) {
-				template.initialize(source);
-				log.config(LogBuilder.createSystemMessage().addAction("Initialize template").toString());
+		watchService = FileSystems.getDefault().newWatchService();
+		registerDirectories();
+
+		watchThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				watchTemplates();
 			}
+		}, "WebPartTemplateWatcher");
+		watchThread.setDaemon(true);
+		watchThread.start();
+	}
 
-			templates.put(shortName, template);
-		} catch (IOException e) {
-			log.warning(LogBuilder.createSystemMessage().
-					addException("I/O Error while reading Template file", e).toString());
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void stopWatching() throws IOException {
+		if (watchService != null) {
+			watchThread.interrupt();
+			watchService.close();
+			watchService = null;
+			watchThread = null;
+		}
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public synchronized boolean isWatching() {
+		return watchService != null;
+	}
+
+	/**
+	 * Loop of the watch thread
+	 */
+	protected void watchTemplates() {
+		WatchService service = watchService;
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				WatchKey key = service.take();
+				while (key != null) {
+					key.pollEvents();
+					key.reset();
+					key = service.poll(RELOAD_DELAY, TimeUnit.MILLISECONDS);
+				}
+
+				LogBuilder.createSystemMessage(log, Level.INFO).addAction("reload changed templates").log();
+				loadTemplates();
+				registerDirectories();
+			}
+		} catch (InterruptedException | ClosedWatchServiceException ex) {
+			// stopWatching() has been called
+		} catch (IOException ioex) {
+			LogBuilder.createSystemMessage(log, Level.WARNING).
+					addException("Stopped watching templates", ioex).log();
+		}
+	}
+
+	/**
+	 * Registers all template directories with the watch service, also new ones
+	 *
+	 * @methodtype command
+	 */
+	protected synchronized void registerDirectories() throws IOException {
+		if (watchService != null) {
+			registerDirectory(new File(templatesDir.getDefaultDirName()));
+			registerDirectory(new File(templatesDir.getCustomDirName()));
+		}
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected void registerDirectory(File dir) throws IOException {
+		if (!dir.isDirectory()) {
+			return;
+		}
+
+		dir.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+		File[] subDirs = dir.listFiles();
+		for (File subDir : subDirs == null ? new File[0] : subDirs) {
+			registerDirectory(subDir);
 		}
 	}
 
@@ -121,10 +273,11 @@ public class WebPartTemplateService {
 	}
 
 	/**
-	 *
+	 * Sets the template directory and loads all templates from it
 	 */
 	public void setTemplatesDir(ConfigDir newTemplatesDir) {
 		templatesDir = newTemplatesDir;
+		loadTemplates();
 	}
 
 }
@@ -2,16 +2,19 @@
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
+import org.wahlzeit.agents.*;
 import org.wahlzeit.handlers.*;
 import org.wahlzeit.model.*;
 import org.wahlzeit.model.persistence.*;
 import org.wahlzeit.services.*;
 import org.wahlzeit.services.mailing.*;
+import org.wahlzeit.servlets.*;
 import org.wahlzeit.utils.*;
+import org.wahlzeit.webparts.*;
 
 @RunWith(Suite.class)
-@SuiteClasses({ handlersSuite.class, modelSuite.class, modelPersistenceSuite.class, servicesSuite.class,
-		EmailServicesTestSuite.class, utilsSuite.class })
+@SuiteClasses({ agentsSuite.class, handlersSuite.class, modelSuite.class, modelPersistenceSuite.class, servicesSuite.class,
+		EmailServicesTestSuite.class, servletsSuite.class, utilsSuite.class, webpartsSuite.class })
 		
 public class AllTests {
 
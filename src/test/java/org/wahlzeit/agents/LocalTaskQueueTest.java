@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.agents;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the LocalTaskQueue class.
+ */
+public class LocalTaskQueueTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTasksAreHandled() throws InterruptedException {
+		LocalTaskQueue taskQueue = new LocalTaskQueue(2, 10);
+		final Set<String> handled = Collections.synchronizedSet(new HashSet<String>());
+		taskQueue.setHandler("/task", new TaskHandler() {
+			@Override
+			public void handleTask(String paramValue) {
+				handled.add(paramValue);
+			}
+		});
+
+		for (int i = 0; i < 20; i++) {
+			taskQueue.addTask("/task", "id", "x" + i, 0);
+		}
+
+		assertTrue(taskQueue.shutDown(5000));
+		assertEquals(20, handled.size());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFailedTasksAreRetried() throws InterruptedException {
+		LocalTaskQueue taskQueue = new LocalTaskQueue(1, 10);
+		final AtomicInteger noAttempts = new AtomicInteger();
+		taskQueue.setHandler("/failing", new TaskHandler() {
+			@Override
+			public void handleTask(String paramValue) throws Exception {
+				if (noAttempts.incrementAndGet() < 3) {
+					throw new Exception("try again");
+				}
+			}
+		});
+
+		taskQueue.addTask("/failing", "id", "x1", 5);
+		assertTrue(taskQueue.shutDown(5000));
+		assertEquals(3, noAttempts.get());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRetryDelayGrows() throws InterruptedException {
+		LocalTaskQueue taskQueue = new LocalTaskQueue(1, 10, 50);
+		assertEquals(50, taskQueue.getRetryDelay(0));
+		assertEquals(100, taskQueue.getRetryDelay(1));
+		assertEquals(200, taskQueue.getRetryDelay(2));
+		assertEquals(LocalTaskQueue.MAX_RETRY_DELAY, taskQueue.getRetryDelay(100));
+
+		final List<Long> attemptTimes = Collections.synchronizedList(new ArrayList<Long>());
+		taskQueue.setHandler("/failing", new TaskHandler() {
+			@Override
+			public void handleTask(String paramValue) throws Exception {
+				attemptTimes.add(System.nanoTime());
+				throw new Exception("try again");
+			}
+		});
+
+		taskQueue.addTask("/failing", "id", "x1", 2);
+		assertTrue(taskQueue.shutDown(5000));
+		assertEquals(3, attemptTimes.size());
+		long firstDelay = TimeUnit.NANOSECONDS.toMillis(attemptTimes.get(1) - attemptTimes.get(0));
+		long secondDelay = TimeUnit.NANOSECONDS.toMillis(attemptTimes.get(2) - attemptTimes.get(1));
+		assertTrue(firstDelay >= 50);
+		assertTrue(secondDelay >= 100);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCallerRunsWhenQueueIsFull() throws InterruptedException {
+		LocalTaskQueue taskQueue = new LocalTaskQueue(1, 1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+		taskQueue.setHandler("/blocking", new TaskHandler() {
+			@Override
+			public void handleTask(String paramValue) throws Exception {
+				threads.add(Thread.currentThread());
+				if ("block".equals(paramValue)) {
+					release.await(5, TimeUnit.SECONDS);
+				}
+			}
+		});
+
+		taskQueue.addTask("/blocking", "id", "block", 0); // occupies the worker
+		taskQueue.addTask("/blocking", "id", "queued", 0); // fills the queue
+		taskQueue.addTask("/blocking", "id", "overflow", 0); // runs in this thread
+		assertTrue(threads.contains(Thread.currentThread()));
+
+		release.countDown();
+		assertTrue(taskQueue.shutDown(5000));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAgentsAreHandledAsTasks() throws InterruptedException {
+		LocalTaskQueue taskQueue = new LocalTaskQueue(1, 10);
+		final AtomicInteger noRuns = new AtomicInteger();
+		Agent agent = new Agent() {
+			@Override
+			protected void doRun() {
+				noRuns.incrementAndGet();
+			}
+		};
+		agent.initialize("testAgent");
+		taskQueue.setHandler(AgentManager.getUrl(agent.getName()), agent);
+
+		taskQueue.addTask("/agents/testAgent", "agent", agent.getName(), 0);
+		assertTrue(taskQueue.shutDown(5000));
+		assertEquals(1, noRuns.get());
+	}
+
+	/**
+	 *
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownUrl() {
+		new LocalTaskQueue(1, 1).addTask("/unknown", "id", "x1", 0);
+	}
+
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.agents;
+
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Work;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+import org.wahlzeit.model.JdkImageProcessor;
+import org.wahlzeit.model.ImageProcessor;
+import org.wahlzeit.model.Photo;
+import org.wahlzeit.model.PhotoManager;
+import org.wahlzeit.model.PhotoSize;
+import org.wahlzeit.model.User;
+import org.wahlzeit.model.persistence.DatastoreAdapter;
+import org.wahlzeit.model.persistence.ImageStorage;
+import org.wahlzeit.services.ObjectManager;
+import org.wahlzeit.services.OfyService;
+import org.wahlzeit.services.SpooledUpload;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the PersistPhotoAgent and the ProcessPhotoAgent through a LocalTaskQueue, i.e. on its worker threads.
+ */
+public class PhotoAgentsTest {
+
+	@ClassRule
+	public static TestRule chain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	/**
+	 *
+	 */
+	protected LocalTaskQueue taskQueue;
+
+	/**
+	 *
+	 */
+	@Before
+	public void setUp() {
+		ImageStorage.setInstance(new DatastoreAdapter());
+		ImageProcessor.setInstance(new JdkImageProcessor(2));
+		taskQueue = new LocalTaskQueue(1, 10);
+		taskQueue.setHandler(PersistPhotoAgent.URL, new PersistPhotoAgent());
+		taskQueue.setHandler(ProcessPhotoAgent.URL, new ProcessPhotoAgent());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPendingPhotoIsProcessedAndSaved() throws Exception {
+		final Photo photo = createPendingPhoto("agentsProcess");
+		assertFalse(photo.isVisible());
+
+		taskQueue.addTask(ProcessPhotoAgent.URL, Photo.ID, photo.getId().asString(), 0);
+		assertTrue(taskQueue.shutDown(10000));
+
+		assertTrue(photo.isVisible());
+		assertNotNull(readPhoto(photo));
+		assertTrue(doesImageExist(photo, PhotoSize.THUMB));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPhotoIsPersisted() throws Exception {
+		final Photo photo = createPendingPhoto("agentsPersist");
+
+		taskQueue.addTask(PersistPhotoAgent.URL, Photo.ID, photo.getId().asString(), 0);
+		assertTrue(taskQueue.shutDown(10000));
+
+		assertNotNull(readPhoto(photo));
+	}
+
+	/**
+	 * Creates a pending photo from a small JPEG, owned by a new user
+	 */
+	protected Photo createPendingPhoto(final String userId) throws Exception {
+		BufferedImage image = new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, "jpg", out);
+		final SpooledUpload upload = new SpooledUpload(out.toByteArray());
+
+		return ObjectifyService.run(new Work<Photo>() {
+			@Override
+			public Photo run() {
+				try {
+					Photo result = PhotoManager.getInstance().createPendingPhoto("test.jpg", upload);
+					User user = new User(userId, userId, userId + "@example.com");
+					user.addPhoto(result);
+					return result;
+				} catch (Exception ex) {
+					throw new IllegalStateException(ex);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns the saved entity of the photo, or null
+	 */
+	protected Photo readPhoto(final Photo photo) {
+		return ObjectifyService.run(new Work<Photo>() {
+			@Override
+			public Photo run() {
+				Iterable<Photo> photos = OfyService.ofy().load().type(Photo.class).ancestor(ObjectManager.applicationRootKey);
+				for (Photo saved : photos) {
+					if (saved.getId().equals(photo.getId())) {
+						return saved;
+					}
+				}
+				return null;
+			}
+		});
+	}
+
+	/**
+	 *
+	 */
+	protected boolean doesImageExist(final Photo photo, final PhotoSize photoSize) {
+		return ObjectifyService.run(new Work<Boolean>() {
+			@Override
+			public Boolean run() {
+				return ImageStorage.getInstance().doesImageExist(photo.getId().asString(), photoSize.asInt());
+			}
+		});
+	}
+
+}
@@ -0,0 +1,11 @@
+package org.wahlzeit.agents;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.Suite.SuiteClasses;
+
+@RunWith(Suite.class)
+@SuiteClasses({ LocalTaskQueueTest.class, PhotoAgentsTest.class })
+public class agentsSuite {
+
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Work;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.wahlzeit.services.ObjectManager;
+import org.wahlzeit.services.OfyService;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the ClientHistory and ClientHistoryManager classes.
+ */
+public class ClientHistoryTest {
+
+	@ClassRule
+	public static RuleChain ruleChain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPraiseRemovesSkip() {
+		ClientHistory history = new ClientHistory("client");
+		PhotoId photoId = PhotoId.getNextId();
+		history.addSkippedPhotoId(photoId);
+		assertTrue(history.hasSkippedPhotoId(photoId));
+		assertTrue(history.isDirty());
+
+		history.resetWriteCount();
+		history.addPraisedPhotoId(photoId);
+		assertTrue(history.hasPraisedPhotoId(photoId));
+		assertFalse(history.hasSkippedPhotoId(photoId));
+		assertTrue(history.isDirty());
+
+		history.resetWriteCount();
+		history.addPraisedPhotoId(photoId);
+		assertFalse(history.isDirty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSaveAndLoadOnDemand() {
+		final PhotoId praisedPhotoId = PhotoId.getNextId();
+		final PhotoId skippedPhotoId = PhotoId.getNextId();
+		final ClientHistoryManager manager = new ClientHistoryManager();
+		final ClientHistory history = ObjectifyService.run(new Work<ClientHistory>() {
+			@Override
+			public ClientHistory run() {
+				ClientHistory result = manager.getClientHistory("saved");
+				result.addPraisedPhotoId(praisedPhotoId);
+				result.addSkippedPhotoId(skippedPhotoId);
+				manager.saveClientHistories();
+				return result;
+			}
+		});
+		assertFalse(history.isDirty());
+		assertSame(history, manager.getClientHistory("saved"));
+
+		final ClientHistoryManager otherManager = new ClientHistoryManager();
+		assertFalse(otherManager.hasLoadedClientHistory("saved"));
+		ClientHistory loaded = ObjectifyService.run(new Work<ClientHistory>() {
+			@Override
+			public ClientHistory run() {
+				return otherManager.getClientHistory("saved");
+			}
+		});
+		assertNotSame(history, loaded);
+		assertEquals(history.getPraisedPhotoIds(), loaded.getPraisedPhotoIds());
+		assertEquals(history.getSkippedPhotoIds(), loaded.getSkippedPhotoIds());
+		assertTrue(loaded.hasPraisedPhotoId(praisedPhotoId));
+		assertTrue(otherManager.hasLoadedClientHistory("saved"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLegacyHistorySurvivesSaveWithoutMigration() throws Exception {
+		final PhotoId praisedPhotoId = PhotoId.getNextId();
+		final PhotoId skippedPhotoId = PhotoId.getNextId();
+		final com.googlecode.objectify.Key<Client> key = com.googlecode.objectify.Key.create(
+				KeyFactory.createKey(ObjectManager.applicationRootKey, "Client", "legacyClient"));
+		ObjectifyService.run(new Work<Void>() {
+			@Override
+			public Void run() {
+				User user = new User("legacyClient", "legacyClient", "legacy@example.com");
+				user.setRecentPraisedPhotoIds(Arrays.asList(praisedPhotoId, skippedPhotoId));
+				OfyService.ofy().save().entity(user).now();
+				return null;
+			}
+		});
+
+		// rewrite the entity in the format used before histories were stored separately
+		DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+		Entity entity = datastore.get(key.getRaw());
+		List<?> photoIds = (List<?>) entity.getProperty("recentPraisedPhotoIds");
+		entity.setProperty("praisedPhotoIds", new ArrayList<Object>(photoIds.subList(0, 1)));
+		entity.setProperty("skippedPhotoIds", new ArrayList<Object>(photoIds.subList(1, 2)));
+		entity.removeProperty("recentPraisedPhotoIds");
+		datastore.put(entity);
+
+		Client loaded = loadClient(key);
+		assertEquals(Arrays.asList(praisedPhotoId), loaded.getRecentPraisedPhotoIds());
+		assertTrue(loaded.hasLegacyHistory());
+		saveClient(loaded);
+
+		final Client reloaded = loadClient(key);
+		assertTrue(reloaded.hasLegacyHistory());
+		ObjectifyService.run(new Work<Void>() {
+			@Override
+			public Void run() {
+				assertTrue(reloaded.hasPraisedPhotoId(praisedPhotoId));
+				assertTrue(reloaded.getSkippedPhotoIds().contains(skippedPhotoId));
+				return null;
+			}
+		});
+
+		reloaded.clearLegacyHistory(); // merged, but the history has not been saved yet
+		assertTrue(reloaded.hasLegacyHistory());
+		reloaded.getHistory().resetWriteCount();
+		reloaded.resetWriteCount();
+		reloaded.clearLegacyHistory();
+		assertFalse(reloaded.hasLegacyHistory());
+		assertTrue(reloaded.isDirty());
+		saveClient(reloaded);
+		assertFalse(datastore.get(key.getRaw()).hasProperty("praisedPhotoIds"));
+	}
+
+	/**
+	 *
+	 */
+	protected Client loadClient(final com.googlecode.objectify.Key<Client> key) {
+		return ObjectifyService.run(new Work<Client>() {
+			@Override
+			public Client run() {
+				return OfyService.ofy().load().key(key).now();
+			}
+		});
+	}
+
+	/**
+	 *
+	 */
+	protected void saveClient(final Client client) {
+		ObjectifyService.run(new Work<Void>() {
+			@Override
+			public Void run() {
+				OfyService.ofy().save().entity(client).now();
+				return null;
+			}
+		});
+	}
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Iterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the PhotoCache class.
+ */
+public class PhotoCacheTest {
+
+	private PhotoCache photoCache;
+
+	@Before
+	public void initPhotoCache() {
+		photoCache = new PhotoCache(4);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPutAndGet() {
+		Photo photo = new Photo(new PhotoId(2));
+		photoCache.put(photo);
+
+		assertSame(photo, photoCache.get(2));
+		assertSame(photo, photoCache.get(new PhotoId(2)));
+		assertTrue(photoCache.contains(2));
+		assertFalse(photoCache.contains(3));
+		assertNull(photoCache.get(-1));
+		assertNull(photoCache.get(1000));
+		assertEquals(1, photoCache.size());
+
+		photoCache.put(photo);
+		assertEquals(1, photoCache.size());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testGrow() {
+		Photo small = new Photo(new PhotoId(1));
+		Photo large = new Photo(new PhotoId(500));
+		photoCache.put(small);
+		photoCache.put(large);
+
+		assertSame(small, photoCache.get(1));
+		assertSame(large, photoCache.get(500));
+		assertEquals(2, photoCache.size());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testIterateAndRemove() {
+		photoCache.put(new Photo(new PhotoId(9)));
+		photoCache.put(new Photo(new PhotoId(3)));
+		photoCache.put(new Photo(new PhotoId(6)));
+		photoCache.remove(6);
+
+		Iterator<Photo> i = photoCache.iterator();
+		assertEquals(3, i.next().getId().asInt());
+		assertEquals(9, i.next().getId().asInt());
+		assertFalse(i.hasNext());
+		assertEquals(2, photoCache.values().size());
+	}
+
+}
@@ -22,8 +22,15 @@ package org.wahlzeit.model;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class PhotoFilterTest {
@@ -84,4 +91,105 @@ public class PhotoFilterTest {
 		assertTrue(photoFilter.processedPhotoIds.isEmpty());
 	}
 
+	/**
+	 *
+	 */
+	@Test
+	public void testRandomPhotoIdIsUniformAndSkipsProcessedPhotos() {
+		final PhotoCache photoCache = new PhotoCache(4);
+		for (int id = 1; id <= 200; id++) {
+			photoCache.put(new Photo(new PhotoId(id)));
+		}
+		photoFilter = new PhotoFilter() {
+			@Override
+			protected PhotoCache getPhotoCache() {
+				return photoCache;
+			}
+		};
+		for (int id = 1; id <= 196; id++) {
+			photoFilter.processedPhotoIds.add(id);
+		}
+
+		int[] counts = new int[201];
+		for (int i = 0; i < 4000; i++) {
+			counts[photoFilter.getRandomPhotoId().asInt()]++;
+		}
+		for (int id = 197; id <= 200; id++) {
+			assertTrue(counts[id] > 800 && counts[id] < 1200);
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRandomPhotoIdFallsBackToSkippedPhotos() {
+		final PhotoCache photoCache = new PhotoCache(4);
+		for (int id = 1; id <= 3; id++) {
+			photoCache.put(new Photo(new PhotoId(id)));
+		}
+		photoFilter = new PhotoFilter() {
+			@Override
+			protected PhotoCache getPhotoCache() {
+				return photoCache;
+			}
+		};
+		photoFilter.processedPhotoIds.add(1);
+		photoFilter.processedPhotoIds.add(2);
+		photoFilter.skippedPhotoIds.add(3);
+
+		assertEquals(3, photoFilter.getRandomPhotoId().asInt());
+
+		photoFilter.processedPhotoIds.add(3);
+		assertSame(PhotoId.NULL_ID, photoFilter.getRandomPhotoId());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testDirtyOnlyAfterChanges() {
+		photoFilter.setUserName("");
+		photoFilter.setTags(Tags.EMPTY_TAGS);
+		assertFalse(photoFilter.isDirty());
+
+		PhotoId photoId = new PhotoId(7);
+		assertTrue(photoFilter.addSkippedPhotoId(photoId));
+		assertTrue(photoFilter.isDirty());
+
+		photoFilter.resetDirty();
+		assertFalse(photoFilter.addSkippedPhotoId(photoId));
+		assertFalse(photoFilter.isDirty());
+
+		photoFilter.setTags(new Tags("flower"));
+		assertTrue(photoFilter.isDirty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSerializationKeepsCriteriaAndHistory() throws Exception {
+		photoFilter.setUserName("alice");
+		photoFilter.setTags(new Tags("flower, tree"));
+		photoFilter.processedPhotoIds.add(3);
+		photoFilter.processedPhotoIds.add(4711);
+		photoFilter.addSkippedPhotoId(new PhotoId(12));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(photoFilter);
+		out.close();
+		assertTrue(bytes.size() < 200);
+
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		PhotoFilter copy = (PhotoFilter) in.readObject();
+		assertEquals("alice", copy.getUserName());
+		assertEquals(new Tags("flower, tree"), copy.getTags());
+		assertEquals(photoFilter.processedPhotoIds, copy.processedPhotoIds);
+		assertEquals(photoFilter.skippedPhotoIds, copy.skippedPhotoIds);
+		assertEquals(0, copy.getDisplayablePhotoIds().size());
+		assertFalse(copy.isDirty());
+	}
+
 }
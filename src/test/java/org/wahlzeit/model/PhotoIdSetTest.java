@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Iterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the PhotoIdSet class.
+ */
+public class PhotoIdSetTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAddContainsRemove() {
+		PhotoIdSet set = new PhotoIdSet();
+		assertTrue(set.add(3));
+		assertTrue(set.add(new PhotoId(130)));
+		assertFalse(set.add(3));
+
+		assertEquals(2, set.size());
+		assertTrue(set.contains(3));
+		assertTrue(set.contains(new PhotoId(130)));
+		assertFalse(set.contains(4));
+		assertFalse(set.contains(100000));
+		assertEquals(1L << 3, set.getWord(0));
+		assertEquals(0, set.getWord(1));
+
+		assertTrue(set.remove(new PhotoId(3)));
+		assertFalse(set.remove(3));
+		assertEquals(1, set.size());
+
+		set.clear();
+		assertTrue(set.isEmpty());
+		assertFalse(set.contains(130));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testNextId() {
+		PhotoIdSet set = new PhotoIdSet();
+		set.add(1);
+		set.add(63);
+		set.add(64);
+		set.add(500);
+
+		assertEquals(1, set.nextId(0));
+		assertEquals(63, set.nextId(2));
+		assertEquals(64, set.nextId(64));
+		assertEquals(500, set.nextId(65));
+		assertEquals(-1, set.nextId(501));
+
+		int count = 0;
+		for (Iterator<PhotoId> i = set.iterator(); i.hasNext(); i.next()) {
+			count++;
+		}
+		assertEquals(4, count);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testExternalizeSparseSet() throws Exception {
+		PhotoIdSet set = new PhotoIdSet();
+		set.add(5);
+		set.add(100000);
+		set.add(100001);
+
+		// count and gaps: 1 + 1 + 3 + 1 bytes
+		int emptyLength = writeExternal(new PhotoIdSet()).length;
+		assertTrue(writeExternal(set).length <= emptyLength + 5);
+		PhotoIdSet copy = readExternal(writeExternal(set));
+		assertEquals(set, copy);
+		assertEquals(3, copy.size());
+		assertTrue(copy.contains(100001));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testExternalizeDenseSet() throws Exception {
+		PhotoIdSet set = new PhotoIdSet();
+		for (int id = 0; id < 10000; id += 2) {
+			set.add(id);
+		}
+
+		// bounded by the bitmap of 157 words, plus a few bytes of stream overhead
+		assertTrue(writeExternal(set).length <= 157 * 8 + 32);
+		PhotoIdSet copy = readExternal(writeExternal(set));
+		assertEquals(set, copy);
+		assertEquals(5000, copy.size());
+		assertFalse(copy.contains(9999));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testExternalizeEmptySet() throws Exception {
+		PhotoIdSet copy = readExternal(writeExternal(new PhotoIdSet()));
+		assertTrue(copy.isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	protected static byte[] writeExternal(PhotoIdSet set) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		set.writeExternal(out);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 *
+	 */
+	protected static PhotoIdSet readExternal(byte[] bytes) throws IOException {
+		PhotoIdSet result = new PhotoIdSet();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+		result.readExternal(in);
+		return result;
+	}
+
+}
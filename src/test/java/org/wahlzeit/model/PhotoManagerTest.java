@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Work;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.wahlzeit.model.persistence.DatastoreAdapter;
+import org.wahlzeit.model.persistence.ImageStorage;
+import org.wahlzeit.services.ObjectManager;
+import org.wahlzeit.services.OfyService;
+import org.wahlzeit.services.SpooledUpload;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Test cases for the PhotoManager class.
+ */
+public class PhotoManagerTest {
+
+	@ClassRule
+	public static RuleChain ruleChain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUpdateTagsWritesOnlyChanges() {
+		final PhotoManager photoManager = new PhotoManager();
+		final Photo photo = new Photo(PhotoId.getNextId());
+		photo.setTags(new Tags("flower, tree"));
+		updateTags(photoManager, photo);
+		assertEquals(asSet("tg:flower", "tg:tree"), readTags(photoManager, photo));
+
+		photo.setTags(new Tags("flower, sky"));
+		updateTags(photoManager, photo);
+		assertEquals(asSet("tg:flower", "tg:sky"), readTags(photoManager, photo));
+		assertEquals(asSet("tg:flower", "tg:sky"), photoManager.photoTagIndex.getTags(photo.getId()));
+
+		updateTags(photoManager, photo);
+		assertEquals(2, readTagEntities(photoManager, photo).size());
+	}
+
+	/**
+	 *
+	 */
+	@Test(expected = IllegalStateException.class)
+	public void testProcessingPhotoWithoutPendingUploadFails() throws Exception {
+		PhotoManager photoManager = PhotoManager.getInstance();
+		Photo photo = new Photo(PhotoId.getNextId());
+		photoManager.doAddPhoto(photo);
+		try {
+			photoManager.processUploadedPhoto(photo.getId().asString());
+		} finally {
+			photoManager.photoCache.remove(photo.getId().asInt());
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testCreatingPhotoWithoutUploadFails() throws Exception {
+		new PhotoManager().createPhoto("photo.jpg", (SpooledUpload) null);
+	}
+
+	/**
+	 *
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testCreatingPendingPhotoWithoutUploadFails() throws Exception {
+		new PhotoManager().createPendingPhoto("photo.jpg", (SpooledUpload) null);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSaveScaledImagesSkipsMissingAndExistingSizes() {
+		final PhotoManager photoManager = new PhotoManager();
+		final Photo photo = new Photo(PhotoId.getNextId());
+		final String photoIdAsString = photo.getId().asString();
+		final Image storedImage = ImagesServiceFactory.makeImage(new byte[10]);
+		photo.setImage(PhotoSize.THUMB, ImagesServiceFactory.makeImage(new byte[20]));
+		photo.setImage(PhotoSize.SMALL, ImagesServiceFactory.makeImage(new byte[30]));
+		photo.setImage(PhotoSize.MEDIUM, ImagesServiceFactory.makeImage(new byte[40]));
+		ImageStorage.setInstance(new DatastoreAdapter());
+
+		ObjectifyService.run(new Work<Void>() {
+			@Override
+			public Void run() {
+				try {
+					ImageStorage.getInstance().writeImage(storedImage, photoIdAsString, PhotoSize.SMALL.asInt());
+					photoManager.saveScaledImages(photo);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+				return null;
+			}
+		});
+
+		assertEquals(20, readImageLength(photoIdAsString, PhotoSize.THUMB));
+		assertEquals(-1, readImageLength(photoIdAsString, PhotoSize.EXTRA_SMALL));
+		assertEquals(10, readImageLength(photoIdAsString, PhotoSize.SMALL));
+		assertEquals(40, readImageLength(photoIdAsString, PhotoSize.MEDIUM));
+		assertNull(photo.getUnsavedImage(PhotoSize.SMALL));
+	}
+
+	/**
+	 *
+	 */
+	protected int readImageLength(final String photoIdAsString, final PhotoSize photoSize) {
+		return ObjectifyService.run(new Work<Integer>() {
+			@Override
+			public Integer run() {
+				try {
+					Image image = (Image) ImageStorage.getInstance().readImage(photoIdAsString, photoSize.asInt());
+					return (image != null) ? image.getImageData().length : -1;
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+	}
+
+	/**
+	 *
+	 */
+	protected void updateTags(final PhotoManager photoManager, final Photo photo) {
+		ObjectifyService.run(new Work<Void>() {
+			@Override
+			public Void run() {
+				photoManager.updateTags(photo);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 *
+	 */
+	protected Set<String> readTags(PhotoManager photoManager, Photo photo) {
+		Set<String> result = new HashSet<String>();
+		for (Tag tag : readTagEntities(photoManager, photo)) {
+			result.add(tag.getText());
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	protected List<Tag> readTagEntities(final PhotoManager photoManager, final Photo photo) {
+		return ObjectifyService.run(new Work<List<Tag>>() {
+			@Override
+			public List<Tag> run() {
+				return OfyService.ofy().load().type(Tag.class).ancestor(ObjectManager.applicationRootKey).
+						filter(Tag.PHOTO_ID, photo.getId().asString()).list();
+			}
+		});
+	}
+
+	/**
+	 *
+	 */
+	protected Set<String> asSet(String... tags) {
+		Set<String> result = new HashSet<String>();
+		for (String tag : tags) {
+			result.add(tag);
+		}
+		return result;
+	}
+
+}
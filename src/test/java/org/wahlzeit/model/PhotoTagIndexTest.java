@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the PhotoTagIndex class.
+ */
+public class PhotoTagIndexTest {
+
+	private PhotoTagIndex photoTagIndex;
+
+	@Before
+	public void initPhotoTagIndex() {
+		photoTagIndex = new PhotoTagIndex();
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSetTags() {
+		photoTagIndex.setTags(new PhotoId(7), asSet("tg:flower", "un:bob"));
+		photoTagIndex.setTags(new PhotoId(3), asSet("tg:flower"));
+		photoTagIndex.setTags(new PhotoId(5), asSet("tg:flower", "tg:tree"));
+
+		assertArrayEquals(new int[] {3, 5, 7}, photoTagIndex.getPhotoIds("tg:flower"));
+		assertArrayEquals(new int[] {5}, photoTagIndex.getPhotoIds("tg:tree"));
+		assertArrayEquals(new int[] {7}, photoTagIndex.getPhotoIds("un:bob"));
+		assertEquals(0, photoTagIndex.getPhotoIds("tg:unknown").length);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUpdateTags() {
+		PhotoId photoId = new PhotoId(4);
+		photoTagIndex.setTags(photoId, asSet("tg:flower", "tg:tree"));
+		photoTagIndex.setTags(photoId, asSet("tg:tree", "tg:sky"));
+
+		assertEquals(0, photoTagIndex.getPhotoIds("tg:flower").length);
+		assertArrayEquals(new int[] {4}, photoTagIndex.getPhotoIds("tg:tree"));
+		assertArrayEquals(new int[] {4}, photoTagIndex.getPhotoIds("tg:sky"));
+		assertEquals(asSet("tg:tree", "tg:sky"), photoTagIndex.getTags(photoId));
+
+		photoTagIndex.removePhoto(photoId);
+		assertEquals(0, photoTagIndex.getPhotoIds("tg:tree").length);
+		assertTrue(photoTagIndex.getTags(photoId).isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUnionAndIntersect() {
+		int[] a = {1, 3, 5, 9};
+		int[] b = {2, 3, 9, 10};
+
+		assertArrayEquals(new int[] {1, 2, 3, 5, 9, 10}, PhotoTagIndex.union(a, b));
+		assertArrayEquals(new int[] {3, 9}, PhotoTagIndex.intersect(a, b));
+		assertArrayEquals(a, PhotoTagIndex.union(a, new int[0]));
+		assertEquals(0, PhotoTagIndex.intersect(a, new int[0]).length);
+	}
+
+	/**
+	 *
+	 */
+	protected Set<String> asSet(String... tags) {
+		return new HashSet<String>(Arrays.asList(tags));
+	}
+
+}
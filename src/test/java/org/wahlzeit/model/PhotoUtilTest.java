@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Test cases for the PhotoUtil class, using the JdkImageProcessor.
+ */
+public class PhotoUtilTest {
+
+	@ClassRule
+	public static TestRule chain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	private ImageProcessor previousImageProcessor;
+
+	@Before
+	public void setUp() {
+		previousImageProcessor = ImageProcessor.instance;
+		ImageProcessor.setInstance(new JdkImageProcessor(2));
+	}
+
+	@After
+	public void tearDown() {
+		ImageProcessor.instance = previousImageProcessor;
+	}
+
+	private static Image createJpegImage(int width, int height) throws Exception {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		for (int x = 0; x < width; x++) {
+			image.setRGB(x, x * height / width, 0xFF8040);
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, "jpg", out);
+		return ImagesServiceFactory.makeImage(out.toByteArray());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCreateImageFiles() throws Exception {
+		Photo photo = new Photo(new PhotoId(3));
+		PhotoUtil.createImageFiles(createJpegImage(700, 1000), photo);
+
+		for (PhotoSize size : Arrays.asList(PhotoSize.THUMB, PhotoSize.EXTRA_SMALL, PhotoSize.SMALL, PhotoSize.MEDIUM,
+				PhotoSize.LARGE)) {
+			Image image = photo.getUnsavedImage(size);
+			assertNotNull(size.asString(), image);
+			assertEquals(size.calcAdjustedWidth(700, 1000), image.getWidth());
+			assertEquals(size.calcAdjustedHeight(700, 1000), image.getHeight());
+		}
+		assertNull(photo.getUnsavedImage(PhotoSize.EXTRA_LARGE));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPreviewListener() throws Exception {
+		final Photo photo = new Photo(new PhotoId(4));
+		final List<PhotoSize> sizesWhenNotified = new ArrayList<PhotoSize>();
+		PhotoUtil.createImageFiles(createJpegImage(900, 1300), photo, new Runnable() {
+			@Override
+			public void run() {
+				for (PhotoSize size : PhotoSize.values()) {
+					if (photo.getUnsavedImage(size) != null) {
+						sizesWhenNotified.add(size);
+					}
+				}
+			}
+		});
+
+		assertEquals(Arrays.asList(PhotoUtil.PREVIEW_SIZES), sizesWhenNotified);
+		assertNotNull(photo.getUnsavedImage(PhotoSize.EXTRA_LARGE));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testGetCascadeSource() {
+		int[] widths = {105, 210, 280, 420, 630, 840};
+		int[] heights = {150, 300, 400, 600, 900, 1200};
+		List<String> started = Arrays.asList("", "", "", "", "", "");
+
+		assertEquals(-1, PhotoUtil.getCascadeSource(5, widths, heights, started));
+		assertEquals(-1, PhotoUtil.getCascadeSource(4, widths, heights, started));
+		assertEquals(5, PhotoUtil.getCascadeSource(3, widths, heights, started));
+		assertEquals(4, PhotoUtil.getCascadeSource(2, widths, heights, started));
+		assertEquals(3, PhotoUtil.getCascadeSource(1, widths, heights, started));
+		assertEquals(1, PhotoUtil.getCascadeSource(0, widths, heights, started));
+
+		List<String> notStarted = Arrays.asList("", "", "", "", null, null);
+		assertEquals(-1, PhotoUtil.getCascadeSource(3, widths, heights, notStarted));
+	}
+
+}
@@ -5,9 +5,10 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
-@SuiteClasses({ AccessRightsTest.class, CartesianCoordinateTest.class, FlagReasonTest.class, FootballPhotoFactoryTest.class,
+@SuiteClasses({ AccessRightsTest.class, CartesianCoordinateTest.class, ClientHistoryTest.class, FlagReasonTest.class, FootballPhotoFactoryTest.class,
 				FootballManagerTest.class, FootballPhotoManagerTest.class, FootballPhotoTest.class, FootballTest.class, 
-				FootballTypeTest.class, GenderTest.class, GuestTest.class, PhotoFilterTest.class, SphericCoordinateTest.class,
+				FootballTypeTest.class, GenderTest.class, GuestTest.class, PhotoCacheTest.class, PhotoFilterTest.class, PhotoIdSetTest.class, PhotoManagerTest.class, PhotoTagIndexTest.class, PhotoUtilTest.class,
+				SphericCoordinateTest.class,
 				TagsTest.class, UserStatusTest.class, ValueTest.class })
 public class modelSuite {
 
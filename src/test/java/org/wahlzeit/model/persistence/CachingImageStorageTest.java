@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model.persistence;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+import org.wahlzeit.model.PhotoSize;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Runs the generic ImageStorage tests against a CachingImageStorage in front of the Datastore and checks the cache
+ * bookkeeping.
+ */
+public class CachingImageStorageTest extends AbstractAdapterTest {
+
+	@ClassRule
+	public static TestRule chain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	private CachingImageStorage cachingImageStorage;
+
+	@Override
+	protected void storageDependentSetUp() {
+		cachingImageStorage = new CachingImageStorage(new DatastoreAdapter());
+		imageStorage = cachingImageStorage;
+	}
+
+	@Test
+	public void testHitsAndMisses() throws IOException {
+		cachingImageStorage.getStorage().writeImage(smallTestImage, "cached", 0);
+
+		Image first = (Image) cachingImageStorage.readImage("cached", 0);
+		Image second = (Image) cachingImageStorage.readImage("cached", 0);
+
+		assertNotNull(first);
+		assertSame(first, second);
+		assertEquals(1, cachingImageStorage.getMisses(PhotoSize.THUMB));
+		assertEquals(1, cachingImageStorage.getHits(PhotoSize.THUMB));
+		assertEquals(1024, cachingImageStorage.getUsedBytes(PhotoSize.THUMB));
+	}
+
+	@Test
+	public void testEvictionByBytes() throws IOException {
+		cachingImageStorage.setMaxBytes(PhotoSize.SMALL, 2500);
+
+		cachingImageStorage.writeImage(smallTestImage, "first", 2);
+		cachingImageStorage.writeImage(smallTestImage, "second", 2);
+		cachingImageStorage.readImage("first", 2);
+		cachingImageStorage.writeImage(smallTestImage, "third", 2);
+
+		// "second" was least recently used
+		assertEquals(1, cachingImageStorage.getEvictions(PhotoSize.SMALL));
+		assertEquals(2048, cachingImageStorage.getUsedBytes(PhotoSize.SMALL));
+
+		// but still available from the decorated storage
+		assertNotNull(cachingImageStorage.readImage("second", 2));
+		assertEquals(1, cachingImageStorage.getMisses(PhotoSize.SMALL));
+	}
+
+	@Test
+	public void testImageLargerThanBudget() throws IOException {
+		cachingImageStorage.setMaxBytes(PhotoSize.LARGE, 512);
+		Image image = ImagesServiceFactory.makeImage(new byte[1024]);
+
+		cachingImageStorage.writeImage(image, "large", 4);
+
+		assertEquals(0, cachingImageStorage.getUsedBytes(PhotoSize.LARGE));
+		assertNotNull(cachingImageStorage.readImage("large", 4));
+		assertNull(cachingImageStorage.readImage("other", 4));
+	}
+
+	@Test
+	public void testExistenceCacheIsSharedWithDecoratedStorage() throws IOException {
+		assertSame(cachingImageStorage.getStorage().getExistenceCache(), cachingImageStorage.getExistenceCache());
+
+		cachingImageStorage.writeImage(smallTestImage, "shared", 1);
+		assertEquals(Boolean.TRUE, cachingImageStorage.getStorage().getExistenceCache().doesImageExist("shared", 1));
+	}
+}
@@ -46,4 +46,19 @@ public class DatastoreAdapterTest extends AbstractAdapterTest {
 			fail("IOException should not be thrown!");
 		}
 	}
+
+	@Test
+	public void testExistenceWithoutCache() {
+		DatastoreAdapter datastoreAdapter = (DatastoreAdapter) imageStorage;
+		assert !datastoreAdapter.doDoesImageExist("keysOnly", 3);
+
+		try {
+			imageStorage.writeImage(smallTestImage, "keysOnly", 3);
+		} catch (IOException e) {
+			fail("IOException should not be thrown!");
+		}
+
+		assert datastoreAdapter.doDoesImageExist("keysOnly", 3);
+		assert !datastoreAdapter.doDoesImageExist("keysOnly", 4);
+	}
 }
@@ -0,0 +1,75 @@
+package org.wahlzeit.model.persistence;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link FileSystemImageStorage}
+ */
+public class FileSystemImageStorageTest extends AbstractAdapterTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Override
+	protected void storageDependentSetUp() {
+		try {
+			imageStorage = new FileSystemImageStorage(temporaryFolder.newFolder("photos"));
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Test
+	public void testLargeImageRoundTrip() throws IOException {
+		byte[] data = new byte[3 * 1024 * 1024];
+		Arrays.fill(data, (byte) 7);
+		imageStorage.writeImage(ImagesServiceFactory.makeImage(data), "x1ac7", 5);
+
+		Serializable image = ((FileSystemImageStorage) imageStorage).doReadImage("x1ac7", 5);
+		assertArrayEquals(data, ((Image) image).getImageData());
+	}
+
+	@Test
+	public void testFileLayout() throws IOException {
+		FileSystemImageStorage storage = (FileSystemImageStorage) imageStorage;
+		imageStorage.writeImage(smallTestImage, "x1ac7", 2);
+
+		File file = storage.getImageFile("x1ac7", 2);
+		assertEquals(new File(new File(storage.getBaseDir(), "c7"), "x1ac7-2.img"), file);
+		assertTrue(file.isFile());
+		assertEquals(1, file.getParentFile().list().length); // no temporary file left behind
+	}
+
+	@Test
+	public void testUnsafeIdStaysInBaseDir() {
+		FileSystemImageStorage storage = (FileSystemImageStorage) imageStorage;
+		File file = storage.getImageFile("../../..", 1);
+		assertEquals(storage.getBaseDir(), file.getParentFile().getParentFile());
+	}
+
+	@Test
+	public void testImageFileRegion() throws IOException {
+		assertNull(imageStorage.getImageFileRegion("x1ac8", 1));
+
+		imageStorage.writeImage(smallTestImage, "x1ac8", 1);
+		ImageFileRegion region = imageStorage.getImageFileRegion("x1ac8", 1);
+		assertNotNull(region);
+		assertEquals(0, region.getPosition());
+		assertEquals(smallTestImage.getImageData().length, region.getLength());
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model.persistence;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Test cases for the ImageExistenceCache class.
+ */
+public class ImageExistenceCacheTest {
+
+	@Test
+	public void testPositiveAnswers() {
+		ImageExistenceCache existenceCache = new ImageExistenceCache(60 * 1000, 100);
+		assertNull(existenceCache.doesImageExist("x1abc", 0));
+
+		existenceCache.setImageExists("x1abc", 0, true);
+		assertEquals(Boolean.TRUE, existenceCache.doesImageExist("x1abc", 0));
+		assertNull(existenceCache.doesImageExist("x1abc", 1));
+
+		existenceCache.remove("x1abc", 0);
+		assertNull(existenceCache.doesImageExist("x1abc", 0));
+	}
+
+	@Test
+	public void testNegativeAnswers() {
+		ImageExistenceCache existenceCache = new ImageExistenceCache(60 * 1000, 100);
+		existenceCache.setImageExists("x1abc", 2, false);
+		assertEquals(Boolean.FALSE, existenceCache.doesImageExist("x1abc", 2));
+
+		existenceCache.setImageExists("x1abc", 2, true);
+		assertEquals(Boolean.TRUE, existenceCache.doesImageExist("x1abc", 2));
+	}
+
+	@Test
+	public void testExpiredNegativeAnswers() {
+		ImageExistenceCache existenceCache = new ImageExistenceCache(-1, 100);
+		existenceCache.setImageExists("x1abc", 2, false);
+		assertNull(existenceCache.doesImageExist("x1abc", 2));
+	}
+
+	@Test
+	public void testEntriesAreBoundedPerSize() {
+		ImageExistenceCache existenceCache = new ImageExistenceCache(60 * 1000, 2);
+		existenceCache.setImageExists("x1abc", 0, true);
+		existenceCache.setImageExists("x2abc", 0, true);
+		existenceCache.doesImageExist("x1abc", 0);
+		existenceCache.setImageExists("x3abc", 0, false);
+		existenceCache.setImageExists("x4abc", 1, true);
+
+		// "x2abc" was least recently used
+		assertEquals(2, existenceCache.getNoEntries(0));
+		assertNull(existenceCache.doesImageExist("x2abc", 0));
+		assertEquals(Boolean.TRUE, existenceCache.doesImageExist("x1abc", 0));
+		assertEquals(Boolean.FALSE, existenceCache.doesImageExist("x3abc", 0));
+		assertEquals(1, existenceCache.getNoEntries(1));
+	}
+}
@@ -0,0 +1,199 @@
+package org.wahlzeit.model.persistence;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.wahlzeit.model.PhotoId;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link SegmentImageStorage}
+ */
+public class SegmentImageStorageTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private File dir;
+	private SegmentImageStorage storage;
+
+	private final String id1 = PhotoId.getFromInt(1);
+	private final String id2 = PhotoId.getFromInt(2);
+	private final String id3 = PhotoId.getFromInt(3000);
+
+	@Before
+	public void setUp() throws IOException {
+		dir = temporaryFolder.newFolder("segments");
+		storage = new SegmentImageStorage(dir, 4096);
+	}
+
+	private static Image createImage(int length, int value) {
+		byte[] data = new byte[length];
+		Arrays.fill(data, (byte) value);
+		return ImagesServiceFactory.makeImage(data);
+	}
+
+	private byte[] readImageData(SegmentImageStorage storage, String photoId, int size) throws IOException {
+		Image image = storage.doReadImage(photoId, size);
+		return (image == null) ? null : image.getImageData();
+	}
+
+	@Test
+	public void testWriteAndRead() throws IOException {
+		storage.writeImage(createImage(100, 1), id1, 0);
+		storage.writeImage(createImage(200, 2), id1, 3);
+		storage.writeImage(createImage(300, 3), id3, 5);
+
+		assertArrayEquals(createImage(100, 1).getImageData(), readImageData(storage, id1, 0));
+		assertArrayEquals(createImage(200, 2).getImageData(), readImageData(storage, id1, 3));
+		assertArrayEquals(createImage(300, 3).getImageData(), readImageData(storage, id3, 5));
+		assertNull(readImageData(storage, id1, 1));
+		assertNull(readImageData(storage, id2, 0));
+		assertTrue(storage.doDoesImageExist(id3, 5));
+		assertFalse(storage.doDoesImageExist(id3, 4));
+	}
+
+	@Test(expected = InvalidParameterException.class)
+	public void testRejectsNonPhotoId() throws IOException {
+		storage.writeImage(createImage(10, 1), "blub", 1);
+	}
+
+	@Test
+	public void testFileRegion() throws IOException {
+		storage.writeImage(createImage(100, 1), id1, 0);
+		storage.writeImage(createImage(50, 2), id2, 0);
+
+		ImageFileRegion region = storage.getImageFileRegion(id2, 0);
+		assertNotNull(region);
+		assertEquals(2 * SegmentImageStorage.HEADER_BYTES + 100, region.getPosition());
+		assertEquals(50, region.getLength());
+		assertNull(storage.getImageFileRegion(id2, 1));
+	}
+
+	@Test
+	public void testFileRegionOfInvalidSizeIsNull() throws IOException {
+		storage.writeImage(createImage(100, 1), PhotoId.getFromInt(2), 0);
+
+		// would address the entry of size 0 of the next photo
+		assertNull(storage.getImageFileRegion(PhotoId.getFromInt(1), SegmentImageStorage.SegmentIndex.NO_SIZES));
+		assertNull(storage.getImageFileRegion(PhotoId.getFromInt(2), -1));
+	}
+
+	@Test
+	public void testFileRegionOfHugePhotoIdIsNull() throws IOException {
+		assertNull(storage.getImageFileRegion(PhotoId.getFromInt(Integer.MAX_VALUE - PhotoId.ID_START), 0));
+		String beyondIndex = PhotoId.getFromInt(SegmentImageStorage.SegmentIndex.MAX_PHOTO_ID + 1);
+		assertNull(storage.getImageFileRegion(beyondIndex, 5));
+		assertFalse(storage.doesImageExist(PhotoId.getFromInt(Integer.MAX_VALUE - PhotoId.ID_START), 0));
+	}
+
+	@Test(expected = InvalidParameterException.class)
+	public void testWriteImageOfHugePhotoIdFails() throws IOException {
+		storage.writeImage(createImage(100, 1), PhotoId.getFromInt(Integer.MAX_VALUE - PhotoId.ID_START), 0);
+	}
+
+	@Test
+	public void testIndexIsRebuiltOnOpen() throws IOException {
+		storage.writeImage(createImage(100, 1), id1, 0);
+		storage.writeImage(createImage(100, 2), id1, 0);
+		storage.writeImage(createImage(100, 3), id2, 1);
+
+		SegmentImageStorage reopened = new SegmentImageStorage(dir, 4096);
+		assertArrayEquals(createImage(100, 2).getImageData(), readImageData(reopened, id1, 0));
+		assertArrayEquals(createImage(100, 3).getImageData(), readImageData(reopened, id2, 1));
+		assertEquals(2 * (SegmentImageStorage.HEADER_BYTES + 100), reopened.getLiveBytes());
+	}
+
+	@Test
+	public void testTruncatedRecordIsDropped() throws IOException {
+		storage.writeImage(createImage(100, 1), id1, 0);
+		storage.writeImage(createImage(100, 2), id2, 0);
+
+		File segmentFile = new File(dir, "00000000.seg");
+		try (RandomAccessFile file = new RandomAccessFile(segmentFile, "rw")) {
+			file.setLength(file.length() - 10);
+		}
+
+		SegmentImageStorage reopened = new SegmentImageStorage(dir, 4096);
+		assertNotNull(readImageData(reopened, id1, 0));
+		assertNull(readImageData(reopened, id2, 0));
+		assertEquals(SegmentImageStorage.HEADER_BYTES + 100, segmentFile.length());
+	}
+
+	@Test
+	public void testCompaction() throws IOException {
+		for (int i = 1; i <= 10; i++) {
+			storage.writeImage(createImage(1000, i), PhotoId.getFromInt(i), 2);
+		}
+		assertTrue(storage.getSegmentCount() > 1);
+		long totalBytes = storage.getTotalBytes();
+
+		for (int i = 1; i <= 8; i++) {
+			if (i != 4) {
+				storage.removeImage(PhotoId.getFromInt(i), 2);
+			}
+		}
+		storage.compact(SegmentImageStorage.DEFAULT_COMPACTION_THRESHOLD);
+
+		assertTrue(storage.getTotalBytes() < totalBytes);
+		assertEquals(storage.getLiveBytes(), storage.getTotalBytes());
+		assertNull(readImageData(storage, PhotoId.getFromInt(1), 2));
+		assertArrayEquals(createImage(1000, 4).getImageData(), readImageData(storage, PhotoId.getFromInt(4), 2));
+		assertArrayEquals(createImage(1000, 10).getImageData(), readImageData(storage, PhotoId.getFromInt(10), 2));
+
+		SegmentImageStorage reopened = new SegmentImageStorage(dir, 4096);
+		assertNull(readImageData(reopened, PhotoId.getFromInt(1), 2));
+		assertArrayEquals(createImage(1000, 4).getImageData(), readImageData(reopened, PhotoId.getFromInt(4), 2));
+	}
+
+	@Test
+	public void testRemoveImageInvalidatesExistenceCache() throws IOException {
+		storage.writeImage(createImage(100, 1), id1, 0);
+		assertTrue(storage.doesImageExist(id1, 0));
+
+		storage.removeImage(id1, 0);
+		assertFalse(storage.doesImageExist(id1, 0));
+	}
+
+	@Test
+	public void testRemoveImageInvalidatesExistenceCacheOfDecorator() throws IOException {
+		CachingImageStorage cachingStorage = new CachingImageStorage(storage);
+		cachingStorage.writeImage(createImage(100, 1), id1, 0);
+		assertTrue(cachingStorage.doesImageExist(id1, 0));
+
+		storage.removeImage(id1, 0);
+		assertNull(cachingStorage.getExistenceCache().doesImageExist(id1, 0));
+	}
+
+	@Test
+	public void testRegionOfCompactedSegmentIsGone() throws IOException {
+		for (int i = 1; i <= 10; i++) {
+			storage.writeImage(createImage(1000, i), PhotoId.getFromInt(i), 2);
+		}
+		ImageFileRegion before = storage.getImageFileRegion(PhotoId.getFromInt(1), 2);
+		for (int i = 2; i <= 8; i++) {
+			storage.removeImage(PhotoId.getFromInt(i), 2);
+		}
+		storage.compact(SegmentImageStorage.DEFAULT_COMPACTION_THRESHOLD);
+
+		ImageFileRegion after = storage.getImageFileRegion(PhotoId.getFromInt(1), 2);
+		assertFalse(before.getFile().exists());
+		assertTrue(after.getFile().exists());
+		assertEquals(before.getLength(), after.getLength());
+	}
+}
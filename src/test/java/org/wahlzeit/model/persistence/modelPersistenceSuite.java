@@ -5,7 +5,8 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
-@SuiteClasses({ DatastoreAdapterTest.class })
+@SuiteClasses({ CachingImageStorageTest.class, DatastoreAdapterTest.class, FileSystemImageStorageTest.class,
+		ImageExistenceCacheTest.class, SegmentImageStorageTest.class })
 public class modelPersistenceSuite {
 
 }
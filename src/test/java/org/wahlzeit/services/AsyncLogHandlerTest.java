@@ -0,0 +1,126 @@
+package org.wahlzeit.services;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the AsyncLogHandler class.
+ */
+public class AsyncLogHandlerTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRecordsArePublishedInOrderOffTheCallingThread() {
+		CollectingHandler target = new CollectingHandler(null);
+		AsyncLogHandler handler = new AsyncLogHandler(16, target);
+		for (int i = 0; i < 200; i++) {
+			handler.publish(new LogRecord(Level.INFO, "message " + i));
+			if (i % 10 == 0) {
+				handler.flush();
+			}
+		}
+		handler.flush();
+
+		assertEquals(200 - handler.getNoDroppedRecords(), target.messages.size());
+		assertEquals("message 0", target.messages.get(0));
+		for (Thread thread : target.threads) {
+			assertNotEquals(Thread.currentThread(), thread);
+			assertEquals(AsyncLogHandler.THREAD_NAME, thread.getName());
+		}
+		handler.close();
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFullBufferDropsRecords() throws InterruptedException {
+		CountDownLatch release = new CountDownLatch(1);
+		CollectingHandler target = new CollectingHandler(release);
+		AsyncLogHandler handler = new AsyncLogHandler(4, target);
+		assertEquals(4, handler.getCapacity());
+
+		for (int i = 0; i < 20; i++) {
+			handler.publish(new LogRecord(Level.INFO, "message " + i));
+		}
+		assertTrue(handler.getNoDroppedRecords() > 0);
+
+		release.countDown();
+		handler.close();
+		assertEquals(20 - handler.getNoDroppedRecords(), target.messages.size());
+		assertEquals(0, handler.getNoQueuedRecords());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testInstallAndUninstall() {
+		Logger logger = Logger.getLogger("AsyncLogHandlerTest");
+		logger.setUseParentHandlers(false);
+		CollectingHandler target = new CollectingHandler(null);
+		logger.addHandler(target);
+
+		AsyncLogHandler handler = AsyncLogHandler.install(logger, 8);
+		assertEquals(Arrays.asList(handler), Arrays.asList(logger.getHandlers()));
+		logger.info("hello");
+
+		handler.uninstall(logger);
+		assertEquals(Arrays.asList("hello"), target.messages);
+		assertSame(target, logger.getHandlers()[0]);
+		logger.removeHandler(target);
+	}
+
+	/**
+	 * Collects messages and the threads they were published on; waits for release before the first one
+	 */
+	protected static class CollectingHandler extends Handler {
+
+		protected final List<String> messages = new ArrayList<String>();
+		protected final List<Thread> threads = new ArrayList<Thread>();
+		protected final CountDownLatch release;
+
+		protected CollectingHandler(CountDownLatch release) {
+			this.release = release;
+		}
+
+		@Override
+		public synchronized void publish(LogRecord record) {
+			if (release != null) {
+				try {
+					release.await();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			messages.add(record.getMessage());
+			threads.add(Thread.currentThread());
+		}
+
+		@Override
+		public void flush() {
+			// do nothing
+		}
+
+		@Override
+		public void close() {
+			// do nothing
+		}
+	}
+
+}
@@ -0,0 +1,92 @@
+package org.wahlzeit.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link ConfigDir}.
+ */
+public class ConfigDirTest {
+
+	private File rootDir;
+	private ConfigDir configDir;
+
+	@Before
+	public void setUp() throws IOException {
+		rootDir = Files.createTempDirectory("config").toFile();
+		createFile("default/wahlzeit.css");
+		createFile("default/en/heading.png");
+		createFile("custom/wahlzeit.css");
+		createFile("custom/wahlzeit.js");
+		configDir = new ConfigDir(rootDir.getPath(), "static");
+	}
+
+	@After
+	public void tearDown() {
+		deleteAll(rootDir);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testResolution() {
+		String sep = File.separator;
+		assertTrue(configDir.hasDefaultFile("en" + sep + "heading.png"));
+		assertTrue(configDir.hasCustomFile("wahlzeit.js"));
+		assertFalse(configDir.hasDefaultFile("wahlzeit.js"));
+
+		assertEquals("static" + sep + "default" + sep + "wahlzeit.css",
+				configDir.getRelativeConfigFileName("wahlzeit.css"));
+		assertEquals("static" + sep + "custom" + sep + "wahlzeit.js", configDir.getRelativeConfigFileName("wahlzeit.js"));
+		assertEquals("static/default/en/heading.png", configDir.getRelativeConfigFileUrl("en" + sep + "heading.png"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testManifestIsRefreshedOnDemand() throws IOException {
+		assertEquals("static/custom/wahlzeit.js", configDir.getRelativeConfigFileUrl("wahlzeit.js"));
+
+		createFile("default/wahlzeit.js");
+		assertEquals("static/custom/wahlzeit.js", configDir.getRelativeConfigFileUrl("wahlzeit.js"));
+		assertFalse(configDir.hasDefaultFile("wahlzeit.js"));
+
+		configDir.refreshManifest();
+		assertEquals("static/default/wahlzeit.js", configDir.getRelativeConfigFileUrl("wahlzeit.js"));
+		assertTrue(configDir.hasDefaultFile("wahlzeit.js"));
+	}
+
+	/**
+	 *
+	 */
+	protected void createFile(String name) throws IOException {
+		File file = new File(rootDir, "static" + File.separator + name.replace('/', File.separatorChar));
+		file.getParentFile().mkdirs();
+		file.createNewFile();
+	}
+
+	/**
+	 *
+	 */
+	protected static void deleteAll(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				deleteAll(child);
+			}
+		}
+		file.delete();
+	}
+
+}
@@ -0,0 +1,133 @@
+package org.wahlzeit.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the DatastoreTracer class.
+ */
+public class DatastoreTracerTest {
+
+	/**
+	 *
+	 */
+	protected DatastoreTracer tracer;
+	protected Session session;
+	protected Session previousSession;
+
+	/**
+	 *
+	 */
+	@Before
+	public void setUp() {
+		tracer = DatastoreTracer.getInstance();
+		tracer.clear();
+		session = new SysSession("tracer");
+		previousSession = SessionManager.getThreadLocalSession();
+		SessionManager.setThreadLocalSession(session);
+	}
+
+	/**
+	 *
+	 */
+	@After
+	public void tearDown() {
+		SessionManager.setThreadLocalSession(previousSession);
+		tracer.setCallBudget(25);
+		tracer.setSlowCallMillis(100);
+		tracer.clear();
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTraceCountsCallsPerOperationAndKind() {
+		tracer.startRequest(session);
+		long startNanos = System.nanoTime();
+		tracer.recordCall(DatastoreTracer.LOAD, "Photo", startNanos);
+		tracer.recordCall(DatastoreTracer.LOAD, "Photo", startNanos);
+		tracer.recordCall(DatastoreTracer.SAVE, "Client", startNanos);
+
+		DatastoreTracer.RequestTrace trace = session.getDatastoreTrace();
+		assertEquals(3, trace.getNoCalls());
+		assertEquals(2, trace.getNoCalls(DatastoreTracer.LOAD, "Photo"));
+		assertEquals(1, trace.getNoCalls(DatastoreTracer.SAVE, "Client"));
+		assertEquals(0, trace.getNoCalls(DatastoreTracer.DELETE, "Photo"));
+		assertTrue(trace.getNanos() >= 0);
+		assertTrue(trace.toString().startsWith("[load Photo: 2 in "));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCallsOutsideOfRequestsAreNotTraced() {
+		tracer.recordCall(DatastoreTracer.QUERY, "Photo", System.nanoTime());
+		assertNull(session.getDatastoreTrace());
+
+		tracer.finishRequest(session, "outside");
+		assertEquals(0, tracer.getHandlerStatistics("outside").getNoRequests());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFinishRequestAggregatesPerHandler() {
+		tracer.setCallBudget(2);
+
+		tracer.startRequest(session);
+		tracer.recordCall(DatastoreTracer.QUERY, "Photo", System.nanoTime());
+		tracer.finishRequest(session, "showPhoto");
+		assertNull(session.getDatastoreTrace());
+
+		tracer.startRequest(session);
+		for (int i = 0; i < 3; i++) {
+			tracer.recordCall(DatastoreTracer.LOAD, "Photo", System.nanoTime());
+		}
+		tracer.finishRequest(session, "showPhoto");
+
+		DatastoreTracer.HandlerStatistics statistics = tracer.getHandlerStatistics("showPhoto");
+		assertEquals(2, statistics.getNoRequests());
+		assertEquals(4, statistics.getNoCalls());
+		assertEquals(3, statistics.getMaxCalls());
+		assertEquals(1, statistics.getNoRequestsOverBudget());
+		assertTrue(tracer.asStatisticsString().startsWith("showPhoto: requests=2, calls/request=2.0, max calls=3"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testNumberOfHandlersIsBounded() {
+		for (int i = 0; i < DatastoreTracer.MAX_NO_HANDLERS + 10; i++) {
+			tracer.startRequest(session);
+			tracer.finishRequest(session, "handler" + i);
+		}
+
+		assertEquals(1, tracer.getHandlerStatistics("handler0").getNoRequests());
+		assertEquals(10, tracer.getHandlerStatistics(DatastoreTracer.OTHER_HANDLER_NAME).getNoRequests());
+		assertEquals(DatastoreTracer.MAX_NO_HANDLERS + 1, tracer.asStatisticsString().split("\n").length);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSlowCallsAreStillTraced() {
+		tracer.setSlowCallMillis(0);
+		tracer.startRequest(session);
+		tracer.recordCall(DatastoreTracer.DELETE, "Photo", System.nanoTime() - 5 * 1000 * 1000L);
+
+		DatastoreTracer.RequestTrace trace = session.getDatastoreTrace();
+		assertEquals(1, trace.getNoCalls(DatastoreTracer.DELETE, "Photo"));
+		assertTrue(trace.getNanos() >= 5 * 1000 * 1000L);
+	}
+
+}
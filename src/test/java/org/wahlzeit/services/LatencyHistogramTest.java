@@ -0,0 +1,106 @@
+package org.wahlzeit.services;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the LatencyHistogram and RequestMetrics classes.
+ */
+public class LatencyHistogramTest {
+
+	/**
+	 *
+	 */
+	@After
+	public void tearDown() {
+		RequestMetrics.getInstance().clear();
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testBucketsCoverAllLatencies() {
+		int previous = -1;
+		for (long micros = 0; micros < LatencyHistogram.MAX_MICROS; micros = micros * 5 / 4 + 1) {
+			int bucket = LatencyHistogram.getBucket(micros);
+			assertTrue(bucket >= previous);
+			assertTrue(micros < LatencyHistogram.getUpperBound(bucket));
+			assertTrue(bucket == 0 || micros >= LatencyHistogram.getUpperBound(bucket - 1));
+			previous = bucket;
+		}
+		assertEquals(LatencyHistogram.NO_BUCKETS - 1, LatencyHistogram.getBucket(Long.MAX_VALUE));
+		assertEquals(LatencyHistogram.NO_BUCKETS - 1, LatencyHistogram.getBucket(LatencyHistogram.MAX_MICROS - 1));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getPercentileMicros(50));
+
+		for (int i = 1; i <= 1000; i++) {
+			histogram.recordMicros(i * 100);
+		}
+		assertEquals(1000, histogram.getCount());
+		assertEquals(100 * 1000 * 1001 / 2, histogram.getSumMicros());
+
+		long p50 = histogram.getPercentileMicros(50);
+		assertTrue(p50 > 50000 && p50 <= 50000 * 5 / 4);
+		long p99 = histogram.getPercentileMicros(99);
+		assertTrue(p99 > 99000 && p99 <= 99000 * 5 / 4);
+		assertEquals(histogram.getCount(), histogram.getCountBelow(17));
+		assertEquals(0, histogram.getCountBelow(6));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRequestMetricsAreBounded() {
+		RequestMetrics metrics = RequestMetrics.getInstance();
+		for (int i = 0; i < RequestMetrics.MAX_NO_HISTOGRAMS + 10; i++) {
+			metrics.recordLatency("handler" + i, RequestMetrics.HANDLE, 1000);
+		}
+
+		assertEquals(RequestMetrics.MAX_NO_HISTOGRAMS + 1, metrics.getNoHistograms());
+		assertEquals(10, metrics.getHistogram(RequestMetrics.OTHER_HANDLER_NAME, RequestMetrics.HANDLE).getCount());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRequestMetricsFormats() {
+		RequestMetrics metrics = RequestMetrics.getInstance();
+		metrics.recordLatency("showPhoto", RequestMetrics.HANDLE, 2000000);
+		metrics.recordLatency("showPhoto", RequestMetrics.RENDER, 500000);
+		metrics.recordResponse(200, false, 1000);
+		metrics.recordResponse(302, true, 0);
+
+		assertEquals(1, metrics.getHistogram("showPhoto", RequestMetrics.HANDLE).getCount());
+		assertEquals(1, metrics.getStatusCount(302));
+		assertEquals(1, metrics.getNoRedirects());
+		assertEquals(1000, metrics.getNoBytesWritten());
+
+		String text = metrics.asString();
+		assertTrue(text.contains("showPhoto handle: count=1"));
+		assertTrue(text.contains("status 200: 1"));
+
+		String prometheus = metrics.asPrometheusString();
+		assertTrue(prometheus.contains(
+				"wahlzeit_request_phase_seconds_bucket{handler=\"showPhoto\",phase=\"render\",le=\"+Inf\"} 1\n"));
+		assertTrue(prometheus.contains(
+				"wahlzeit_request_phase_seconds_bucket{handler=\"showPhoto\",phase=\"handle\",le=\"0.001024\"} 0\n"));
+		assertTrue(prometheus.contains(
+				"wahlzeit_request_phase_seconds_bucket{handler=\"showPhoto\",phase=\"handle\",le=\"0.004096\"} 1\n"));
+		assertTrue(prometheus.contains("wahlzeit_responses_total{status=\"302\"} 1\n"));
+		assertTrue(prometheus.contains("wahlzeit_response_bytes_total 1000\n"));
+	}
+
+}
@@ -12,9 +12,17 @@ import org.wahlzeit.testEnvironmentProvider.UserSessionProvider;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.wahlzeit.services.LogBuilder.ACTION;
 import static org.wahlzeit.services.LogBuilder.CLIENT;
@@ -173,4 +181,60 @@ public class LogBuilderTest {
 		expectedLogMessage = expectedLogMessage + INFO_SEPARATOR + ACTION + NAME_VALUE_SEPARATOR + null;
 		assertEquals(expectedLogMessage, logMessage);
 	}
+
+	@Test
+	public void testDisabledMessageIsNotLogged() {
+		Logger logger = Logger.getLogger("LogBuilderTest.disabled");
+		logger.setUseParentHandlers(false);
+		logger.setLevel(Level.INFO);
+		List<LogRecord> records = new ArrayList<LogRecord>();
+		logger.addHandler(createCollectingHandler(records));
+
+		LogBuilder logBuilder = LogBuilder.createSystemMessage(logger, Level.CONFIG);
+		assertFalse(logBuilder.isEnabled());
+		assertSame(logBuilder, logBuilder.addParameter("Yoda", 1337).addException("because", new Exception()));
+		logBuilder.log();
+		assertTrue(records.isEmpty());
+	}
+
+	@Test
+	public void testEnabledMessageIsFormattedLazily() {
+		Logger logger = Logger.getLogger("LogBuilderTest.enabled");
+		logger.setUseParentHandlers(false);
+		logger.setLevel(Level.CONFIG);
+		List<LogRecord> records = new ArrayList<LogRecord>();
+		logger.addHandler(createCollectingHandler(records));
+
+		StringBuilder value = new StringBuilder("Frank");
+		LogBuilder.createSystemMessage(logger, Level.CONFIG).addParameter("Yoda", value).log();
+		value.append(" Oz");
+		assertEquals(1, records.size());
+
+		LogRecord record = records.get(0);
+		assertEquals(Level.CONFIG, record.getLevel());
+		assertEquals(LogBuilderTest.class.getName(), record.getSourceClassName());
+		assertEquals("testEnabledMessageIsFormattedLazily", record.getSourceMethodName());
+		String expectedLogMessage =
+				getExpectedSystemMessage() + INFO_SEPARATOR + "Yoda" + NAME_VALUE_SEPARATOR + "Frank";
+		assertEquals(expectedLogMessage, record.getMessage());
+	}
+
+	protected Handler createCollectingHandler(final List<LogRecord> records) {
+		return new Handler() {
+			@Override
+			public void publish(LogRecord record) {
+				records.add(record);
+			}
+
+			@Override
+			public void flush() {
+				// do nothing
+			}
+
+			@Override
+			public void close() {
+				// do nothing
+			}
+		};
+	}
 }
@@ -0,0 +1,105 @@
+package org.wahlzeit.services;
+
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Work;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.wahlzeit.model.Tag;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Test class for the batched writes of {@link ObjectManager}.
+ */
+public class ObjectManagerTest {
+
+	@ClassRule
+	public static RuleChain ruleChain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	/**
+	 *
+	 */
+	@Test
+	public void testWriteObjectsInBatches() {
+		final List<Tag> tags = new ArrayList<Tag>();
+		for (int i = 0; i < 5; i++) {
+			tags.add(new Tag("tg:" + i, "x" + i));
+		}
+		Tag cleanTag = new Tag("tg:clean", "x9");
+		cleanTag.resetWriteCount();
+		tags.add(cleanTag);
+
+		final TagManager manager = new TagManager();
+		WriteStatistics statistics = ObjectifyService.run(new Work<WriteStatistics>() {
+			@Override
+			public WriteStatistics run() {
+				return manager.writeObjects(tags, 2, 1);
+			}
+		});
+
+		String kind = com.googlecode.objectify.Key.getKind(Tag.class);
+		assertEquals(5, statistics.getWritten(kind));
+		assertEquals(1, statistics.getSkipped(kind));
+		assertEquals(3, statistics.getBatches(kind));
+		assertEquals(3, manager.noDependentUpdates);
+		assertEquals(5, manager.noDependents);
+		for (Tag tag : tags) {
+			assertFalse(tag.isDirty());
+		}
+
+		final List<Tag> loaded = new ArrayList<Tag>();
+		ObjectifyService.run(new Work<Void>() {
+			@Override
+			public Void run() {
+				manager.readObjects(loaded, Tag.class);
+				return null;
+			}
+		});
+		assertEquals(5, loaded.size());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAddAllStatistics() {
+		WriteStatistics first = new WriteStatistics();
+		first.addWritten("Photo", 3);
+		first.addBatch("Photo");
+		WriteStatistics second = new WriteStatistics();
+		second.addWritten("Photo", 2);
+		second.addSkipped("Client", 4);
+
+		first.addAll(second);
+		assertEquals(5, first.getWritten("Photo"));
+		assertEquals(1, first.getBatches("Photo"));
+		assertEquals(4, first.getSkipped("Client"));
+		assertEquals(0, first.getWritten("Client"));
+	}
+
+	/**
+	 * Counts the calls to updateDependents
+	 */
+	protected static class TagManager extends ObjectManager {
+
+		protected int noDependentUpdates = 0;
+		protected int noDependents = 0;
+
+		@Override
+		protected void updateDependents(Collection<? extends Persistent> objects) {
+			noDependentUpdates++;
+			noDependents += objects.size();
+		}
+	}
+
+}
@@ -0,0 +1,101 @@
+package org.wahlzeit.services;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.wahlzeit.customexceptions.UploadTooLargeException;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test class for {@link SpooledUpload}.
+ */
+public class SpooledUploadTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSmallUploadStaysInMemory() throws Exception {
+		byte[] bytes = createBytes(1000);
+		SpooledUpload upload = SpooledUpload.read(new ByteArrayInputStream(bytes), 10000, 4096, tempFolder.getRoot());
+
+		assertTrue(upload.isInMemory());
+		assertNull(upload.getFile());
+		assertEquals(bytes.length, upload.getLength());
+		assertArrayEquals(bytes, readAll(upload));
+		assertEquals(0, tempFolder.getRoot().list().length);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLargeUploadIsSpooled() throws Exception {
+		byte[] bytes = createBytes(3 * SpooledUpload.CHUNK_SIZE + 17);
+		SpooledUpload upload = SpooledUpload.read(new ByteArrayInputStream(bytes), bytes.length, 4096,
+				tempFolder.getRoot());
+
+		assertFalse(upload.isInMemory());
+		File file = upload.getFile();
+		assertEquals(bytes.length, file.length());
+		assertEquals(bytes.length, upload.getLength());
+		assertArrayEquals(bytes, readAll(upload));
+
+		upload.delete();
+		assertFalse(file.exists());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTooLargeUploadIsRejected() throws Exception {
+		byte[] bytes = createBytes(2 * SpooledUpload.CHUNK_SIZE);
+		try {
+			SpooledUpload.read(new ByteArrayInputStream(bytes), bytes.length - 1, 4096, tempFolder.getRoot());
+			fail("expected UploadTooLargeException");
+		} catch (UploadTooLargeException ex) {
+			// expected
+		}
+		assertEquals(0, tempFolder.getRoot().list().length);
+	}
+
+	/**
+	 *
+	 */
+	protected byte[] createBytes(int length) {
+		byte[] result = new byte[length];
+		new Random(length).nextBytes(result);
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	protected byte[] readAll(SpooledUpload upload) throws Exception {
+		byte[] result = new byte[(int) upload.getLength() + 1];
+		int length = 0;
+		try (InputStream in = upload.openStream()) {
+			for (int n = in.read(result); n > 0; n = in.read(result, length, result.length - length)) {
+				length += n;
+			}
+		}
+		return Arrays.copyOf(result, length);
+	}
+
+}
@@ -0,0 +1,159 @@
+package org.wahlzeit.services;
+
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Work;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.wahlzeit.model.Tag;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test class for {@link WriteBehindQueue}.
+ */
+public class WriteBehindQueueTest {
+
+	@ClassRule
+	public static RuleChain ruleChain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider());
+
+	protected WriteBehindQueue queue = WriteBehindQueue.getInstance();
+	protected ObjectManager manager = new ObjectManager() {
+	};
+
+	/**
+	 *
+	 */
+	@Before
+	public void setUp() {
+		queue.setManager(Tag.class, manager);
+		queue.setFlushInterval(60 * 1000);
+	}
+
+	/**
+	 *
+	 */
+	@After
+	public void tearDown() {
+		queue.setFlushInterval(0);
+		synchronized (queue) {
+			queue.managers.remove(Tag.class);
+			queue.managersByClass.clear();
+		}
+		queue.queuedObjects.clear();
+		queue.noQueuedObjects.set(0);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRepeatedChangesAreQueuedOnce() {
+		Tag tag = new Tag("tg:flower", "x1");
+		for (int i = 0; i < 100; i++) {
+			tag.touch();
+		}
+
+		assertTrue(queue.isQueued(tag));
+		assertEquals(1, queue.getQueueLength());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFlushWritesQueuedObjects() {
+		final List<Tag> tags = new ArrayList<Tag>();
+		for (int i = 0; i < 3; i++) {
+			tags.add(new Tag("tg:" + i, "x" + i));
+		}
+		assertEquals(3, queue.getQueueLength());
+
+		WriteStatistics statistics = flush();
+		assertEquals(3, statistics.getWritten(com.googlecode.objectify.Key.getKind(Tag.class)));
+		assertEquals(0, queue.getQueueLength());
+		for (Tag tag : tags) {
+			assertFalse(tag.isDirty());
+		}
+
+		tags.get(0).touch();
+		assertTrue(queue.isQueued(tags.get(0)));
+		assertEquals(1, queue.getQueueLength());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testObjectsOfFailedFlushAreQueuedAgain() {
+		queue.setManager(Tag.class, new ObjectManager() {
+			protected int noCompletedBatches = 0;
+
+			@Override
+			protected WriteStatistics updateObjects(Collection<? extends Persistent> collection) {
+				return writeObjects(collection, 1, 2);
+			}
+
+			@Override
+			protected void completeBatch(PendingBatch batch) {
+				if (noCompletedBatches++ == 0) {
+					markDirty(batch.objects);
+					throw new RuntimeException("save failed");
+				}
+				super.completeBatch(batch);
+			}
+		});
+		final List<Tag> tags = new ArrayList<Tag>();
+		for (int i = 0; i < 5; i++) {
+			tags.add(new Tag("tg:" + i, "x" + i));
+		}
+
+		flush();
+
+		// the first batch failed, the second was pending and completed, the others were never started
+		int noDirtyTags = 0;
+		for (Tag tag : tags) {
+			assertEquals(tag.isDirty(), queue.isQueued(tag));
+			noDirtyTags += tag.isDirty() ? 1 : 0;
+		}
+		assertEquals(4, noDirtyTags);
+		assertEquals(4, queue.getQueueLength());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testDisabledQueueQueuesNothing() {
+		queue.setFlushInterval(0);
+		Tag tag = new Tag("tg:flower", "x1");
+
+		assertTrue(tag.isDirty());
+		assertFalse(queue.isQueued(tag));
+	}
+
+	/**
+	 *
+	 */
+	protected WriteStatistics flush() {
+		return ObjectifyService.run(new Work<WriteStatistics>() {
+			@Override
+			public WriteStatistics run() {
+				return queue.flush();
+			}
+		});
+	}
+
+}
@@ -5,7 +5,8 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
-@SuiteClasses({ LogBuilderTest.class })
+@SuiteClasses({ AsyncLogHandlerTest.class, ConfigDirTest.class, DatastoreTracerTest.class, LatencyHistogramTest.class,
+		LogBuilderTest.class, ObjectManagerTest.class, SpooledUploadTest.class, WriteBehindQueueTest.class })
 public class servicesSuite {
 
 }
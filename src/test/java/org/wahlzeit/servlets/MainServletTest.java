@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.wahlzeit.servlets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.wahlzeit.handlers.PartUtil;
+import org.wahlzeit.handlers.WebPageHandler;
+import org.wahlzeit.handlers.WebPartHandler;
+import org.wahlzeit.handlers.WebPartHandlerManager;
+import org.wahlzeit.model.UserSession;
+import org.wahlzeit.services.DatastoreTracer;
+import org.wahlzeit.services.RequestMetrics;
+import org.wahlzeit.services.SessionManager;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
+import org.wahlzeit.testEnvironmentProvider.SysConfigProvider;
+import org.wahlzeit.testEnvironmentProvider.UserServiceProvider;
+import org.wahlzeit.testEnvironmentProvider.UserSessionProvider;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test cases for the MainServlet class.
+ */
+public class MainServletTest {
+
+	@ClassRule
+	public static RuleChain ruleChain = RuleChain.
+			outerRule(new LocalDatastoreServiceTestConfigProvider()).
+			around(new RegisteredOfyEnvironmentProvider()).
+			around(new SysConfigProvider()).
+			around(new UserServiceProvider()).
+			around(new UserSessionProvider());
+
+	/**
+	 *
+	 */
+	protected WebPartHandler previousDefaultHandler;
+
+	/**
+	 *
+	 */
+	@Before
+	public void setUp() {
+		WebPartHandlerManager manager = WebPartHandlerManager.getInstance();
+		previousDefaultHandler = manager.getDefaultWebPageHandler();
+		WebPageHandler defaultHandler = mock(WebPageHandler.class);
+		when(defaultHandler.handleGet(any(UserSession.class), anyString(), any(Map.class))).
+				thenReturn(PartUtil.DEFAULT_PAGE_NAME);
+		manager.addWebPartHandler(PartUtil.DEFAULT_PAGE_NAME, defaultHandler);
+		RequestMetrics.getInstance().clear();
+		DatastoreTracer.getInstance().clear();
+	}
+
+	/**
+	 *
+	 */
+	@After
+	public void tearDown() {
+		WebPartHandlerManager.getInstance().addWebPartHandler(PartUtil.DEFAULT_PAGE_NAME, previousDefaultHandler);
+		RequestMetrics.getInstance().clear();
+		DatastoreTracer.getInstance().clear();
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUnknownLinksShareOneHandlerName() throws Exception {
+		MainServlet servlet = new MainServlet();
+		UserSession us = (UserSession) SessionManager.getThreadLocalSession();
+		for (String uri : new String[] {"/x1a2b3.html", "/anything123.html"}) {
+			SessionManager.setThreadLocalSession(us);
+			HttpServletRequest request = mock(HttpServletRequest.class);
+			when(request.getRequestURI()).thenReturn(uri);
+			servlet.myGet(request, mock(HttpServletResponse.class));
+		}
+		SessionManager.setThreadLocalSession(us);
+
+		RequestMetrics metrics = RequestMetrics.getInstance();
+		assertEquals(1, metrics.getNoHistograms());
+		assertEquals(2, metrics.getHistogram(MainServlet.UNKNOWN_HANDLER_NAME, RequestMetrics.HANDLE).getCount());
+		assertEquals(2, DatastoreTracer.getInstance().getHandlerStatistics(MainServlet.UNKNOWN_HANDLER_NAME).
+				getNoRequests());
+	}
+
+}
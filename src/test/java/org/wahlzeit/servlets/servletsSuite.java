@@ -0,0 +1,11 @@
+package org.wahlzeit.servlets;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.Suite.SuiteClasses;
+
+@RunWith(Suite.class)
+@SuiteClasses({ MainServletTest.class })
+public class servletsSuite {
+
+}
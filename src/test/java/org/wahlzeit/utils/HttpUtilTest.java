@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the HttpUtil class.
+ */
+public class HttpUtilTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testParseByteRange() {
+		assertArrayEquals(new long[] {0, 99}, HttpUtil.parseByteRange("bytes=0-99", 1000));
+		assertArrayEquals(new long[] {500, 999}, HttpUtil.parseByteRange("bytes=500-", 1000));
+		assertArrayEquals(new long[] {900, 999}, HttpUtil.parseByteRange("bytes=-100", 1000));
+		assertArrayEquals(new long[] {0, 999}, HttpUtil.parseByteRange("bytes=-5000", 1000));
+		assertArrayEquals(new long[] {990, 999}, HttpUtil.parseByteRange("bytes=990-5000", 1000));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testParseByteRangeIgnoresUnsupported() {
+		assertNull(HttpUtil.parseByteRange(null, 1000));
+		assertNull(HttpUtil.parseByteRange("items=0-1", 1000));
+		assertNull(HttpUtil.parseByteRange("bytes=0-1,5-6", 1000));
+		assertNull(HttpUtil.parseByteRange("bytes=abc", 1000));
+		assertNull(HttpUtil.parseByteRange("bytes=5-1", 1000));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testParseByteRangeUnsatisfiable() {
+		assertSame(HttpUtil.UNSATISFIABLE_RANGE, HttpUtil.parseByteRange("bytes=1000-", 1000));
+		assertSame(HttpUtil.UNSATISFIABLE_RANGE, HttpUtil.parseByteRange("bytes=-0", 1000));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMatchesEntityTag() {
+		String entityTag = "\"x1-2-3\"";
+		assertTrue(HttpUtil.matchesEntityTag("\"x1-2-3\"", entityTag));
+		assertTrue(HttpUtil.matchesEntityTag("\"a\", W/\"x1-2-3\"", entityTag));
+		assertTrue(HttpUtil.matchesEntityTag("*", entityTag));
+		assertFalse(HttpUtil.matchesEntityTag("\"x1-2-4\"", entityTag));
+		assertFalse(HttpUtil.matchesEntityTag(null, entityTag));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testGetImageContentType() {
+		assertEquals("image/jpeg", HttpUtil.getImageContentType(new byte[] {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, 0}));
+		assertEquals("image/png", HttpUtil.getImageContentType(new byte[] {(byte) 0x89, 'P', 'N', 'G', 13, 10}));
+		assertEquals("image/gif", HttpUtil.getImageContentType("GIF89a".getBytes()));
+		assertEquals(HttpUtil.DEFAULT_CONTENT_TYPE, HttpUtil.getImageContentType(new byte[] {1, 2}));
+	}
+
+}
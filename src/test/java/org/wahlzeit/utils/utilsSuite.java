@@ -5,7 +5,7 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
-@SuiteClasses({ StringUtilTest.class, VersionTest.class })
+@SuiteClasses({ HtmlUtilTest.class, HttpUtilTest.class, StringUtilTest.class, VersionTest.class })
 public class utilsSuite {
 
 }
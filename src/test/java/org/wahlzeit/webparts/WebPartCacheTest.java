@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.webparts;
+
+import org.junit.After;
+import org.junit.Test;
+import org.wahlzeit.webparts.WebPartCache.FragmentKey;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Test cases for WebPartCache and Fragment.
+ */
+public class WebPartCacheTest {
+
+	/**
+	 *
+	 */
+	@After
+	public void tearDown() {
+		WebPartCache.getInstance().clear();
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFragmentKeysCompareDimensions() {
+		assertEquals(new FragmentKey("menu", "en", 1), new FragmentKey("menu", "en", 1));
+		assertEquals(new FragmentKey("menu", "en", 1).hashCode(), new FragmentKey("menu", "en", 1).hashCode());
+		assertNotEquals(new FragmentKey("menu", "en", 1), new FragmentKey("menu", "de", 1));
+		assertNotEquals(new FragmentKey("menu", "en"), new FragmentKey("footer", "en"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testGetFragmentKeepsFirstValue() throws IOException {
+		WebPartCache cache = WebPartCache.getInstance();
+		FragmentKey key = new FragmentKey("title", "de");
+		assertNull(cache.getFragment(key));
+
+		Fragment fragment = cache.getFragment(key, "Grüße");
+		assertSame(fragment, cache.getFragment(key, "ignored"));
+		assertSame(fragment, cache.getFragment(key));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Utf8Writer out = new Utf8Writer(bytes);
+		fragment.writeOn(out);
+		out.close();
+		assertEquals("Grüße", new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPutTemplateKeepsOpenSlots() throws IOException {
+		WebPart part = new WebPart(WebPartTest.createTemplate("<p>{$title}</p><i>{$time}</i>{$unused}"));
+		part.addWritable("title", new Fragment("Über"));
+		part.addString("time", "0.1");
+
+		FragmentKey key = new FragmentKey("page", "de");
+		WebPartTemplate template = WebPartCache.getInstance().putTemplate(key, part, "time");
+		assertSame(template, WebPartCache.getInstance().getTemplate(key));
+		assertEquals(0, template.getSlotIndex("time"));
+		assertEquals(-1, template.getSlotIndex("title"));
+
+		WebPart cachedPart = new WebPart(template);
+		cachedPart.addString("time", "0.2");
+		StringWriter out = new StringWriter();
+		cachedPart.writeOn(out);
+		assertEquals("<p>Über</p><i>0.2</i>", out.toString());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCacheIsBounded() {
+		WebPartCache cache = WebPartCache.getInstance();
+		for (int i = 0; i <= WebPartCache.MAX_ENTRIES; i++) {
+			cache.getFragment(new FragmentKey("heading", "http://host" + i), "heading");
+		}
+		assertEquals(1, cache.size());
+	}
+
+}
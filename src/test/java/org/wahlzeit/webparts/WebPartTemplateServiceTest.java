@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.webparts;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wahlzeit.services.ConfigDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the WebPartTemplateService class.
+ */
+public class WebPartTemplateServiceTest {
+
+	private File rootDir;
+	private WebPartTemplateService service;
+
+	@Before
+	public void setUp() throws IOException {
+		rootDir = Files.createTempDirectory("templates").toFile();
+		writeFile("default/en/pages/Page.html", "<p>{$text}</p>");
+		writeFile("default/en/forms/Form.html", "<form>default</form>");
+		writeFile("custom/en/forms/Form.html", "<form>custom</form>");
+		writeFile("custom/de/pages/Page.html", "<p>Seite</p>");
+		service = new WebPartTemplateService();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		service.stopWatching();
+		deleteAll(rootDir);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTemplatesAreLoadedEagerly() throws IOException {
+		service.setTemplatesDir(new ConfigDir(rootDir.getPath(), "templates"));
+		deleteAll(rootDir);
+
+		WebPartTemplate page = service.getTemplate("en", "pages" + File.separator + "Page");
+		assertNotNull(page);
+		assertEquals("<p></p>", page.asString());
+		assertEquals("<form>default</form>", service.getTemplate("en", "forms" + File.separator + "Form").asString());
+		assertEquals("<p>Seite</p>", service.getTemplate("de", "pages" + File.separator + "Page").asString());
+		assertNull(service.getTemplate("de", "forms" + File.separator + "Form"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testChangedTemplatesAreReloaded() throws Exception {
+		service.setTemplatesDir(new ConfigDir(rootDir.getPath(), "templates"));
+		service.startWatching();
+		assertTrue(service.isWatching());
+
+		writeFile("default/en/pages/Page.html", "<p>changed</p>");
+		writeFile("default/en/infos/Info.html", "<p>new</p>");
+		String pageName = "pages" + File.separator + "Page";
+		String infoName = "infos" + File.separator + "Info";
+		for (int i = 0; i < 100 && service.getTemplate("en", infoName) == null; i++) {
+			Thread.sleep(100);
+		}
+		for (int i = 0; i < 100 && !"<p>changed</p>".equals(service.getTemplate("en", pageName).asString()); i++) {
+			Thread.sleep(100);
+		}
+
+		assertEquals("<p>changed</p>", service.getTemplate("en", pageName).asString());
+		assertEquals("<p>new</p>", service.getTemplate("en", infoName).asString());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLoadingTemplatesClearsWebPartCache() {
+		WebPartCache cache = WebPartCache.getInstance();
+		cache.getFragment(new WebPartCache.FragmentKey("title", "en"), "Title");
+		service.setTemplatesDir(new ConfigDir(rootDir.getPath(), "templates"));
+		assertEquals(0, cache.size());
+	}
+
+	/**
+	 *
+	 */
+	protected void writeFile(String name, String content) throws IOException {
+		File file = new File(rootDir, "templates" + File.separator + name.replace('/', File.separatorChar));
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 *
+	 */
+	protected static void deleteAll(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				deleteAll(child);
+			}
+		}
+		file.delete();
+	}
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.webparts;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Test cases for WebPart, WebPartTemplate and Utf8Writer.
+ */
+public class WebPartTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCompileTemplate() {
+		WebPartTemplate template = createTemplate("<p>{$a}, {$b} und {$a}</p>");
+		assertEquals("<p>,  und </p>", template.asString());
+		assertEquals(2, template.getNoSlotIndices());
+		assertEquals(0, template.getSlotIndex("a"));
+		assertEquals(1, template.getSlotIndex("b"));
+		assertEquals(-1, template.getSlotIndex("c"));
+		assertArrayEquals(new int[] {0, 1, 0}, template.getSlotIndices());
+		assertArrayEquals(" und ".getBytes(StandardCharsets.UTF_8), template.getChunks()[2]);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testWriteOnWriterAndUtf8WriterAgree() throws IOException {
+		WebPart inner = new WebPart(createTemplate("<b>{$name}</b>"));
+		inner.addString("name", "Jürgen 📷");
+
+		WebPart part = new WebPart(createTemplate("<p>Grüße {$inner}: {$count} {$missing}/{$count}</p>"));
+		part.addWritable("inner", inner);
+		part.addString("count", "3");
+		part.addString("other", "not in template");
+
+		StringWriter expected = new StringWriter();
+		part.writeOn(expected);
+		assertEquals("<p>Grüße <b>Jürgen 📷</b>: 3 /3</p>", expected.toString());
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Utf8Writer out = new Utf8Writer(bytes);
+		part.writeOn(out);
+		out.close();
+		assertEquals(expected.toString(), new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+
+		assertEquals("3", part.getValue("count"));
+		assertEquals("not in template", part.getValue("other"));
+		assertNull(part.getValue("missing"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUtf8WriterEncodesLargeAndSplitInput() throws IOException {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			text.append("aä€😀");
+		}
+		String string = text.toString();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Utf8Writer out = new Utf8Writer(bytes);
+		out.write(string, 0, 3);
+		out.write(string.charAt(3));
+		out.write(string.substring(4));
+		out.writeBytes(new byte[Utf8Writer.BUFFER_SIZE]);
+		out.write("\ud83d");
+		out.close();
+
+		byte[] expected = (string + new String(new char[Utf8Writer.BUFFER_SIZE]) + "?").getBytes(StandardCharsets.UTF_8);
+		assertArrayEquals(expected, bytes.toByteArray());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMaskedValuesAreMaskedOnWrite() throws IOException {
+		WebPart part = new WebPart(createTemplate("<p>{$a}|{$b}</p>"));
+		part.maskAndAddString("a", "Tom & \"Jerry\" <3");
+		part.maskAndAddStringFromArgsWithDefault(new HashMap<String, String>(), "b", "ä<");
+
+		StringWriter expected = new StringWriter();
+		part.writeOn(expected);
+		assertEquals("<p>Tom &amp; &quot;Jerry&quot; &lt;3|ä&lt;</p>", expected.toString());
+		assertEquals("Tom &amp; &quot;Jerry&quot; &lt;3", part.getValue("a").toString());
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Utf8Writer out = new Utf8Writer(bytes);
+		part.writeOn(out);
+		out.close();
+		assertEquals(expected.toString(), new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 *
+	 */
+	protected static WebPartTemplate createTemplate(String source) {
+		WebPartTemplate result = new WebPartTemplate("test");
+		result.initialize(source);
+		return result;
+	}
+
+}
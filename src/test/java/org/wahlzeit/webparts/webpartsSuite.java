@@ -0,0 +1,11 @@
+package org.wahlzeit.webparts;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.Suite.SuiteClasses;
+
+@RunWith(Suite.class)
+@SuiteClasses({ WebPartCacheTest.class, WebPartTemplateServiceTest.class, WebPartTest.class })
+public class webpartsSuite {
+
+}